@@ -5,6 +5,7 @@ import java.math.BigInteger;
 import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
 import org.um.dsi.gavea.orcid.model.work.Work;
 import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
 
 /**
  * Interface that encapsulates the communication with the ORCID client for a
@@ -12,6 +13,15 @@ import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary;
  * 
  * Currently focuses on managing {@link org.um.dsi.gavea.orcid.model.work.Work
  * works}.
+ * 
+ * Note that methods have been added to this interface since its first
+ * release, namely {@link #getUserId()}, {@link #getWorksSummary()} and the
+ * conditional variants of the summary reads, which breaks implementations
+ * other than {@link ORCIDClientImpl}. Such implementations must be updated;
+ * those that cannot validate cached copies may simply implement the
+ * conditional reads through the unconditional ones, and those that wrap
+ * another client should extend {@link pt.ptcris.client.ORCIDClientDecorator}
+ * so that future additions are delegated.
  *
  */
 public interface ORCIDClient {
@@ -24,6 +34,13 @@ public interface ORCIDClient {
 	 */
 	public String getClientId();
 
+	/**
+	 * Returns the ORCID iD of the user profile being managed.
+	 * 
+	 * @return The ORCID iD of the profile.
+	 */
+	public String getUserId();
+
 	/**
 	 * Retrieves a complete work from the ORCID profile (as opposed to only its
 	 * summary).
@@ -78,4 +95,49 @@ public interface ORCIDClient {
 	 */
 	public ActivitiesSummary getActivitiesSummary() throws OrcidClientException;
 
+	/**
+	 * Retrieves every activity summary of the ORCID profile, unless they were
+	 * not modified since the caller's copy. Implementations that cannot
+	 * validate the caller's copy simply retrieve the summaries.
+	 * 
+	 * @param lastModified
+	 *            The last-modified date of the caller's copy of the summaries,
+	 *            in milliseconds since the epoch, which only identifies that
+	 *            copy: implementations should validate it with the validators
+	 *            that ORCID sent along with it.
+	 * @return The activities summary of the ORCID profile, or null if not
+	 *         modified.
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails.
+	 */
+	public ActivitiesSummary getActivitiesSummaryIfModified(long lastModified) throws OrcidClientException;
+
+	/**
+	 * Retrieves the summaries of the works of the ORCID profile, without the
+	 * remainder activities (educations, employments, fundings and peer
+	 * reviews). Should be preferred over {@link #getActivitiesSummary()} when
+	 * only the works are needed.
+	 * 
+	 * @return The works summary of the ORCID profile.
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails.
+	 */
+	public Works getWorksSummary() throws OrcidClientException;
+
+	/**
+	 * Retrieves the summaries of the works of the ORCID profile, unless they
+	 * were not modified since the caller's copy. Implementations that cannot
+	 * validate the caller's copy simply retrieve the summaries.
+	 * 
+	 * @param lastModified
+	 *            The last-modified date of the caller's copy of the summaries,
+	 *            in milliseconds since the epoch, which only identifies that
+	 *            copy: implementations should validate it with the validators
+	 *            that ORCID sent along with it.
+	 * @return The works summary of the ORCID profile, or null if not modified.
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails.
+	 */
+	public Works getWorksSummaryIfModified(long lastModified) throws OrcidClientException;
+
 }
\ No newline at end of file
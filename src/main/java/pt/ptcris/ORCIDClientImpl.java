@@ -2,15 +2,26 @@ package pt.ptcris;
 
 import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.um.dsi.gavea.orcid.client.OrcidAccessToken;
 import org.um.dsi.gavea.orcid.client.OrcidOAuthClient;
 import org.um.dsi.gavea.orcid.model.work.Work;
 import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary;
-import org.um.dsi.gavea.orcid.model.common.ScopePathType;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+
+import pt.ptcris.auth.ORCIDTokenProvider;
+import pt.ptcris.exceptions.ORCIDStatusException;
+import pt.ptcris.transport.JAXBPool;
+import pt.ptcris.transport.ORCIDTransport;
+import pt.ptcris.transport.WorksSummaryParser;
+import pt.ptcris.utils.Deadline;
 
 /**
  * An implementation of the ORCID client interface built over the
@@ -19,9 +30,46 @@ import org.um.dsi.gavea.orcid.model.common.ScopePathType;
  */
 public class ORCIDClientImpl implements ORCIDClient {
 
-	private final OrcidAccessToken orcidToken;
+	private static final Logger _log = LogManager.getLogger(ORCIDClientImpl.class);
+
+	/**
+	 * The version of the ORCID API used by conditional read requests, which
+	 * must match that of the Degois client.
+	 */
+	public static final String API_VERSION = "v2.0_rc1";
+
+	/**
+	 * Marks works summaries that were not modified.
+	 */
+	private static final Works NOT_MODIFIED = new Works();
+
+	/**
+	 * The Degois clients, which are expensive to build, shared by every
+	 * client of the same Member API client.
+	 */
+	private static final ConcurrentHashMap<String, OrcidOAuthClient> orcidClients = new ConcurrentHashMap<String, OrcidOAuthClient>();
+
+	private final String orcid;
+	private final ORCIDTokenProvider tokens;
 	private final OrcidOAuthClient orcidClient;
 	private final String clientId;
+	private final String apiUri;
+	private final ORCIDTransport transport;
+
+	/**
+	 * Whether the works summary endpoint was found to be unavailable in the
+	 * ORCID API, in which case the works are read from the activities summary.
+	 */
+	private volatile boolean worksEndpointUnavailable = false;
+
+	/**
+	 * The deadline of the synchronization using this client, which bounds its
+	 * read requests, or null if none.
+	 */
+	private volatile Deadline deadline = null;
+
+	private final AtomicLong wireBytes = new AtomicLong();
+	private final AtomicLong decodedBytes = new AtomicLong();
 
 	/**
 	 * Instantiates an ORCID client to communicate with the ORCID API.
@@ -41,25 +89,103 @@ public class ORCIDClientImpl implements ORCIDClient {
 	 */
 	public ORCIDClientImpl(String loginUri, String apiUri, String clientId, String clientSecret, String redirectUri,
 			OrcidAccessToken orcidToken) {
-		this.orcidToken = orcidToken;
-		this.clientId = clientId;
-		
-		// Instantiate the ORCID Client
-		this.orcidClient = new OrcidOAuthClient(loginUri, apiUri, clientId, clientSecret, redirectUri);
-		List<ScopePathType> scopes = new ArrayList<ScopePathType>();
-		scopes.add(ScopePathType.AUTHENTICATE);
-		scopes.add(ScopePathType.ORCID_PROFILE_READ_LIMITED);
-		scopes.add(ScopePathType.ACTIVITIES_UPDATE);
-		scopes.add(ScopePathType.ORCID_BIO_UPDATE);
+		this(loginUri, apiUri, clientId, clientSecret, redirectUri, orcidToken, ORCIDTransport.getShared());
+	}
+
+	/**
+	 * Instantiates an ORCID client to communicate with the ORCID API, reading
+	 * through a given transport, whose pooled connections are shared with
+	 * every other client using it.
+	 * 
+	 * @param loginUri
+	 *            The login URI of the ORCID service.
+	 * @param apiUri
+	 *            The URI of the ORCID API.
+	 * @param clientId
+	 *            The id of the ORCID Member API client.
+	 * @param clientSecret
+	 *            The secret of the ORCID Member API client.
+	 * @param redirectUri
+	 *            The redirect URI for requesting the access token.
+	 * @param orcidToken
+	 *            The access token to the user ORCID profile.
+	 * @param transport
+	 *            The transport for read requests.
+	 */
+	public ORCIDClientImpl(String loginUri, String apiUri, String clientId, String clientSecret, String redirectUri,
+			OrcidAccessToken orcidToken, ORCIDTransport transport) {
+		this(loginUri, apiUri, clientId, clientSecret, redirectUri, orcidToken.getOrcid(), new FixedToken(
+				orcidToken), transport);
+	}
 
+	/**
+	 * Instantiates an ORCID client to communicate with the ORCID API, whose
+	 * access token is requested from a provider, usually a
+	 * {@link pt.ptcris.auth.CachingTokenProvider} shared by every client of a
+	 * batch run.
+	 * 
+	 * @param loginUri
+	 *            The login URI of the ORCID service.
+	 * @param apiUri
+	 *            The URI of the ORCID API.
+	 * @param clientId
+	 *            The id of the ORCID Member API client.
+	 * @param clientSecret
+	 *            The secret of the ORCID Member API client.
+	 * @param redirectUri
+	 *            The redirect URI for requesting the access token.
+	 * @param orcid
+	 *            The ORCID iD of the user profile.
+	 * @param tokens
+	 *            The provider of the access token to the user profile.
+	 * @param transport
+	 *            The transport for read requests.
+	 */
+	public ORCIDClientImpl(String loginUri, String apiUri, String clientId, String clientSecret, String redirectUri,
+			String orcid, ORCIDTokenProvider tokens, ORCIDTransport transport) {
+		this.orcid = orcid;
+		this.tokens = tokens;
+		this.transport = transport;
+		this.clientId = clientId;
+		this.apiUri = apiUri.endsWith("/") ? apiUri : apiUri + "/";
+		this.orcidClient = orcidClient(loginUri, apiUri, clientId, clientSecret, redirectUri);
+	}
 
+	/**
+	 * Retrieves the Degois client of a Member API client, instantiating it if
+	 * needed.
+	 */
+	private static OrcidOAuthClient orcidClient(String loginUri, String apiUri, String clientId,
+			String clientSecret, String redirectUri) {
+		String key = loginUri + " " + apiUri + " " + clientId + " " + clientSecret + " " + redirectUri;
+		OrcidOAuthClient client = orcidClients.get(key);
+		if (client == null) {
+			client = new OrcidOAuthClient(loginUri, apiUri, clientId, clientSecret, redirectUri);
+			OrcidOAuthClient previous = orcidClients.putIfAbsent(key, client);
+			if (previous != null)
+				client = previous;
+		}
+		return client;
 	}
 
 	/**
+	 * Reads the work through the transport, unmarshalling it with the pooled
+	 * unmarshallers, falling back to the Degois client if the request cannot be
+	 * performed or its response parsed. Error statuses are not retried.
+	 * 
 	 * @see pt.ptcris.ORCIDClient#getWork(BigInteger)
 	 */
 	public Work getWork(BigInteger putCode) throws OrcidClientException {
-		return this.orcidClient.readWork(this.orcidToken, putCode.toString());
+		try {
+			ORCIDTransport.Response response = get(resourceUri("work/" + putCode), -1);
+			return JAXBPool.unmarshal(response.body, Work.class);
+		} catch (OrcidClientException e) {
+			throw e;
+		} catch (Exception e) {
+			_log.debug("[getWork] request failed: " + e.getMessage());
+		}
+		checkDeadline("work/" + putCode);
+		return this.orcidClient.readWork(token(), putCode.toString());
 	}
 
 	/**
@@ -67,14 +193,14 @@ public class ORCIDClientImpl implements ORCIDClient {
 	 */
 	public BigInteger addWork(Work work) throws OrcidClientException {
 		//System.out.println(work.toString());
-		return new BigInteger(this.orcidClient.addWork(this.orcidToken, work));
+		return new BigInteger(this.orcidClient.addWork(token(), work));
 	}
 
 	/**
 	 * @see pt.ptcris.ORCIDClient#deleteWork(BigInteger)
 	 */
 	public void deleteWork(BigInteger putCode) throws OrcidClientException {
-		this.orcidClient.deleteWork(this.orcidToken, putCode.toString());
+		this.orcidClient.deleteWork(token(), putCode.toString());
 
 		// TODO: is this note still relevant?
 		// NOTE: according to the ORCID API, to delete a work, one must provide
@@ -89,7 +215,7 @@ public class ORCIDClientImpl implements ORCIDClient {
 	 * @see pt.ptcris.ORCIDClient#updateWork(BigInteger, Work)
 	 */
 	public void updateWork(BigInteger putCode, Work work) throws OrcidClientException {
-		this.orcidClient.updateWork(this.orcidToken, putCode.toString(), work);
+		this.orcidClient.updateWork(token(), putCode.toString(), work);
 
 		// TODO: is this note still relevant?
 		// NOTE: according to the ORCID API, to update a work, one must provide
@@ -101,10 +227,124 @@ public class ORCIDClientImpl implements ORCIDClient {
 	}
 
 	/**
+	 * Reads the summary through the transport, unmarshalling it with the
+	 * pooled unmarshallers, falling back to the Degois client if the request
+	 * cannot be performed or its response parsed.
+	 * 
 	 * @see pt.ptcris.ORCIDClient#getActivitiesSummary()
 	 */
 	public ActivitiesSummary getActivitiesSummary() throws OrcidClientException {
-		return orcidClient.readActivitiesSummary(orcidToken);
+		return getActivitiesSummaryIfModified(-1);
+	}
+
+	/**
+	 * Performs a conditional request, falling back to an unconditional request
+	 * through the Degois client if the conditional one cannot be performed or
+	 * its response parsed. Error statuses are not retried.
+	 * 
+	 * @see pt.ptcris.ORCIDClient#getActivitiesSummaryIfModified(long)
+	 */
+	public ActivitiesSummary getActivitiesSummaryIfModified(long lastModified) throws OrcidClientException {
+		String url = resourceUri("activities");
+		try {
+			ORCIDTransport.Response response = get(url, lastModified);
+			if (response.status == ORCIDTransport.NOT_MODIFIED)
+				return null;
+			ActivitiesSummary summary = JAXBPool.unmarshal(response.body, ActivitiesSummary.class);
+			transport.remember(url, response, ORCIDHelper.getLastModified(summary));
+			return summary;
+		} catch (OrcidClientException e) {
+			throw e;
+		} catch (Exception e) {
+			_log.debug("[getActivitiesSummaryIfModified] request failed: " + e.getMessage());
+		}
+		checkDeadline("activities");
+		return orcidClient.readActivitiesSummary(token());
+	}
+
+	/**
+	 * Reads the works summary endpoint, falling back to the works of the
+	 * activities summary if the endpoint is not available. The response is
+	 * parsed as a stream into projected work summaries (see
+	 * {@link WorksSummaryParser}).
+	 * 
+	 * @see pt.ptcris.ORCIDClient#getWorksSummary()
+	 */
+	public Works getWorksSummary() throws OrcidClientException {
+		Works works = readWorksSummary(-1);
+		if (works != null)
+			return works;
+		ActivitiesSummary summary = getActivitiesSummary();
+		return summary == null ? null : summary.getWorks();
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWorksSummaryIfModified(long)
+	 */
+	public Works getWorksSummaryIfModified(long lastModified) throws OrcidClientException {
+		Works works = readWorksSummary(lastModified);
+		if (works != null)
+			return works == NOT_MODIFIED ? null : works;
+		ActivitiesSummary summary = getActivitiesSummaryIfModified(lastModified);
+		return summary == null ? null : summary.getWorks();
+	}
+
+	/**
+	 * Reads the works summary endpoint, or the activities summary endpoint if
+	 * the former is not available, and parses the works as a stream. Since
+	 * ORCID also answers 404 for missing profiles, the works endpoint is only
+	 * deemed unavailable if it fails with 404 or 405 while the activities
+	 * summary can be read.
+	 * 
+	 * @param lastModified
+	 *            The last-modified date of the caller's copy, -1 if none.
+	 * @return The works summary, {@link #NOT_MODIFIED} if not modified, or null
+	 *         if the request could not be performed or its response parsed.
+	 * @throws OrcidClientException
+	 *             If ORCID answers with an error status.
+	 */
+	private Works readWorksSummary(long lastModified) throws OrcidClientException {
+		if (worksEndpointUnavailable)
+			return readWorksSummary(resourceUri("activities"), lastModified);
+		try {
+			return readWorksSummary(resourceUri("works"), lastModified);
+		} catch (ORCIDStatusException e) {
+			if (e.getStatus() != 404 && e.getStatus() != 405)
+				throw e;
+			Works works;
+			try {
+				works = readWorksSummary(resourceUri("activities"), lastModified);
+			} catch (ORCIDStatusException f) {
+				throw e;
+			}
+			if (works != null) {
+				_log.debug("[getWorksSummary] works endpoint unavailable, using activities");
+				worksEndpointUnavailable = true;
+			}
+			return works;
+		}
+	}
+
+	/**
+	 * Reads an endpoint holding works summaries and parses the works as a
+	 * stream.
+	 * 
+	 * @see #readWorksSummary(long)
+	 */
+	private Works readWorksSummary(String url, long lastModified) throws OrcidClientException {
+		try {
+			ORCIDTransport.Response response = get(url, lastModified);
+			if (response.status == ORCIDTransport.NOT_MODIFIED)
+				return NOT_MODIFIED;
+			Works works = WorksSummaryParser.parse(new ByteArrayInputStream(response.body));
+			transport.remember(url, response, ORCIDHelper.getLastModified(works));
+			return works;
+		} catch (OrcidClientException e) {
+			throw e;
+		} catch (Exception e) {
+			_log.debug("[getWorksSummary] request failed: " + e.getMessage());
+		}
+		return null;
 	}
 
 	/**
@@ -114,4 +354,121 @@ public class ORCIDClientImpl implements ORCIDClient {
 		return this.clientId;
 	}
 
+	/**
+	 * @see pt.ptcris.ORCIDClient#getUserId()
+	 */
+	public String getUserId() {
+		return this.orcid;
+	}
+
+	/**
+	 * Returns the number of response bytes received on the wire by the read
+	 * requests of this client, which, being bound to a single profile,
+	 * measures the bandwidth of a synchronization.
+	 * 
+	 * @return The number of bytes received, possibly compressed.
+	 */
+	public long getWireBytes() {
+		return wireBytes.get();
+	}
+
+	/**
+	 * @return The number of response bytes read by this client, after
+	 *         decoding.
+	 * @see #getWireBytes()
+	 */
+	public long getDecodedBytes() {
+		return decodedBytes.get();
+	}
+
+	/**
+	 * Sets the deadline of the synchronization using this client, so that
+	 * read requests in flight do not outlive it: the timeouts of each request
+	 * are capped by the time remaining, and once it passes no read is issued,
+	 * not even through the Degois client. Set by the {@link ORCIDHelper}
+	 * when given a {@link Deadline}. Writes are not bounded.
+	 * 
+	 * @param deadline
+	 *            The deadline, or null if none.
+	 */
+	public void setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Performs a read request through the transport.
+	 * 
+	 * @return The response, either successful (with a body) or not modified.
+	 * @throws ORCIDStatusException
+	 *             If ORCID answers with any other status.
+	 * @throws IOException
+	 *             If the request cannot be performed.
+	 */
+	private ORCIDTransport.Response get(String url, long lastModified) throws IOException,
+			OrcidClientException {
+		Deadline deadline = this.deadline;
+		ORCIDTransport.Response response = transport.get(url, token().getAccess_token(), lastModified,
+				deadline == null ? -1 : deadline.remaining());
+		if (response.status == 401)
+			tokens.invalidate(orcid);
+		if (response.status == ORCIDTransport.NOT_MODIFIED)
+			return response;
+		if (response.body == null)
+			throw new ORCIDStatusException(response.status, url);
+		wireBytes.addAndGet(response.wireLength);
+		decodedBytes.addAndGet(response.body.length);
+		return response;
+	}
+
+	/**
+	 * Fails a read whose request through the transport failed if the deadline
+	 * passed meanwhile, rather than falling back to the unbounded Degois
+	 * client.
+	 */
+	private void checkDeadline(String resource) throws OrcidClientException {
+		Deadline deadline = this.deadline;
+		if (deadline != null && deadline.isCancelled())
+			throw new OrcidClientException(0, "Deadline passed before reading " + resource, null, null);
+	}
+
+	private String resourceUri(String resource) {
+		return apiUri + API_VERSION + "/" + orcid + "/" + resource;
+	}
+
+	private OrcidAccessToken token() throws OrcidClientException {
+		return tokens.getToken(orcid);
+	}
+
+	/**
+	 * A provider of a single, pre-built access token.
+	 */
+	private static final class FixedToken implements ORCIDTokenProvider {
+		private final OrcidAccessToken token;
+
+		FixedToken(OrcidAccessToken token) {
+			this.token = token;
+		}
+
+		public OrcidAccessToken getToken(String orcid) {
+			return token;
+		}
+
+		public void invalidate(String orcid) {
+		}
+	}
+
+	/**
+	 * Creates the shared JAXB context and initializes the model classes, so
+	 * that the first synchronization of a short-lived JVM does not pay for
+	 * them. Failures are logged and otherwise ignored, since the context is
+	 * lazily created anyway.
+	 */
+	public static void warmUp() {
+		try {
+			JAXBPool.warmUp();
+		} catch (Exception e) {
+			_log.warn("[warmUp] " + e.getMessage());
+		}
+	}
+
 }
@@ -10,9 +10,19 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -30,7 +40,16 @@ import org.um.dsi.gavea.orcid.model.work.Work;
 import org.um.dsi.gavea.orcid.model.work.WorkExternalIdentifiers;
 import org.um.dsi.gavea.orcid.model.work.WorkSummary;
 
+import pt.ptcris.cache.IdentifierIndex;
+import pt.ptcris.cache.MetadataCache;
+import pt.ptcris.cache.WorkCache;
+import pt.ptcris.client.AdaptiveLimiter;
+import pt.ptcris.client.LimitingORCIDClient;
+import pt.ptcris.client.ORCIDClientDecorator;
 import pt.ptcris.exceptions.InvalidWorkException;
+import pt.ptcris.transport.MergedWorkGroup;
+import pt.ptcris.utils.CancellationToken;
+import pt.ptcris.utils.Deadline;
 import pt.ptcris.workers.ORCIDGetWorker;
 
 /**
@@ -44,8 +63,10 @@ public class ORCIDHelper {
 	public static final int UPTODATE = 304;
 	public static final int UPDATEOK = 200;
 	public static final int ADDOK = 200;
+	public static final int DELETEOK = 204;
 	public static final int INVALID = -11;
 	public static final int CONFLICT = 409;
+	public static final int CANCELLED = -12;
 
 	public static final String INVALID_EXTERNALIDENTIFIERS = "ExternalIdentifiers";
 	public static final String INVALID_WORKEXTERNALIDENTIFIERS = "WorkExternalIdentifiers";
@@ -61,16 +82,83 @@ public class ORCIDHelper {
 
 	private static final Logger _log = LogManager.getLogger(ORCIDHelper.class);
 
+	/**
+	 * How often, in milliseconds, cancellation is checked while waiting for
+	 * the workers.
+	 */
+	private static final long CANCELLATION_POLL = 100;
+
+	/**
+	 * The maximum number of workers of each helper running at once.
+	 */
+	private static final int WORKERS = 10;
+
+	/**
+	 * The threads that run the workers of every helper, created as needed and
+	 * reused across helpers, so that helpers need not be shut down. Idle
+	 * threads expire after a minute.
+	 */
+	private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60,
+			TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable task) {
+					// the workers must not keep the JVM alive
+					Thread thread = Executors.defaultThreadFactory().newThread(task);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
 	/**
 	 * The client used to communicate with ORCID. Defines the ORCID user profile
 	 * being managed and the Member API id being user to source works.
 	 */
 	public final ORCIDClient client;
 
-	private ExecutorService executor = Executors.newFixedThreadPool(10);
+	/**
+	 * The cache of full works, shared by default between every helper.
+	 */
+	private final WorkCache cache;
+
+	/**
+	 * The institution-wide index of identifiers updated with the retrieved
+	 * works summaries, the {@link IdentifierIndex#getShared() shared} one, if
+	 * any.
+	 */
+	private final IdentifierIndex index = IdentifierIndex.getShared();
+
+	/**
+	 * The cache of full works shared across profiles, the
+	 * {@link MetadataCache#getShared() shared} one, if any.
+	 */
+	private final MetadataCache metadata = MetadataCache.getShared();
+
+	/**
+	 * The workers submitted but not yet started, run by at most
+	 * {@link #WORKERS} threads of the {@link #POOL shared pool} at once.
+	 */
+	private final Queue<FutureTask<Work>> pending = new ConcurrentLinkedQueue<FutureTask<Work>>();
+
+	/**
+	 * The number of threads of the shared pool running pending workers.
+	 */
+	private final AtomicInteger running = new AtomicInteger();
+
+	/**
+	 * The works being fetched asynchronously, so that those not fetched by
+	 * {@link #waitWorkers()} can be reported.
+	 */
+	private final List<Fetch> fetches = new ArrayList<Fetch>();
+
+	/**
+	 * The cancellation token (possibly a deadline) of the ORCID calls, or null
+	 * if none.
+	 */
+	private CancellationToken token = null;
 
 	/**
-	 * Initializes the helper with a given ORCID client.
+	 * Initializes the helper with a given ORCID client, using the
+	 * {@link WorkCache#getShared() shared} cache of full works and the
+	 * {@link AdaptiveLimiter#getShared() shared} concurrency limiter.
 	 * 
 	 * @param orcidClient
 	 *            The ORCID client.
@@ -78,13 +166,79 @@ public class ORCIDHelper {
 	 *             If the communication with ORCID fails.
 	 */
 	public ORCIDHelper(ORCIDClient orcidClient) {
-		this.client = orcidClient;
+		this(orcidClient, WorkCache.getShared());
+	}
+
+	/**
+	 * Initializes the helper with a given ORCID client and cache of full works,
+	 * using the {@link AdaptiveLimiter#getShared() shared} concurrency limiter.
+	 * 
+	 * @param orcidClient
+	 *            The ORCID client.
+	 * @param cache
+	 *            The cache of full works.
+	 */
+	public ORCIDHelper(ORCIDClient orcidClient, WorkCache cache) {
+		this(orcidClient, cache, AdaptiveLimiter.getShared());
+	}
+
+	/**
+	 * Initializes the helper with a given ORCID client, cache of full works and
+	 * concurrency limiter. Every call issued by the helper, including those of
+	 * its workers, is subject to the limiter, which adapts the number of
+	 * concurrent calls to the observed latency and throttling. Since the
+	 * limiter is usually shared, it is the limiter, rather than the fixed
+	 * number of worker threads of each helper, that bounds the load on ORCID.
+	 * 
+	 * @param orcidClient
+	 *            The ORCID client.
+	 * @param cache
+	 *            The cache of full works.
+	 * @param limiter
+	 *            The concurrency limiter, or null to not limit calls.
+	 */
+	public ORCIDHelper(ORCIDClient orcidClient, WorkCache cache, AdaptiveLimiter limiter) {
+		this.client = limiter == null ? orcidClient : new LimitingORCIDClient(orcidClient, limiter);
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets the cancellation token of the ORCID calls performed through this
+	 * helper, possibly a {@link Deadline}. Once cancelled (or expired), full
+	 * works are no longer fetched and {@link #waitWorkers()} stops waiting and
+	 * interrupts the pending workers, the works not fetched being recorded in
+	 * the token. Without a deadline, workers are awaited for at most 100
+	 * seconds. A deadline is also set on the underlying
+	 * {@link ORCIDClientImpl}, if any, so that the requests in flight are
+	 * bounded by it.
+	 * 
+	 * @param token
+	 *            The cancellation token, or null if none.
+	 */
+	public void setCancellationToken(CancellationToken token) {
+		this.token = token;
+		if (token instanceof Deadline) {
+			ORCIDClient impl = client;
+			while (impl instanceof ORCIDClientDecorator)
+				impl = ((ORCIDClientDecorator) impl).getClient();
+			if (impl instanceof ORCIDClientImpl)
+				((ORCIDClientImpl) impl).setDeadline((Deadline) token);
+		}
+	}
+
+	/**
+	 * @return Whether the ORCID calls of this helper were cancelled.
+	 */
+	public boolean isCancelled() {
+		return token != null && token.isCancelled();
 	}
 
 	/**
 	 * Retrieves the entire set of work summaries from the ORCID profile that
 	 * have at least an external identifier set. Merges each ORCID group into a
-	 * single summary, following {@link #groupToWork}.
+	 * single summary, following {@link #groupToWork}, unless already merged
+	 * while being parsed (see {@link MergedWorkGroup}). The merged summaries
+	 * may be shared with the cached works summary and must not be modified.
 	 * 
 	 * @return The set of work summaries in the ORCID profile.
 	 * @throws OrcidClientException
@@ -92,12 +246,14 @@ public class ORCIDHelper {
 	 * @throws NullPointerException
 	 */
 	public List<WorkSummary> getAllWorkSummaries() throws OrcidClientException {
-		ActivitiesSummary activitiesSummary = client.getActivitiesSummary();
+		Works works = fetchWorksSummary();
 		List<WorkSummary> workSummaryList = new LinkedList<WorkSummary>();
-		if (activitiesSummary != null && activitiesSummary.getWorks() != null) {
-			List<WorkGroup> workGroupList = activitiesSummary.getWorks().getGroup();
-			for (WorkGroup group : workGroupList)
-				workSummaryList.add(groupToWork(group));
+		if (works != null) {
+			List<WorkGroup> workGroupList = works.getGroup();
+			for (WorkGroup group : workGroupList) {
+				WorkSummary merged = group instanceof MergedWorkGroup ? ((MergedWorkGroup) group).getMerged() : null;
+				workSummaryList.add(merged != null ? merged : groupToWork(group));
+			}
 		}
 		return workSummaryList;
 	}
@@ -113,12 +269,11 @@ public class ORCIDHelper {
 	 * @throws NullPointerException
 	 */
 	public List<WorkSummary> getSourcedWorkSummaries() throws OrcidClientException, NullPointerException {
-		ActivitiesSummary activitiesSummary = client.getActivitiesSummary();
+		Works works = fetchWorksSummary();
 		String sourceClientID = client.getClientId();
 		List<WorkSummary> workSummaryList = new LinkedList<WorkSummary>();
 
-		if (activitiesSummary != null && activitiesSummary.getWorks() != null) {
-			Works works = activitiesSummary.getWorks();
+		if (works != null) {
 			List<WorkGroup> workGroupList = works.getGroup();
 			for (WorkGroup workGroup : workGroupList) {
 				for (WorkSummary workSummary : workGroup.getWorkSummary()) {
@@ -133,6 +288,40 @@ public class ORCIDHelper {
 		return workSummaryList;
 	}
 
+	/**
+	 * Retrieves the works summary of the ORCID profile. If a previous version
+	 * is cached, it is validated with a conditional request (carrying the
+	 * validators that ORCID sent with it, see
+	 * {@link pt.ptcris.transport.ORCIDTransport}) and reused if ORCID reports
+	 * it as not modified. Otherwise the retrieved summary is cached for future
+	 * validations. The identifiers of the summary are
+	 * indexed in the shared {@link IdentifierIndex}, if any.
+	 * 
+	 * @return The works summary of the ORCID profile.
+	 * @throws OrcidClientException
+	 *             If the communication with ORCID fails.
+	 */
+	private Works fetchWorksSummary() throws OrcidClientException {
+		Works works;
+		Works cached = cache.getWorksSummary(client.getUserId());
+		if (cached != null && getLastModified(cached) >= 0) {
+			works = client.getWorksSummaryIfModified(getLastModified(cached));
+			if (works == null) {
+				_log.debug("[getWorksSummary] not modified");
+				if (index != null && !index.isIndexed(client.getUserId()))
+					index.update(client.getUserId(), cached);
+				return cached;
+			}
+		} else
+			works = client.getWorksSummary();
+		if (works != null) {
+			cache.putWorksSummary(client.getUserId(), getLastModified(works), works);
+			if (index != null)
+				index.update(client.getUserId(), works);
+		}
+		return works;
+	}
+
 	/**
 	 * Deletes the entire set of work summaries in the ORCID profile whose
 	 * source is the Member API id defined in the ORCID client.
@@ -143,6 +332,7 @@ public class ORCIDHelper {
 	public void deleteAllSourcedWorks() throws OrcidClientException {
 		List<WorkSummary> workSummaryList = this.getSourcedWorkSummaries();
 
+		cache.invalidateWorksSummary(client.getUserId());
 		for (WorkSummary workSummary : workSummaryList) {
 			client.deleteWork(workSummary.getPutCode());
 		}
@@ -154,24 +344,54 @@ public class ORCIDHelper {
 	public void deleteWork(BigInteger putCode) throws OrcidClientException {
 		_log.debug("[deleteWork] " + putCode);
 
+		cache.invalidateWorksSummary(client.getUserId());
 		client.deleteWork(putCode);
 	}
 
 	/**
-	 * TODO: doc
+	 * Retrieves the full work of a (possibly merged) work summary and stores it
+	 * in <code>works</code> under the summary's put-code. The map is only
+	 * modified by the calling thread, the results of the asynchronous workers
+	 * being gathered by {@link #waitWorkers()}, so it need not be
+	 * thread-safe. A copy of the external
+	 * identifiers of the summary is assigned to the full work and its
+	 * put-code is cleaned. Works whose last-modified date has not changed are
+	 * served from the cache of full works, as are works already fetched for
+	 * another profile with the same identifiers and content, if a
+	 * {@link MetadataCache} is shared; otherwise the work is retrieved from
+	 * ORCID (asynchronously if multi-threading is enabled, in which case
+	 * {@link #waitWorkers()} must be called before accessing
+	 * <code>works</code>). If the helper was {@link #isCancelled() cancelled},
+	 * the work is not retrieved but recorded as unfetched.
 	 * 
 	 * @see {@link ORCIDClient#getWork(BigInteger)}
 	 */
 	public void getFullWork(WorkSummary work, Map<BigInteger,Work> works) throws OrcidClientException {
 		_log.debug("[getFullWork] " + work.getPutCode());
-		if (threaded) {
-			ORCIDGetWorker worker = new ORCIDGetWorker(client, works, work, _log);
-			executor.execute(worker);
+		Work cached = cache.get(client.getUserId(), work.getPutCode(), getLastModified(work));
+		if (cached == null && metadata != null)
+			cached = metadata.get(work);
+		if (cached != null) {
+			cached.setExternalIdentifiers(copyExternalIdentifiers(work));
+			cleanWorkLocalKey(cached);
+			works.put(work.getPutCode(), cached);
+		} else if (isCancelled()) {
+			_log.debug("[getFullWork] cancelled: " + work.getPutCode());
+			token.unfetched(work.getPutCode());
+		} else if (threaded) {
+			Callable<Work> worker = new ORCIDGetWorker(client, work, cache, metadata, _log);
+			FutureTask<Work> task = new FutureTask<Work>(worker);
+			fetches.add(new Fetch(work.getPutCode(), works, task));
+			pending.add(task);
+			dispatch();
 		} else {
 			Work fullWork = client.getWork(work.getPutCode());
-			fullWork.setExternalIdentifiers(work.getExternalIdentifiers());
+			cache.put(client.getUserId(), work.getPutCode(), getLastModified(work), fullWork);
+			if (metadata != null)
+				metadata.put(work, fullWork);
+			fullWork.setExternalIdentifiers(copyExternalIdentifiers(work));
 			cleanWorkLocalKey(fullWork);
-			works.put(work.getPutCode(),fullWork);
+			works.put(work.getPutCode(), fullWork);
 		}
 	}
 
@@ -193,6 +413,7 @@ public class ORCIDHelper {
 		// Remove any putCode if exists
 		clone.setPutCode(putCode);
 
+		cache.invalidateWorksSummary(client.getUserId());
 		client.updateWork(putCode, clone);
 	}
 
@@ -206,6 +427,7 @@ public class ORCIDHelper {
 		// Remove any putCode if exists
 		clone.setPutCode(null);
 
+		cache.invalidateWorksSummary(client.getUserId());
 		BigInteger putCode = client.addWork(clone);
 		_log.debug("[addWork] " + putCode);
 
@@ -222,18 +444,93 @@ public class ORCIDHelper {
 
 	/**
 	 * Waits for all active works communicating with ORCID to finish (if
-	 * multi-threading is enabled).
+	 * multi-threading is enabled), until the helper is
+	 * {@link #setCancellationToken(CancellationToken) cancelled}, its deadline
+	 * passes, or for at most 100 seconds if there is no deadline. Workers
+	 * still running are then interrupted. Works that were not fetched, either
+	 * because they were cancelled or because their retrieval failed, are
+	 * recorded in the cancellation token, if any, and are guaranteed not to be
+	 * (later) stored in the result map. The helper can then fetch further
+	 * works.
 	 * 
-	 * @return Whether the workers finished before the timeout.
+	 * @return Whether every work was fetched.
 	 * @throws InterruptedException
 	 */
 	public boolean waitWorkers() throws InterruptedException {
 		if (!threaded)
-			return true;
-		executor.shutdown();
-		boolean timeout = executor.awaitTermination(100, TimeUnit.SECONDS);
-		executor = Executors.newFixedThreadPool(100);
-		return timeout;
+			return token == null || !token.isPartial();
+		long timeout = token instanceof Deadline ? ((Deadline) token).remaining() : TimeUnit.SECONDS.toMillis(100);
+		long end = System.currentTimeMillis() + timeout;
+		boolean finished = true;
+		for (Fetch fetch : fetches) {
+			while (!fetch.future.isDone() && !isCancelled()) {
+				long left = end - System.currentTimeMillis();
+				if (left <= 0)
+					break;
+				try {
+					fetch.future.get(Math.min(left, CANCELLATION_POLL), TimeUnit.MILLISECONDS);
+				} catch (TimeoutException e) {
+					// check cancellation again
+				} catch (ExecutionException e) {
+					// reported below
+				}
+			}
+			if (!fetch.future.isDone()) {
+				finished = false;
+				break;
+			}
+		}
+		if (!finished)
+			_log.debug("[waitWorkers] timeout or cancelled, interrupting workers");
+		// the results are gathered by this thread alone, late results of
+		// cancelled workers being discarded
+		for (Fetch fetch : fetches) {
+			Work fullWork = null;
+			if (fetch.future.isDone() && !fetch.future.isCancelled()) {
+				try {
+					fullWork = fetch.future.get();
+				} catch (ExecutionException e) {
+					_log.error("[waitWorkers] " + fetch.putCode + ": " + e.getCause().getMessage());
+				}
+			} else
+				fetch.future.cancel(true);
+			if (fullWork != null)
+				fetch.works.put(fetch.putCode, fullWork);
+			else {
+				finished = false;
+				if (token != null)
+					token.unfetched(fetch.putCode);
+			}
+		}
+		fetches.clear();
+		return finished;
+	}
+
+	/**
+	 * Starts running the pending workers in the shared pool, up to
+	 * {@link #WORKERS} threads at once. Each thread runs pending workers until
+	 * none is left.
+	 */
+	private void dispatch() {
+		int n;
+		while ((n = running.get()) < WORKERS && !pending.isEmpty())
+			if (running.compareAndSet(n, n + 1))
+				POOL.execute(new Runnable() {
+					public void run() {
+						try {
+							FutureTask<Work> task;
+							while ((task = pending.poll()) != null) {
+								// a cancelled worker may leave the thread interrupted
+								Thread.interrupted();
+								task.run();
+							}
+						} finally {
+							running.decrementAndGet();
+						}
+						// workers may have been submitted meanwhile
+						dispatch();
+					}
+				});
 	}
 
 	/**
@@ -308,6 +605,135 @@ public class ORCIDHelper {
 		work.setPutCode(null);
 	}
 
+	/**
+	 * Retrieves the last-modified date of an activity.
+	 * 
+	 * @param work
+	 *            the activity.
+	 * @return the last-modified date in milliseconds since the epoch, or -1 if
+	 *         unknown.
+	 */
+	public static long getLastModified(ActivitySummary work) {
+		if (work.getLastModifiedDate() == null || work.getLastModifiedDate().getValue() == null)
+			return -1;
+		return work.getLastModifiedDate().getValue().toGregorianCalendar().getTimeInMillis();
+	}
+
+	/**
+	 * Retrieves the last-modified date of the works of an activities summary,
+	 * i.e., that of its most recently modified work.
+	 * 
+	 * @param activitiesSummary
+	 *            the activities summary.
+	 * @return the last-modified date in milliseconds since the epoch, or -1 if
+	 *         unknown.
+	 */
+	public static long getLastModified(ActivitiesSummary activitiesSummary) {
+		return activitiesSummary.getWorks() == null ? -1 : getLastModified(activitiesSummary.getWorks());
+	}
+
+	/**
+	 * Retrieves the last-modified date of a works summary, i.e., that of its
+	 * most recently modified work.
+	 * 
+	 * @param works
+	 *            the works summary.
+	 * @return the last-modified date in milliseconds since the epoch, or -1 if
+	 *         unknown.
+	 */
+	public static long getLastModified(Works works) {
+		long res = -1;
+		for (WorkGroup group : works.getGroup())
+			for (WorkSummary work : group.getWorkSummary())
+				res = Math.max(res, getLastModified(work));
+		return res;
+	}
+
+	/**
+	 * Checks whether an activity was modified at or after a given timestamp.
+	 * Activities modified in the same millisecond as the timestamp are
+	 * considered modified, since other activities may have been modified in
+	 * that millisecond after the timestamp was taken. Activities without a
+	 * known last-modified date are always assumed to have been modified.
+	 * 
+	 * @param work
+	 *            the activity.
+	 * @param since
+	 *            the timestamp in milliseconds since the epoch, null if every
+	 *            activity is to be considered modified.
+	 * @return whether the activity was modified at or after
+	 *         <code>since</code>.
+	 */
+	public static boolean isModifiedSince(ActivitySummary work, Long since) {
+		long modified = getLastModified(work);
+		return since == null || modified < 0 || modified >= since;
+	}
+
+	/**
+	 * Checks whether a work summary was modified since a watermark, as
+	 * {@link #isModifiedSince(ActivitySummary, Long)}, but skipping the
+	 * summaries modified in the millisecond of the watermark that were
+	 * already considered.
+	 * 
+	 * @param work
+	 *            the work summary.
+	 * @param since
+	 *            the watermark in milliseconds since the epoch, null if every
+	 *            work is to be considered modified.
+	 * @param seen
+	 *            the keys (see {@link #getWatermarkKey(WorkSummary)}) of the
+	 *            summaries modified at <code>since</code> already considered.
+	 * @return whether the work summary is to be considered.
+	 */
+	public static boolean isModifiedSince(WorkSummary work, Long since, Set<String> seen) {
+		if (!isModifiedSince(work, since))
+			return false;
+		return since == null || getLastModified(work) != since || !seen.contains(getWatermarkKey(work));
+	}
+
+	/**
+	 * Builds a key that identifies the state of a (merged) work summary as
+	 * considered by the import procedures: its put-code and a hash of its
+	 * type, title, publication year and external identifiers.
+	 * 
+	 * @param work
+	 *            the work summary.
+	 * @return the key of the summary.
+	 */
+	public static String getWatermarkKey(WorkSummary work) {
+		StringBuilder content = new StringBuilder();
+		content.append(work.getType()).append('\n');
+		if (work.getTitle() != null)
+			content.append(work.getTitle().getTitle());
+		content.append('\n');
+		if (work.getPublicationDate() != null && work.getPublicationDate().getYear() != null)
+			content.append(work.getPublicationDate().getYear().getValue());
+		content.append('\n');
+		if (work.getExternalIdentifiers() != null)
+			for (ExternalIdentifier id : work.getExternalIdentifiers().getWorkExternalIdentifier())
+				content.append(id.getExternalIdentifierType()).append(':').append(id.getExternalIdentifierId())
+						.append(':').append(id.getRelationship()).append('\n');
+		return work.getPutCode() + ":" + Integer.toHexString(content.toString().hashCode());
+	}
+
+	/**
+	 * Collects the keys (see {@link #getWatermarkKey(WorkSummary)}) of the
+	 * work summaries last modified at a given timestamp.
+	 * 
+	 * @param works
+	 *            the work summaries.
+	 * @param timestamp
+	 *            the timestamp in milliseconds since the epoch.
+	 * @return the keys of the summaries modified at <code>timestamp</code>.
+	 */
+	public static Set<String> getWatermarkKeys(List<WorkSummary> works, long timestamp) {
+		Set<String> keys = new HashSet<String>();
+		for (WorkSummary work : works)
+			if (getLastModified(work) == timestamp)
+				keys.add(getWatermarkKey(work));
+		return keys;
+	}
+
 	/**
 	 * Calculates the symmetric difference of {@link ExternalIdentifier external
 	 * identifiers} between a work and a set of works. Works that do not match
@@ -485,7 +911,9 @@ public class ORCIDHelper {
 	/**
 	 * Merges a work group into a single work summary. Simply selects the
 	 * meta-data from the first work of the group (i.e., the preferred one) and
-	 * assigns it any extra external identifiers from the remainder works.
+	 * assigns it any extra external identifiers from the remainder works. The
+	 * last-modified date of the merged summary is that of the most recently
+	 * modified work of the group.
 	 * 
 	 * @param group
 	 *            The work group to be merged.
@@ -495,6 +923,10 @@ public class ORCIDHelper {
 		WorkSummary aux = group.getWorkSummary().get(0);
 		WorkSummary dummy = clone(aux);
 
+		for (WorkSummary member : group.getWorkSummary())
+			if (getLastModified(member) > getLastModified(dummy))
+				dummy.setLastModifiedDate(member.getLastModifiedDate());
+
 		List<ExternalIdentifier> eids = new ArrayList<ExternalIdentifier>();
 		for (Identifier id : group.getIdentifiers().getIdentifier()) {
 			ExternalIdentifier eid = new ExternalIdentifier();
@@ -509,6 +941,30 @@ public class ORCIDHelper {
 		return dummy;
 	}
 
+	/**
+	 * Copies the external identifiers of a work summary, so that they can be
+	 * assigned to a work returned to the caller without sharing them with the
+	 * (possibly cached) summary.
+	 * 
+	 * @param work
+	 *            The work summary.
+	 * @return A copy of the external identifiers of the summary, or null if
+	 *         none.
+	 */
+	public static WorkExternalIdentifiers copyExternalIdentifiers(WorkSummary work) {
+		if (work.getExternalIdentifiers() == null)
+			return null;
+		List<ExternalIdentifier> eids = new ArrayList<ExternalIdentifier>();
+		for (ExternalIdentifier id : work.getExternalIdentifiers().getWorkExternalIdentifier()) {
+			ExternalIdentifier eid = new ExternalIdentifier();
+			eid.setRelationship(id.getRelationship());
+			eid.setExternalIdentifierType(id.getExternalIdentifierType());
+			eid.setExternalIdentifierId(id.getExternalIdentifierId());
+			eids.add(eid);
+		}
+		return new WorkExternalIdentifiers(eids);
+	}
+
 	public static void copy(ActivitySummary from, ActivitySummary to) {
 		to.setCreatedDate(from.getCreatedDate());
 		to.setDisplayIndex(from.getDisplayIndex());
@@ -529,6 +985,15 @@ public class ORCIDHelper {
 		return dummy;
 	}
 
+	/**
+	 * Creates a shallow copy of a work: the copy may be assigned new fields,
+	 * but shares the title, identifiers, contributors and remainder nested
+	 * elements with the original, which must not be modified through either.
+	 *
+	 * @param aux
+	 *            The work to be copied.
+	 * @return The shallow copy.
+	 */
 	public static Work clone(Work aux) {
 		Work dummy = new Work();
 		copy(aux, dummy);
@@ -548,4 +1013,19 @@ public class ORCIDHelper {
 		return dummy;
 	}
 
+	/**
+	 * A work being fetched asynchronously.
+	 */
+	private static final class Fetch {
+		final BigInteger putCode;
+		final Map<BigInteger, Work> works;
+		final Future<Work> future;
+
+		Fetch(BigInteger putCode, Map<BigInteger, Work> works, Future<Work> future) {
+			this.putCode = putCode;
+			this.works = works;
+			this.future = future;
+		}
+	}
+
 }
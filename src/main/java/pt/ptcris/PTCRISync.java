@@ -1,5 +1,6 @@
 package pt.ptcris;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -8,8 +9,11 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
 import org.um.dsi.gavea.orcid.model.activities.WorkGroup;
 import org.um.dsi.gavea.orcid.model.work.ExternalIdentifier;
@@ -17,10 +21,23 @@ import org.um.dsi.gavea.orcid.model.work.Work;
 import org.um.dsi.gavea.orcid.model.work.WorkExternalIdentifiers;
 import org.um.dsi.gavea.orcid.model.work.WorkSummary;
 
+import pt.ptcris.cache.SpillStore;
 import pt.ptcris.handlers.ProgressHandler;
+import pt.ptcris.utils.CancellationToken;
+import pt.ptcris.utils.ComponentMatcher;
+import pt.ptcris.utils.Deadline;
+import pt.ptcris.utils.IdentifierFilter;
+import pt.ptcris.utils.ParallelMatcher;
+import pt.ptcris.utils.ParallelMatcher.Match;
+import pt.ptcris.utils.ProfileLocks;
+import pt.ptcris.utils.SyncWatermarks;
 import pt.ptcris.utils.UpdateRecord;
 import pt.ptcris.ORCIDHelper;
 import pt.ptcris.exceptions.InvalidWorkException;
+import pt.ptcris.workers.ORCIDAddWorker;
+import pt.ptcris.workers.ORCIDDelWorker;
+import pt.ptcris.workers.ORCIDUpdWorker;
+import pt.ptcris.workers.WritePipeline;
 
 /**
  * <p>
@@ -57,16 +74,37 @@ import pt.ptcris.exceptions.InvalidWorkException;
  * performed through the {@link ORCIDHelper helper}.
  * </p>
  * 
+ * <p>
+ * The import procedures match the ORCID work summaries against the local
+ * productions before iterating over them, in parallel for large profiles
+ * (see {@link ParallelMatcher}). The matches are then applied one summary at
+ * a time, in order, so the outcome is the same as with sequential matching.
+ * The export assigns local productions to ORCID works through the
+ * connected components of their shared identifiers (see
+ * {@link ComponentMatcher}). Very large profiles can be imported within a
+ * memory budget, in windows of summaries (see
+ * {@link #importWorksChunked(ORCIDClient, List, ProgressHandler, SyncWatermarks, CancellationToken, long)}).
+ * </p>
+ * 
  * @see <a
  *      href="https://ptcris.pt/hub-ptcris/">https://ptcris.pt/hub-ptcris/</a>
  *
  */
 public class PTCRISync {
 
+	private static final Logger _log = LogManager.getLogger(PTCRISync.class);
+
+	/**
+	 * The number of work summaries processed at a time by the
+	 * memory-bounded import (see
+	 * {@link #importWorksChunked(ORCIDClient, List, ProgressHandler, SyncWatermarks, CancellationToken, long)}).
+	 */
+	public static final int WINDOW = 256;
+
 	/**
 	 * <p>
 	 * A version of the export procedure (see
-	 * {@link #exportBase(ORCIDClient, List, ProgressHandler, boolean)}) that
+	 * {@link #exportBase(ORCIDClient, List, ProgressHandler, boolean, CancellationToken)}) that
 	 * tests whether the meta-data is up-to-date prior to updating a work in
 	 * ORCID.
 	 * </p>
@@ -81,17 +119,32 @@ public class PTCRISync {
 	 * information is not contained in the work summaries, which would require
 	 * additional calls to the ORCID API.
 	 * 
-	 * @see #exportBase(ORCIDClient, List, ProgressHandler, boolean)
+	 * @see #exportBase(ORCIDClient, List, ProgressHandler, boolean,
+	 *      CancellationToken)
 	 */
 	public static Map<BigInteger, PTCRISyncResult> export(ORCIDClient orcidClient, List<Work> localWorks,
 			ProgressHandler progressHandler) throws OrcidClientException {
-		return exportBase(orcidClient, localWorks, progressHandler, false);
+		return exportBase(orcidClient, localWorks, progressHandler, false, null);
+	}
+
+	/**
+	 * A cancellable version of the export procedure (see
+	 * {@link #export(ORCIDClient, List, ProgressHandler)}). Once the token is
+	 * cancelled no further works are exported, and the local works that were
+	 * not (completely) exported are reported as {@link ORCIDHelper#CANCELLED}.
+	 * 
+	 * @see #exportBase(ORCIDClient, List, ProgressHandler, boolean,
+	 *      CancellationToken)
+	 */
+	public static Map<BigInteger, PTCRISyncResult> export(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, CancellationToken token) throws OrcidClientException {
+		return exportBase(orcidClient, localWorks, progressHandler, false, token);
 	}
 
 	/**
 	 * <p>
 	 * A version of the export procedure (see
-	 * {@link #exportBase(ORCIDClient, List, ProgressHandler, boolean)}) that
+	 * {@link #exportBase(ORCIDClient, List, ProgressHandler, boolean, CancellationToken)}) that
 	 * forces the update of the CRIS sourced works at ORCID, even if they are
 	 * already up-to-date.
 	 * </p>
@@ -102,11 +155,26 @@ public class PTCRISync {
 	 * to the ORCID API.
 	 * </p>
 	 * 
-	 * @see #exportBase(ORCIDClient, List, ProgressHandler, boolean)
+	 * @see #exportBase(ORCIDClient, List, ProgressHandler, boolean,
+	 *      CancellationToken)
 	 */
 	public static Map<BigInteger, PTCRISyncResult> exportForce(ORCIDClient orcidClient, List<Work> localWorks,
 			ProgressHandler progressHandler) throws OrcidClientException {
-		return exportBase(orcidClient, localWorks, progressHandler, true);
+		return exportBase(orcidClient, localWorks, progressHandler, true, null);
+	}
+
+	/**
+	 * A cancellable version of the forced export procedure (see
+	 * {@link #exportForce(ORCIDClient, List, ProgressHandler)}). The behavior
+	 * regarding cancellation is the same as that of
+	 * {@link #export(ORCIDClient, List, ProgressHandler, CancellationToken)}.
+	 * 
+	 * @see #exportBase(ORCIDClient, List, ProgressHandler, boolean,
+	 *      CancellationToken)
+	 */
+	public static Map<BigInteger, PTCRISyncResult> exportForce(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, CancellationToken token) throws OrcidClientException {
+		return exportBase(orcidClient, localWorks, progressHandler, true, token);
 	}
 
 	/**
@@ -125,6 +193,10 @@ public class PTCRISync {
 	 * are created. The matching is performed by detecting shared
 	 * {@link ExternalIdentifier external identifiers} (see
 	 * {@link ORCIDHelper#getExternalIdentifiersDiff(WorkSummary, Collection)}).
+	 * When several works match, each ORCID work is assigned the local work
+	 * with which it shares most identifiers, deterministically, so that
+	 * repeated exports update the same ORCID works (see
+	 * {@link ComponentMatcher}).
 	 * </p>
 	 * 
 	 * <p>
@@ -170,7 +242,30 @@ public class PTCRISync {
 	 * <p>
 	 * This procedure performs a GET call to the API to obtain the summaries and
 	 * PUT or POST calls for each of the local input works. Additionally, DELETE
-	 * calls can also be performed.
+	 * calls can also be performed. The calls of each stage (deletion, the two
+	 * update phases and addition) run concurrently through a
+	 * {@link WritePipeline}, but a stage only starts once the previous one is
+	 * complete.
+	 * </p>
+	 * 
+	 * <p>
+	 * The procedure can be cancelled through a {@link CancellationToken}, which
+	 * is checked between works and phases, and whose cancellation (or expiry,
+	 * for a {@link Deadline}) immediately discards the queued writes. Once
+	 * cancelled, no further ORCID calls are issued and the local works that
+	 * were not (completely) exported are reported as
+	 * {@link ORCIDHelper#CANCELLED}, so that the
+	 * reported status reflects what was actually performed at ORCID. In
+	 * particular, works that required the second update phase but were only
+	 * updated in the first are reported as cancelled.
+	 * </p>
+	 * 
+	 * <p>
+	 * Exports of the same ORCID profile are serialized through the
+	 * {@link ProfileLocks#getShared() shared} profile locks, since their
+	 * interleaved updates could conflict, while exports of different profiles
+	 * run in parallel. If cancelled while waiting for the lock, no ORCID call
+	 * is performed and every local work is reported as cancelled.
 	 * </p>
 	 * 
 	 * TODO: The procedure does not currently consider the contributors
@@ -190,22 +285,51 @@ public class PTCRISync {
 	 * @param forced
 	 *            Whether the update of ORCID works should be forced, even if
 	 *            up-to-date.
+	 * @param token
+	 *            The cancellation token, or null if not cancellable.
 	 * @returns The status of the export of each of the provided local works.
 	 * 
 	 * @throws OrcidClientException
 	 *             If the communication with ORCID fails.
 	 */
 	private static Map<BigInteger,PTCRISyncResult> exportBase(ORCIDClient orcidClient, List<Work> localWorks,
-			ProgressHandler progressHandler, boolean forced) throws OrcidClientException {
+			ProgressHandler progressHandler, boolean forced, CancellationToken token) throws OrcidClientException {
+
+		String orcid = orcidClient.getUserId();
+		ProfileLocks locks = ProfileLocks.getShared();
+		if (!locks.lock(orcid, token)) {
+			Map<BigInteger, PTCRISyncResult> result = new HashMap<BigInteger, PTCRISyncResult>();
+			for (Work localWork : localWorks)
+				result.put(ORCIDHelper.getWorkLocalKey(localWork), new PTCRISyncResult(ORCIDHelper.CANCELLED));
+			progressHandler.setCurrentStatus("ORCID_SYNC_EXPORT_CANCELLED");
+			progressHandler.done();
+			return result;
+		}
+		try {
+			return exportLocked(orcidClient, localWorks, progressHandler, forced, token);
+		} finally {
+			locks.unlock(orcid);
+		}
+	}
+
+	/**
+	 * The export procedure, once the lock of the profile is held (see
+	 * {@link #exportBase(ORCIDClient, List, ProgressHandler, boolean, CancellationToken)}).
+	 */
+	private static Map<BigInteger,PTCRISyncResult> exportLocked(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, boolean forced, CancellationToken token) throws OrcidClientException {
 
 		int progress = 0;
 		progressHandler.setProgress(progress);
 		progressHandler.setCurrentStatus("ORCID_SYNC_EXPORT_STARTED");
 
 		Map<BigInteger, PTCRISyncResult> result = new HashMap<BigInteger, PTCRISyncResult>();
+		List<Work> exportedWorks = new ArrayList<Work>(localWorks);
 
 		ORCIDHelper helper = new ORCIDHelper(orcidClient);
-		List<WorkSummary> orcidWorks = helper.getSourcedWorkSummaries();
+		helper.setCancellationToken(token);
+		List<WorkSummary> orcidWorks = helper.isCancelled() ? new ArrayList<WorkSummary>() : helper
+				.getSourcedWorkSummaries();
 
 		List<UpdateRecord> recordsToUpdate = new LinkedList<UpdateRecord>();
 
@@ -226,109 +350,118 @@ public class PTCRISync {
 		}
 		localWorks.removeAll(no_quality);
 
-		progressHandler.setCurrentStatus("ORCID_SYNC_EXPORT_WORKS_ITERATION");
-		for (int counter = 0; counter != orcidWorks.size(); counter++) {
-			progress = (int) ((double) ((double) counter / orcidWorks.size()) * 100);
-			progressHandler.setProgress(progress);
+		final WritePipeline writes = new WritePipeline();
+		// queued writes are discarded as soon as cancelled or expired
+		Runnable cancellation = new Runnable() {
+			public void run() {
+				writes.cancel();
+			}
+		};
+		if (token != null)
+			token.register(cancellation);
 
-			Map<Work, ExternalIdentifiersUpdate> matchingWorks = ORCIDHelper.getExternalIdentifiersDiff(
-					orcidWorks.get(counter), localWorks);
-			// there is no local work matching a CRIS sourced remote work
-			if (matchingWorks.isEmpty()) {
-				try {
-					helper.deleteWork(orcidWorks.get(counter).getPutCode());
-				} catch (OrcidClientException e) {
-					// TODO: what to do?
-					PTCRISyncResult resultObj = new PTCRISyncResult(ORCIDHelper.CLIENTERROR,e);
-					result.put(ORCIDHelper.getWorkLocalKey(orcidWorks.get(counter)), resultObj);
+		try {
+			progressHandler.setCurrentStatus("ORCID_SYNC_EXPORT_WORKS_ITERATION");
+			Map<BigInteger, PTCRISyncResult> deleted = new HashMap<BigInteger, PTCRISyncResult>();
+			List<UpdateRecord> assignments = ComponentMatcher.assign(orcidWorks, localWorks);
+			for (int counter = 0; counter != orcidWorks.size() && !helper.isCancelled(); counter++) {
+				progress = (int) ((double) ((double) counter / orcidWorks.size()) * 100);
+				progressHandler.setProgress(progress);
+
+				UpdateRecord assignment = assignments.get(counter);
+				// there is no local work matching a CRIS sourced remote work
+				if (assignment == null) {
+					writes.submit(ORCIDHelper.getWorkLocalKey(orcidWorks.get(counter)), new ORCIDDelWorker(helper,
+							orcidWorks.get(counter).getPutCode(), _log));
 				}
-			}
-			// there is at least one local work matching a CRIS sourced remote
-			// work
-			else {
-				Work localWork = matchingWorks.keySet().iterator().next();
-				// if the remote work is not up-to-date or forced updates
-				if (forced || !ORCIDHelper.isUpToDate(localWork, orcidWorks.get(counter))) {
-					recordsToUpdate.add(new UpdateRecord(localWork, orcidWorks.get(counter), matchingWorks
-							.get(localWork)));
-				} else {
-					PTCRISyncResult resultObj = new PTCRISyncResult(ORCIDHelper.UPTODATE);
-					result.put(ORCIDHelper.getWorkLocalKey(localWork), resultObj);
+				// there is at least one local work matching a CRIS sourced remote
+				// work
+				else {
+					Work localWork = assignment.getLocalWork();
+					// if the remote work is not up-to-date or forced updates
+					if (forced || !ORCIDHelper.isUpToDate(localWork, orcidWorks.get(counter))) {
+						recordsToUpdate.add(assignment);
+					} else {
+						PTCRISyncResult resultObj = new PTCRISyncResult(ORCIDHelper.UPTODATE);
+						result.put(ORCIDHelper.getWorkLocalKey(localWork), resultObj);
+					}
+					localWorks.remove(localWork);
 				}
-				localWorks.remove(localWork);
 			}
-		}
+			// only failed deletions are reported
+			writes.await(deleted);
+			for (Entry<BigInteger, PTCRISyncResult> entry : deleted.entrySet())
+				if (entry.getValue().getCode() == ORCIDHelper.CLIENTERROR)
+					result.put(entry.getKey(), entry.getValue());
 
-		progressHandler.setCurrentStatus("ORCID_SYNC_EXPORT_UPDATING_WORKS_PHASE_1");
-		for (int counter = 0; counter != recordsToUpdate.size(); counter++) {
-			progress = (int) ((double) ((double) counter / recordsToUpdate.size()) * 100);
-			progressHandler.setProgress(progress);
+			progressHandler.setCurrentStatus("ORCID_SYNC_EXPORT_UPDATING_WORKS_PHASE_1");
+			for (int counter = 0; counter != recordsToUpdate.size() && !helper.isCancelled(); counter++) {
+				progress = (int) ((double) ((double) counter / recordsToUpdate.size()) * 100);
+				progressHandler.setProgress(progress);
 
-			// the remote work has spurious external identifiers
-			if (!recordsToUpdate.get(counter).getMatches().more.isEmpty()) {
-				Work localWork = recordsToUpdate.get(counter).getLocalWork();
-				WorkExternalIdentifiers weids = new WorkExternalIdentifiers();
-				List<ExternalIdentifier> ids = new ArrayList<ExternalIdentifier>(recordsToUpdate.get(counter)
-						.getMatches().same);
-				weids.setWorkExternalIdentifier(ids);
-				localWork.setExternalIdentifiers(weids);
-				try {
-					helper.updateWork(recordsToUpdate.get(counter).getRemoteWork().getPutCode(), localWork);
-					PTCRISyncResult resultObj = new PTCRISyncResult(ORCIDHelper.UPDATEOK);
-					result.put(ORCIDHelper.getWorkLocalKey(localWork), resultObj);
-				} catch (OrcidClientException e) {
-					PTCRISyncResult resultObj = new PTCRISyncResult(ORCIDHelper.CLIENTERROR,e);
-					result.put(ORCIDHelper.getWorkLocalKey(localWork), resultObj);
-					// TODO: what else to do?
+				// the remote work has spurious external identifiers
+				if (!recordsToUpdate.get(counter).getMatches().more.isEmpty()) {
+					Work localWork = recordsToUpdate.get(counter).getLocalWork();
+					WorkExternalIdentifiers weids = new WorkExternalIdentifiers();
+					List<ExternalIdentifier> ids = new ArrayList<ExternalIdentifier>(recordsToUpdate.get(counter)
+							.getMatches().same);
+					weids.setWorkExternalIdentifier(ids);
+					localWork.setExternalIdentifiers(weids);
+					writes.submit(ORCIDHelper.getWorkLocalKey(localWork), new ORCIDUpdWorker(helper, recordsToUpdate
+							.get(counter).getRemoteWork().getPutCode(), localWork, _log));
 				}
 			}
-		}
+			writes.await(result);
 
-		progressHandler.setCurrentStatus("ORCID_SYNC_EXPORT_UPDATING_WORKS_PHASE_2");
-		for (int counter = 0; counter != recordsToUpdate.size(); counter++) {
-			progress = (int) ((double) ((double) counter / recordsToUpdate.size()) * 100);
-			progressHandler.setProgress(progress);
+			progressHandler.setCurrentStatus("ORCID_SYNC_EXPORT_UPDATING_WORKS_PHASE_2");
+			for (int counter = 0; counter != recordsToUpdate.size(); counter++) {
+				progress = (int) ((double) ((double) counter / recordsToUpdate.size()) * 100);
+				progressHandler.setProgress(progress);
 
-			// the remote work is missing external identifiers or not updated in
-			// the 1st phase
-			if (!recordsToUpdate.get(counter).getMatches().less.isEmpty()
-					|| recordsToUpdate.get(counter).getMatches().more.isEmpty()) {
-				Work localWork = recordsToUpdate.get(counter).getLocalWork();
-				WorkExternalIdentifiers weids = new WorkExternalIdentifiers();
-				List<ExternalIdentifier> ids = new ArrayList<ExternalIdentifier>(recordsToUpdate.get(counter)
-						.getMatches().same);
-				ids.addAll(recordsToUpdate.get(counter).getMatches().less);
-				weids.setWorkExternalIdentifier(ids);
-				localWork.setExternalIdentifiers(weids);
-				try {
-					helper.updateWork(recordsToUpdate.get(counter).getRemoteWork().getPutCode(), localWork);
-					PTCRISyncResult resultObj = new PTCRISyncResult(ORCIDHelper.UPDATEOK);
-					result.put(ORCIDHelper.getWorkLocalKey(localWork), resultObj);
-				} catch (OrcidClientException e) {
-					PTCRISyncResult resultObj = new PTCRISyncResult(ORCIDHelper.CLIENTERROR,e);
-					result.put(ORCIDHelper.getWorkLocalKey(localWork), resultObj);
-					// TODO: what else to do?
+				// the remote work is missing external identifiers or not updated in
+				// the 1st phase
+				if (!recordsToUpdate.get(counter).getMatches().less.isEmpty()
+						|| recordsToUpdate.get(counter).getMatches().more.isEmpty()) {
+					Work localWork = recordsToUpdate.get(counter).getLocalWork();
+					// a pending 2nd phase renders the 1st phase result incomplete
+					if (helper.isCancelled()) {
+						result.put(ORCIDHelper.getWorkLocalKey(localWork), new PTCRISyncResult(ORCIDHelper.CANCELLED));
+						continue;
+					}
+					WorkExternalIdentifiers weids = new WorkExternalIdentifiers();
+					List<ExternalIdentifier> ids = new ArrayList<ExternalIdentifier>(recordsToUpdate.get(counter)
+							.getMatches().same);
+					ids.addAll(recordsToUpdate.get(counter).getMatches().less);
+					weids.setWorkExternalIdentifier(ids);
+					localWork.setExternalIdentifiers(weids);
+					writes.submit(ORCIDHelper.getWorkLocalKey(localWork), new ORCIDUpdWorker(helper, recordsToUpdate
+							.get(counter).getRemoteWork().getPutCode(), localWork, _log));
 				}
 			}
-		}
+			writes.await(result);
 
-		progressHandler.setCurrentStatus("ORCID_SYNC_EXPORT_ADDING_WORKS");
-		for (int counter = 0; counter != localWorks.size(); counter++) {
-			progress = (int) ((double) ((double) counter / localWorks.size()) * 100);
-			progressHandler.setProgress(progress);
+			progressHandler.setCurrentStatus("ORCID_SYNC_EXPORT_ADDING_WORKS");
+			for (int counter = 0; counter != localWorks.size() && !helper.isCancelled(); counter++) {
+				progress = (int) ((double) ((double) counter / localWorks.size()) * 100);
+				progressHandler.setProgress(progress);
 
-			Work localWork = localWorks.get(counter);
+				Work localWork = localWorks.get(counter);
 
-			// local works that were not updated remaining
-			try {
-				BigInteger remotePutcode = helper.addWork(localWork);
-				PTCRISyncResult resultObj = new PTCRISyncResult(ORCIDHelper.ADDOK);
-				result.put(ORCIDHelper.getWorkLocalKey(localWork), resultObj);
-			} catch (OrcidClientException e) {
-				PTCRISyncResult resultObj = new PTCRISyncResult(ORCIDHelper.CLIENTERROR,e);
-				result.put(ORCIDHelper.getWorkLocalKey(localWork), resultObj);
-				// TODO: what else to do?
+				// local works that were not updated remaining
+				writes.submit(ORCIDHelper.getWorkLocalKey(localWork), new ORCIDAddWorker(helper, localWork, _log));
 			}
+			writes.await(result);
+		} finally {
+			if (token != null)
+				token.unregister(cancellation);
+			writes.close();
+		}
+
+		if (helper.isCancelled()) {
+			progressHandler.setCurrentStatus("ORCID_SYNC_EXPORT_CANCELLED");
+			for (Work localWork : exportedWorks)
+				if (!result.containsKey(ORCIDHelper.getWorkLocalKey(localWork)))
+					result.put(ORCIDHelper.getWorkLocalKey(localWork), new PTCRISyncResult(ORCIDHelper.CANCELLED));
 		}
 
 		progressHandler.done();
@@ -396,6 +529,104 @@ public class PTCRISync {
 	 */
 	public static List<Work> importWorks(ORCIDClient orcidClient, List<Work> localWorks, ProgressHandler progressHandler)
 			throws OrcidClientException, InterruptedException {
+		return importWorksBase(orcidClient, localWorks, progressHandler, null, null);
+	}
+
+	/**
+	 * <p>
+	 * A delta version of the import procedure (see
+	 * {@link #importWorks(ORCIDClient, List, ProgressHandler)}) that only
+	 * considers the ORCID work groups modified since the last run for the
+	 * profile, as recorded in <code>watermarks</code>. Work groups that were
+	 * already considered in previous runs, including those modified in the
+	 * millisecond of the watermark, are neither re-evaluated nor re-fetched
+	 * while unchanged, so repeated runs over stable profiles perform no GET
+	 * calls for full works, as long as the same watermarks are kept across
+	 * runs.
+	 * </p>
+	 * 
+	 * <p>
+	 * The watermark is only advanced if every full work was successfully
+	 * retrieved. The same watermarks should not be shared with
+	 * {@link #importInvalid(ORCIDClient, List, ProgressHandler, SyncWatermarks)}
+	 * and should be {@link SyncWatermarks#reset(String) reset} whenever local
+	 * productions are removed.
+	 * </p>
+	 * 
+	 * @see #importWorks(ORCIDClient, List, ProgressHandler)
+	 * 
+	 * @param orcidClient
+	 *            The ORCID client defining the CRIS Member API and the profile
+	 *            to be managed.
+	 * @param localWorks
+	 *            The full list of productions in the local profile.
+	 * @param progressHandler
+	 *            The progress handler responsible for receiving progress
+	 *            updates.
+	 * @param watermarks
+	 *            The last synchronization timestamps of the profiles.
+	 * @return The list of new works found in the profile since the last run.
+	 * @throws OrcidClientException
+	 *             If the communication with ORCID fails.
+	 * @throws InterruptedException
+	 */
+	public static List<Work> importWorks(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, SyncWatermarks watermarks) throws OrcidClientException,
+			InterruptedException {
+		return importWorksBase(orcidClient, localWorks, progressHandler, watermarks, null);
+	}
+
+	/**
+	 * <p>
+	 * A version of the import procedure (see
+	 * {@link #importWorks(ORCIDClient, List, ProgressHandler, SyncWatermarks)}
+	 * ) that can be cancelled or bounded by a {@link Deadline deadline}. Once
+	 * cancelled or expired, no further full works are retrieved and
+	 * outstanding retrievals are interrupted. The returned list is then
+	 * partial, and the put-codes of the works that were not retrieved are
+	 * recorded in the token (see {@link CancellationToken#getUnfetched()}).
+	 * The watermark is not advanced for partial results.
+	 * </p>
+	 * 
+	 * @see #importWorks(ORCIDClient, List, ProgressHandler, SyncWatermarks)
+	 * 
+	 * @param orcidClient
+	 *            The ORCID client defining the CRIS Member API and the profile
+	 *            to be managed.
+	 * @param localWorks
+	 *            The full list of productions in the local profile.
+	 * @param progressHandler
+	 *            The progress handler responsible for receiving progress
+	 *            updates.
+	 * @param watermarks
+	 *            The last synchronization timestamps of the profiles, or null
+	 *            to consider every work group.
+	 * @param token
+	 *            The cancellation token or deadline of the procedure.
+	 * @return The list of new works found in the profile, possibly partial.
+	 * @throws OrcidClientException
+	 *             If the communication with ORCID fails.
+	 * @throws InterruptedException
+	 */
+	public static List<Work> importWorks(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, SyncWatermarks watermarks, CancellationToken token)
+			throws OrcidClientException, InterruptedException {
+		return importWorksBase(orcidClient, localWorks, progressHandler, watermarks, token);
+	}
+
+	/**
+	 * Discovers new valid works in an ORCID profile, optionally restricted to
+	 * the work groups modified since the watermark of the profile, and
+	 * cancellable.
+	 * 
+	 * @see #importWorks(ORCIDClient, List, ProgressHandler)
+	 * @see #importWorks(ORCIDClient, List, ProgressHandler, SyncWatermarks)
+	 * @see #importWorks(ORCIDClient, List, ProgressHandler, SyncWatermarks,
+	 *      CancellationToken)
+	 */
+	private static List<Work> importWorksBase(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, SyncWatermarks watermarks, CancellationToken token)
+			throws OrcidClientException, InterruptedException {
 		int progress = 0;
 		progressHandler.setProgress(progress);
 		progressHandler.setCurrentStatus("ORCID_SYNC_IMPORT_WORKS_STARTED");
@@ -403,29 +634,169 @@ public class PTCRISync {
 		Map<BigInteger, Work> worksToImport = new HashMap<BigInteger, Work>();
 
 		ORCIDHelper helper = new ORCIDHelper(orcidClient);
+		helper.setCancellationToken(token);
 
-		List<WorkSummary> mergedOrcidWorks = helper.getAllWorkSummaries();
+		List<WorkSummary> mergedOrcidWorks = helper.isCancelled() ? new ArrayList<WorkSummary>() : helper
+				.getAllWorkSummaries();
+		Long since = watermarks == null ? null : watermarks.get(orcidClient.getUserId());
+		Set<String> seen = watermarks == null ? null : watermarks.getSeen(orcidClient.getUserId());
+		long lastModified = -1;
+
+		List<WorkSummary> modifiedOrcidWorks = new ArrayList<WorkSummary>();
+		for (WorkSummary mergedOrcidWork : mergedOrcidWorks) {
+			lastModified = Math.max(lastModified, ORCIDHelper.getLastModified(mergedOrcidWork));
+			if (ORCIDHelper.isModifiedSince(mergedOrcidWork, since, seen))
+				modifiedOrcidWorks.add(mergedOrcidWork);
+		}
+		List<Match> matches = ParallelMatcher.match(modifiedOrcidWorks, localWorks,
+				new IdentifierFilter(localWorks));
 
 		progressHandler.setCurrentStatus("ORCID_SYNC_IMPORT_WORKS_ITERATION");
-		for (int counter = 0; counter != mergedOrcidWorks.size(); counter++) {
-			progress = (int) ((double) ((double) counter / mergedOrcidWorks.size()) * 100);
+		// once cancelled, the remainder works are recorded as unfetched
+		for (int counter = 0; counter != matches.size(); counter++) {
+			progress = (int) ((double) ((double) counter / matches.size()) * 100);
 			progressHandler.setProgress(progress);
 
-			WorkSummary mergedOrcidWork = mergedOrcidWorks.get(counter);
-			Map<Work, ExternalIdentifiersUpdate> matchingWorks = ORCIDHelper.getExternalIdentifiersDiff(
-					mergedOrcidWork, localWorks);
-			if (matchingWorks.isEmpty() && ORCIDHelper.testMinimalQuality(mergedOrcidWork).isEmpty()) {
-				helper.getFullWork(mergedOrcidWork, worksToImport);
+			Match match = matches.get(counter);
+			if (match.matches.isEmpty() && match.invalids.isEmpty()) {
+				helper.getFullWork(match.summary, worksToImport);
 			}
 		}
 
-		helper.waitWorkers();
+		boolean finished = helper.waitWorkers() && !helper.isCancelled();
+		if (watermarks != null && finished && lastModified >= 0)
+			watermarks.update(orcidClient.getUserId(), lastModified,
+					ORCIDHelper.getWatermarkKeys(mergedOrcidWorks, lastModified));
 
 		progressHandler.done();
 
 		return new LinkedList<Work>(worksToImport.values());
 	}
 
+	/**
+	 * <p>
+	 * A memory-bounded version of the import procedure (see
+	 * {@link #importWorks(ORCIDClient, List, ProgressHandler, SyncWatermarks, CancellationToken)}
+	 * ) for very large profiles, or for many profiles imported in parallel.
+	 * The ORCID work summaries are matched and their full works retrieved in
+	 * windows of {@link #WINDOW} summaries, so that only the matches and
+	 * retrievals of a single window are pending at any time.
+	 * </p>
+	 * 
+	 * <p>
+	 * The retrieved works are gathered in a {@link SpillStore}, which keeps
+	 * up to <code>memoryBudget</code> bytes of works in memory and spills
+	 * the remainder to a compressed temporary file. Iterating the store
+	 * streams the works, in the order of the summaries, reading the spilled
+	 * ones one at a time. The store must be {@link SpillStore#close()
+	 * closed} by the caller; if the procedure fails, it is closed before the
+	 * exception is thrown.
+	 * </p>
+	 * 
+	 * <p>
+	 * Note that <code>memoryBudget</code> only bounds the retrieved works.
+	 * During the procedure, every work summary of the profile is still held
+	 * in memory, together with the list of those modified since the
+	 * watermark, and the {@link pt.ptcris.cache.WorkCache work cache} of the
+	 * helper retains the summary and full works up to its own bounds. The
+	 * memory used is thus proportional to the number of works in the
+	 * profile, but not to the size of the retrieved works.
+	 * </p>
+	 * 
+	 * @see #importWorks(ORCIDClient, List, ProgressHandler, SyncWatermarks,
+	 *      CancellationToken)
+	 * 
+	 * @param orcidClient
+	 *            The ORCID client defining the CRIS Member API and the profile
+	 *            to be managed.
+	 * @param localWorks
+	 *            The full list of productions in the local profile.
+	 * @param progressHandler
+	 *            The progress handler responsible for receiving progress
+	 *            updates.
+	 * @param watermarks
+	 *            The last synchronization timestamps of the profiles, or null
+	 *            to consider every work group.
+	 * @param token
+	 *            The cancellation token or deadline of the procedure, or null
+	 *            if none.
+	 * @param memoryBudget
+	 *            The maximum approximate size, in bytes, of the new works kept
+	 *            in memory.
+	 * @return The new works found in the profile, possibly partial.
+	 * @throws OrcidClientException
+	 *             If the communication with ORCID fails.
+	 * @throws IOException
+	 *             If the works cannot be spilled to disk.
+	 * @throws InterruptedException
+	 */
+	public static SpillStore importWorksChunked(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, SyncWatermarks watermarks, CancellationToken token,
+			long memoryBudget) throws OrcidClientException, IOException, InterruptedException {
+		int progress = 0;
+		progressHandler.setProgress(progress);
+		progressHandler.setCurrentStatus("ORCID_SYNC_IMPORT_WORKS_STARTED");
+
+		ORCIDHelper helper = new ORCIDHelper(orcidClient);
+		helper.setCancellationToken(token);
+
+		List<WorkSummary> mergedOrcidWorks = helper.isCancelled() ? new ArrayList<WorkSummary>() : helper
+				.getAllWorkSummaries();
+		Long since = watermarks == null ? null : watermarks.get(orcidClient.getUserId());
+		Set<String> seen = watermarks == null ? null : watermarks.getSeen(orcidClient.getUserId());
+		long lastModified = -1;
+
+		List<WorkSummary> modifiedOrcidWorks = new ArrayList<WorkSummary>();
+		for (WorkSummary mergedOrcidWork : mergedOrcidWorks) {
+			lastModified = Math.max(lastModified, ORCIDHelper.getLastModified(mergedOrcidWork));
+			if (ORCIDHelper.isModifiedSince(mergedOrcidWork, since, seen))
+				modifiedOrcidWorks.add(mergedOrcidWork);
+		}
+		IdentifierFilter filter = new IdentifierFilter(localWorks);
+
+		progressHandler.setCurrentStatus("ORCID_SYNC_IMPORT_WORKS_ITERATION");
+		SpillStore worksToImport = new SpillStore(memoryBudget);
+		boolean finished = true;
+		boolean returned = false;
+		try {
+			// once cancelled, the remainder works are recorded as unfetched
+			for (int from = 0; from < modifiedOrcidWorks.size(); from += WINDOW) {
+				progress = (int) ((double) ((double) from / modifiedOrcidWorks.size()) * 100);
+				progressHandler.setProgress(progress);
+
+				List<Match> matches = ParallelMatcher.match(
+						modifiedOrcidWorks.subList(from, Math.min(from + WINDOW, modifiedOrcidWorks.size())),
+						localWorks, filter);
+				Map<BigInteger, Work> window = new HashMap<BigInteger, Work>();
+				for (Match match : matches)
+					if (match.matches.isEmpty() && match.invalids.isEmpty())
+						helper.getFullWork(match.summary, window);
+				finished &= helper.waitWorkers();
+
+				for (Match match : matches) {
+					Work work = window.get(match.summary.getPutCode());
+					if (work != null)
+						worksToImport.add(work);
+				}
+			}
+
+			finished &= !helper.isCancelled();
+			if (watermarks != null && finished && lastModified >= 0)
+				watermarks.update(orcidClient.getUserId(), lastModified,
+						ORCIDHelper.getWatermarkKeys(mergedOrcidWorks, lastModified));
+			_log.debug("[importWorksChunked] " + worksToImport.size() + " works, " + worksToImport.spilled()
+					+ " spilled");
+
+			progressHandler.done();
+
+			returned = true;
+			return worksToImport;
+		} finally {
+			if (!returned)
+				worksToImport.close();
+		}
+	}
+
 	/**
 	 * <p>
 	 * Counts new valid works in an ORCID profile given a set of known local
@@ -455,24 +826,52 @@ public class PTCRISync {
 	 */
 	public static Integer importCounter(ORCIDClient orcidClient, List<Work> localWorks, ProgressHandler progressHandler)
 			throws OrcidClientException {
+		return importCounter(orcidClient, localWorks, progressHandler, null);
+	}
+
+	/**
+	 * A cancellable version of the import counter procedure (see
+	 * {@link #importCounter(ORCIDClient, List, ProgressHandler)}). Once
+	 * cancelled, the works counted so far are returned.
+	 * 
+	 * @see #importCounter(ORCIDClient, List, ProgressHandler)
+	 * 
+	 * @param orcidClient
+	 *            The ORCID client defining the CRIS Member API and the profile
+	 *            to be managed.
+	 * @param localWorks
+	 *            The full list of productions in the local profile.
+	 * @param progressHandler
+	 *            The progress handler responsible for receiving progress
+	 *            updates.
+	 * @param token
+	 *            The cancellation token, or null if not cancellable.
+	 * @return The number of new works found in the profile, possibly partial.
+	 * @throws OrcidClientException
+	 *             If the communication with ORCID fails.
+	 */
+	public static Integer importCounter(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, CancellationToken token) throws OrcidClientException {
 		int progress = 0;
 		int c = 0;
 		progressHandler.setProgress(progress);
 		progressHandler.setCurrentStatus("ORCID_SYNC_IMPORT_WORKS_STARTED");
 
 		ORCIDHelper helper = new ORCIDHelper(orcidClient);
+		helper.setCancellationToken(token);
+
+		List<WorkSummary> mergedOrcidWorks = helper.isCancelled() ? new ArrayList<WorkSummary>() : helper
+				.getAllWorkSummaries();
 
-		List<WorkSummary> mergedOrcidWorks = helper.getAllWorkSummaries();
+		List<Match> matches = ParallelMatcher.match(mergedOrcidWorks, localWorks, new IdentifierFilter(localWorks));
 
 		progressHandler.setCurrentStatus("ORCID_SYNC_IMPORT_WORKS_ITERATION");
-		for (int counter = 0; counter != mergedOrcidWorks.size(); counter++) {
-			progress = (int) ((double) ((double) counter / mergedOrcidWorks.size()) * 100);
+		for (int counter = 0; counter != matches.size() && !helper.isCancelled(); counter++) {
+			progress = (int) ((double) ((double) counter / matches.size()) * 100);
 			progressHandler.setProgress(progress);
 
-			WorkSummary mergedOrcidWork = mergedOrcidWorks.get(counter);
-			Map<Work, ExternalIdentifiersUpdate> matchingWorks = ORCIDHelper.getExternalIdentifiersDiff(
-					mergedOrcidWork, localWorks);
-			if (matchingWorks.isEmpty() && ORCIDHelper.testMinimalQuality(mergedOrcidWork).isEmpty()) {
+			Match match = matches.get(counter);
+			if (match.matches.isEmpty() && match.invalids.isEmpty()) {
 				c++;
 			}
 		}
@@ -538,21 +937,52 @@ public class PTCRISync {
 	 */
 	public static List<Work> importUpdates(ORCIDClient orcidClient, List<Work> localWorks,
 			ProgressHandler progressHandler) throws OrcidClientException {
+		return importUpdates(orcidClient, localWorks, progressHandler, null);
+	}
+
+	/**
+	 * A cancellable version of the import updates procedure (see
+	 * {@link #importUpdates(ORCIDClient, List, ProgressHandler)}). Once
+	 * cancelled, the updates found so far are returned.
+	 * 
+	 * @see #importUpdates(ORCIDClient, List, ProgressHandler)
+	 * 
+	 * @param orcidClient
+	 *            The ORCID client defining the CRIS Member API and the profile
+	 *            to be managed.
+	 * @param localWorks
+	 *            The list of local productions for which we wish to discover
+	 *            updates (those marked as synced).
+	 * @param progressHandler
+	 *            The progress handler responsible for receiving progress
+	 *            updates.
+	 * @param token
+	 *            The cancellation token, or null if not cancellable.
+	 * @return The list of updated works found in the profile, possibly
+	 *         partial.
+	 * @throws OrcidClientException
+	 *             If the communication with ORCID fails.
+	 */
+	public static List<Work> importUpdates(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, CancellationToken token) throws OrcidClientException {
 		int progress = 0;
 		progressHandler.setProgress(progress);
 		progressHandler.setCurrentStatus("ORCID_SYNC_IMPORT_UPDATES_STARTED");
 
 		List<Work> worksToUpdate = new LinkedList<Work>();
 		ORCIDHelper helper = new ORCIDHelper(orcidClient);
-		List<WorkSummary> orcidWorks = helper.getAllWorkSummaries();
+		helper.setCancellationToken(token);
+		List<WorkSummary> orcidWorks = helper.isCancelled() ? new ArrayList<WorkSummary>() : helper
+				.getAllWorkSummaries();
+
+		List<Match> matches = ParallelMatcher.match(orcidWorks, localWorks);
 
 		progressHandler.setCurrentStatus("ORCID_SYNC_IMPORT_UPDATES_ITERATION");
-		for (int counter = 0; counter != orcidWorks.size(); counter++) {
+		for (int counter = 0; counter != orcidWorks.size() && !helper.isCancelled(); counter++) {
 			progress = (int) ((double) ((double) counter / orcidWorks.size()) * 100);
 			progressHandler.setProgress(progress);
 
-			Map<Work, ExternalIdentifiersUpdate> matchingLocalWorks = ORCIDHelper.getExternalIdentifiersDiff(
-					orcidWorks.get(counter), localWorks);
+			Map<Work, ExternalIdentifiersUpdate> matchingLocalWorks = matches.get(counter).matches;
 			if (!matchingLocalWorks.isEmpty()) {
 				for (Work mathingLocalWork : matchingLocalWorks.keySet()) {
 					if (!ORCIDHelper.hasNewIDs(mathingLocalWork, orcidWorks.get(counter))) {
@@ -610,6 +1040,90 @@ public class PTCRISync {
 	 */
 	public static Map<Work, Set<String>> importInvalid(ORCIDClient orcidClient, List<Work> localWorks,
 			ProgressHandler progressHandler) throws OrcidClientException, InterruptedException {
+		return importInvalidBase(orcidClient, localWorks, progressHandler, null, null);
+	}
+
+	/**
+	 * A delta version of the invalid import procedure (see
+	 * {@link #importInvalid(ORCIDClient, List, ProgressHandler)}) that only
+	 * considers the ORCID work groups modified since the last run for the
+	 * profile, as recorded in <code>watermarks</code>. The behavior regarding
+	 * the watermarks is the same as that of
+	 * {@link #importWorks(ORCIDClient, List, ProgressHandler, SyncWatermarks)}
+	 * , and the same watermarks should not be shared between the two.
+	 * 
+	 * @see #importInvalid(ORCIDClient, List, ProgressHandler)
+	 * 
+	 * @param orcidClient
+	 *            The ORCID client defining the CRIS Member API and the profile
+	 *            to be managed.
+	 * @param localWorks
+	 *            The full list of productions in the local profile.
+	 * @param progressHandler
+	 *            The progress handler responsible for receiving progress
+	 *            updates.
+	 * @param watermarks
+	 *            The last synchronization timestamps of the profiles.
+	 * @return The list of invalid works found in the profile since the last
+	 *         run, as well as the invalid fields.
+	 * @throws OrcidClientException
+	 *             If the communication with ORCID fails.
+	 * @throws InterruptedException
+	 */
+	public static Map<Work, Set<String>> importInvalid(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, SyncWatermarks watermarks) throws OrcidClientException,
+			InterruptedException {
+		return importInvalidBase(orcidClient, localWorks, progressHandler, watermarks, null);
+	}
+
+	/**
+	 * A version of the invalid import procedure (see
+	 * {@link #importInvalid(ORCIDClient, List, ProgressHandler, SyncWatermarks)}
+	 * ) that can be cancelled or bounded by a deadline. The behavior regarding
+	 * cancellation is the same as that of
+	 * {@link #importWorks(ORCIDClient, List, ProgressHandler, SyncWatermarks, CancellationToken)}
+	 * .
+	 * 
+	 * @see #importInvalid(ORCIDClient, List, ProgressHandler, SyncWatermarks)
+	 * 
+	 * @param orcidClient
+	 *            The ORCID client defining the CRIS Member API and the profile
+	 *            to be managed.
+	 * @param localWorks
+	 *            The full list of productions in the local profile.
+	 * @param progressHandler
+	 *            The progress handler responsible for receiving progress
+	 *            updates.
+	 * @param watermarks
+	 *            The last synchronization timestamps of the profiles, or null
+	 *            to consider every work group.
+	 * @param token
+	 *            The cancellation token or deadline of the procedure.
+	 * @return The list of invalid works found in the profile, possibly
+	 *         partial, as well as the invalid fields.
+	 * @throws OrcidClientException
+	 *             If the communication with ORCID fails.
+	 * @throws InterruptedException
+	 */
+	public static Map<Work, Set<String>> importInvalid(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, SyncWatermarks watermarks, CancellationToken token)
+			throws OrcidClientException, InterruptedException {
+		return importInvalidBase(orcidClient, localWorks, progressHandler, watermarks, token);
+	}
+
+	/**
+	 * Discovers new invalid works in an ORCID profile, optionally restricted to
+	 * the work groups modified since the watermark of the profile, and
+	 * cancellable.
+	 * 
+	 * @see #importInvalid(ORCIDClient, List, ProgressHandler)
+	 * @see #importInvalid(ORCIDClient, List, ProgressHandler, SyncWatermarks)
+	 * @see #importInvalid(ORCIDClient, List, ProgressHandler, SyncWatermarks,
+	 *      CancellationToken)
+	 */
+	private static Map<Work, Set<String>> importInvalidBase(ORCIDClient orcidClient, List<Work> localWorks,
+			ProgressHandler progressHandler, SyncWatermarks watermarks, CancellationToken token)
+			throws OrcidClientException, InterruptedException {
 		int progress = 0;
 		progressHandler.setProgress(progress);
 		progressHandler.setCurrentStatus("ORCID_SYNC_IMPORT_INVALID_STARTED");
@@ -618,25 +1132,39 @@ public class PTCRISync {
 		Map<BigInteger, Work> worksToImport = new HashMap<BigInteger, Work>();
 
 		ORCIDHelper helper = new ORCIDHelper(orcidClient);
+		helper.setCancellationToken(token);
+
+		List<WorkSummary> mergedOrcidWorks = helper.isCancelled() ? new ArrayList<WorkSummary>() : helper
+				.getAllWorkSummaries();
+		Long since = watermarks == null ? null : watermarks.get(orcidClient.getUserId());
+		Set<String> seen = watermarks == null ? null : watermarks.getSeen(orcidClient.getUserId());
+		long lastModified = -1;
 
-		List<WorkSummary> mergedOrcidWorks = helper.getAllWorkSummaries();
+		List<WorkSummary> modifiedOrcidWorks = new ArrayList<WorkSummary>();
+		for (WorkSummary mergedOrcidWork : mergedOrcidWorks) {
+			lastModified = Math.max(lastModified, ORCIDHelper.getLastModified(mergedOrcidWork));
+			if (ORCIDHelper.isModifiedSince(mergedOrcidWork, since, seen))
+				modifiedOrcidWorks.add(mergedOrcidWork);
+		}
+		List<Match> matches = ParallelMatcher.match(modifiedOrcidWorks, localWorks);
 
 		progressHandler.setCurrentStatus("ORCID_SYNC_IMPORT_INVALID_ITERATION");
-		for (int counter = 0; counter != mergedOrcidWorks.size(); counter++) {
-			progress = (int) ((double) ((double) counter / mergedOrcidWorks.size()) * 100);
+		// once cancelled, the remainder works are recorded as unfetched
+		for (int counter = 0; counter != matches.size(); counter++) {
+			progress = (int) ((double) ((double) counter / matches.size()) * 100);
 			progressHandler.setProgress(progress);
 
-			WorkSummary mergedOrcidWork = mergedOrcidWorks.get(counter);
-			Map<Work, ExternalIdentifiersUpdate> matchingWorks = ORCIDHelper.getExternalIdentifiersDiff(
-					mergedOrcidWork, localWorks);
-			Set<String> invalids = ORCIDHelper.testMinimalQuality(mergedOrcidWork);
-			invalidsToImport.put(mergedOrcidWork.getPutCode(), invalids);
-			if (matchingWorks.isEmpty() && !invalids.isEmpty()) {
-				helper.getFullWork(mergedOrcidWork, worksToImport);
+			Match match = matches.get(counter);
+			invalidsToImport.put(match.summary.getPutCode(), match.invalids);
+			if (match.matches.isEmpty() && !match.invalids.isEmpty()) {
+				helper.getFullWork(match.summary, worksToImport);
 			}
 		}
 
-		helper.waitWorkers();
+		boolean finished = helper.waitWorkers() && !helper.isCancelled();
+		if (watermarks != null && finished && lastModified >= 0)
+			watermarks.update(orcidClient.getUserId(), lastModified,
+					ORCIDHelper.getWatermarkKeys(mergedOrcidWorks, lastModified));
 
 		progressHandler.done();
 
@@ -0,0 +1,172 @@
+package pt.ptcris.auth;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.um.dsi.gavea.orcid.client.OrcidAccessToken;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+
+/**
+ * A token provider that caches the tokens of another provider, keyed by ORCID
+ * iD, until they expire. {@link ExpiringAccessToken Tokens that carry their
+ * expiry} are cached until shortly before it, other tokens for a fixed
+ * time-to-live. Concurrent misses for the same iD are served by a single
+ * look-up in the underlying provider. Expired and
+ * {@link #invalidate(String) invalidated} tokens are looked up again. The
+ * cache is safe to be shared by every client of a batch run.
+ */
+public class CachingTokenProvider implements ORCIDTokenProvider {
+
+	/** How long tokens that do not carry their expiry are cached. */
+	public static final long DEFAULT_TTL = 60L * 60 * 1000;
+
+	/** How long before their expiry tokens stop being provided. */
+	public static final long EXPIRY_MARGIN = 60L * 1000;
+
+	private final ORCIDTokenProvider provider;
+	private final long ttl;
+	private final ConcurrentHashMap<String, Entry> tokens = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentHashMap<String, FutureTask<OrcidAccessToken>> lookups = new ConcurrentHashMap<String, FutureTask<OrcidAccessToken>>();
+
+	/**
+	 * Creates a cache that keeps tokens that do not carry their expiry for
+	 * the default time-to-live of one hour.
+	 *
+	 * @param provider
+	 *            The underlying token provider.
+	 */
+	public CachingTokenProvider(ORCIDTokenProvider provider) {
+		this(provider, DEFAULT_TTL);
+	}
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param provider
+	 *            The underlying token provider.
+	 * @param ttl
+	 *            How long tokens that do not carry their expiry are cached, in
+	 *            milliseconds, which should not exceed their validity.
+	 */
+	public CachingTokenProvider(ORCIDTokenProvider provider, long ttl) {
+		this.provider = provider;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Provides the cached token, or looks it up in the underlying provider.
+	 * Concurrent callers for the same iD await the look-up of the first.
+	 *
+	 * @throws CancellationException
+	 *             If the thread is interrupted while awaiting the look-up of
+	 *             another caller, in which case its interrupt status is kept.
+	 * @see pt.ptcris.auth.ORCIDTokenProvider#getToken(String)
+	 */
+	public OrcidAccessToken getToken(final String orcid) throws OrcidClientException {
+		Entry entry = tokens.get(orcid);
+		if (entry != null && entry.expires > System.currentTimeMillis())
+			return entry.token;
+
+		FutureTask<OrcidAccessToken> lookup = new FutureTask<OrcidAccessToken>(new Callable<OrcidAccessToken>() {
+			public OrcidAccessToken call() throws OrcidClientException {
+				return provider.getToken(orcid);
+			}
+		});
+		FutureTask<OrcidAccessToken> running = lookups.putIfAbsent(orcid, lookup);
+		if (running == null) {
+			running = lookup;
+			try {
+				lookup.run();
+				store(orcid, lookup);
+			} finally {
+				lookups.remove(orcid, lookup);
+			}
+		}
+
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while waiting for a token look-up");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof OrcidClientException)
+				throw (OrcidClientException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Forgets the cached token and signals the underlying provider. A token
+	 * being looked up concurrently is provided to its callers but not cached.
+	 *
+	 * @see pt.ptcris.auth.ORCIDTokenProvider#invalidate(String)
+	 */
+	public void invalidate(String orcid) {
+		lookups.remove(orcid);
+		tokens.remove(orcid);
+		provider.invalidate(orcid);
+	}
+
+	/**
+	 * Forgets every expired token.
+	 */
+	public void purge() {
+		long now = System.currentTimeMillis();
+		Iterator<Entry> it = tokens.values().iterator();
+		while (it.hasNext())
+			if (it.next().expires <= now)
+				it.remove();
+	}
+
+	/**
+	 * @return The number of cached tokens, possibly expired.
+	 */
+	public int size() {
+		return tokens.size();
+	}
+
+	/**
+	 * Caches the token of a successful look-up, unless the iD was invalidated
+	 * while it ran.
+	 */
+	private void store(String orcid, FutureTask<OrcidAccessToken> lookup) {
+		OrcidAccessToken token;
+		try {
+			token = lookup.get();
+		} catch (Exception e) {
+			return;
+		}
+		if (token == null)
+			return;
+		long now = System.currentTimeMillis();
+		long expires = token instanceof ExpiringAccessToken
+				? ((ExpiringAccessToken) token).getExpires() - EXPIRY_MARGIN
+				: now + ttl;
+		if (expires <= now)
+			return;
+		Entry entry = new Entry(token, expires);
+		tokens.put(orcid, entry);
+		if (lookups.get(orcid) != lookup)
+			tokens.remove(orcid, entry);
+	}
+
+	private static final class Entry {
+		final OrcidAccessToken token;
+		final long expires;
+
+		Entry(OrcidAccessToken token, long expires) {
+			this.token = token;
+			this.expires = expires;
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+package pt.ptcris.auth;
+
+import org.um.dsi.gavea.orcid.client.OrcidAccessToken;
+
+/**
+ * An access token that carries the instant at which it expires. The lifetime
+ * reported by ORCID when a token is granted is relative to the grant, so
+ * {@link ORCIDTokenProvider token providers} should compute the instant once,
+ * when storing the token, and provide tokens of this class, so that they are
+ * cached for as long as they are valid.
+ */
+public class ExpiringAccessToken extends OrcidAccessToken {
+
+	private long expires;
+
+	/**
+	 * @return The instant at which the token expires, in milliseconds since
+	 *         the epoch.
+	 */
+	public long getExpires() {
+		return expires;
+	}
+
+	/**
+	 * @param expires
+	 *            The instant at which the token expires, in milliseconds since
+	 *            the epoch.
+	 */
+	public void setExpires(long expires) {
+		this.expires = expires;
+	}
+
+	/**
+	 * Sets the instant at which the token expires from the lifetime reported
+	 * by ORCID when the token was granted.
+	 *
+	 * @param granted
+	 *            The instant at which the token was granted, in milliseconds
+	 *            since the epoch.
+	 * @param expiresIn
+	 *            The lifetime of the token, in seconds.
+	 */
+	public void setExpires(long granted, long expiresIn) {
+		this.expires = granted + expiresIn * 1000;
+	}
+
+}
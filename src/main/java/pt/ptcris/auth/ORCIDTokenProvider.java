@@ -0,0 +1,35 @@
+package pt.ptcris.auth;
+
+import org.um.dsi.gavea.orcid.client.OrcidAccessToken;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+
+/**
+ * Provides the OAuth access tokens to the ORCID profiles of the researchers,
+ * typically looked up in the local CRIS. The tokens are requested by the
+ * {@link pt.ptcris.ORCIDClientImpl ORCID client} for every request, so
+ * providers with expensive look-ups should be wrapped in a
+ * {@link CachingTokenProvider}.
+ */
+public interface ORCIDTokenProvider {
+
+	/**
+	 * Retrieves the access token to an ORCID profile.
+	 *
+	 * @param orcid
+	 *            The ORCID iD of the profile.
+	 * @return The access token to the profile.
+	 * @throws OrcidClientException
+	 *             If the token cannot be retrieved.
+	 */
+	public OrcidAccessToken getToken(String orcid) throws OrcidClientException;
+
+	/**
+	 * Signals that the access token to an ORCID profile was rejected by the
+	 * ORCID API, so that it is not provided again.
+	 *
+	 * @param orcid
+	 *            The ORCID iD of the profile.
+	 */
+	public void invalidate(String orcid);
+
+}
@@ -0,0 +1,260 @@
+package pt.ptcris.batch;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import pt.ptcris.ORCIDClient;
+import pt.ptcris.batch.LeaseQueue.Lease;
+import pt.ptcris.client.RateLimiter;
+import pt.ptcris.client.RateLimitingORCIDClient;
+import pt.ptcris.utils.CancellationToken;
+
+/**
+ * A node of a batch synchronization distributed over several JVMs, which
+ * pulls profile synchronization jobs from a shared {@link LeaseQueue} and
+ * runs them through a {@link ProfileJob}, until the queue is drained. Since
+ * each job is leased to a single node, the same profile is never
+ * synchronized by two nodes at the same time.
+ *
+ * While running, the node heartbeats its leases, at a third of the lease
+ * time, and cancels the jobs whose lease was lost (because a heartbeat was
+ * missed and the job re-queued to another node). Failed jobs are re-queued,
+ * up to the maximum attempts of the queue.
+ *
+ * The rate of ORCID calls allowed to each Member API client id is a budget
+ * of the whole batch: every node limits the calls of each client id to the
+ * budget divided by the number of live nodes, which is re-evaluated at each
+ * heartbeat as nodes join or leave.
+ */
+public class BatchNode {
+
+	/**
+	 * How often, in milliseconds, an idle node polls the queue while other
+	 * nodes still hold leases (which may expire).
+	 */
+	public static final long POLL = 5000;
+
+	private static final Logger _log = LogManager.getLogger(BatchNode.class);
+
+	private final LeaseQueue queue;
+	private final ProfileJob job;
+	private final double rate;
+	private final int concurrency;
+	private final String node;
+
+	private final ConcurrentHashMap<String, RateLimiter> limiters = new ConcurrentHashMap<String, RateLimiter>();
+	private final Map<Lease, CancellationToken> running = new ConcurrentHashMap<Lease, CancellationToken>();
+	private volatile int nodes = 1;
+	private volatile boolean stopped = false;
+
+	private final AtomicInteger completed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger lost = new AtomicInteger();
+
+	/**
+	 * Creates a node.
+	 *
+	 * @param queue
+	 *            The queue shared by the nodes of the batch.
+	 * @param job
+	 *            The synchronization of each profile.
+	 * @param rate
+	 *            The maximum number of ORCID calls per second of each Member
+	 *            API client id, for the whole batch.
+	 * @param concurrency
+	 *            The number of jobs run simultaneously by this node.
+	 */
+	public BatchNode(LeaseQueue queue, ProfileJob job, double rate, int concurrency) {
+		this.queue = queue;
+		this.job = job;
+		this.rate = rate;
+		this.concurrency = concurrency;
+		this.node = ManagementFactory.getRuntimeMXBean().getName() + "-"
+				+ UUID.randomUUID().toString().substring(0, 8);
+	}
+
+	/**
+	 * Runs jobs until the queue is drained, i.e., no job is queued nor leased
+	 * by any node, or until {@link #stop() stopped}.
+	 *
+	 * @throws IOException
+	 *             If the node cannot register in the queue.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the jobs, which are then
+	 *             cancelled.
+	 */
+	public void run() throws IOException, InterruptedException {
+		queue.register(node);
+		split();
+
+		ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "heartbeat-" + node);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = queue.getLeaseTime() / 3;
+		heartbeats.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				heartbeat();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+
+		ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+		for (int i = 0; i < concurrency; i++)
+			workers.execute(new Runnable() {
+				public void run() {
+					work();
+				}
+			});
+		workers.shutdown();
+		try {
+			while (!workers.awaitTermination(POLL, TimeUnit.MILLISECONDS))
+				;
+		} catch (InterruptedException e) {
+			stop();
+			for (CancellationToken token : running.values())
+				token.cancel();
+			workers.shutdownNow();
+			throw e;
+		} finally {
+			heartbeats.shutdownNow();
+			queue.unregister(node);
+		}
+	}
+
+	/**
+	 * Stops leasing new jobs, letting the running ones finish.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	private void work() {
+		while (!stopped) {
+			try {
+				Lease lease = queue.poll(node);
+				if (lease != null)
+					run(lease);
+				else if (queue.queued() == 0 && queue.leased() == 0)
+					return;
+				else
+					Thread.sleep(POLL);
+			} catch (IOException e) {
+				_log.error("[BatchNode] " + node + ": " + e.getMessage());
+				try {
+					Thread.sleep(POLL);
+				} catch (InterruptedException e1) {
+					return;
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void run(Lease lease) throws IOException {
+		_log.debug("[BatchNode] leased " + lease);
+		CancellationToken token = new CancellationToken();
+		running.put(lease, token);
+		try {
+			ORCIDClient client = job.getClient(lease.getOrcid());
+			job.run(new RateLimitingORCIDClient(client, limiter(client.getClientId())), token);
+			if (token.isCancelled() || !queue.complete(lease)) {
+				lost.incrementAndGet();
+				_log.warn("[BatchNode] lease lost " + lease);
+			} else
+				completed.incrementAndGet();
+		} catch (Exception e) {
+			_log.error("[BatchNode] " + lease + ": " + e.getMessage());
+			if (token.isCancelled() || !queue.fail(lease, e))
+				lost.incrementAndGet();
+			else
+				failed.incrementAndGet();
+		} finally {
+			running.remove(lease);
+		}
+	}
+
+	private void heartbeat() {
+		try {
+			queue.register(node);
+			split();
+			for (Map.Entry<Lease, CancellationToken> entry : running.entrySet())
+				if (!queue.heartbeat(entry.getKey()))
+					entry.getValue().cancel();
+		} catch (IOException e) {
+			_log.error("[BatchNode] heartbeat " + node + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Splits the rate budget of each client id between the live nodes.
+	 */
+	private void split() throws IOException {
+		nodes = Math.max(1, queue.liveNodes());
+		for (RateLimiter limiter : limiters.values())
+			limiter.setRate(rate / nodes);
+	}
+
+	private RateLimiter limiter(String clientId) {
+		RateLimiter limiter = limiters.get(clientId);
+		if (limiter == null) {
+			limiter = new RateLimiter(rate / nodes);
+			RateLimiter other = limiters.putIfAbsent(clientId, limiter);
+			if (other != null)
+				limiter = other;
+		}
+		return limiter;
+	}
+
+	/**
+	 * @return The identifier of the node.
+	 */
+	public String getNode() {
+		return node;
+	}
+
+	/**
+	 * @return The number of live nodes, as of the last heartbeat.
+	 */
+	public int getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return The number of jobs completed by this node.
+	 */
+	public int getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * @return The number of jobs failed (and possibly re-queued) by this
+	 *         node.
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return The number of jobs whose lease this node lost while running.
+	 */
+	public int getLost() {
+		return lost.get();
+	}
+
+}
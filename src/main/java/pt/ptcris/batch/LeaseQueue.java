@@ -0,0 +1,539 @@
+package pt.ptcris.batch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * A queue of profile synchronization jobs shared by several nodes (JVMs)
+ * through a shared file system. Each job is a file, identified by the ORCID
+ * iD of the profile, that moves between the following directories:
+ * <ul>
+ * <li><code>queue</code>, jobs waiting for a node;</li>
+ * <li><code>leased</code>, jobs being run, leased to a node;</li>
+ * <li><code>done</code>, jobs successfully run;</li>
+ * <li><code>failed</code>, jobs that failed too many times.</li>
+ * </ul>
+ * Nodes keep their leases by periodically touching the lease files (the
+ * heartbeat). Leases whose heartbeat is older than the lease time, because
+ * their node died or hanged, are re-queued by any node, so that another node
+ * runs the job. The node that lost the lease is told so at its next
+ * heartbeat.
+ *
+ * Every transition of a job out of the queue or of the leased jobs (leasing,
+ * finishing and re-queueing) is performed while holding the claim of the
+ * job, a file of the <code>claims</code> directory that only one node can
+ * create, so that only one node succeeds in each transition. Nodes re-check
+ * the state of the job once claimed, since another node may have changed it
+ * meanwhile. Claims are held for the duration of a transition only; those
+ * older than the lease time were left by a node that died while holding
+ * them, and are broken. Jobs are published in a directory by linking a
+ * completely written file, which fails if the job is already there, so that
+ * a queued job is never overwritten nor read partially written.
+ *
+ * Live nodes register themselves in the <code>nodes</code> directory through
+ * their heartbeats, so that nodes can split between them budgets shared by
+ * the whole batch.
+ *
+ * Lease expiry compares the clock of the node with the modification time of
+ * the files, which is set by the clock of the node that touched them. The
+ * clocks of the nodes are thus expected to differ by much less than the lease
+ * time.
+ */
+public class LeaseQueue {
+
+	public static final long DEFAULT_LEASE_TIME = 60000;
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	private static final Pattern ORCID = Pattern.compile("\\d{4}-\\d{4}-\\d{4}-\\d{3}[\\dX]");
+
+	private static final String QUEUE = "queue";
+	private static final String LEASED = "leased";
+	private static final String DONE = "done";
+	private static final String FAILED = "failed";
+	private static final String NODES = "nodes";
+	private static final String CLAIMS = "claims";
+
+	/**
+	 * How many times, and how often in milliseconds, a node finishing a job
+	 * tries to claim it while another node holds the claim.
+	 */
+	private static final int CLAIM_ATTEMPTS = 100;
+	private static final long CLAIM_WAIT = 10;
+
+	private static final String KEY_ORCID = "orcid";
+	private static final String KEY_ATTEMPTS = "attempts";
+	private static final String KEY_NODE = "node";
+	private static final String KEY_ERROR = "error";
+
+	private final Path dir;
+	private final long leaseTime;
+	private final int maxAttempts;
+
+	/**
+	 * Opens (creating if needed) a queue with the default lease time and
+	 * number of attempts.
+	 *
+	 * @param dir
+	 *            The directory of the queue, shared by the nodes.
+	 * @throws IOException
+	 *             If the directories of the queue cannot be created.
+	 */
+	public LeaseQueue(Path dir) throws IOException {
+		this(dir, DEFAULT_LEASE_TIME, DEFAULT_MAX_ATTEMPTS);
+	}
+
+	/**
+	 * Opens (creating if needed) a queue.
+	 *
+	 * @param dir
+	 *            The directory of the queue, shared by the nodes.
+	 * @param leaseTime
+	 *            The time, in milliseconds, after which a lease without
+	 *            heartbeats expires.
+	 * @param maxAttempts
+	 *            The number of times a job is run before it is considered
+	 *            failed.
+	 * @throws IOException
+	 *             If the directories of the queue cannot be created.
+	 */
+	public LeaseQueue(Path dir, long leaseTime, int maxAttempts) throws IOException {
+		this.dir = dir;
+		this.leaseTime = leaseTime;
+		this.maxAttempts = maxAttempts;
+		for (String sub : new String[] { QUEUE, LEASED, DONE, FAILED, NODES, CLAIMS })
+			Files.createDirectories(dir.resolve(sub));
+	}
+
+	/**
+	 * @return The time, in milliseconds, after which a lease without
+	 *         heartbeats expires.
+	 */
+	public long getLeaseTime() {
+		return leaseTime;
+	}
+
+	/**
+	 * Queues the synchronization of a profile, unless already queued or
+	 * leased. A profile whose synchronization is done (or failed) is queued
+	 * again.
+	 *
+	 * @param orcid
+	 *            The ORCID iD of the profile.
+	 * @return Whether the job was queued.
+	 * @throws IOException
+	 *             If the job cannot be written.
+	 */
+	public boolean submit(String orcid) throws IOException {
+		if (!ORCID.matcher(orcid).matches())
+			throw new IllegalArgumentException("Invalid ORCID iD: " + orcid);
+		if (Files.exists(dir.resolve(LEASED).resolve(orcid)))
+			return false;
+		Properties job = new Properties();
+		job.setProperty(KEY_ORCID, orcid);
+		job.setProperty(KEY_ATTEMPTS, "0");
+		if (!publish(QUEUE, orcid, job))
+			return false;
+		Files.deleteIfExists(dir.resolve(DONE).resolve(orcid));
+		Files.deleteIfExists(dir.resolve(FAILED).resolve(orcid));
+		return true;
+	}
+
+	/**
+	 * Leases the next queued job to a node, first re-queueing the expired
+	 * leases.
+	 *
+	 * @param node
+	 *            The identifier of the node.
+	 * @return The lease of the job, or null if no job is queued.
+	 * @throws IOException
+	 *             If the queue cannot be accessed.
+	 */
+	public Lease poll(String node) throws IOException {
+		requeueExpired();
+		for (Path queued : list(QUEUE)) {
+			String orcid = queued.getFileName().toString();
+			if (!claim(orcid))
+				continue; // being leased by another node
+			try {
+				Properties job;
+				try {
+					job = read(queued);
+				} catch (NoSuchFileException e) {
+					continue; // leased by another node meanwhile
+				}
+				job.setProperty(KEY_NODE, node);
+				job.setProperty(KEY_ATTEMPTS, String.valueOf(attempts(job) + 1));
+				// queued again while leased, waits for the lease to finish
+				if (!publish(LEASED, orcid, job))
+					continue;
+				Files.deleteIfExists(queued);
+				return new Lease(orcid, node, attempts(job));
+			} finally {
+				unclaim(orcid);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Renews a lease.
+	 *
+	 * @param lease
+	 *            The lease.
+	 * @return Whether the lease is still held by its node, false if it
+	 *         expired and was re-queued (or leased to another node).
+	 * @throws IOException
+	 *             If the queue cannot be accessed.
+	 */
+	public boolean heartbeat(Lease lease) throws IOException {
+		Path leased = dir.resolve(LEASED).resolve(lease.getOrcid());
+		try {
+			if (!lease.getNode().equals(read(leased).getProperty(KEY_NODE)))
+				return false;
+			Files.setLastModifiedTime(leased, FileTime.fromMillis(System.currentTimeMillis()));
+			return true;
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Marks the job of a lease as done.
+	 *
+	 * @param lease
+	 *            The lease.
+	 * @return Whether the lease was still held, false if the job was
+	 *         re-queued meanwhile (and will thus be run again).
+	 * @throws IOException
+	 *             If the queue cannot be accessed.
+	 */
+	public boolean complete(Lease lease) throws IOException {
+		return finish(lease, DONE, null);
+	}
+
+	/**
+	 * Gives up the lease of a failed job, re-queueing it unless it failed too
+	 * many times.
+	 *
+	 * @param lease
+	 *            The lease.
+	 * @param error
+	 *            The cause of the failure.
+	 * @return Whether the lease was still held.
+	 * @throws IOException
+	 *             If the queue cannot be accessed.
+	 */
+	public boolean fail(Lease lease, Exception error) throws IOException {
+		return finish(lease, lease.getAttempts() >= maxAttempts ? FAILED : QUEUE, String.valueOf(error));
+	}
+
+	/**
+	 * Registers (or renews) a live node.
+	 *
+	 * @param node
+	 *            The identifier of the node.
+	 * @throws IOException
+	 *             If the queue cannot be accessed.
+	 */
+	public void register(String node) throws IOException {
+		Path file = dir.resolve(NODES).resolve(node);
+		if (!Files.exists(file))
+			Files.write(file, new byte[0], StandardOpenOption.CREATE);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Unregisters a node that is leaving.
+	 *
+	 * @param node
+	 *            The identifier of the node.
+	 * @throws IOException
+	 *             If the queue cannot be accessed.
+	 */
+	public void unregister(String node) throws IOException {
+		Files.deleteIfExists(dir.resolve(NODES).resolve(node));
+	}
+
+	/**
+	 * Counts the live nodes, i.e., those whose last heartbeat is more recent
+	 * than the lease time, removing the others.
+	 *
+	 * @return The number of live nodes.
+	 * @throws IOException
+	 *             If the queue cannot be accessed.
+	 */
+	public int liveNodes() throws IOException {
+		int live = 0;
+		for (Path node : list(NODES)) {
+			try {
+				if (expired(node))
+					Files.deleteIfExists(node);
+				else
+					live++;
+			} catch (NoSuchFileException e) {
+				// removed by another node meanwhile
+			}
+		}
+		return live;
+	}
+
+	/**
+	 * @return The number of queued jobs.
+	 * @throws IOException
+	 *             If the queue cannot be accessed.
+	 */
+	public int queued() throws IOException {
+		return list(QUEUE).size();
+	}
+
+	/**
+	 * @return The number of leased jobs.
+	 * @throws IOException
+	 *             If the queue cannot be accessed.
+	 */
+	public int leased() throws IOException {
+		return list(LEASED).size();
+	}
+
+	/**
+	 * @return The ORCID iDs of the failed jobs.
+	 * @throws IOException
+	 *             If the queue cannot be accessed.
+	 */
+	public List<String> failed() throws IOException {
+		List<String> res = new ArrayList<String>();
+		for (Path file : list(FAILED))
+			res.add(file.getFileName().toString());
+		return res;
+	}
+
+	/**
+	 * Re-queues the leases whose heartbeat is older than the lease time, or
+	 * fails them if they were attempted too many times. Each expired lease is
+	 * moved by a single node, which claims the job and re-checks that it is
+	 * still the same expired lease, i.e., that it was neither renewed,
+	 * finished nor leased again meanwhile.
+	 *
+	 * @throws IOException
+	 *             If the queue cannot be accessed.
+	 */
+	public void requeueExpired() throws IOException {
+		for (Path leased : list(LEASED)) {
+			String orcid = leased.getFileName().toString();
+			try {
+				// the lease may be replaced meanwhile, so the expiration is
+				// decided on the heartbeat that is re-checked once claimed
+				long heartbeat = Files.getLastModifiedTime(leased).toMillis();
+				if (System.currentTimeMillis() - heartbeat <= leaseTime)
+					continue;
+				String node = read(leased).getProperty(KEY_NODE);
+				if (!claim(orcid))
+					continue;
+				try {
+					Properties job = read(leased);
+					if (!node.equals(job.getProperty(KEY_NODE))
+							|| Files.getLastModifiedTime(leased).toMillis() != heartbeat)
+						continue;
+					move(leased, attempts(job) >= maxAttempts ? FAILED : QUEUE, job, "lease expired");
+				} finally {
+					unclaim(orcid);
+				}
+			} catch (NoSuchFileException e) {
+				// finished or re-queued by another node meanwhile
+			}
+		}
+	}
+
+	private boolean finish(Lease lease, String to, String error) throws IOException {
+		Path leased = dir.resolve(LEASED).resolve(lease.getOrcid());
+		// other transitions of the job hold the claim briefly
+		for (int attempt = 0; !claim(lease.getOrcid()); attempt++) {
+			if (attempt == CLAIM_ATTEMPTS)
+				return false;
+			try {
+				Thread.sleep(CLAIM_WAIT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		try {
+			Properties job = read(leased);
+			if (!lease.getNode().equals(job.getProperty(KEY_NODE)))
+				return false;
+			move(leased, to, job, error);
+			return true;
+		} catch (NoSuchFileException e) {
+			return false;
+		} finally {
+			unclaim(lease.getOrcid());
+		}
+	}
+
+	/**
+	 * Moves a leased job, whose claim is held, to another directory. A job
+	 * already queued again (after being re-submitted while leased) is kept
+	 * as queued, the leased one being dropped.
+	 */
+	private void move(Path leased, String to, Properties job, String error) throws IOException {
+		job.remove(KEY_NODE);
+		if (error != null)
+			job.setProperty(KEY_ERROR, error);
+		String orcid = leased.getFileName().toString();
+		if (QUEUE.equals(to))
+			publish(QUEUE, orcid, job);
+		else {
+			Path tmp = Files.createTempFile(dir.resolve(to), orcid, ".tmp");
+			write(tmp, job);
+			Files.move(tmp, dir.resolve(to).resolve(orcid), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		Files.deleteIfExists(leased);
+	}
+
+	/**
+	 * Publishes a job in a directory, unless already there, by linking a
+	 * completely written temporary file.
+	 *
+	 * @return Whether the job was published.
+	 */
+	private boolean publish(String to, String orcid, Properties job) throws IOException {
+		Path tmp = Files.createTempFile(dir.resolve(to), orcid, ".tmp");
+		try {
+			write(tmp, job);
+			Files.createLink(dir.resolve(to).resolve(orcid), tmp);
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Claims a job for a transition, breaking the claim if left by a node
+	 * that died while holding it.
+	 *
+	 * @return Whether the job was claimed.
+	 */
+	private boolean claim(String orcid) throws IOException {
+		Path claim = dir.resolve(CLAIMS).resolve(orcid);
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				Files.createFile(claim);
+				return true;
+			} catch (FileAlreadyExistsException e) {
+				try {
+					if (!expired(claim))
+						return false;
+					Files.deleteIfExists(claim);
+				} catch (NoSuchFileException e1) {
+					// released meanwhile
+				}
+			}
+		}
+		return false;
+	}
+
+	private void unclaim(String orcid) throws IOException {
+		Files.deleteIfExists(dir.resolve(CLAIMS).resolve(orcid));
+	}
+
+	private boolean expired(Path file) throws IOException {
+		return System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() > leaseTime;
+	}
+
+	private List<Path> list(String sub) throws IOException {
+		List<Path> res = new ArrayList<Path>();
+		DirectoryStream<Path> files = Files.newDirectoryStream(dir.resolve(sub));
+		try {
+			for (Path file : files)
+				if (!file.getFileName().toString().endsWith(".tmp"))
+					res.add(file);
+		} finally {
+			files.close();
+		}
+		Collections.sort(res);
+		return res;
+	}
+
+	private static int attempts(Properties job) {
+		return Integer.parseInt(job.getProperty(KEY_ATTEMPTS, "0"));
+	}
+
+	private static Properties read(Path file) throws IOException {
+		Properties res = new Properties();
+		InputStream in = Files.newInputStream(file);
+		try {
+			res.load(in);
+		} finally {
+			in.close();
+		}
+		return res;
+	}
+
+	private static void write(Path file, Properties job) throws IOException {
+		OutputStream out = Files.newOutputStream(file);
+		try {
+			job.store(out, null);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * The lease of a job by a node.
+	 */
+	public static final class Lease {
+		private final String orcid;
+		private final String node;
+		private final int attempts;
+
+		Lease(String orcid, String node, int attempts) {
+			this.orcid = orcid;
+			this.node = node;
+			this.attempts = attempts;
+		}
+
+		/**
+		 * @return The ORCID iD of the profile to be synchronized.
+		 */
+		public String getOrcid() {
+			return orcid;
+		}
+
+		/**
+		 * @return The identifier of the node holding the lease.
+		 */
+		public String getNode() {
+			return node;
+		}
+
+		/**
+		 * @return The number of times the job was leased, including this one.
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+
+		@Override
+		public String toString() {
+			return orcid + "@" + node + " (" + attempts + ")";
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+package pt.ptcris.batch;
+
+import pt.ptcris.ORCIDClient;
+import pt.ptcris.utils.CancellationToken;
+
+/**
+ * The synchronization of a profile run by a {@link BatchNode}, implemented by
+ * the CRIS service, which knows the local productions and the credentials of
+ * each profile.
+ */
+public interface ProfileJob {
+
+	/**
+	 * Creates the ORCID client of a profile.
+	 * 
+	 * @param orcid
+	 *            The ORCID iD of the profile.
+	 * @return The ORCID client of the profile.
+	 * @throws Exception
+	 *             If the client cannot be created (e.g., the profile no
+	 *             longer grants access), which fails the job.
+	 */
+	public ORCIDClient getClient(String orcid) throws Exception;
+
+	/**
+	 * Synchronizes a profile, through the {@link pt.ptcris.PTCRISync}
+	 * procedures (e.g., an export followed by an import), which must be
+	 * given the provided client and cancellation token.
+	 * 
+	 * @param client
+	 *            The ORCID client of the profile, subject to the rate of the
+	 *            node.
+	 * @param token
+	 *            The cancellation token, cancelled if the node loses the lease
+	 *            of the job.
+	 * @throws Exception
+	 *             If the synchronization fails, in which case the job is
+	 *             re-queued (up to a maximum of attempts).
+	 */
+	public void run(ORCIDClient client, CancellationToken token) throws Exception;
+
+}
@@ -0,0 +1,76 @@
+package pt.ptcris.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An exclusive lock on the files of a persistent cache, held through a lock
+ * file in its directory, so that it survives the replacement of the other
+ * files by compactions. The lock is taken without waiting, and fails if held
+ * by another process or by another cache of this JVM (which file locks alone
+ * would not detect).
+ */
+final class DirectoryLock implements Closeable {
+
+	/** The lock files held by this JVM. */
+	private static final Set<String> held = Collections.synchronizedSet(new HashSet<String>());
+
+	private final String path;
+	private final RandomAccessFile file;
+	private final FileLock lock;
+
+	/**
+	 * Takes the lock.
+	 *
+	 * @param dir
+	 *            The directory of the cache files.
+	 * @param name
+	 *            The name of the lock file.
+	 * @throws IOException
+	 *             If the lock is held, or the lock file cannot be opened.
+	 */
+	DirectoryLock(File dir, String name) throws IOException {
+		File lockFile = new File(dir, name);
+		this.path = lockFile.getCanonicalPath();
+		if (!held.add(path))
+			throw new IOException(dir + " is already in use by this JVM");
+		RandomAccessFile file = null;
+		FileLock lock = null;
+		try {
+			file = new RandomAccessFile(lockFile, "rw");
+			lock = file.getChannel().tryLock();
+			if (lock == null)
+				throw new IOException(dir + " is in use by another process");
+		} finally {
+			if (lock == null) {
+				held.remove(path);
+				if (file != null)
+					file.close();
+			}
+		}
+		this.file = file;
+		this.lock = lock;
+	}
+
+	/**
+	 * Releases the lock.
+	 */
+	public void close() throws IOException {
+		try {
+			lock.release();
+		} finally {
+			try {
+				file.close();
+			} finally {
+				held.remove(path);
+			}
+		}
+	}
+
+}
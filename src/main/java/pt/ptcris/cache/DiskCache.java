@@ -0,0 +1,488 @@
+package pt.ptcris.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.namespace.QName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.transport.JAXBPool;
+
+/**
+ * A persistent, size-capped cache of ORCID responses (full works and works
+ * summaries) that survives JVM
+ * restarts. Each response is stored as a gzip-compressed XML record appended to
+ * a data file, which is memory-mapped for reading. An index maps each key to
+ * the offset and length of its record and to the last-modified date of the
+ * cached resource. Every record also holds its key and last-modified date,
+ * which are checked when the record is read, so that an index that does not
+ * match the data file (e.g., after a crash during a compaction) results in
+ * misses rather than in the response of another key being served.
+ *
+ * Entries are invalidated by last-modified date: a look-up for a date other
+ * than the cached one misses and drops the stale entry. When the data file
+ * exceeds the size cap the least recently used entries are evicted and the
+ * file is compacted.
+ *
+ * The index is kept in memory and persisted every {@link #FLUSH_INTERVAL}
+ * writes, after every compaction, on {@link #flush()} and on
+ * {@link #close()}. The cache is closed by a shutdown hook if still open
+ * when the JVM exits; applications that discard a cache earlier should close
+ * it themselves (e.g., through {@link WorkCache#close()}). Entries written
+ * after the last persisted index are lost, and a lost or corrupted index
+ * simply results in an empty cache.
+ *
+ * The files are written in place, so a directory holds the cache of a
+ * single JVM: an open cache holds an exclusive lock on its directory, and
+ * opening another cache on it, in this or in another process, fails.
+ * Processes that run concurrently must each be given their own directory.
+ */
+public class DiskCache implements Closeable {
+
+	private static final Logger _log = LogManager.getLogger(DiskCache.class);
+
+	public static final int FLUSH_INTERVAL = 64;
+
+	private static final int INDEX_VERSION = 2;
+	private static final String DATA_FILE = "cache.data";
+	private static final String INDEX_FILE = "cache.index";
+	private static final String LOCK_FILE = "cache.lock";
+	private static final QName RECORD = new QName("record");
+
+	private final File dir;
+	private final long maxBytes;
+	private final DirectoryLock lock;
+	private final LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private RandomAccessFile data;
+	private MappedByteBuffer mapped;
+	private long liveBytes = 0;
+	private int unflushed = 0;
+	private final Thread hook;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Opens (or creates) a disk cache in a directory.
+	 *
+	 * @param dir
+	 *            The directory holding the cache files.
+	 * @param maxBytes
+	 *            The maximum size of the data file, in bytes. Must not exceed
+	 *            2GB, the limit of a single memory mapping.
+	 * @throws IOException
+	 *             If the cache files cannot be opened, or the directory is in
+	 *             use by another cache.
+	 */
+	public DiskCache(File dir, long maxBytes) throws IOException {
+		if (maxBytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Cache size cannot exceed " + Integer.MAX_VALUE + " bytes");
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create cache directory " + dir);
+		this.lock = new DirectoryLock(dir, LOCK_FILE);
+		try {
+			this.data = new RandomAccessFile(new File(dir, DATA_FILE), "rw");
+			loadIndex();
+		} catch (IOException e) {
+			if (data != null)
+				data.close();
+			lock.close();
+			throw e;
+		}
+		this.hook = new Thread("DiskCache-close") {
+			public void run() {
+				try {
+					DiskCache.this.close();
+				} catch (IOException e) {
+					_log.warn("[DiskCache] cannot close " + DiskCache.this.dir, e);
+				}
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(hook);
+	}
+
+	/**
+	 * Retrieves a cached full work.
+	 *
+	 * @see #get(String, long, Class)
+	 */
+	public Work getWork(String userId, BigInteger putCode, long lastModified) {
+		return get(workKey(userId, putCode), lastModified, Work.class);
+	}
+
+	/**
+	 * Caches a full work.
+	 *
+	 * @see #put(String, long, Class, Object)
+	 */
+	public void putWork(String userId, BigInteger putCode, long lastModified, Work work) {
+		put(workKey(userId, putCode), lastModified, Work.class, work);
+	}
+
+	/**
+	 * Retrieves the cached works summary of a profile.
+	 *
+	 * @see #get(String, long, Class)
+	 */
+	public Works getWorksSummary(String userId, long lastModified) {
+		return get(summaryKey(userId), lastModified, Works.class);
+	}
+
+	/**
+	 * Retrieves the most recent cached works summary of a profile,
+	 * independently of its last-modified date. Meant to be validated by a
+	 * conditional request.
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 * @return The cached works summary, or null if not cached.
+	 */
+	public synchronized Works getLatestWorksSummary(String userId) {
+		String key = summaryKey(userId);
+		return get(key, getLastModified(key), Works.class);
+	}
+
+	/**
+	 * Removes the cached works summary of a profile.
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 */
+	public synchronized void removeWorksSummary(String userId) {
+		remove(summaryKey(userId));
+	}
+
+	/**
+	 * Caches the works summary of a profile.
+	 *
+	 * @see #put(String, long, Class, Object)
+	 */
+	public void putWorksSummary(String userId, long lastModified, Works summary) {
+		put(summaryKey(userId), lastModified, Works.class, summary);
+	}
+
+	/**
+	 * Returns the last-modified date of a cached entry.
+	 *
+	 * @param key
+	 *            The key of the entry.
+	 * @return The last-modified date of the entry, or -1 if not cached.
+	 */
+	public synchronized long getLastModified(String key) {
+		Entry entry = index.get(key);
+		return entry == null ? -1 : entry.lastModified;
+	}
+
+	/**
+	 * Retrieves a cached response. Entries cached for a different last-modified
+	 * date are considered stale and removed, as are entries whose record does
+	 * not hold the expected key and date.
+	 *
+	 * @param key
+	 *            The key of the entry.
+	 * @param lastModified
+	 *            The current last-modified date of the resource.
+	 * @param type
+	 *            The type of the cached response.
+	 * @return The cached response, or null if not cached, stale or unreadable.
+	 */
+	public <T> T get(String key, long lastModified, Class<T> type) {
+		DataInputStream in;
+		synchronized (this) {
+			Entry entry = index.get(key);
+			if (entry == null || entry.lastModified != lastModified || lastModified < 0) {
+				if (entry != null)
+					remove(key);
+				misses++;
+				return null;
+			}
+			try {
+				in = new DataInputStream(new ByteArrayInputStream(read(entry)));
+				if (!key.equals(in.readUTF()) || in.readLong() != lastModified)
+					throw new IOException("mismatched record");
+			} catch (IOException e) {
+				_log.warn("[DiskCache] unreadable entry " + key, e);
+				remove(key);
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+		try {
+			return JAXBPool.unmarshal(new GZIPInputStream(in), type);
+		} catch (Exception e) {
+			_log.warn("[DiskCache] corrupted entry " + key, e);
+			synchronized (this) {
+				remove(key);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Caches a response, replacing any previous entry with the same key.
+	 * Responses with unknown last-modified dates are not cached.
+	 *
+	 * @param key
+	 *            The key of the entry.
+	 * @param lastModified
+	 *            The last-modified date of the resource.
+	 * @param type
+	 *            The type of the cached response.
+	 * @param value
+	 *            The response to be cached.
+	 */
+	public <T> void put(String key, long lastModified, Class<T> type, T value) {
+		if (lastModified < 0)
+			return;
+		byte[] record;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream header = new DataOutputStream(bytes);
+			header.writeUTF(key);
+			header.writeLong(lastModified);
+			header.flush();
+			GZIPOutputStream out = new GZIPOutputStream(bytes);
+			JAXBPool.marshal(value, type, RECORD, out);
+			out.close();
+			record = bytes.toByteArray();
+		} catch (Exception e) {
+			_log.warn("[DiskCache] cannot serialize entry " + key, e);
+			return;
+		}
+		if (record.length > maxBytes / 2)
+			return;
+		synchronized (this) {
+			try {
+				if (data.length() + record.length > maxBytes)
+					compact(maxBytes / 2 - record.length);
+				long offset = data.length();
+				data.seek(offset);
+				data.write(record);
+				remove(key);
+				index.put(key, new Entry(offset, record.length, lastModified));
+				liveBytes += record.length;
+				if (++unflushed >= FLUSH_INTERVAL)
+					flush();
+			} catch (IOException e) {
+				_log.warn("[DiskCache] cannot write entry " + key, e);
+			}
+		}
+	}
+
+	/**
+	 * Persists the index, so that the cached entries are available to future
+	 * JVMs.
+	 *
+	 * @throws IOException
+	 *             If the index cannot be written.
+	 */
+	public synchronized void flush() throws IOException {
+		File tmp = new File(dir, INDEX_FILE + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(INDEX_VERSION);
+			out.writeLong(data.length());
+			out.writeInt(index.size());
+			// least recently used first, preserving the eviction order
+			for (Map.Entry<String, Entry> e : index.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeLong(e.getValue().offset);
+				out.writeInt(e.getValue().length);
+				out.writeLong(e.getValue().lastModified);
+			}
+		} finally {
+			out.close();
+		}
+		data.getFD().sync();
+		replace(tmp, new File(dir, INDEX_FILE));
+		unflushed = 0;
+	}
+
+	/**
+	 * Persists the index and releases the cache files. The cache cannot be
+	 * used once closed; closing it again has no effect.
+	 *
+	 * @throws IOException
+	 *             If the index cannot be written.
+	 */
+	public synchronized void close() throws IOException {
+		if (!data.getChannel().isOpen())
+			return;
+		try {
+			flush();
+		} finally {
+			mapped = null;
+			try {
+				data.close();
+			} finally {
+				lock.close();
+			}
+			try {
+				Runtime.getRuntime().removeShutdownHook(hook);
+			} catch (IllegalStateException e) {
+				// already shutting down
+			}
+		}
+	}
+
+	/**
+	 * @return The number of cached entries.
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return The number of bytes used by live entries in the data file.
+	 */
+	public synchronized long bytes() {
+		return liveBytes;
+	}
+
+	/**
+	 * @return The number of successful look-ups.
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of failed look-ups.
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	static String workKey(String userId, BigInteger putCode) {
+		return "work/" + userId + "/" + putCode;
+	}
+
+	static String summaryKey(String userId) {
+		return "works/" + userId;
+	}
+
+	private void remove(String key) {
+		Entry old = index.remove(key);
+		if (old != null)
+			liveBytes -= old.length;
+	}
+
+	private byte[] read(Entry entry) throws IOException {
+		if (mapped == null || entry.offset + entry.length > mapped.capacity())
+			mapped = data.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, data.length());
+		ByteBuffer view = mapped.duplicate();
+		view.position((int) entry.offset);
+		byte[] record = new byte[entry.length];
+		view.get(record);
+		return record;
+	}
+
+	/**
+	 * Evicts the least recently used entries until the live entries fit in
+	 * <code>target</code> bytes and rewrites the data file with only the live
+	 * entries. The index is persisted after the new data file is in place; a
+	 * crash in between leaves an index with stale offsets, whose entries are
+	 * detected and dropped when read.
+	 */
+	private void compact(long target) throws IOException {
+		Iterator<Entry> it = index.values().iterator();
+		while (it.hasNext() && liveBytes > target) {
+			liveBytes -= it.next().length;
+			it.remove();
+		}
+
+		File tmp = new File(dir, DATA_FILE + ".tmp");
+		RandomAccessFile compacted = new RandomAccessFile(tmp, "rw");
+		compacted.setLength(0);
+		List<Entry> entries = new ArrayList<Entry>(index.values());
+		for (Entry entry : entries) {
+			byte[] record = read(entry);
+			entry.offset = compacted.length();
+			compacted.seek(entry.offset);
+			compacted.write(record);
+		}
+		compacted.close();
+
+		mapped = null;
+		data.close();
+		replace(tmp, new File(dir, DATA_FILE));
+		data = new RandomAccessFile(new File(dir, DATA_FILE), "rw");
+		flush();
+		_log.debug("[DiskCache] compacted to " + liveBytes + " bytes");
+	}
+
+	private void loadIndex() throws IOException {
+		File file = new File(dir, INDEX_FILE);
+		if (!file.exists())
+			return;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			// records appended after the last flush are unreferenced but harmless
+			if (in.readInt() != INDEX_VERSION || in.readLong() > data.length())
+				throw new IOException("Stale cache index");
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				String key = in.readUTF();
+				Entry entry = new Entry(in.readLong(), in.readInt(), in.readLong());
+				if (entry.offset < 0 || entry.offset + entry.length > data.length())
+					continue;
+				index.put(key, entry);
+				liveBytes += entry.length;
+			}
+		} catch (IOException e) {
+			_log.warn("[DiskCache] discarding cache index: " + e.getMessage());
+			index.clear();
+			liveBytes = 0;
+			data.setLength(0);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void replace(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			if (!to.delete() || !from.renameTo(to))
+				throw new IOException("Cannot replace " + to);
+		}
+	}
+
+	private static final class Entry {
+		long offset;
+		final int length;
+		final long lastModified;
+
+		Entry(long offset, int length, long lastModified) {
+			this.offset = offset;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+	}
+
+}
@@ -0,0 +1,524 @@
+package pt.ptcris.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.activities.WorkGroup;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifier;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.utils.IdentifierFilter;
+
+/**
+ * A persistent, institution-wide index of the works of the synchronized
+ * ORCID profiles, mapping each canonical external identifier (see
+ * {@link IdentifierFilter#canonical(ExternalIdentifier)}) to the ORCID iD,
+ * put-code and last-modified date of every work that holds it. The index is
+ * updated as a side effect of the retrieval of works summaries by the
+ * {@link ORCIDHelper helper}, so that it grows with the synchronizations.
+ * It allows, for instance, the synchronization of only the profiles that
+ * hold an identifier, or the reuse of works already fetched for a co-author.
+ *
+ * The index lives off-heap, in a memory-mapped file holding a hash table of
+ * fixed-size records chained by bucket. Identifiers are stored as 64-bit
+ * hashes, so a look-up may (extremely rarely) return the works of a
+ * different identifier; callers that need certainty must check the returned
+ * works. Only a small table of the indexed profiles is kept in memory.
+ *
+ * Each update of a profile starts a new epoch of the profile, records from
+ * previous epochs becoming stale. Epochs are drawn from a counter of the
+ * whole index, so that the records of a removed profile do not become live
+ * again once the profile is indexed anew. Stale records are reclaimed when they
+ * outnumber the live ones. The table of profiles is persisted on
+ * {@link #flush()} and {@link #close()}: profiles updated after the last
+ * flush are reindexed by their next synchronization, and a lost or
+ * corrupted table simply results in an empty index.
+ *
+ * The files are written in place, so a directory holds the index of a
+ * single JVM: an open index holds an exclusive lock on its directory, and
+ * opening another index on it, in this or in another process, fails.
+ * Processes that run concurrently must each be given their own directory.
+ */
+public class IdentifierIndex {
+
+	private static final Logger _log = LogManager.getLogger(IdentifierIndex.class);
+
+	public static final int DEFAULT_BUCKETS = 1 << 20;
+
+	private static final int VERSION = 2;
+	private static final String DATA_FILE = "ids.data";
+	private static final String PROFILES_FILE = "ids.profiles";
+	private static final String LOCK_FILE = "ids.lock";
+	private static final Pattern ORCID = Pattern.compile("\\d{4}-\\d{4}-\\d{4}-\\d{3}[\\dX]");
+
+	// the header: version, buckets, records, epochs
+	private static final int HEADER = 16;
+	private static final int H_EPOCHS = 12;
+	// the record: identifier hash, ORCID iD, put-code, last-modified, epoch, next
+	private static final int RECORD = 40;
+	private static final int R_HASH = 0;
+	private static final int R_ORCID = 8;
+	private static final int R_PUTCODE = 16;
+	private static final int R_MODIFIED = 24;
+	private static final int R_EPOCH = 32;
+	private static final int R_NEXT = 36;
+	private static final int MIN_RECORDS = 1024;
+
+	private static volatile IdentifierIndex shared = null;
+
+	private final File dir;
+	private final int buckets;
+	private final DirectoryLock lock;
+	private RandomAccessFile data;
+	private MappedByteBuffer mapped;
+	private int records;
+	private int epochs;
+	private int live = 0;
+	private final Map<Long, Profile> profiles = new HashMap<Long, Profile>();
+
+	/**
+	 * Opens (or creates) an index in a directory, with the default number of
+	 * buckets.
+	 *
+	 * @param dir
+	 *            The directory holding the index files.
+	 * @throws IOException
+	 *             If the index files cannot be opened.
+	 */
+	public IdentifierIndex(File dir) throws IOException {
+		this(dir, DEFAULT_BUCKETS);
+	}
+
+	/**
+	 * Opens (or creates) an index in a directory. An existing index with a
+	 * different number of buckets is discarded.
+	 *
+	 * @param dir
+	 *            The directory holding the index files.
+	 * @param buckets
+	 *            The number of buckets of the hash table, rounded up to a
+	 *            power of 2, ideally about the number of indexed
+	 *            identifiers.
+	 * @throws IOException
+	 *             If the index files cannot be opened, or the directory is in
+	 *             use by another index.
+	 */
+	public IdentifierIndex(File dir, int buckets) throws IOException {
+		this.dir = dir;
+		this.buckets = Integer.highestOneBit(Math.max(1, buckets - 1)) << 1;
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create index directory " + dir);
+		this.lock = new DirectoryLock(dir, LOCK_FILE);
+		try {
+			this.data = new RandomAccessFile(new File(dir, DATA_FILE), "rw");
+			load();
+		} catch (IOException e) {
+			if (data != null)
+				data.close();
+			lock.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the index updated by every helper of the JVM.
+	 *
+	 * @return The shared index, or null if works are not indexed (the
+	 *         default).
+	 */
+	public static IdentifierIndex getShared() {
+		return shared;
+	}
+
+	/**
+	 * Replaces the index updated by every helper of the JVM. Helpers already
+	 * created keep the previous index.
+	 *
+	 * @param index
+	 *            The new shared index, or null to not index works.
+	 */
+	public static void setShared(IdentifierIndex index) {
+		shared = index;
+	}
+
+	/**
+	 * Reindexes the works of a profile, given its works summary. Works no
+	 * longer in the summary are dropped from the index.
+	 *
+	 * @param orcid
+	 *            The ORCID iD of the profile.
+	 * @param works
+	 *            The works summary of the profile.
+	 */
+	public synchronized void update(String orcid, Works works) {
+		long id = pack(orcid);
+		if (id < 0)
+			return;
+		Profile old = profiles.get(id);
+		int epoch = ++epochs;
+		mapped.putInt(H_EPOCHS, epochs);
+		int count = 0;
+		try {
+			for (WorkGroup group : works.getGroup())
+				for (WorkSummary work : group.getWorkSummary()) {
+					if (work.getPutCode() == null || work.getExternalIdentifiers() == null)
+						continue;
+					long lastModified = ORCIDHelper.getLastModified(work);
+					for (ExternalIdentifier eid : work.getExternalIdentifiers().getWorkExternalIdentifier()) {
+						String key = IdentifierFilter.canonical(eid);
+						if (key != null && put(hash(key), id, work.getPutCode().longValue(), lastModified, epoch))
+							count++;
+					}
+				}
+		} catch (IOException e) {
+			_log.warn("[IdentifierIndex] cannot index " + orcid, e);
+		}
+		live += count - (old == null ? 0 : old.live);
+		profiles.put(id, new Profile(epoch, count));
+		if (records > 2 * live + MIN_RECORDS) {
+			try {
+				compact();
+			} catch (IOException e) {
+				_log.warn("[IdentifierIndex] cannot compact", e);
+			}
+		}
+	}
+
+	/**
+	 * Drops the works of a profile from the index.
+	 *
+	 * @param orcid
+	 *            The ORCID iD of the profile.
+	 */
+	public synchronized void remove(String orcid) {
+		Profile old = profiles.remove(pack(orcid));
+		if (old != null)
+			live -= old.live;
+	}
+
+	/**
+	 * @param orcid
+	 *            The ORCID iD of the profile.
+	 * @return Whether the works of the profile are indexed.
+	 */
+	public synchronized boolean isIndexed(String orcid) {
+		return profiles.containsKey(pack(orcid));
+	}
+
+	/**
+	 * Retrieves the works that hold an external identifier.
+	 *
+	 * @param id
+	 *            The external identifier.
+	 * @return The works holding the identifier, in any order.
+	 */
+	public List<Entry> lookup(ExternalIdentifier id) {
+		String key = IdentifierFilter.canonical(id);
+		return key == null ? new ArrayList<Entry>() : lookup(key);
+	}
+
+	/**
+	 * Retrieves the works that hold an external identifier.
+	 *
+	 * @param key
+	 *            The canonical form of the external identifier.
+	 * @return The works holding the identifier, in any order.
+	 */
+	public synchronized List<Entry> lookup(String key) {
+		List<Entry> res = new ArrayList<Entry>();
+		long hash = hash(key);
+		for (int r = head(bucket(hash)); r >= 0; r = mapped.getInt(offset(r) + R_NEXT)) {
+			int o = offset(r);
+			if (mapped.getLong(o + R_HASH) != hash)
+				continue;
+			long id = mapped.getLong(o + R_ORCID);
+			Profile profile = profiles.get(id);
+			if (profile != null && profile.epoch == mapped.getInt(o + R_EPOCH))
+				res.add(new Entry(unpack(id), BigInteger.valueOf(mapped.getLong(o + R_PUTCODE)), mapped.getLong(o
+						+ R_MODIFIED)));
+		}
+		return res;
+	}
+
+	/**
+	 * Persists the index, so that it is available to future JVMs.
+	 *
+	 * @throws IOException
+	 *             If the index cannot be written.
+	 */
+	public synchronized void flush() throws IOException {
+		mapped.force();
+		File tmp = new File(dir, PROFILES_FILE + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(VERSION);
+			out.writeInt(buckets);
+			out.writeInt(records);
+			out.writeInt(profiles.size());
+			for (Map.Entry<Long, Profile> e : profiles.entrySet()) {
+				out.writeLong(e.getKey());
+				out.writeInt(e.getValue().epoch);
+				out.writeInt(e.getValue().live);
+			}
+		} finally {
+			out.close();
+		}
+		replace(tmp, new File(dir, PROFILES_FILE));
+	}
+
+	/**
+	 * Persists the index and releases its files and the lock on its
+	 * directory.
+	 *
+	 * @throws IOException
+	 *             If the index cannot be written.
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			mapped = null;
+			try {
+				data.close();
+			} finally {
+				lock.close();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of indexed profiles.
+	 */
+	public synchronized int profiles() {
+		return profiles.size();
+	}
+
+	/**
+	 * @return The number of live (identifier, work) pairs.
+	 */
+	public synchronized int size() {
+		return live;
+	}
+
+	/**
+	 * Inserts or renews the record of an identifier of a work.
+	 *
+	 * @return Whether the record was not already renewed in this epoch.
+	 */
+	private boolean put(long hash, long id, long putCode, long lastModified, int epoch) throws IOException {
+		int bucket = bucket(hash);
+		for (int r = head(bucket); r >= 0; r = mapped.getInt(offset(r) + R_NEXT)) {
+			int o = offset(r);
+			if (mapped.getLong(o + R_HASH) == hash && mapped.getLong(o + R_ORCID) == id
+					&& mapped.getLong(o + R_PUTCODE) == putCode) {
+				boolean renewed = mapped.getInt(o + R_EPOCH) != epoch;
+				mapped.putLong(o + R_MODIFIED, lastModified);
+				mapped.putInt(o + R_EPOCH, epoch);
+				return renewed;
+			}
+		}
+		if (offset(records + 1) > mapped.capacity())
+			grow();
+		int o = offset(records);
+		mapped.putLong(o + R_HASH, hash);
+		mapped.putLong(o + R_ORCID, id);
+		mapped.putLong(o + R_PUTCODE, putCode);
+		mapped.putLong(o + R_MODIFIED, lastModified);
+		mapped.putInt(o + R_EPOCH, epoch);
+		mapped.putInt(o + R_NEXT, head(bucket));
+		mapped.putInt(HEADER + 4 * bucket, records);
+		records++;
+		mapped.putInt(8, records);
+		return true;
+	}
+
+	private int head(int bucket) {
+		return mapped.getInt(HEADER + 4 * bucket);
+	}
+
+	private int bucket(long hash) {
+		return (int) (hash ^ (hash >>> 32)) & (buckets - 1);
+	}
+
+	private int offset(int record) {
+		return HEADER + 4 * buckets + RECORD * record;
+	}
+
+	/**
+	 * Doubles the space for records in the data file.
+	 */
+	private void grow() throws IOException {
+		long length = offset(0) + (long) RECORD * Math.max(MIN_RECORDS, 2 * records);
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Index full");
+		data.setLength(length);
+		mapped = data.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+	}
+
+	/**
+	 * Rewrites the data file with only the live records.
+	 */
+	private void compact() throws IOException {
+		List<long[]> kept = new ArrayList<long[]>(live);
+		for (int r = 0; r < records; r++) {
+			int o = offset(r);
+			Profile profile = profiles.get(mapped.getLong(o + R_ORCID));
+			if (profile != null && profile.epoch == mapped.getInt(o + R_EPOCH))
+				kept.add(new long[] { mapped.getLong(o + R_HASH), mapped.getLong(o + R_ORCID),
+						mapped.getLong(o + R_PUTCODE), mapped.getLong(o + R_MODIFIED), mapped.getInt(o + R_EPOCH) });
+		}
+		reset(Math.max(MIN_RECORDS, 2 * kept.size()));
+		for (long[] r : kept)
+			put(r[0], r[1], r[2], r[3], (int) r[4]);
+		live = kept.size();
+		flush();
+		_log.debug("[IdentifierIndex] compacted to " + live + " records");
+	}
+
+	/**
+	 * Empties the data file, with space for a number of records.
+	 */
+	private void reset(int capacity) throws IOException {
+		long length = offset(0) + (long) RECORD * capacity;
+		mapped = null;
+		data.setLength(0);
+		data.setLength(length);
+		mapped = data.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		mapped.putInt(0, VERSION);
+		mapped.putInt(4, buckets);
+		mapped.putInt(8, 0);
+		mapped.putInt(H_EPOCHS, epochs);
+		for (int b = 0; b < buckets; b++)
+			mapped.putInt(HEADER + 4 * b, -1);
+		records = 0;
+	}
+
+	private void load() throws IOException {
+		File file = new File(dir, PROFILES_FILE);
+		try {
+			if (!file.exists() || data.length() < offset(0))
+				throw new IOException("No index");
+			mapped = data.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, data.length());
+			records = mapped.getInt(8);
+			epochs = mapped.getInt(H_EPOCHS);
+			if (mapped.getInt(0) != VERSION || mapped.getInt(4) != buckets || offset(records) > data.length())
+				throw new IOException("Incompatible index");
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				// records appended after the last flush are stale but harmless
+				if (in.readInt() != VERSION || in.readInt() != buckets || in.readInt() > records)
+					throw new IOException("Stale index");
+				int size = in.readInt();
+				for (int i = 0; i < size; i++) {
+					long id = in.readLong();
+					Profile profile = new Profile(in.readInt(), in.readInt());
+					if (profile.epoch > epochs)
+						throw new IOException("Stale index");
+					profiles.put(id, profile);
+					live += profile.live;
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			if (file.exists())
+				_log.warn("[IdentifierIndex] discarding index: " + e.getMessage());
+			profiles.clear();
+			live = 0;
+			reset(MIN_RECORDS);
+		}
+	}
+
+	/**
+	 * Packs an ORCID iD as its 15 digits followed by its check digit.
+	 *
+	 * @return The packed ORCID iD, or -1 if not a valid ORCID iD.
+	 */
+	private static long pack(String orcid) {
+		if (orcid == null || !ORCID.matcher(orcid).matches())
+			return -1;
+		String digits = orcid.replace("-", "");
+		char check = digits.charAt(15);
+		return Long.parseLong(digits.substring(0, 15)) * 11 + (check == 'X' ? 10 : check - '0');
+	}
+
+	private static String unpack(long id) {
+		long check = id % 11;
+		String digits = String.format("%015d", id / 11) + (check == 10 ? "X" : String.valueOf(check));
+		return digits.substring(0, 4) + "-" + digits.substring(4, 8) + "-" + digits.substring(8, 12) + "-"
+				+ digits.substring(12);
+	}
+
+	/**
+	 * A 64-bit FNV-1a hash followed by a final mix, so that both the bucket
+	 * and the stored hash are well distributed.
+	 */
+	private static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static void replace(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			if (!to.delete() || !from.renameTo(to))
+				throw new IOException("Cannot replace " + to);
+		}
+	}
+
+	private static final class Profile {
+		final int epoch;
+		final int live;
+
+		Profile(int epoch, int live) {
+			this.epoch = epoch;
+			this.live = live;
+		}
+	}
+
+	/**
+	 * A work holding an identifier.
+	 */
+	public static final class Entry {
+		public final String orcid;
+		public final BigInteger putCode;
+		public final long lastModified;
+
+		Entry(String orcid, BigInteger putCode, long lastModified) {
+			this.orcid = orcid;
+			this.putCode = putCode;
+			this.lastModified = lastModified;
+		}
+
+		@Override
+		public String toString() {
+			return orcid + "/" + putCode + " (" + lastModified + ")";
+		}
+	}
+
+}
@@ -0,0 +1,257 @@
+package pt.ptcris.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifier;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.transport.JAXBPool;
+import pt.ptcris.utils.IdentifierFilter;
+
+/**
+ * A bounded, in-memory cache of the meta-data of full ORCID {@link Work
+ * works} shared across profiles, so that a work already fetched for a
+ * co-author needs not be fetched again for the next profile. Unlike the
+ * {@link WorkCache}, which is keyed by profile and put-code, entries are
+ * keyed by the set of (canonical) external identifiers of the work summary
+ * together with a fingerprint of its content (type, title and publication
+ * year). A work is thus only reused for a summary that reports exactly the
+ * same identifiers and content.
+ *
+ * Since the remainder meta-data (e.g., contributors or citation) may still
+ * differ between profiles or change without affecting the summary, entries
+ * are only served while younger than a maximum age, the work being fetched
+ * again otherwise. The cache is disabled by default; when
+ * {@link #setShared(MetadataCache) set}, it is used by every
+ * {@link ORCIDHelper helper} when importing works.
+ *
+ * Works are kept serialized as XML records and deserialized on every
+ * retrieval, so that each caller gets a deep copy that it may modify (e.g., by
+ * cleaning their put-codes or editing their contributors) without affecting
+ * the cached work or the copies of other profiles.
+ */
+public class MetadataCache {
+
+	private static final Logger _log = LogManager.getLogger(MetadataCache.class);
+
+	private static final QName RECORD = new QName("record");
+
+	public static final int DEFAULT_MAX_ENTRIES = 5000;
+	public static final long DEFAULT_MAX_AGE = 24L * 60 * 60 * 1000;
+
+	private static volatile MetadataCache shared = null;
+
+	private final int maxEntries;
+	private final long maxAge;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param maxEntries
+	 *            The maximum number of cached works.
+	 * @param maxAge
+	 *            The maximum age, in milliseconds, of the works served by the
+	 *            cache.
+	 */
+	public MetadataCache(int maxEntries, long maxAge) {
+		this.maxEntries = maxEntries;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Returns the cache shared by every helper of the JVM.
+	 *
+	 * @return The shared cache, or null if meta-data is not shared across
+	 *         profiles (the default).
+	 */
+	public static MetadataCache getShared() {
+		return shared;
+	}
+
+	/**
+	 * Replaces the cache shared by every helper of the JVM. Helpers already
+	 * created keep the previous cache.
+	 *
+	 * @param cache
+	 *            The new shared cache, or null to not share meta-data across
+	 *            profiles.
+	 */
+	public static void setShared(MetadataCache cache) {
+		shared = cache;
+	}
+
+	/**
+	 * Retrieves the full work fetched (possibly for another profile) for a
+	 * work summary with the same identifiers and content.
+	 *
+	 * @param summary
+	 *            The work summary.
+	 * @return A deep copy of the cached work, or null if not cached, no longer
+	 *         fresh or unreadable.
+	 */
+	public Work get(WorkSummary summary) {
+		String key = key(summary);
+		if (key == null)
+			return null;
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry != null && System.currentTimeMillis() - entry.fetched > maxAge) {
+				entries.remove(key);
+				entry = null;
+			}
+			if (entry == null)
+				misses++;
+			else
+				hits++;
+		}
+		if (entry == null)
+			return null;
+		try {
+			return JAXBPool.unmarshal(entry.work, Work.class);
+		} catch (Exception e) {
+			_log.warn("[MetadataCache] cannot read cached work", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Inserts the full work fetched for a work summary, evicting the least
+	 * recently used works if the bound is exceeded. Works without complete
+	 * external identifiers are not cached, since they could not be safely
+	 * matched. Later changes to the work do not affect the cached copy.
+	 *
+	 * @param summary
+	 *            The work summary.
+	 * @param work
+	 *            The full work, as fetched.
+	 */
+	public void put(WorkSummary summary, Work work) {
+		if (maxEntries <= 0)
+			return;
+		String key = key(summary);
+		if (key == null)
+			return;
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		try {
+			JAXBPool.marshal(work, Work.class, RECORD, record);
+		} catch (Exception e) {
+			_log.warn("[MetadataCache] cannot cache work " + work.getPutCode(), e);
+			return;
+		}
+		Entry entry = new Entry(record.toByteArray(), System.currentTimeMillis());
+		synchronized (this) {
+			entries.put(key, entry);
+			Iterator<Entry> it = entries.values().iterator();
+			while (it.hasNext() && entries.size() > maxEntries) {
+				it.next();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes every cached work.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @return The number of cached works.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The number of successful look-ups.
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of failed look-ups.
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * Builds the key of a work summary, from its sorted canonical identifiers
+	 * and a fingerprint of its content.
+	 *
+	 * @param summary
+	 *            The work summary.
+	 * @return The key, or null if the summary has no identifiers or an
+	 *         incomplete one.
+	 */
+	static String key(WorkSummary summary) {
+		if (summary.getExternalIdentifiers() == null)
+			return null;
+		List<String> ids = new ArrayList<String>();
+		for (ExternalIdentifier id : summary.getExternalIdentifiers().getWorkExternalIdentifier()) {
+			String key = IdentifierFilter.canonical(id);
+			if (key == null)
+				return null;
+			ids.add(key);
+		}
+		if (ids.isEmpty())
+			return null;
+		Collections.sort(ids);
+
+		StringBuilder key = new StringBuilder();
+		for (String id : ids)
+			key.append(id).append('\n');
+		return key.append(Long.toHexString(fingerprint(summary))).toString();
+	}
+
+	/**
+	 * A 64-bit FNV-1a hash of the type, title and publication year of a work
+	 * summary.
+	 */
+	private static long fingerprint(WorkSummary summary) {
+		StringBuilder content = new StringBuilder();
+		if (summary.getType() != null)
+			content.append(summary.getType().value());
+		content.append('\n');
+		if (summary.getTitle() != null && summary.getTitle().getTitle() != null)
+			content.append(summary.getTitle().getTitle());
+		content.append('\n');
+		if (summary.getPublicationDate() != null && summary.getPublicationDate().getYear() != null)
+			content.append(summary.getPublicationDate().getYear().getValue());
+
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < content.length(); i++) {
+			h ^= content.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private static final class Entry {
+		final byte[] work;
+		final long fetched;
+
+		Entry(byte[] work, long fetched) {
+			this.work = work;
+			this.fetched = fetched;
+		}
+	}
+
+}
@@ -0,0 +1,204 @@
+package pt.ptcris.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.namespace.QName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.transport.JAXBPool;
+
+/**
+ * An append-only collection of full ORCID {@link Work works} bounded in
+ * memory. Works are kept in memory until their approximate size (see
+ * {@link WorkCache#estimateSize(Work)}) exceeds a memory budget, after which
+ * every further work is spilled to a temporary file as a gzip-compressed XML
+ * record, like those of the {@link DiskCache}.
+ *
+ * Iterating the store returns the works in the order they were added,
+ * reading the spilled ones back one at a time, so that the works can be
+ * streamed to the caller without loading them all. The store must be
+ * {@link #close() closed} to delete the temporary file, which is otherwise
+ * left behind.
+ */
+public class SpillStore implements Iterable<Work>, Closeable {
+
+	private static final Logger _log = LogManager.getLogger(SpillStore.class);
+
+	private static final QName RECORD = new QName("record");
+
+	private final long budget;
+	private final List<Work> memory = new ArrayList<Work>();
+	private long bytes = 0;
+	private File file;
+	private DataOutputStream out;
+	private int spilled = 0;
+
+	/**
+	 * Creates an empty store.
+	 *
+	 * @param budget
+	 *            The maximum approximate size, in bytes, of the works kept in
+	 *            memory.
+	 */
+	public SpillStore(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Adds a work to the store, spilling it to disk if the memory budget
+	 * would be exceeded.
+	 *
+	 * @param work
+	 *            The work.
+	 * @throws IOException
+	 *             If the work cannot be spilled.
+	 */
+	public synchronized void add(Work work) throws IOException {
+		long size = WorkCache.estimateSize(work);
+		if (out == null && bytes + size <= budget) {
+			memory.add(work);
+			bytes += size;
+			return;
+		}
+		if (out == null) {
+			file = File.createTempFile("ptcris-", ".spill");
+			file.deleteOnExit();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			_log.debug("[SpillStore] spilling to " + file + " after " + memory.size() + " works");
+		}
+		byte[] record;
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(buffer);
+			JAXBPool.marshal(work, Work.class, RECORD, gzip);
+			gzip.close();
+			record = buffer.toByteArray();
+		} catch (Exception e) {
+			throw new IOException("Cannot serialize work " + work.getPutCode(), e);
+		}
+		out.writeInt(record.length);
+		out.write(record);
+		spilled++;
+	}
+
+	/**
+	 * Returns the works of the store, in the order they were added. Spilled
+	 * works are read lazily, a failure to read them being reported as an
+	 * {@link IllegalStateException}.
+	 *
+	 * @return An iterator over the works.
+	 */
+	public synchronized Iterator<Work> iterator() {
+		if (out != null) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return new WorkIterator(new ArrayList<Work>(memory).iterator(), file, spilled);
+	}
+
+	/**
+	 * @return The number of works in the store.
+	 */
+	public synchronized int size() {
+		return memory.size() + spilled;
+	}
+
+	/**
+	 * @return The number of works spilled to disk.
+	 */
+	public synchronized int spilled() {
+		return spilled;
+	}
+
+	/**
+	 * @return The approximate size, in bytes, of the works kept in memory.
+	 */
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	/**
+	 * Empties the store and deletes its temporary file, if any.
+	 */
+	public synchronized void close() {
+		memory.clear();
+		bytes = 0;
+		spilled = 0;
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				_log.warn("[SpillStore] cannot close " + file, e);
+			}
+			out = null;
+		}
+		if (file != null && !file.delete())
+			_log.warn("[SpillStore] cannot delete " + file);
+		file = null;
+	}
+
+	/**
+	 * Iterates the works kept in memory, then those spilled.
+	 */
+	private static final class WorkIterator implements Iterator<Work> {
+		private final Iterator<Work> memory;
+		private final File file;
+		private int left;
+		private DataInputStream in;
+
+		WorkIterator(Iterator<Work> memory, File file, int spilled) {
+			this.memory = memory;
+			this.file = file;
+			this.left = spilled;
+		}
+
+		public boolean hasNext() {
+			return memory.hasNext() || left > 0;
+		}
+
+		public Work next() {
+			if (memory.hasNext())
+				return memory.next();
+			if (left <= 0)
+				throw new NoSuchElementException();
+			try {
+				if (in == null)
+					in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				byte[] record = new byte[in.readInt()];
+				in.readFully(record);
+				if (--left == 0)
+					in.close();
+				return JAXBPool.unmarshal(new GZIPInputStream(new ByteArrayInputStream(record)), Work.class);
+			} catch (Exception e) {
+				throw new IllegalStateException("Cannot read spilled work", e);
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
@@ -0,0 +1,403 @@
+package pt.ptcris.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.xml.namespace.QName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifier;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.transport.JAXBPool;
+
+/**
+ * A bounded, in-memory cache of full ORCID {@link Work works}, with
+ * least-recently-used eviction. Entries are keyed by the ORCID iD of the
+ * profile, the put-code of the work and its last-modified date, so that a
+ * modified work is never served from the cache (its summary reports a new
+ * last-modified date and thus a new key). Stale entries are eventually evicted.
+ *
+ * The cache is bounded both by number of entries and by the memory occupied
+ * by the cached works. By default every {@link ORCIDHelper helper} uses the
+ * {@link #getShared() shared} instance.
+ *
+ * Works are kept serialized as XML records and deserialized on every
+ * retrieval, so that each caller gets a deep copy that it may modify (e.g.,
+ * by cleaning their put-codes or editing their contributors) without
+ * affecting the cached work. The latest works
+ * summary of a few profiles is also kept, so that it can be validated by a
+ * conditional request. Optionally, the cache can be backed by a persistent
+ * {@link DiskCache}.
+ */
+public class WorkCache {
+
+	private static final Logger _log = LogManager.getLogger(WorkCache.class);
+
+	private static final QName RECORD = new QName("record");
+
+	public static final int DEFAULT_MAX_ENTRIES = 5000;
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+	public static final int MAX_SUMMARIES = 64;
+
+	private static volatile WorkCache shared = new WorkCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final DiskCache disk;
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	private final LinkedHashMap<String, Works> summaries = new LinkedHashMap<String, Works>(
+			16, 0.75f, true);
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param maxEntries
+	 *            The maximum number of cached works.
+	 * @param maxBytes
+	 *            The maximum size, in bytes, of the serialized cached works.
+	 */
+	public WorkCache(int maxEntries, long maxBytes) {
+		this(maxEntries, maxBytes, null);
+	}
+
+	/**
+	 * Creates a new cache backed by a persistent {@link DiskCache}. Works
+	 * missing from memory are looked up on disk, and cached works are written
+	 * through to disk, so that they survive JVM restarts.
+	 *
+	 * @param maxEntries
+	 *            The maximum number of works cached in memory.
+	 * @param maxBytes
+	 *            The maximum size, in bytes, of the serialized works cached
+	 *            in memory.
+	 * @param disk
+	 *            The persistent cache, or null if none.
+	 */
+	public WorkCache(int maxEntries, long maxBytes, DiskCache disk) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.disk = disk;
+	}
+
+	/**
+	 * Returns the cache shared by every helper of the JVM.
+	 *
+	 * @return The shared cache.
+	 */
+	public static WorkCache getShared() {
+		return shared;
+	}
+
+	/**
+	 * Replaces the cache shared by every helper of the JVM, for instance to
+	 * change its bounds. Helpers already created keep the previous cache.
+	 *
+	 * @param cache
+	 *            The new shared cache.
+	 */
+	public static void setShared(WorkCache cache) {
+		shared = cache;
+	}
+
+	/**
+	 * Retrieves a cached work.
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 * @param putCode
+	 *            The put-code of the work.
+	 * @param lastModified
+	 *            The last-modified date of the work, as reported by its
+	 *            summary.
+	 * @return A deep copy of the cached work, or null if not cached or
+	 *         unreadable.
+	 */
+	public Work get(String userId, BigInteger putCode, long lastModified) {
+		if (lastModified < 0)
+			return null;
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(new Key(userId, putCode, lastModified));
+			if (entry == null)
+				misses++;
+			else
+				hits++;
+		}
+		if (entry == null) {
+			Work work = disk == null ? null : disk.getWork(userId, putCode, lastModified);
+			if (work != null)
+				putMemory(userId, putCode, lastModified, work);
+			return work;
+		}
+		try {
+			return JAXBPool.unmarshal(entry.work, Work.class);
+		} catch (Exception e) {
+			_log.warn("[WorkCache] cannot read cached work " + putCode, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Inserts a work in the cache, evicting the least recently used works if
+	 * the bounds are exceeded. Works with unknown last-modified dates are not
+	 * cached, since their freshness could not be assessed. Later changes to
+	 * the work do not affect the cached copy.
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 * @param putCode
+	 *            The put-code of the work.
+	 * @param lastModified
+	 *            The last-modified date of the work, as reported by its
+	 *            summary.
+	 * @param work
+	 *            The full work to be cached.
+	 */
+	public void put(String userId, BigInteger putCode, long lastModified, Work work) {
+		if (lastModified < 0)
+			return;
+		if (disk != null)
+			disk.putWork(userId, putCode, lastModified, work);
+		putMemory(userId, putCode, lastModified, work);
+	}
+
+	private void putMemory(String userId, BigInteger putCode, long lastModified, Work work) {
+		if (maxEntries <= 0)
+			return;
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		try {
+			JAXBPool.marshal(work, Work.class, RECORD, record);
+		} catch (Exception e) {
+			_log.warn("[WorkCache] cannot cache work " + putCode, e);
+			return;
+		}
+		Entry entry = new Entry(record.toByteArray());
+		if (entry.size > maxBytes)
+			return;
+		synchronized (this) {
+			Entry old = entries.put(new Key(userId, putCode, lastModified), entry);
+			if (old != null)
+				bytes -= old.size;
+			bytes += entry.size;
+			Iterator<Entry> it = entries.values().iterator();
+			while (it.hasNext() && (entries.size() > maxEntries || bytes > maxBytes)) {
+				bytes -= it.next().size;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the most recent cached works summary of a profile,
+	 * independently of its last-modified date, which should be validated
+	 * against ORCID before being used (see
+	 * {@link pt.ptcris.ORCIDClient#getWorksSummaryIfModified(long)}).
+	 * Summaries are shared, not copied, and must not be modified.
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 * @return The cached works summary, or null if not cached.
+	 */
+	public Works getWorksSummary(String userId) {
+		Works summary;
+		synchronized (this) {
+			summary = summaries.get(userId);
+		}
+		if (summary == null && disk != null) {
+			summary = disk.getLatestWorksSummary(userId);
+			if (summary != null)
+				putSummaryMemory(userId, summary);
+		}
+		return summary;
+	}
+
+	/**
+	 * Caches the works summary of a profile, replacing any previous one.
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 * @param lastModified
+	 *            The last-modified date of the summary.
+	 * @param summary
+	 *            The works summary.
+	 */
+	public void putWorksSummary(String userId, long lastModified, Works summary) {
+		if (lastModified < 0)
+			return;
+		if (disk != null)
+			disk.putWorksSummary(userId, lastModified, summary);
+		putSummaryMemory(userId, summary);
+	}
+
+	/**
+	 * Forgets the cached works summary of a profile, for instance after
+	 * modifying the profile. Since If-Modified-Since only has a precision of
+	 * seconds, a summary cached just before a modification could otherwise be
+	 * reported as not modified.
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 */
+	public void invalidateWorksSummary(String userId) {
+		synchronized (this) {
+			summaries.remove(userId);
+		}
+		if (disk != null)
+			disk.removeWorksSummary(userId);
+	}
+
+	private synchronized void putSummaryMemory(String userId, Works summary) {
+		if (maxEntries <= 0)
+			return;
+		summaries.put(userId, summary);
+		Iterator<Works> it = summaries.values().iterator();
+		while (it.hasNext() && summaries.size() > MAX_SUMMARIES) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	/**
+	 * @return The persistent cache backing this cache, or null if none.
+	 */
+	public DiskCache getDiskCache() {
+		return disk;
+	}
+
+	/**
+	 * Persists the index of the backing {@link DiskCache}, if any, so that
+	 * the works cached so far survive a crash of the JVM.
+	 *
+	 * @throws IOException
+	 *             If the index cannot be written.
+	 */
+	public void flush() throws IOException {
+		if (disk != null)
+			disk.flush();
+	}
+
+	/**
+	 * Closes the backing {@link DiskCache}, if any, persisting its index. Meant
+	 * to be called when the cache is discarded, e.g., after being
+	 * {@link #setShared(WorkCache) replaced} and once no helper uses it; the
+	 * disk cache is otherwise closed when the JVM exits.
+	 *
+	 * @throws IOException
+	 *             If the index cannot be written.
+	 */
+	public void close() throws IOException {
+		if (disk != null)
+			disk.close();
+	}
+
+	/**
+	 * Removes every work and summary cached in memory.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		summaries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @return The number of cached works.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The size, in bytes, of the serialized cached works.
+	 */
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return The number of successful look-ups.
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of failed look-ups.
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * Approximates the memory occupied by a work from the size of its textual
+	 * fields. Only meant to bound memory (e.g., that of a {@link SpillStore}),
+	 * not as an exact measurement.
+	 *
+	 * @param work
+	 *            The work.
+	 * @return The approximate size of the work, in bytes.
+	 */
+	static long estimateSize(Work work) {
+		long size = 512;
+		if (work.getTitle() != null && work.getTitle().getTitle() != null)
+			size += 2 * work.getTitle().getTitle().length();
+		if (work.getShortDescription() != null)
+			size += 2 * work.getShortDescription().length();
+		if (work.getExternalIdentifiers() != null)
+			for (ExternalIdentifier eid : work.getExternalIdentifiers().getWorkExternalIdentifier())
+				size += 96 + (eid.getExternalIdentifierId() == null ? 0 : 2 * eid.getExternalIdentifierId().length());
+		if (work.getContributors() != null)
+			size += 256 * work.getContributors().getContributor().size();
+		if (work.getCitation() != null)
+			size += 1024;
+		return size;
+	}
+
+	private static final class Entry {
+		final byte[] work;
+		final long size;
+
+		Entry(byte[] work) {
+			this.work = work;
+			this.size = work.length;
+		}
+	}
+
+	private static final class Key {
+		final String userId;
+		final BigInteger putCode;
+		final long lastModified;
+
+		Key(String userId, BigInteger putCode, long lastModified) {
+			this.userId = userId;
+			this.putCode = putCode;
+			this.lastModified = lastModified;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return lastModified == k.lastModified && putCode.equals(k.putCode)
+					&& (userId == null ? k.userId == null : userId.equals(k.userId));
+		}
+
+		@Override
+		public int hashCode() {
+			int h = putCode.hashCode();
+			h = 31 * h + (userId == null ? 0 : userId.hashCode());
+			return 31 * h + (int) (lastModified ^ (lastModified >>> 32));
+		}
+	}
+
+}
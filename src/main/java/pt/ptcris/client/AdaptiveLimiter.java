@@ -0,0 +1,212 @@
+package pt.ptcris.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * An adaptive limit on the number of concurrent ORCID calls, following an
+ * additive-increase/multiplicative-decrease (AIMD) policy. While calls
+ * succeed within a tolerance of the baseline latency and the limit is being
+ * used, the limit grows by about one call per round of calls. When ORCID
+ * throttles (429) or fails (5xx), or latency degrades beyond the tolerance,
+ * the limit is cut, at most once per round of calls so that a burst of
+ * failures of concurrent calls only counts once.
+ *
+ * Latency is compared with a baseline of each kind of call, since the
+ * latencies of, e.g., a full summary, a summary not modified (304) and a
+ * single work differ widely. The baseline of a kind of call is its minimum
+ * observed latency, slowly drifting towards the recent latencies so that it
+ * follows lasting changes.
+ *
+ * By default every {@link pt.ptcris.ORCIDHelper helper} limits its calls
+ * through the {@link #getShared() shared} instance, so the limit applies to
+ * the whole JVM.
+ */
+public class AdaptiveLimiter {
+
+	public static final int DEFAULT_INITIAL = 10;
+	public static final int DEFAULT_MIN = 1;
+	public static final int DEFAULT_MAX = 100;
+	public static final double THROTTLE_BACKOFF = 0.5;
+	public static final double LATENCY_BACKOFF = 0.9;
+	public static final double LATENCY_TOLERANCE = 2.0;
+	public static final int HISTORY = 256;
+
+	private static volatile AdaptiveLimiter shared = new AdaptiveLimiter(DEFAULT_INITIAL, DEFAULT_MIN, DEFAULT_MAX);
+
+	private final int min;
+	private final int max;
+	private double limit;
+	private int inFlight = 0;
+	private final Map<String, Double> baselines = new HashMap<String, Double>();
+	private int sinceDecrease;
+	private final LinkedList<Change> history = new LinkedList<Change>();
+
+	/**
+	 * Creates a limiter.
+	 *
+	 * @param initial
+	 *            The initial limit of concurrent calls.
+	 * @param min
+	 *            The minimum limit.
+	 * @param max
+	 *            The maximum limit.
+	 */
+	public AdaptiveLimiter(int initial, int min, int max) {
+		this.min = min;
+		this.max = max;
+		this.limit = Math.max(min, Math.min(max, initial));
+		this.sinceDecrease = max;
+		history.add(new Change(System.currentTimeMillis(), (int) limit, "initial"));
+	}
+
+	/**
+	 * Returns the limiter shared by every helper of the JVM.
+	 *
+	 * @return The shared limiter, or null if calls are not limited.
+	 */
+	public static AdaptiveLimiter getShared() {
+		return shared;
+	}
+
+	/**
+	 * Replaces the limiter shared by every helper of the JVM. Helpers already
+	 * created keep the previous limiter.
+	 *
+	 * @param limiter
+	 *            The new shared limiter, or null to not limit calls.
+	 */
+	public static void setShared(AdaptiveLimiter limiter) {
+		shared = limiter;
+	}
+
+	/**
+	 * Waits until a call can be issued within the limit.
+	 *
+	 * @throws CancellationException
+	 *             If the thread is interrupted while waiting, in which case
+	 *             the interrupt status is kept.
+	 */
+	public synchronized void acquire() {
+		try {
+			while (inFlight >= (int) limit)
+				wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while waiting for the concurrency limit");
+		}
+		inFlight++;
+	}
+
+	/**
+	 * Signals the completion of a call, adjusting the limit.
+	 *
+	 * @param operation
+	 *            The kind of call, whose latencies are comparable.
+	 * @param latency
+	 *            The latency of the call, in milliseconds.
+	 * @param throttled
+	 *            Whether ORCID throttled or failed the call.
+	 */
+	public synchronized void release(String operation, long latency, boolean throttled) {
+		boolean saturated = inFlight >= (int) limit;
+		inFlight--;
+		if (sinceDecrease < max)
+			sinceDecrease++;
+		if (throttled)
+			decrease(THROTTLE_BACKOFF, "throttled");
+		else {
+			Double previous = baselines.get(operation);
+			double baseline = previous == null || latency < previous ? latency : 0.95 * previous + 0.05 * latency;
+			baselines.put(operation, baseline);
+			if (latency > LATENCY_TOLERANCE * baseline)
+				decrease(LATENCY_BACKOFF, "latency");
+			else if (saturated)
+				set(limit + 1 / limit, "increase");
+		}
+		notifyAll();
+	}
+
+	private void decrease(double factor, String reason) {
+		// at most once per round of calls, those still in flight having been
+		// issued before the decrease
+		if (sinceDecrease < (int) limit)
+			return;
+		sinceDecrease = -inFlight;
+		set(limit * factor, reason);
+	}
+
+	private void set(double value, String reason) {
+		int old = (int) limit;
+		limit = Math.max(min, Math.min(max, value));
+		if ((int) limit != old) {
+			history.add(new Change(System.currentTimeMillis(), (int) limit, reason));
+			if (history.size() > HISTORY)
+				history.removeFirst();
+		}
+	}
+
+	/**
+	 * @param operation
+	 *            The kind of call.
+	 * @return The baseline latency of the kind of call in milliseconds, or -1
+	 *         if none completed yet.
+	 */
+	public synchronized double getBaseline(String operation) {
+		Double baseline = baselines.get(operation);
+		return baseline == null ? -1 : baseline;
+	}
+
+	/**
+	 * @return The current limit of concurrent calls.
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * @return The maximum limit of concurrent calls.
+	 */
+	public int getMax() {
+		return max;
+	}
+
+	/**
+	 * @return The number of calls in flight.
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return The latest changes of the limit, oldest first.
+	 */
+	public synchronized List<Change> getHistory() {
+		return new ArrayList<Change>(history);
+	}
+
+	/**
+	 * A change of the limit.
+	 */
+	public static final class Change {
+		public final long time;
+		public final int limit;
+		public final String reason;
+
+		Change(long time, int limit, String reason) {
+			this.time = time;
+			this.limit = limit;
+			this.reason = reason;
+		}
+
+		@Override
+		public String toString() {
+			return time + ": " + limit + " (" + reason + ")";
+		}
+	}
+
+}
@@ -0,0 +1,226 @@
+package pt.ptcris.client;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.QName;
+
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.ORCIDClient;
+import pt.ptcris.transport.JAXBPool;
+
+/**
+ * An ORCID client decorator that coalesces concurrent identical reads: while a
+ * read is in flight, every other identical read (same Member API client,
+ * profile, resource and arguments), even if issued through other client
+ * instances, waits for it and shares its result, rather than issuing its own
+ * request. Nothing is kept once the read completes, so this is not a cache.
+ *
+ * Since callers are expected to modify full works, a work read by a single
+ * caller is returned as is, but a work shared by several callers is deep
+ * copied (through a JAXB round-trip) for each of them, the caller that issued
+ * the read included, so that no two threads ever hold the same nested
+ * elements. Summaries are shared and must not be modified. Writes are simply
+ * forwarded.
+ */
+public class CoalescingORCIDClient extends ORCIDClientDecorator {
+
+	private static final QName WORK = new QName("work");
+
+	private static final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<String, Flight>();
+	private static final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Decorates an ORCID client with read coalescing.
+	 * 
+	 * @param client
+	 *            The decorated client.
+	 */
+	public CoalescingORCIDClient(ORCIDClient client) {
+		super(client);
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWork(BigInteger)
+	 */
+	@Override
+	public Work getWork(final BigInteger putCode) throws OrcidClientException {
+		return coalesceWork(key("work", putCode), new Callable<Work>() {
+			public Work call() throws OrcidClientException {
+				return client.getWork(putCode);
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getActivitiesSummary()
+	 */
+	@Override
+	public ActivitiesSummary getActivitiesSummary() throws OrcidClientException {
+		return coalesce(key("activities", null), new Callable<ActivitiesSummary>() {
+			public ActivitiesSummary call() throws OrcidClientException {
+				return client.getActivitiesSummary();
+			}
+		}).value;
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getActivitiesSummaryIfModified(long)
+	 */
+	@Override
+	public ActivitiesSummary getActivitiesSummaryIfModified(final long lastModified) throws OrcidClientException {
+		return coalesce(key("activities", "@" + lastModified), new Callable<ActivitiesSummary>() {
+			public ActivitiesSummary call() throws OrcidClientException {
+				return client.getActivitiesSummaryIfModified(lastModified);
+			}
+		}).value;
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWorksSummary()
+	 */
+	@Override
+	public Works getWorksSummary() throws OrcidClientException {
+		return coalesce(key("works", null), new Callable<Works>() {
+			public Works call() throws OrcidClientException {
+				return client.getWorksSummary();
+			}
+		}).value;
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWorksSummaryIfModified(long)
+	 */
+	@Override
+	public Works getWorksSummaryIfModified(final long lastModified) throws OrcidClientException {
+		return coalesce(key("works", "@" + lastModified), new Callable<Works>() {
+			public Works call() throws OrcidClientException {
+				return client.getWorksSummaryIfModified(lastModified);
+			}
+		}).value;
+	}
+
+	/**
+	 * @return The number of reads, since the JVM started, that shared the
+	 *         result of another in-flight read.
+	 */
+	public static long getCoalesced() {
+		return coalesced.get();
+	}
+
+	private String key(String resource, Object args) {
+		return client.getClientId() + " " + client.getUserId() + " " + resource + (args == null ? "" : " " + args);
+	}
+
+	private Work coalesceWork(String key, Callable<Work> read) throws OrcidClientException {
+		Result<Work> result = coalesce(key, read);
+		if (!result.shared || result.value == null)
+			return result.value;
+		try {
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			JAXBPool.marshal(result.value, Work.class, WORK, record);
+			return JAXBPool.unmarshal(record.toByteArray(), Work.class);
+		} catch (Exception e) {
+			// the shared work cannot be copied, so the caller reads its own
+			return call(read);
+		}
+	}
+
+	/**
+	 * Performs a read, unless an identical one is in flight, in which case its
+	 * result is awaited. The result is reported as shared if any other caller
+	 * awaited it; otherwise the caller that issued the read owns it, and a
+	 * caller that finds the read completed and already owned issues its own.
+	 * 
+	 * @throws CancellationException
+	 *             If the thread is interrupted while awaiting the result of
+	 *             another caller, in which case its interrupt status is kept.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> Result<T> coalesce(String key, final Callable<T> read) throws OrcidClientException {
+		Flight flight = new Flight(new FutureTask<Object>(new Callable<Object>() {
+			public Object call() throws Exception {
+				return read.call();
+			}
+		}));
+		Flight running;
+		boolean shared;
+		while (true) {
+			running = inFlight.putIfAbsent(key, flight);
+			if (running == null) {
+				running = flight;
+				try {
+					flight.task.run();
+				} finally {
+					inFlight.remove(key, flight);
+				}
+				shared = !flight.own();
+				break;
+			}
+			if (running.join()) {
+				coalesced.incrementAndGet();
+				shared = true;
+				break;
+			}
+			// completed and owned by its reader, which has already removed it
+		}
+
+		try {
+			return new Result<T>((T) running.task.get(), shared);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while waiting for a coalesced read");
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	/**
+	 * A read in flight and the callers sharing its result.
+	 */
+	private static final class Flight {
+		final FutureTask<Object> task;
+		// the number of callers awaiting the result, -1 once owned by its reader
+		private final AtomicInteger sharers = new AtomicInteger();
+
+		Flight(FutureTask<Object> task) {
+			this.task = task;
+		}
+
+		boolean join() {
+			while (true) {
+				int n = sharers.get();
+				if (n < 0)
+					return false;
+				if (sharers.compareAndSet(n, n + 1))
+					return true;
+			}
+		}
+
+		boolean own() {
+			return sharers.compareAndSet(0, -1);
+		}
+	}
+
+	private static final class Result<T> {
+		final T value;
+		final boolean shared;
+
+		Result(T value, boolean shared) {
+			this.value = value;
+			this.shared = shared;
+		}
+	}
+
+}
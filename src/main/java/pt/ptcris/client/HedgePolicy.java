@@ -0,0 +1,143 @@
+package pt.ptcris.client;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The policy of {@link HedgingORCIDClient hedged reads}, meant to be shared
+ * by every client of a synchronization run. It keeps a window of the latest
+ * read latencies, from which the delay after which a read is hedged is taken
+ * as a percentile, and a hedging budget, which bounds the hedged reads to a
+ * fraction of all reads so that hedging does not amplify the load on ORCID
+ * when it is slow across the board.
+ *
+ * No read is hedged until enough latencies have been observed.
+ */
+public class HedgePolicy {
+
+	public static final double DEFAULT_PERCENTILE = 0.95;
+	public static final double DEFAULT_BUDGET = 0.05;
+	public static final long DEFAULT_MIN_DELAY = 50;
+	public static final int WINDOW = 256;
+	public static final int MIN_SAMPLES = 32;
+
+	final ExecutorService executor;
+	private final double percentile;
+	private final double budget;
+	private final long minDelay;
+
+	private final long[] window = new long[WINDOW];
+	private int next = 0;
+	private int samples = 0;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+
+	/**
+	 * Creates a policy that hedges reads slower than the 95th percentile,
+	 * within a budget of 5% of the reads.
+	 * 
+	 * @param executor
+	 *            The executor that performs the reads.
+	 */
+	public HedgePolicy(ExecutorService executor) {
+		this(executor, DEFAULT_PERCENTILE, DEFAULT_BUDGET, DEFAULT_MIN_DELAY);
+	}
+
+	/**
+	 * Creates a policy.
+	 * 
+	 * @param executor
+	 *            The executor that performs the reads, which must be able to
+	 *            run two reads per concurrent caller.
+	 * @param percentile
+	 *            The percentile of the observed latencies after which a read
+	 *            is hedged, between 0 and 1.
+	 * @param budget
+	 *            The maximum fraction of reads that may be hedged.
+	 * @param minDelay
+	 *            The minimum delay before hedging a read, in milliseconds.
+	 */
+	public HedgePolicy(ExecutorService executor, double percentile, double budget, long minDelay) {
+		this.executor = executor;
+		this.percentile = percentile;
+		this.budget = budget;
+		this.minDelay = minDelay;
+	}
+
+	/**
+	 * Counts a new read and returns the delay after which it should be
+	 * hedged.
+	 * 
+	 * @return The delay in milliseconds, or -1 if not enough latencies were
+	 *         observed yet.
+	 */
+	long start() {
+		requests.incrementAndGet();
+		long[] sorted;
+		synchronized (this) {
+			if (samples < MIN_SAMPLES)
+				return -1;
+			sorted = Arrays.copyOf(window, samples);
+		}
+		Arrays.sort(sorted);
+		int i = (int) Math.min(sorted.length - 1, Math.floor(percentile * sorted.length));
+		return Math.max(minDelay, sorted[i]);
+	}
+
+	/**
+	 * Acquires permission to hedge a read, if within budget.
+	 * 
+	 * @return Whether the read may be hedged.
+	 */
+	boolean tryHedge() {
+		while (true) {
+			long h = hedges.get();
+			if (h + 1 > budget * requests.get())
+				return false;
+			if (hedges.compareAndSet(h, h + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Records the latency of a completed read.
+	 * 
+	 * @param latency
+	 *            The latency in milliseconds.
+	 * @param hedgeWon
+	 *            Whether the result came from the hedged read.
+	 */
+	synchronized void record(long latency, boolean hedgeWon) {
+		window[next] = latency;
+		next = (next + 1) % WINDOW;
+		if (samples < WINDOW)
+			samples++;
+		if (hedgeWon)
+			hedgeWins.incrementAndGet();
+	}
+
+	/**
+	 * @return The number of reads performed under this policy.
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return The number of reads that were hedged.
+	 */
+	public long getHedges() {
+		return hedges.get();
+	}
+
+	/**
+	 * @return The number of hedged reads whose result came from the hedge.
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.get();
+	}
+
+}
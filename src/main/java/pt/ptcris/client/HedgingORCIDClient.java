@@ -0,0 +1,156 @@
+package pt.ptcris.client;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.ORCIDClient;
+
+/**
+ * An ORCID client decorator that hedges idempotent reads (full works and
+ * summaries): if a read takes longer than a percentile of the observed
+ * latencies, a duplicate read is issued and the first successful response
+ * wins, the other being cancelled. This cuts the tail latency of the
+ * synchronization procedures, which wait for the slowest of many reads.
+ * The delay and the hedging budget are defined by a {@link HedgePolicy}
+ * shared by the clients. Writes are never hedged.
+ */
+public class HedgingORCIDClient extends ORCIDClientDecorator {
+
+	private final HedgePolicy policy;
+
+	/**
+	 * Decorates an ORCID client with hedged reads.
+	 * 
+	 * @param client
+	 *            The decorated client.
+	 * @param policy
+	 *            The hedging policy.
+	 */
+	public HedgingORCIDClient(ORCIDClient client, HedgePolicy policy) {
+		super(client);
+		this.policy = policy;
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWork(BigInteger)
+	 */
+	@Override
+	public Work getWork(final BigInteger putCode) throws OrcidClientException {
+		return hedge(new Callable<Work>() {
+			public Work call() throws OrcidClientException {
+				return client.getWork(putCode);
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getActivitiesSummary()
+	 */
+	@Override
+	public ActivitiesSummary getActivitiesSummary() throws OrcidClientException {
+		return hedge(new Callable<ActivitiesSummary>() {
+			public ActivitiesSummary call() throws OrcidClientException {
+				return client.getActivitiesSummary();
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getActivitiesSummaryIfModified(long)
+	 */
+	@Override
+	public ActivitiesSummary getActivitiesSummaryIfModified(final long lastModified) throws OrcidClientException {
+		return hedge(new Callable<ActivitiesSummary>() {
+			public ActivitiesSummary call() throws OrcidClientException {
+				return client.getActivitiesSummaryIfModified(lastModified);
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWorksSummary()
+	 */
+	@Override
+	public Works getWorksSummary() throws OrcidClientException {
+		return hedge(new Callable<Works>() {
+			public Works call() throws OrcidClientException {
+				return client.getWorksSummary();
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWorksSummaryIfModified(long)
+	 */
+	@Override
+	public Works getWorksSummaryIfModified(final long lastModified) throws OrcidClientException {
+		return hedge(new Callable<Works>() {
+			public Works call() throws OrcidClientException {
+				return client.getWorksSummaryIfModified(lastModified);
+			}
+		});
+	}
+
+	/**
+	 * Performs a read, hedging it if it is slower than the policy's delay and
+	 * the budget allows it. If a read fails, the result of the other is
+	 * awaited; the failure is only thrown if both fail. The latency recorded
+	 * in the policy is that of the read whose result is returned, measured
+	 * from its own start.
+	 * 
+	 * @throws CancellationException
+	 *             If the thread is interrupted while waiting for the reads,
+	 *             which are cancelled; its interrupt status is kept.
+	 */
+	private <T> T hedge(Callable<T> read) throws OrcidClientException {
+		long delay = policy.start();
+		long start = System.currentTimeMillis();
+		long hedgeStart = -1;
+		CompletionService<T> service = new ExecutorCompletionService<T>(policy.executor);
+		List<Future<T>> reads = new ArrayList<Future<T>>(2);
+		reads.add(service.submit(read));
+		try {
+			Future<T> done = delay < 0 ? service.take() : service.poll(delay, TimeUnit.MILLISECONDS);
+			if (done == null) {
+				if (policy.tryHedge()) {
+					hedgeStart = System.currentTimeMillis();
+					reads.add(service.submit(read));
+				}
+				done = service.take();
+			}
+			int pending = reads.size();
+			while (true) {
+				try {
+					T value = done.get();
+					boolean hedgeWon = done != reads.get(0);
+					policy.record(System.currentTimeMillis() - (hedgeWon ? hedgeStart : start), hedgeWon);
+					return value;
+				} catch (ExecutionException e) {
+					if (--pending == 0)
+						throw unwrap(e);
+					done = service.take();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while waiting for a hedged read");
+		} finally {
+			for (Future<T> f : reads)
+				f.cancel(true);
+		}
+	}
+
+}
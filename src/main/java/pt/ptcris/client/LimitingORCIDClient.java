@@ -0,0 +1,193 @@
+package pt.ptcris.client;
+
+import java.math.BigInteger;
+import java.util.concurrent.Callable;
+
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.ORCIDClient;
+import pt.ptcris.exceptions.ORCIDStatusException;
+
+/**
+ * An ORCID client decorator that issues every call (reads and writes) within
+ * the concurrency limit of an {@link AdaptiveLimiter}, feeding it the
+ * latency of each call and whether ORCID throttled or failed it.
+ *
+ * Throttling and server failures are detected from the HTTP status of the
+ * failed calls, as carried by {@link ORCIDStatusException} or otherwise
+ * reported by the Degois client. The latency of each kind of call is
+ * tracked separately, conditional reads answered as not modified and failed
+ * calls being kinds of their own.
+ */
+public class LimitingORCIDClient extends ORCIDClientDecorator {
+
+	private final AdaptiveLimiter limiter;
+
+	/**
+	 * Decorates an ORCID client with an adaptive concurrency limit.
+	 * 
+	 * @param client
+	 *            The decorated client.
+	 * @param limiter
+	 *            The concurrency limiter, usually shared between clients.
+	 */
+	public LimitingORCIDClient(ORCIDClient client, AdaptiveLimiter limiter) {
+		super(client);
+		this.limiter = limiter;
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWork(BigInteger)
+	 */
+	@Override
+	public Work getWork(final BigInteger putCode) throws OrcidClientException {
+		return limit("getWork", false, new Callable<Work>() {
+			public Work call() throws OrcidClientException {
+				return client.getWork(putCode);
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#addWork(Work)
+	 */
+	@Override
+	public BigInteger addWork(final Work work) throws OrcidClientException {
+		return limit("addWork", false, new Callable<BigInteger>() {
+			public BigInteger call() throws OrcidClientException {
+				return client.addWork(work);
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#deleteWork(BigInteger)
+	 */
+	@Override
+	public void deleteWork(final BigInteger putCode) throws OrcidClientException {
+		limit("deleteWork", false, new Callable<Void>() {
+			public Void call() throws OrcidClientException {
+				client.deleteWork(putCode);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#updateWork(BigInteger, Work)
+	 */
+	@Override
+	public void updateWork(final BigInteger putCode, final Work work) throws OrcidClientException {
+		limit("updateWork", false, new Callable<Void>() {
+			public Void call() throws OrcidClientException {
+				client.updateWork(putCode, work);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getActivitiesSummary()
+	 */
+	@Override
+	public ActivitiesSummary getActivitiesSummary() throws OrcidClientException {
+		return limit("getActivitiesSummary", false, new Callable<ActivitiesSummary>() {
+			public ActivitiesSummary call() throws OrcidClientException {
+				return client.getActivitiesSummary();
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getActivitiesSummaryIfModified(long)
+	 */
+	@Override
+	public ActivitiesSummary getActivitiesSummaryIfModified(final long lastModified) throws OrcidClientException {
+		return limit("getActivitiesSummary", true, new Callable<ActivitiesSummary>() {
+			public ActivitiesSummary call() throws OrcidClientException {
+				return client.getActivitiesSummaryIfModified(lastModified);
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWorksSummary()
+	 */
+	@Override
+	public Works getWorksSummary() throws OrcidClientException {
+		return limit("getWorksSummary", false, new Callable<Works>() {
+			public Works call() throws OrcidClientException {
+				return client.getWorksSummary();
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWorksSummaryIfModified(long)
+	 */
+	@Override
+	public Works getWorksSummaryIfModified(final long lastModified) throws OrcidClientException {
+		return limit("getWorksSummary", true, new Callable<Works>() {
+			public Works call() throws OrcidClientException {
+				return client.getWorksSummaryIfModified(lastModified);
+			}
+		});
+	}
+
+	/**
+	 * @return The concurrency limiter.
+	 */
+	public AdaptiveLimiter getLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Issues a call within the concurrency limit.
+	 * 
+	 * @param operation
+	 *            The kind of call.
+	 * @param conditional
+	 *            Whether the call is a conditional read, which returns null
+	 *            if not modified.
+	 * @param call
+	 *            The call.
+	 * @return The result of the call.
+	 */
+	private <T> T limit(String operation, boolean conditional, Callable<T> call) throws OrcidClientException {
+		limiter.acquire();
+		long start = System.currentTimeMillis();
+		// failures, such as a quick 404, are not comparable to successes
+		String kind = operation + " (failed)";
+		boolean throttled = false;
+		try {
+			T result = call(call);
+			kind = conditional && result == null ? operation + " (not modified)" : operation;
+			return result;
+		} catch (OrcidClientException e) {
+			throttled = isThrottled(e);
+			throw e;
+		} finally {
+			limiter.release(kind, System.currentTimeMillis() - start, throttled);
+		}
+	}
+
+	/**
+	 * Tests whether a failed call was throttled (429) or failed by the server
+	 * (5xx), rather than rejected because of its content. Only failures that
+	 * carry the HTTP status of the response are considered.
+	 * 
+	 * @param e
+	 *            The failure of the call.
+	 * @return Whether the failure signals an overloaded ORCID.
+	 */
+	static boolean isThrottled(OrcidClientException e) {
+		if (!(e instanceof ORCIDStatusException))
+			return false;
+		int status = ((ORCIDStatusException) e).getStatus();
+		return status == 429 || status >= 500;
+	}
+
+}
@@ -0,0 +1,149 @@
+package pt.ptcris.client;
+
+import java.math.BigInteger;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.ORCIDClient;
+
+/**
+ * An ORCID client that forwards every call to another client. Meant to be
+ * extended by decorators that only intercept some of the calls.
+ */
+public abstract class ORCIDClientDecorator implements ORCIDClient {
+
+	protected final ORCIDClient client;
+
+	/**
+	 * Decorates an ORCID client.
+	 * 
+	 * @param client
+	 *            The decorated client.
+	 */
+	protected ORCIDClientDecorator(ORCIDClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * @return The decorated client.
+	 */
+	public ORCIDClient getClient() {
+		return client;
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getClientId()
+	 */
+	public String getClientId() {
+		return client.getClientId();
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getUserId()
+	 */
+	public String getUserId() {
+		return client.getUserId();
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWork(BigInteger)
+	 */
+	public Work getWork(BigInteger putCode) throws OrcidClientException {
+		return client.getWork(putCode);
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#addWork(Work)
+	 */
+	public BigInteger addWork(Work work) throws OrcidClientException {
+		return client.addWork(work);
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#deleteWork(BigInteger)
+	 */
+	public void deleteWork(BigInteger putCode) throws OrcidClientException {
+		client.deleteWork(putCode);
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#updateWork(BigInteger, Work)
+	 */
+	public void updateWork(BigInteger putCode, Work work) throws OrcidClientException {
+		client.updateWork(putCode, work);
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getActivitiesSummary()
+	 */
+	public ActivitiesSummary getActivitiesSummary() throws OrcidClientException {
+		return client.getActivitiesSummary();
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getActivitiesSummaryIfModified(long)
+	 */
+	public ActivitiesSummary getActivitiesSummaryIfModified(long lastModified) throws OrcidClientException {
+		return client.getActivitiesSummaryIfModified(lastModified);
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWorksSummary()
+	 */
+	public Works getWorksSummary() throws OrcidClientException {
+		return client.getWorksSummary();
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWorksSummaryIfModified(long)
+	 */
+	public Works getWorksSummaryIfModified(long lastModified) throws OrcidClientException {
+		return client.getWorksSummaryIfModified(lastModified);
+	}
+
+	/**
+	 * Unwraps the failure of a call performed asynchronously, so that it can
+	 * be rethrown. Unchecked failures are rethrown directly.
+	 * 
+	 * @param e
+	 *            The failure of the asynchronous call.
+	 * @return The ORCID client exception that caused the failure.
+	 */
+	protected static OrcidClientException unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof OrcidClientException)
+			return (OrcidClientException) cause;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if (cause instanceof Error)
+			throw (Error) cause;
+		throw new IllegalStateException(cause);
+	}
+
+	/**
+	 * Performs a call in the current thread, rethrowing its failure.
+	 * 
+	 * @param call
+	 *            The call, which should only throw ORCID client exceptions.
+	 * @return The result of the call.
+	 * @throws OrcidClientException
+	 *             If the call fails.
+	 */
+	protected static <T> T call(Callable<T> call) throws OrcidClientException {
+		try {
+			return call.call();
+		} catch (OrcidClientException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package pt.ptcris.client;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A limit on the rate of ORCID calls, following a token bucket: permits
+ * accumulate at the given rate, up to a burst of one second worth of calls,
+ * and each call consumes one. Callers that find the bucket empty reserve the
+ * next permit and wait for it, so waiting callers are served in order.
+ *
+ * The rate can be changed at any time, for instance when a budget shared by
+ * several nodes is split again (see {@link pt.ptcris.batch.BatchNode}).
+ */
+public class RateLimiter {
+
+	private double rate;
+	private double burst;
+	private double permits;
+	private long last;
+
+	/**
+	 * Creates a rate limiter.
+	 *
+	 * @param rate
+	 *            The maximum number of calls per second.
+	 */
+	public RateLimiter(double rate) {
+		this.last = System.nanoTime();
+		this.permits = 1;
+		setRate(rate);
+	}
+
+	/**
+	 * Changes the rate, keeping the permits accumulated at the previous rate.
+	 *
+	 * @param rate
+	 *            The maximum number of calls per second.
+	 */
+	public synchronized void setRate(double rate) {
+		if (rate <= 0)
+			throw new IllegalArgumentException("Rate must be positive: " + rate);
+		refill();
+		this.rate = rate;
+		this.burst = Math.max(1, rate);
+		this.permits = Math.min(permits, burst);
+	}
+
+	/**
+	 * @return The maximum number of calls per second.
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Waits until a call can be issued within the rate.
+	 *
+	 * @throws CancellationException
+	 *             If the thread is interrupted while waiting, in which case
+	 *             the interrupt status is kept.
+	 */
+	public void acquire() {
+		long wait;
+		synchronized (this) {
+			refill();
+			permits--;
+			wait = permits >= 0 ? 0 : (long) (-permits / rate * TimeUnit.SECONDS.toNanos(1));
+		}
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted while waiting for the rate limit");
+			}
+		}
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		permits = Math.min(burst, permits + (now - last) * rate / TimeUnit.SECONDS.toNanos(1));
+		last = now;
+	}
+
+}
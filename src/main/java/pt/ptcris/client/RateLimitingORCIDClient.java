@@ -0,0 +1,146 @@
+package pt.ptcris.client;
+
+import java.math.BigInteger;
+import java.util.concurrent.Callable;
+
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.ORCIDClient;
+
+/**
+ * An ORCID client decorator that issues every call (reads and writes) within
+ * the rate of a {@link RateLimiter}, usually shared by the clients of the
+ * same Member API client id, so that their joint rate respects the budget of
+ * the Member API client.
+ */
+public class RateLimitingORCIDClient extends ORCIDClientDecorator {
+
+	private final RateLimiter limiter;
+
+	/**
+	 * Decorates an ORCID client with a rate limit.
+	 * 
+	 * @param client
+	 *            The decorated client.
+	 * @param limiter
+	 *            The rate limiter, usually shared between clients.
+	 */
+	public RateLimitingORCIDClient(ORCIDClient client, RateLimiter limiter) {
+		super(client);
+		this.limiter = limiter;
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWork(BigInteger)
+	 */
+	@Override
+	public Work getWork(final BigInteger putCode) throws OrcidClientException {
+		return throttle(new Callable<Work>() {
+			public Work call() throws OrcidClientException {
+				return client.getWork(putCode);
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#addWork(Work)
+	 */
+	@Override
+	public BigInteger addWork(final Work work) throws OrcidClientException {
+		return throttle(new Callable<BigInteger>() {
+			public BigInteger call() throws OrcidClientException {
+				return client.addWork(work);
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#deleteWork(BigInteger)
+	 */
+	@Override
+	public void deleteWork(final BigInteger putCode) throws OrcidClientException {
+		throttle(new Callable<Void>() {
+			public Void call() throws OrcidClientException {
+				client.deleteWork(putCode);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#updateWork(BigInteger, Work)
+	 */
+	@Override
+	public void updateWork(final BigInteger putCode, final Work work) throws OrcidClientException {
+		throttle(new Callable<Void>() {
+			public Void call() throws OrcidClientException {
+				client.updateWork(putCode, work);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getActivitiesSummary()
+	 */
+	@Override
+	public ActivitiesSummary getActivitiesSummary() throws OrcidClientException {
+		return throttle(new Callable<ActivitiesSummary>() {
+			public ActivitiesSummary call() throws OrcidClientException {
+				return client.getActivitiesSummary();
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getActivitiesSummaryIfModified(long)
+	 */
+	@Override
+	public ActivitiesSummary getActivitiesSummaryIfModified(final long lastModified) throws OrcidClientException {
+		return throttle(new Callable<ActivitiesSummary>() {
+			public ActivitiesSummary call() throws OrcidClientException {
+				return client.getActivitiesSummaryIfModified(lastModified);
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWorksSummary()
+	 */
+	@Override
+	public Works getWorksSummary() throws OrcidClientException {
+		return throttle(new Callable<Works>() {
+			public Works call() throws OrcidClientException {
+				return client.getWorksSummary();
+			}
+		});
+	}
+
+	/**
+	 * @see pt.ptcris.ORCIDClient#getWorksSummaryIfModified(long)
+	 */
+	@Override
+	public Works getWorksSummaryIfModified(final long lastModified) throws OrcidClientException {
+		return throttle(new Callable<Works>() {
+			public Works call() throws OrcidClientException {
+				return client.getWorksSummaryIfModified(lastModified);
+			}
+		});
+	}
+
+	/**
+	 * @return The rate limiter.
+	 */
+	public RateLimiter getLimiter() {
+		return limiter;
+	}
+
+	private <T> T throttle(Callable<T> call) throws OrcidClientException {
+		limiter.acquire();
+		return call(call);
+	}
+
+}
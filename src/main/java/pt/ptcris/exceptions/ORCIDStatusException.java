@@ -0,0 +1,37 @@
+package pt.ptcris.exceptions;
+
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+
+/**
+ * An ORCID client exception raised when ORCID answers a request with an
+ * error status (e.g., 404 or 429), carrying that status so that callers need
+ * not parse it from the message. Decisions based on the status, such as
+ * throttling, should rely on this class rather than on the code of other
+ * ORCID client exceptions.
+ */
+public class ORCIDStatusException extends OrcidClientException {
+	private static final long serialVersionUID = 1L;
+
+	private final int status;
+
+	/**
+	 * Creates an exception for an error response.
+	 * 
+	 * @param status
+	 *            The HTTP status of the response.
+	 * @param url
+	 *            The URL of the requested resource.
+	 */
+	public ORCIDStatusException(int status, String url) {
+		super(status, status + " " + url, null, null);
+		this.status = status;
+	}
+
+	/**
+	 * @return The HTTP status of the response.
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+}
@@ -0,0 +1,126 @@
+package pt.ptcris.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkTitle;
+
+/**
+ * A single JAXB context for the ORCID model shared by the whole JVM, with
+ * thread-local marshallers and unmarshallers, so that the (expensive) context
+ * and (cheap but not free) marshaller creation are only paid once per JVM and
+ * once per thread, respectively. Marshallers and unmarshallers are not
+ * thread-safe, but can be reused by the same thread.
+ *
+ * Short-lived JVMs should call {@link #warmUp()} at startup, so that the first
+ * synchronization does not pay for the creation of the context and the
+ * loading of the model classes.
+ */
+public class JAXBPool {
+
+	private static volatile JAXBContext context;
+
+	private static final ThreadLocal<Unmarshaller> unmarshallers = new ThreadLocal<Unmarshaller>();
+	private static final ThreadLocal<Marshaller> marshallers = new ThreadLocal<Marshaller>();
+
+	/**
+	 * Returns the shared JAXB context, creating it if needed.
+	 *
+	 * @return The JAXB context of the ORCID model.
+	 * @throws JAXBException
+	 *             If the context cannot be created.
+	 */
+	public static JAXBContext context() throws JAXBException {
+		JAXBContext res = context;
+		if (res == null) {
+			synchronized (JAXBPool.class) {
+				res = context;
+				if (res == null)
+					context = res = JAXBContext.newInstance(Work.class, ActivitiesSummary.class);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Unmarshals an XML document as an instance of a given type, independently
+	 * of its root element.
+	 *
+	 * @param in
+	 *            The XML document.
+	 * @param type
+	 *            The expected type.
+	 * @return The unmarshalled object.
+	 * @throws JAXBException
+	 *             If the document cannot be unmarshalled.
+	 */
+	public static <T> T unmarshal(InputStream in, Class<T> type) throws JAXBException {
+		Unmarshaller unmarshaller = unmarshallers.get();
+		if (unmarshaller == null) {
+			unmarshaller = context().createUnmarshaller();
+			unmarshallers.set(unmarshaller);
+		}
+		return unmarshaller.unmarshal(new StreamSource(in), type).getValue();
+	}
+
+	/**
+	 * @see #unmarshal(InputStream, Class)
+	 */
+	public static <T> T unmarshal(byte[] body, Class<T> type) throws JAXBException {
+		return unmarshal(new ByteArrayInputStream(body), type);
+	}
+
+	/**
+	 * Marshals an object as an XML document with a given root element.
+	 *
+	 * @param value
+	 *            The object to be marshalled.
+	 * @param type
+	 *            The type of the object.
+	 * @param root
+	 *            The name of the root element.
+	 * @param out
+	 *            The stream to write to.
+	 * @throws JAXBException
+	 *             If the object cannot be marshalled.
+	 */
+	public static <T> void marshal(T value, Class<T> type, QName root, OutputStream out) throws JAXBException {
+		Marshaller marshaller = marshallers.get();
+		if (marshaller == null) {
+			marshaller = context().createMarshaller();
+			marshallers.set(marshaller);
+		}
+		marshaller.marshal(new JAXBElement<T>(root, type, value), out);
+	}
+
+	/**
+	 * Creates the shared context and round-trips a dummy work through the
+	 * marshaller and unmarshaller of the calling thread, loading and
+	 * initializing the model classes.
+	 *
+	 * @throws JAXBException
+	 *             If the context cannot be created.
+	 */
+	public static void warmUp() throws JAXBException {
+		Work work = new Work();
+		WorkTitle title = new WorkTitle();
+		title.setTitle("warm-up");
+		work.setTitle(title);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		marshal(work, Work.class, new QName("work"), out);
+		unmarshal(out.toByteArray(), Work.class);
+	}
+
+}
@@ -0,0 +1,39 @@
+package pt.ptcris.transport;
+
+import org.um.dsi.gavea.orcid.model.activities.WorkGroup;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+/**
+ * A work group as produced by the {@link WorksSummaryParser}, which also
+ * carries the single summary into which the group was merged while being
+ * parsed: the meta-data of its first (i.e., preferred) work, the most recent
+ * last-modified date of its works and the identifiers of the group as self
+ * external identifiers. The synchronization procedures use the merged
+ * summary directly, so that it is built once per parse rather than once per
+ * use of a (possibly cached) works summary.
+ *
+ * The merged summary is not part of the ORCID model, and is thus lost when
+ * the group is serialized; groups of other origins are merged by
+ * {@link pt.ptcris.ORCIDHelper} instead.
+ */
+public class MergedWorkGroup extends WorkGroup {
+
+	private WorkSummary merged;
+
+	/**
+	 * @return The summary into which the group was merged, or null if the
+	 *         group has no works.
+	 */
+	public WorkSummary getMerged() {
+		return merged;
+	}
+
+	/**
+	 * @param merged
+	 *            The summary into which the group was merged.
+	 */
+	public void setMerged(WorkSummary merged) {
+		this.merged = merged;
+	}
+
+}
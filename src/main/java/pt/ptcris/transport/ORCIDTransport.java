@@ -0,0 +1,395 @@
+package pt.ptcris.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A minimal HTTP transport for read requests to the ORCID API, supporting
+ * conditional requests. The validators of each response (its
+ * <code>ETag</code> and <code>Last-Modified</code> headers) are remembered per
+ * resource together with the last-modified date of its content, so that a
+ * later request by a caller holding that same content can be validated with
+ * <code>If-None-Match</code> and <code>If-Modified-Since</code>. The
+ * validators sent are always those chosen by the server, never derived from
+ * the content; a caller whose content is not the one last remembered for the
+ * resource (e.g., a copy read from disk in a previous run, since validators
+ * are only kept in memory) performs an unconditional request.
+ *
+ * Servers that ignore the validators simply answer with the full resource,
+ * which is handled as a modification.
+ *
+ * Connections are pooled and kept alive between requests, so a transport
+ * should be shared by every client of the JVM (by default, clients use the
+ * {@link #getShared() shared} instance) to avoid a new TLS handshake per
+ * profile. The number of requests and of opened connections is tracked to
+ * expose the connection {@link #getReuseRate() reuse rate}.
+ *
+ * Responses are requested compressed (gzip or deflate) and decoded here
+ * rather than by the HTTP client, so that the bytes received on the wire and
+ * the decoded bytes can be reported.
+ *
+ * Requests may be bounded by the time remaining until a deadline, which then
+ * caps their connection, socket and pool timeouts, so that a request in
+ * flight does not outlive the synchronization that issued it.
+ */
+public class ORCIDTransport {
+
+	public static final String MEDIA_TYPE = "application/vnd.orcid+xml";
+	public static final int NOT_MODIFIED = HttpURLConnection.HTTP_NOT_MODIFIED;
+
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	public static final int DEFAULT_READ_TIMEOUT = 30000;
+	public static final int DEFAULT_MAX_CONNECTIONS = 20;
+	public static final long DEFAULT_KEEP_ALIVE = 30000;
+
+	private static volatile ORCIDTransport shared = new ORCIDTransport();
+
+	private final Map<String, Validator> validators = new ConcurrentHashMap<String, Validator>();
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final PoolingHttpClientConnectionManager pool;
+	private final CloseableHttpClient http;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong connections = new AtomicLong();
+	private final AtomicLong wireBytes = new AtomicLong();
+	private final AtomicLong decodedBytes = new AtomicLong();
+
+	/**
+	 * Creates a transport with the default timeouts and pool bounds.
+	 */
+	public ORCIDTransport() {
+		this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_MAX_CONNECTIONS, DEFAULT_KEEP_ALIVE);
+	}
+
+	/**
+	 * Creates a transport.
+	 *
+	 * @param connectTimeout
+	 *            The timeout for establishing a connection, in milliseconds.
+	 * @param readTimeout
+	 *            The timeout for reading from a connection, in milliseconds.
+	 * @param maxConnections
+	 *            The maximum number of pooled connections, which, since every
+	 *            request targets the ORCID API, is also the maximum per route.
+	 * @param keepAlive
+	 *            How long idle connections are kept alive, in milliseconds,
+	 *            when the server does not state it.
+	 */
+	public ORCIDTransport(int connectTimeout, int readTimeout, int maxConnections, final long keepAlive) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		final HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> factory = ManagedHttpClientConnectionFactory.INSTANCE;
+		pool = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory> create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register("https", SSLConnectionSocketFactory.getSocketFactory()).build(),
+				new HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection>() {
+					public ManagedHttpClientConnection create(HttpRoute route, ConnectionConfig config) {
+						connections.incrementAndGet();
+						return factory.create(route, config);
+					}
+				});
+		pool.setMaxTotal(maxConnections);
+		pool.setDefaultMaxPerRoute(maxConnections);
+
+		http = HttpClients.custom().setConnectionManager(pool)
+				.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+					public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+						long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+						return duration > 0 ? duration : keepAlive;
+					}
+				})
+				.setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(connectTimeout)
+						.setSocketTimeout(readTimeout).setConnectionRequestTimeout(readTimeout).build())
+				.disableContentCompression().build();
+	}
+
+	/**
+	 * Returns the transport shared by every client of the JVM.
+	 *
+	 * @return The shared transport.
+	 */
+	public static ORCIDTransport getShared() {
+		return shared;
+	}
+
+	/**
+	 * Replaces the transport shared by every client of the JVM, for instance
+	 * to change its timeouts. Clients already created keep the previous
+	 * transport, which is not closed.
+	 *
+	 * @param transport
+	 *            The new shared transport.
+	 */
+	public static void setShared(ORCIDTransport transport) {
+		shared = transport;
+	}
+
+	/**
+	 * Performs an authenticated GET request.
+	 *
+	 * @param url
+	 *            The URL of the resource.
+	 * @param accessToken
+	 *            The OAuth access token.
+	 * @param ifModifiedSince
+	 *            The last-modified date of the content of the caller's copy of
+	 *            the resource, in milliseconds since the epoch, or -1 for an
+	 *            unconditional request. The request is only conditional if
+	 *            validators were {@link #remember(String, Response, long)
+	 *            remembered} for that content.
+	 * @return The response; its body is null unless the status is 200.
+	 * @throws IOException
+	 *             If the communication fails.
+	 */
+	public Response get(String url, String accessToken, long ifModifiedSince) throws IOException {
+		return get(url, accessToken, ifModifiedSince, -1);
+	}
+
+	/**
+	 * Performs an authenticated GET request bounded by the time remaining
+	 * until a deadline, which caps the timeouts of the transport. The bound
+	 * applies to each phase of the request (obtaining a pooled connection,
+	 * connecting and every read) rather than to the request as a whole.
+	 *
+	 * @param url
+	 *            The URL of the resource.
+	 * @param accessToken
+	 *            The OAuth access token.
+	 * @param ifModifiedSince
+	 *            The last-modified date of the content of the caller's copy of
+	 *            the resource, or -1 for an unconditional request (see
+	 *            {@link #get(String, String, long)}).
+	 * @param remaining
+	 *            The time remaining until the deadline, in milliseconds, or
+	 *            -1 if the request is not bounded.
+	 * @return The response; its body is null unless the status is 200.
+	 * @throws InterruptedIOException
+	 *             If no time remains, in which case no request is performed.
+	 * @throws IOException
+	 *             If the communication fails, namely if it times out.
+	 */
+	public Response get(String url, String accessToken, long ifModifiedSince, long remaining) throws IOException {
+		if (remaining == 0)
+			throw new InterruptedIOException("Deadline passed before requesting " + url);
+		HttpGet request = new HttpGet(url);
+		if (remaining > 0) {
+			int connect = (int) Math.min(connectTimeout, remaining);
+			int read = (int) Math.min(readTimeout, remaining);
+			request.setConfig(RequestConfig.custom().setConnectTimeout(connect).setSocketTimeout(read)
+					.setConnectionRequestTimeout(read).build());
+		}
+		request.setHeader("Accept", MEDIA_TYPE);
+		request.setHeader("Authorization", "Bearer " + accessToken);
+		request.setHeader("Accept-Encoding", "gzip, deflate");
+		Validator validator = ifModifiedSince < 0 ? null : validators.get(url);
+		if (validator != null && validator.content == ifModifiedSince) {
+			if (validator.etag != null)
+				request.setHeader("If-None-Match", validator.etag);
+			if (validator.lastModified != null)
+				request.setHeader("If-Modified-Since", validator.lastModified);
+		}
+
+		requests.incrementAndGet();
+		CloseableHttpResponse response = http.execute(request);
+		try {
+			int status = response.getStatusLine().getStatusCode();
+			HttpEntity entity = response.getEntity();
+			byte[] body = null;
+			long wire = 0;
+			// the entity is always consumed so that the connection can be reused
+			if (status == HttpURLConnection.HTTP_OK && entity != null) {
+				body = EntityUtils.toByteArray(entity);
+				wire = body.length;
+				wireBytes.addAndGet(wire);
+				Header encoding = entity.getContentEncoding();
+				if (encoding != null)
+					body = decode(encoding.getValue(), body);
+				decodedBytes.addAndGet(body.length);
+			} else if (entity != null)
+				EntityUtils.consume(entity);
+			Header etag = response.getFirstHeader("ETag");
+			Header lastModified = response.getFirstHeader("Last-Modified");
+			return new Response(status, body, etag == null ? null : etag.getValue(),
+					lastModified == null ? null : lastModified.getValue(), wire);
+		} finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * Remembers the validators of a resource, associated with the
+	 * last-modified date of the content that was returned with them.
+	 *
+	 * @param url
+	 *            The URL of the resource.
+	 * @param response
+	 *            The response that carried the resource.
+	 * @param lastModified
+	 *            The last-modified date of the returned content.
+	 */
+	public void remember(String url, Response response, long lastModified) {
+		if ((response.etag == null && response.lastModified == null) || lastModified < 0)
+			validators.remove(url);
+		else
+			validators.put(url, new Validator(response.etag, response.lastModified, lastModified));
+	}
+
+	/**
+	 * @return The number of requests performed.
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return The number of connections opened.
+	 */
+	public long getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * @return The fraction of requests served by a pooled connection, rather
+	 *         than a newly opened one.
+	 */
+	public double getReuseRate() {
+		long n = requests.get();
+		return n == 0 ? 0 : Math.max(0, 1 - (double) connections.get() / n);
+	}
+
+	/**
+	 * @return The number of response bytes received on the wire, possibly
+	 *         compressed.
+	 */
+	public long getWireBytes() {
+		return wireBytes.get();
+	}
+
+	/**
+	 * @return The number of response bytes after decoding.
+	 */
+	public long getDecodedBytes() {
+		return decodedBytes.get();
+	}
+
+	/**
+	 * @return The number of idle pooled connections.
+	 */
+	public int getIdleConnections() {
+		return pool.getTotalStats().getAvailable();
+	}
+
+	/**
+	 * Closes the pooled connections. The transport cannot be used afterwards.
+	 */
+	public void close() {
+		try {
+			http.close();
+		} catch (IOException e) {
+			// nothing to release
+		}
+		pool.shutdown();
+	}
+
+	/**
+	 * Decodes a response body according to its content encoding. Deflate is
+	 * supposed to be wrapped in zlib, but some servers send it raw, so the
+	 * zlib header is checked.
+	 */
+	private static byte[] decode(String encoding, byte[] body) throws IOException {
+		encoding = encoding.trim().toLowerCase(Locale.US);
+		InputStream in;
+		Inflater inflater = null;
+		if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+			in = new GZIPInputStream(new ByteArrayInputStream(body));
+		else if (encoding.equals("deflate")) {
+			boolean zlib = body.length > 1 && (body[0] & 0x0f) == 8
+					&& (((body[0] & 0xff) << 8) | (body[1] & 0xff)) % 31 == 0;
+			inflater = new Inflater(!zlib);
+			in = new InflaterInputStream(new ByteArrayInputStream(body), inflater);
+		} else if (encoding.isEmpty() || encoding.equals("identity"))
+			return body;
+		else
+			throw new IOException("Unsupported content encoding: " + encoding);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+			if (inflater != null)
+				inflater.end();
+		}
+	}
+
+	/**
+	 * The response to a request.
+	 */
+	public static class Response {
+		public final int status;
+		public final byte[] body;
+		public final String etag;
+		/** The Last-Modified header, as sent by the server. */
+		public final String lastModified;
+		/** The size of the body on the wire, before decoding. */
+		public final long wireLength;
+
+		Response(int status, byte[] body, String etag, String lastModified, long wireLength) {
+			this.status = status;
+			this.body = body;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.wireLength = wireLength;
+		}
+	}
+
+	private static final class Validator {
+		final String etag;
+		final String lastModified;
+		final long content;
+
+		Validator(String etag, String lastModified, long content) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.content = content;
+		}
+	}
+
+}
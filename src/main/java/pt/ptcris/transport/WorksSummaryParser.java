@@ -0,0 +1,258 @@
+package pt.ptcris.transport;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.activities.Identifier;
+import org.um.dsi.gavea.orcid.model.activities.Identifiers;
+import org.um.dsi.gavea.orcid.model.activities.WorkGroup;
+import org.um.dsi.gavea.orcid.model.common.ClientId;
+import org.um.dsi.gavea.orcid.model.common.FuzzyDate;
+import org.um.dsi.gavea.orcid.model.common.FuzzyDate.Year;
+import org.um.dsi.gavea.orcid.model.common.LastModifiedDate;
+import org.um.dsi.gavea.orcid.model.common.RelationshipType;
+import org.um.dsi.gavea.orcid.model.common.Source;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifier;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifierType;
+import org.um.dsi.gavea.orcid.model.work.WorkExternalIdentifiers;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+import org.um.dsi.gavea.orcid.model.work.WorkTitle;
+import org.um.dsi.gavea.orcid.model.work.WorkType;
+
+/**
+ * A streaming (StAX) parser of ORCID works summaries, either the response of
+ * the works endpoint or the works section of an activities summary (the
+ * remainder activities are skipped without being unmarshalled). The works
+ * summary is still built in full, but as a projection holding only what the
+ * synchronization procedures use: the group identifiers and, for each work
+ * summary, the put-code, last-modified date, source client id, title,
+ * publication year, type and external identifiers.
+ *
+ * Each group is also merged on the fly, as soon as it is parsed, into a
+ * single compact summary (see {@link MergedWorkGroup}), which shares the
+ * meta-data of the first work of the group rather than copying it.
+ *
+ * Element names are matched independently of namespaces, and both the
+ * identifier elements of API 2.0 release candidates and those of the final
+ * API 2.0 are supported.
+ */
+public class WorksSummaryParser {
+
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+	static {
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
+	/**
+	 * Parses a works summary into projected work groups.
+	 *
+	 * @param in
+	 *            The XML works summary or activities summary.
+	 * @return The projected works summary.
+	 * @throws XMLStreamException
+	 *             If the XML is malformed.
+	 */
+	public static Works parse(InputStream in) throws XMLStreamException {
+		Works works = new Works();
+		DatatypeFactory dates;
+		try {
+			dates = DatatypeFactory.newInstance();
+		} catch (DatatypeConfigurationException e) {
+			throw new XMLStreamException(e);
+		}
+
+		XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+		try {
+			List<String> path = new ArrayList<String>();
+			StringBuilder text = new StringBuilder();
+			int worksDepth = -1;
+			MergedWorkGroup group = null;
+			List<ExternalIdentifier> mergedIds = null;
+			LastModifiedDate mergedDate = null;
+			WorkSummary work = null;
+			Identifier groupId = null;
+			ExternalIdentifier workId = null;
+			String workIdType = null;
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+					path.add(name);
+					text.setLength(0);
+					int depth = path.size();
+					if (worksDepth < 0) {
+						if (name.equals("works"))
+							worksDepth = depth;
+					} else if (group == null) {
+						if (depth == worksDepth + 1 && name.equals("group")) {
+							group = new MergedWorkGroup();
+							group.setIdentifiers(new Identifiers());
+							mergedIds = new ArrayList<ExternalIdentifier>();
+							mergedDate = null;
+						}
+					} else if (work == null) {
+						if (name.equals("work-summary")) {
+							work = new WorkSummary();
+							// works added by the user have a source but no client id
+							work.setSource(new Source());
+							String putCode = reader.getAttributeValue(null, "put-code");
+							if (putCode != null)
+								work.setPutCode(new BigInteger(putCode.trim()));
+						} else if (name.equals("identifier") || name.equals("external-id"))
+							groupId = new Identifier();
+					} else if (name.equals("work-external-identifiers") || name.equals("external-ids"))
+						work.setExternalIdentifiers(new WorkExternalIdentifiers());
+					else if (name.equals("work-external-identifier") || name.equals("external-id")) {
+						workId = new ExternalIdentifier();
+						workIdType = null;
+					}
+				} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+					if (group != null)
+						text.append(reader.getText());
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					String name = path.remove(path.size() - 1);
+					String parent = path.isEmpty() ? null : path.get(path.size() - 1);
+					String value = text.toString().trim();
+					text.setLength(0);
+
+					if (worksDepth > path.size())
+						break; // the end of the works section
+					if (group == null)
+						continue;
+
+					if (work == null) {
+						if (groupId != null) {
+							if (name.equals("external-identifier-type") || name.equals("external-id-type"))
+								groupId.setExternalIdentifierType(value);
+							else if (name.equals("external-identifier-id") || name.equals("external-id-value"))
+								groupId.setExternalIdentifierId(value);
+							else if (name.equals("identifier") || name.equals("external-id")) {
+								group.getIdentifiers().getIdentifier().add(groupId);
+								ExternalIdentifierType type = identifierType(groupId.getExternalIdentifierType());
+								if (type != null) {
+									ExternalIdentifier mergedId = new ExternalIdentifier();
+									mergedId.setRelationship(RelationshipType.SELF);
+									mergedId.setExternalIdentifierType(type);
+									mergedId.setExternalIdentifierId(groupId.getExternalIdentifierId());
+									mergedIds.add(mergedId);
+								}
+								groupId = null;
+							}
+						} else if (name.equals("group")) {
+							group.setMerged(merge(group, mergedIds, mergedDate));
+							works.getGroup().add(group);
+							group = null;
+						}
+					} else if (workId != null) {
+						if (name.equals("external-identifier-type") || name.equals("external-id-type"))
+							workIdType = value;
+						else if (name.equals("external-identifier-id") || name.equals("external-id-value"))
+							workId.setExternalIdentifierId(value);
+						else if (name.equals("relationship") || name.equals("external-id-relationship"))
+							workId.setRelationship(relationship(value));
+						else if (name.equals("work-external-identifier") || name.equals("external-id")) {
+							ExternalIdentifierType type = identifierType(workIdType);
+							if (type != null) {
+								workId.setExternalIdentifierType(type);
+								work.getExternalIdentifiers().getWorkExternalIdentifier().add(workId);
+							}
+							workId = null;
+						}
+					} else if (name.equals("work-summary")) {
+						group.getWorkSummary().add(work);
+						if (mergedDate == null || millis(work.getLastModifiedDate()) > millis(mergedDate))
+							mergedDate = work.getLastModifiedDate();
+						work = null;
+					} else if (name.equals("last-modified-date") && "work-summary".equals(parent)) {
+						LastModifiedDate date = new LastModifiedDate();
+						date.setValue(dates.newXMLGregorianCalendar(value));
+						work.setLastModifiedDate(date);
+					} else if (name.equals("path") && "source-client-id".equals(parent)) {
+						ClientId clientId = new ClientId();
+						clientId.setUriPath(value);
+						work.getSource().setSourceClientId(clientId);
+					} else if (name.equals("title") && "title".equals(parent)) {
+						WorkTitle title = new WorkTitle();
+						title.setTitle(value);
+						work.setTitle(title);
+					} else if (name.equals("type") && "work-summary".equals(parent)) {
+						work.setType(workType(value));
+					} else if (name.equals("year") && "publication-date".equals(parent)) {
+						work.setPublicationDate(new FuzzyDate(new Year(value), null, null));
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return works;
+	}
+
+	/**
+	 * Merges a parsed group into a single summary, as
+	 * {@link pt.ptcris.ORCIDHelper} merges groups of other origins. The
+	 * meta-data objects of the first work are shared, since they were created
+	 * by this parse alone.
+	 */
+	private static WorkSummary merge(WorkGroup group, List<ExternalIdentifier> ids, LastModifiedDate date) {
+		if (group.getWorkSummary().isEmpty())
+			return null;
+		WorkSummary first = group.getWorkSummary().get(0);
+		WorkSummary merged = new WorkSummary();
+		merged.setPutCode(first.getPutCode());
+		merged.setSource(first.getSource());
+		merged.setTitle(first.getTitle());
+		merged.setType(first.getType());
+		merged.setPublicationDate(first.getPublicationDate());
+		merged.setLastModifiedDate(date);
+		merged.setExternalIdentifiers(new WorkExternalIdentifiers(ids));
+		return merged;
+	}
+
+	private static long millis(LastModifiedDate date) {
+		if (date == null || date.getValue() == null)
+			return -1;
+		return date.getValue().toGregorianCalendar().getTimeInMillis();
+	}
+
+	private static ExternalIdentifierType identifierType(String value) {
+		if (value == null)
+			return null;
+		try {
+			return ExternalIdentifierType.fromValue(value.toLowerCase());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static RelationshipType relationship(String value) {
+		try {
+			return RelationshipType.fromValue(value.toLowerCase());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static WorkType workType(String value) {
+		try {
+			return WorkType.fromValue(value.toLowerCase());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+}
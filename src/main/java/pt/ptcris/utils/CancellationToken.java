@@ -0,0 +1,113 @@
+package pt.ptcris.utils;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A token through which a running synchronization can be cancelled, for
+ * instance when the user that started it leaves. Procedures check the token
+ * between items and phases, stop issuing ORCID calls once it is cancelled,
+ * and interrupt their pending ORCID calls. They then return the results of
+ * what was actually performed.
+ *
+ * Procedures that return partial results record here the put-codes of the
+ * works that could not be fetched, so that callers can tell complete results
+ * from partial ones (see {@link #isPartial()}). Works that failed to be
+ * fetched for other reasons are recorded as well. A token may be shared by
+ * the procedures of a synchronization, in which case the unfetched works of
+ * every procedure are accumulated.
+ */
+public class CancellationToken {
+
+	private volatile boolean cancelled = false;
+	private final List<Runnable> listeners = new ArrayList<Runnable>();
+	private final Set<BigInteger> unfetched = Collections.synchronizedSet(new HashSet<BigInteger>());
+
+	/**
+	 * Cancels the synchronization, notifying the registered listeners.
+	 */
+	public void cancel() {
+		List<Runnable> notify;
+		synchronized (listeners) {
+			if (cancelled)
+				return;
+			cancelled = true;
+			notify = new ArrayList<Runnable>(listeners);
+		}
+		for (Runnable listener : notify)
+			listener.run();
+	}
+
+	/**
+	 * @return Whether the synchronization was cancelled.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Registers a listener to be run when the token is cancelled, or
+	 * immediately if already cancelled.
+	 *
+	 * @param listener
+	 *            The listener.
+	 */
+	public void register(Runnable listener) {
+		synchronized (listeners) {
+			if (!cancelled) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	/**
+	 * Unregisters a listener.
+	 *
+	 * @param listener
+	 *            The listener.
+	 */
+	public void unregister(Runnable listener) {
+		synchronized (listeners) {
+			listeners.remove(listener);
+		}
+	}
+
+	/**
+	 * Records that a work could not be fetched.
+	 *
+	 * @param putCode
+	 *            The put-code of the work.
+	 */
+	public void unfetched(BigInteger putCode) {
+		unfetched.add(putCode);
+	}
+
+	/**
+	 * @return The put-codes of the works that could not be fetched.
+	 */
+	public Set<BigInteger> getUnfetched() {
+		synchronized (unfetched) {
+			return new HashSet<BigInteger>(unfetched);
+		}
+	}
+
+	/**
+	 * Procedures cancelled before reading the work summaries of the profile
+	 * know no put-codes to record, so a cancelled token may not be partial
+	 * even though the results are empty; callers should check
+	 * {@link #isCancelled()} as well.
+	 * 
+	 * @return Whether some work could not be fetched, and thus the results are
+	 *         partial.
+	 */
+	public boolean isPartial() {
+		return !unfetched.isEmpty();
+	}
+
+}
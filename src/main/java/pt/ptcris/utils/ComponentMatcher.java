@@ -0,0 +1,221 @@
+package pt.ptcris.utils;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.um.dsi.gavea.orcid.model.common.RelationshipType;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifier;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkExternalIdentifiers;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ExternalIdentifiersUpdate;
+import pt.ptcris.ORCIDHelper;
+
+/**
+ * Assigns to each remote (CRIS sourced) work summary at most one local work
+ * and vice-versa, among those that share external identifiers with it (see
+ * {@link ORCIDHelper#getExternalIdentifiersDiff(WorkSummary, java.util.Collection)}),
+ * deterministically, so that repeated exports of the same works produce the
+ * same assignment and do not cause update churn.
+ *
+ * The remote and local works form a bipartite graph, whose edges join works
+ * that share identifiers. The graph is built once from an index of the
+ * identifiers (type and value), so that only works that share some
+ * identifier are compared, and its connected components are computed with a
+ * union-find. "Part of" identifiers (e.g., the ISSN of a journal) are not
+ * indexed, since they never make works match and would otherwise join every
+ * work of the same journal or book into a single component. Within each component, pairs are assigned greedily by
+ * decreasing number of shared identifiers, ties being broken by the
+ * put-code of the remote work and then by the local key of the local work,
+ * which are stable between runs.
+ */
+public class ComponentMatcher {
+
+	/**
+	 * Assigns local works to remote work summaries.
+	 *
+	 * @param remotes
+	 *            The remote work summaries.
+	 * @param locals
+	 *            The local works.
+	 * @return For each remote work summary, in order, the assigned local work
+	 *         and the identifiers diff between them, or null if none was
+	 *         assigned.
+	 */
+	public static List<UpdateRecord> assign(List<WorkSummary> remotes, List<Work> locals) {
+		int m = locals.size();
+		int n = remotes.size();
+
+		// the index of the identifiers, local works first
+		Map<String, List<Integer>> index = new HashMap<String, List<Integer>>();
+		for (int i = 0; i < m; i++)
+			index(index, locals.get(i).getExternalIdentifiers(), i);
+		for (int j = 0; j < n; j++)
+			index(index, remotes.get(j).getExternalIdentifiers(), m + j);
+
+		// the edges between works sharing identifiers
+		UnionFind components = new UnionFind(m + n);
+		Set<Long> candidates = new HashSet<Long>();
+		List<Edge> edges = new ArrayList<Edge>();
+		for (List<Integer> works : index.values()) {
+			for (int a = 0; a < works.size() && works.get(a) < m; a++) {
+				for (int b = works.size() - 1; b >= 0 && works.get(b) >= m; b--) {
+					int local = works.get(a);
+					int remote = works.get(b) - m;
+					if (!candidates.add((long) local * n + remote))
+						continue;
+					Work localWork = locals.get(local);
+					ExternalIdentifiersUpdate diff = ORCIDHelper.getExternalIdentifiersDiff(remotes.get(remote),
+							Collections.singletonList(localWork)).get(localWork);
+					// identifiers may be shared but with incompatible relationships
+					if (diff == null)
+						continue;
+					edges.add(new Edge(local, remote, diff));
+					components.union(local, m + remote);
+				}
+			}
+		}
+
+		// the edges of each component
+		Map<Integer, List<Edge>> byComponent = new HashMap<Integer, List<Edge>>();
+		for (Edge edge : edges) {
+			int root = components.find(edge.local);
+			List<Edge> component = byComponent.get(root);
+			if (component == null) {
+				component = new ArrayList<Edge>();
+				byComponent.put(root, component);
+			}
+			component.add(edge);
+		}
+
+		// the greedy assignment of each component
+		Comparator<Edge> order = new EdgeOrder(remotes, locals);
+		UpdateRecord[] res = new UpdateRecord[n];
+		boolean[] assigned = new boolean[m];
+		for (List<Edge> component : byComponent.values()) {
+			Collections.sort(component, order);
+			for (Edge edge : component) {
+				if (res[edge.remote] != null || assigned[edge.local])
+					continue;
+				assigned[edge.local] = true;
+				res[edge.remote] = new UpdateRecord(locals.get(edge.local), remotes.get(edge.remote), edge.diff);
+			}
+		}
+
+		List<UpdateRecord> list = new ArrayList<UpdateRecord>(n);
+		Collections.addAll(list, res);
+		return list;
+	}
+
+	private static void index(Map<String, List<Integer>> index, WorkExternalIdentifiers ids, int work) {
+		if (ids == null)
+			return;
+		for (ExternalIdentifier id : ids.getWorkExternalIdentifier()) {
+			String key = IdentifierFilter.canonical(id);
+			if (key == null || RelationshipType.PART_OF.equals(id.getRelationship()))
+				continue;
+			List<Integer> works = index.get(key);
+			if (works == null) {
+				works = new ArrayList<Integer>(2);
+				index.put(key, works);
+			}
+			if (works.isEmpty() || works.get(works.size() - 1).intValue() != work)
+				works.add(work);
+		}
+	}
+
+	private static final class Edge {
+		final int local;
+		final int remote;
+		final ExternalIdentifiersUpdate diff;
+
+		Edge(int local, int remote, ExternalIdentifiersUpdate diff) {
+			this.local = local;
+			this.remote = remote;
+			this.diff = diff;
+		}
+	}
+
+	/**
+	 * Orders edges by decreasing number of shared identifiers, then by the
+	 * put-code of the remote work and the local key of the local work (the
+	 * position in the input lists if absent).
+	 */
+	private static final class EdgeOrder implements Comparator<Edge> {
+		private final List<WorkSummary> remotes;
+		private final List<Work> locals;
+
+		EdgeOrder(List<WorkSummary> remotes, List<Work> locals) {
+			this.remotes = remotes;
+			this.locals = locals;
+		}
+
+		public int compare(Edge e1, Edge e2) {
+			int c = e2.diff.same.size() - e1.diff.same.size();
+			if (c == 0)
+				c = compare(remotes.get(e1.remote).getPutCode(), remotes.get(e2.remote).getPutCode());
+			if (c == 0)
+				c = e1.remote - e2.remote;
+			if (c == 0)
+				c = compare(ORCIDHelper.getWorkLocalKey(locals.get(e1.local)),
+						ORCIDHelper.getWorkLocalKey(locals.get(e2.local)));
+			if (c == 0)
+				c = e1.local - e2.local;
+			return c;
+		}
+
+		private static int compare(BigInteger k1, BigInteger k2) {
+			if (k1 == null)
+				return k2 == null ? 0 : 1;
+			return k2 == null ? -1 : k1.compareTo(k2);
+		}
+	}
+
+	/**
+	 * Disjoint sets of works, with path halving and union by size.
+	 */
+	private static final class UnionFind {
+		private final int[] parent;
+		private final int[] size;
+
+		UnionFind(int n) {
+			parent = new int[n];
+			size = new int[n];
+			for (int i = 0; i < n; i++) {
+				parent[i] = i;
+				size[i] = 1;
+			}
+		}
+
+		int find(int x) {
+			while (parent[x] != x) {
+				parent[x] = parent[parent[x]];
+				x = parent[x];
+			}
+			return x;
+		}
+
+		void union(int x, int y) {
+			int rx = find(x);
+			int ry = find(y);
+			if (rx == ry)
+				return;
+			if (size[rx] < size[ry]) {
+				int t = rx;
+				rx = ry;
+				ry = t;
+			}
+			parent[ry] = rx;
+			size[rx] += size[ry];
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package pt.ptcris.utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A deadline for a synchronization, which behaves as a
+ * {@link CancellationToken} that is also cancelled once the deadline passes:
+ * outstanding ORCID calls are then cancelled, no further ones are issued, and
+ * procedures return partial results, recording the put-codes of the works
+ * that could not be fetched (see {@link #getUnfetched()}). Once the deadline
+ * passes, the token is cancelled as if by {@link #cancel()}, so that the
+ * registered listeners are notified even if no one polls the token.
+ */
+public class Deadline extends CancellationToken {
+
+	/**
+	 * The timer that cancels the deadlines once expired.
+	 */
+	private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1,
+			new ThreadFactory() {
+				public Thread newThread(Runnable task) {
+					// the timer must not keep the JVM alive
+					Thread thread = Executors.defaultThreadFactory().newThread(task);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		// deadlines cancelled before expiring do not linger in the timer
+		TIMER.setRemoveOnCancelPolicy(true);
+	}
+
+	private final long expires;
+	private final ScheduledFuture<?> expiry;
+
+	/**
+	 * Creates a deadline relative to the current time.
+	 *
+	 * @param timeout
+	 *            The time until the deadline.
+	 * @param unit
+	 *            The unit of the timeout.
+	 */
+	public Deadline(long timeout, TimeUnit unit) {
+		long millis = unit.toMillis(timeout);
+		this.expires = System.currentTimeMillis() + millis;
+		this.expiry = TIMER.schedule(new Runnable() {
+			public void run() {
+				Deadline.super.cancel();
+			}
+		}, millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Cancels the synchronization before the deadline, notifying the
+	 * registered listeners.
+	 */
+	@Override
+	public void cancel() {
+		expiry.cancel(false);
+		super.cancel();
+	}
+
+	/**
+	 * Registers a listener to be run when the token is cancelled or the
+	 * deadline passes, or immediately if either already happened.
+	 *
+	 * @param listener
+	 *            The listener.
+	 */
+	@Override
+	public void register(Runnable listener) {
+		// the timer may not have run yet
+		if (isExpired())
+			super.cancel();
+		super.register(listener);
+	}
+
+	/**
+	 * @return The time remaining until the deadline in milliseconds, 0 if
+	 *         already expired or cancelled.
+	 */
+	public long remaining() {
+		return isCancelled() ? 0 : Math.max(0, expires - System.currentTimeMillis());
+	}
+
+	/**
+	 * @return Whether the deadline has passed.
+	 */
+	public boolean isExpired() {
+		return System.currentTimeMillis() >= expires;
+	}
+
+	/**
+	 * @return Whether the deadline has passed or was explicitly cancelled.
+	 */
+	@Override
+	public boolean isCancelled() {
+		return super.isCancelled() || isExpired();
+	}
+
+}
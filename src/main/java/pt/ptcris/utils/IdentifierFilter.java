@@ -0,0 +1,154 @@
+package pt.ptcris.utils;
+
+import java.util.Collection;
+
+import org.um.dsi.gavea.orcid.model.common.RelationshipType;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifier;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkExternalIdentifiers;
+
+/**
+ * A Bloom filter over the canonical external identifiers (type and value) of
+ * a set of works, to quickly rule out works that share no identifier with
+ * the set. The filter has no false negatives: if any identifier of a work is
+ * in the set, the work is reported as a possible match; works reported as
+ * not matching certainly share no identifier with the set. About 1% of the
+ * works that share no identifier are reported as possible matches, and must
+ * be checked exactly. "Part of" identifiers (e.g., the ISSN of a journal) are
+ * ignored, since they never make works match (see
+ * {@link pt.ptcris.ORCIDHelper#getExternalIdentifiersDiff(org.um.dsi.gavea.orcid.model.work.WorkSummary, Collection)}),
+ * and would otherwise report every work of a journal of the set as a
+ * possible match.
+ *
+ * The filter takes about 10 bits per identifier of the set, independently of
+ * the size of the identifiers, so that it stays small even for
+ * institution-wide sets of works.
+ */
+public class IdentifierFilter {
+
+	/**
+	 * The targeted false positive probability.
+	 */
+	public static final double FALSE_POSITIVES = 0.01;
+
+	private final long[] bits;
+	private final int size;
+	private final int hashes;
+
+	/**
+	 * Builds the filter of the identifiers of a set of works.
+	 *
+	 * @param works
+	 *            The set of works.
+	 */
+	public IdentifierFilter(Collection<Work> works) {
+		int count = 0;
+		for (Work work : works)
+			if (work.getExternalIdentifiers() != null)
+				for (ExternalIdentifier id : work.getExternalIdentifiers().getWorkExternalIdentifier())
+					if (key(id) != null)
+						count++;
+		count = Math.max(count, 1);
+
+		long optimal = (long) Math.ceil(-count * Math.log(FALSE_POSITIVES) / (Math.log(2) * Math.log(2)));
+		size = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, optimal));
+		hashes = Math.max(1, (int) Math.round((double) size / count * Math.log(2)));
+		bits = new long[(size + 63) / 64];
+
+		for (Work work : works)
+			if (work.getExternalIdentifiers() != null)
+				for (ExternalIdentifier id : work.getExternalIdentifiers().getWorkExternalIdentifier()) {
+					String key = key(id);
+					if (key != null)
+						add(key);
+				}
+	}
+
+	/**
+	 * Tests whether a work may share identifiers with the set.
+	 *
+	 * @param ids
+	 *            The identifiers of the work.
+	 * @return False if the work certainly shares no identifier with the set,
+	 *         true otherwise.
+	 */
+	public boolean mightMatch(WorkExternalIdentifiers ids) {
+		if (ids == null)
+			return false;
+		for (ExternalIdentifier id : ids.getWorkExternalIdentifier()) {
+			String key = key(id);
+			if (key != null && mightContain(key))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the canonical form of an external identifier, which identifies
+	 * it independently of its relationship.
+	 *
+	 * @param id
+	 *            The external identifier.
+	 * @return The canonical form, or null if the identifier is incomplete.
+	 */
+	public static String canonical(ExternalIdentifier id) {
+		if (id.getExternalIdentifierType() == null || id.getExternalIdentifierId() == null)
+			return null;
+		return id.getExternalIdentifierType().value() + ":" + id.getExternalIdentifierId();
+	}
+
+	/**
+	 * @return The canonical form of an identifier that may make works match,
+	 *         null if incomplete or "part of".
+	 */
+	private static String key(ExternalIdentifier id) {
+		if (RelationshipType.PART_OF.equals(id.getRelationship()))
+			return null;
+		return canonical(id);
+	}
+
+	/**
+	 * @return The size of the filter, in bits.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	private void add(String key) {
+		long h1 = key.hashCode();
+		long h2 = hash(key);
+		for (int i = 0; i < hashes; i++) {
+			int bit = index(h1 + i * h2);
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	private boolean mightContain(String key) {
+		long h1 = key.hashCode();
+		long h2 = hash(key);
+		for (int i = 0; i < hashes; i++) {
+			int bit = index(h1 + i * h2);
+			if ((bits[bit >>> 6] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	private int index(long hash) {
+		return (int) ((hash & Long.MAX_VALUE) % size);
+	}
+
+	/**
+	 * A 64-bit FNV-1a hash, independent of {@link String#hashCode()}, forced
+	 * odd so that the double hashing visits distinct bits.
+	 */
+	private static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h | 1;
+	}
+
+}
@@ -0,0 +1,168 @@
+package pt.ptcris.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ExternalIdentifiersUpdate;
+import pt.ptcris.ORCIDHelper;
+
+/**
+ * Matches a list of work summaries against a collection of local works,
+ * computing for each summary the external identifiers diff with every local
+ * work (see {@link ORCIDHelper#getExternalIdentifiersDiff(WorkSummary, Collection)})
+ * and its quality (see {@link ORCIDHelper#testMinimalQuality(WorkSummary)}).
+ * Since each summary is matched independently, large lists are split into
+ * chunks matched in parallel by a fork-join pool, while lists below a
+ * threshold are matched sequentially by the calling thread.
+ *
+ * The results are returned in the order of the summaries, so that the
+ * synchronization procedures can apply them sequentially exactly as if
+ * matched one by one. Neither the summaries nor the local works are
+ * modified.
+ */
+public class ParallelMatcher {
+
+	/**
+	 * The number of summaries below which matching is sequential.
+	 */
+	public static final int THRESHOLD = 256;
+
+	/**
+	 * The number of summaries matched by each fork-join task.
+	 */
+	public static final int CHUNK = 64;
+
+	private static volatile ForkJoinPool pool;
+
+	/**
+	 * The outcome of matching a work summary.
+	 */
+	public static final class Match {
+		public final WorkSummary summary;
+		public final Map<Work, ExternalIdentifiersUpdate> matches;
+		public final Set<String> invalids;
+
+		Match(WorkSummary summary, Map<Work, ExternalIdentifiersUpdate> matches, Set<String> invalids) {
+			this.summary = summary;
+			this.matches = matches;
+			this.invalids = invalids;
+		}
+	}
+
+	/**
+	 * Matches work summaries against local works, in parallel if there are
+	 * at least {@link #THRESHOLD} summaries.
+	 *
+	 * @param summaries
+	 *            The work summaries to be matched.
+	 * @param works
+	 *            The local works.
+	 * @return The match of each summary, in the order of the summaries.
+	 */
+	public static List<Match> match(List<WorkSummary> summaries, Collection<Work> works) {
+		return match(summaries, works, null);
+	}
+
+	/**
+	 * Matches work summaries against local works, in parallel if there are
+	 * at least {@link #THRESHOLD} summaries, pre-screening the summaries with
+	 * a filter of the identifiers of the local works. Summaries that miss the
+	 * filter are known not to match any local work without comparing them
+	 * with each local work. Worth it when most summaries are expected not to
+	 * match, in which case the identifiers diff of the summaries that match
+	 * is not needed.
+	 *
+	 * @param summaries
+	 *            The work summaries to be matched.
+	 * @param works
+	 *            The local works.
+	 * @param filter
+	 *            The filter of the identifiers of the local works, or null
+	 *            to compare every summary with each local work.
+	 * @return The match of each summary, in the order of the summaries.
+	 */
+	public static List<Match> match(List<WorkSummary> summaries, Collection<Work> works, IdentifierFilter filter) {
+		if (summaries.size() < THRESHOLD)
+			return match(summaries, works, filter, 0, summaries.size());
+
+		// the JAXB lists are lazily created, which must not race
+		for (Work work : works)
+			if (work.getExternalIdentifiers() != null)
+				work.getExternalIdentifiers().getWorkExternalIdentifier();
+		for (WorkSummary summary : summaries)
+			if (summary.getExternalIdentifiers() != null)
+				summary.getExternalIdentifiers().getWorkExternalIdentifier();
+
+		return pool().invoke(new MatchTask(summaries, works, filter, 0, summaries.size()));
+	}
+
+	private static List<Match> match(List<WorkSummary> summaries, Collection<Work> works,
+			IdentifierFilter filter, int from, int to) {
+		List<Match> res = new ArrayList<Match>(to - from);
+		for (int i = from; i < to; i++) {
+			WorkSummary summary = summaries.get(i);
+			Map<Work, ExternalIdentifiersUpdate> matches;
+			if (filter == null || filter.mightMatch(summary.getExternalIdentifiers()))
+				matches = ORCIDHelper.getExternalIdentifiersDiff(summary, works);
+			else
+				matches = Collections.emptyMap();
+			res.add(new Match(summary, matches, ORCIDHelper.testMinimalQuality(summary)));
+		}
+		return res;
+	}
+
+	private static ForkJoinPool pool() {
+		ForkJoinPool res = pool;
+		if (res == null) {
+			synchronized (ParallelMatcher.class) {
+				res = pool;
+				if (res == null)
+					pool = res = new ForkJoinPool();
+			}
+		}
+		return res;
+	}
+
+	private static final class MatchTask extends RecursiveTask<List<Match>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<WorkSummary> summaries;
+		private final Collection<Work> works;
+		private final IdentifierFilter filter;
+		private final int from;
+		private final int to;
+
+		MatchTask(List<WorkSummary> summaries, Collection<Work> works, IdentifierFilter filter, int from, int to) {
+			this.summaries = summaries;
+			this.works = works;
+			this.filter = filter;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<Match> compute() {
+			if (to - from <= CHUNK)
+				return match(summaries, works, filter, from, to);
+			int mid = (from + to) >>> 1;
+			MatchTask left = new MatchTask(summaries, works, filter, from, mid);
+			MatchTask right = new MatchTask(summaries, works, filter, mid, to);
+			left.fork();
+			List<Match> res = right.compute();
+			List<Match> merged = left.join();
+			merged.addAll(res);
+			return merged;
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+package pt.ptcris.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks keyed by ORCID iD, serializing the procedures that modify the
+ * same ORCID profile (whose interleaved updates could otherwise conflict)
+ * while procedures on different profiles run in parallel. Read-only
+ * procedures (the imports) do not lock.
+ *
+ * A fixed number of locks is shared by every profile, each profile being
+ * mapped to one of them, so that memory does not grow with the number of
+ * profiles. Distinct profiles mapped to the same lock are occasionally
+ * serialized, which a larger number of stripes makes less likely.
+ *
+ * By default every procedure locks through the {@link #getShared() shared}
+ * instance, so profiles are serialized within the whole JVM. Wait-time
+ * metrics are kept to assess the contention.
+ */
+public class ProfileLocks {
+
+	public static final int DEFAULT_STRIPES = 64;
+
+	/**
+	 * How often, in milliseconds, cancellation is checked while waiting for a
+	 * lock.
+	 */
+	private static final long CANCELLATION_POLL = 100;
+
+	private static volatile ProfileLocks shared = new ProfileLocks(DEFAULT_STRIPES);
+
+	private final ReentrantLock[] locks;
+
+	private final AtomicLong acquisitions = new AtomicLong();
+	private final AtomicLong contended = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final AtomicLong maxWaitTime = new AtomicLong();
+
+	/**
+	 * Creates a set of striped locks.
+	 *
+	 * @param stripes
+	 *            The number of locks.
+	 */
+	public ProfileLocks(int stripes) {
+		locks = new ReentrantLock[stripes];
+		for (int i = 0; i < stripes; i++)
+			locks[i] = new ReentrantLock(true);
+	}
+
+	/**
+	 * @return The locks shared by every procedure.
+	 */
+	public static ProfileLocks getShared() {
+		return shared;
+	}
+
+	/**
+	 * Replaces the shared locks.
+	 *
+	 * @param locks
+	 *            The new shared locks.
+	 */
+	public static void setShared(ProfileLocks locks) {
+		shared = locks;
+	}
+
+	/**
+	 * Acquires the lock of a profile, waiting while another thread holds it,
+	 * unless cancelled meanwhile. Locks are reentrant.
+	 *
+	 * @param orcid
+	 *            The ORCID iD of the profile.
+	 * @param token
+	 *            The cancellation token (possibly a deadline) of the waiting
+	 *            procedure, or null if none.
+	 * @return Whether the lock was acquired, false if cancelled or
+	 *         interrupted while waiting.
+	 */
+	public boolean lock(String orcid, CancellationToken token) {
+		ReentrantLock lock = stripe(orcid);
+		if (lock.tryLock()) {
+			acquisitions.incrementAndGet();
+			return true;
+		}
+
+		long start = System.currentTimeMillis();
+		boolean locked = false;
+		try {
+			while (!locked && (token == null || !token.isCancelled()))
+				locked = lock.tryLock(CANCELLATION_POLL, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long waited = System.currentTimeMillis() - start;
+		contended.incrementAndGet();
+		waitTime.addAndGet(waited);
+		long max;
+		while (waited > (max = maxWaitTime.get()) && !maxWaitTime.compareAndSet(max, waited))
+			;
+		if (locked)
+			acquisitions.incrementAndGet();
+		return locked;
+	}
+
+	/**
+	 * Releases the lock of a profile, which must be held by the calling
+	 * thread.
+	 *
+	 * @param orcid
+	 *            The ORCID iD of the profile.
+	 */
+	public void unlock(String orcid) {
+		stripe(orcid).unlock();
+	}
+
+	/**
+	 * @param orcid
+	 *            The ORCID iD of the profile.
+	 * @return Whether the lock of the profile is currently held.
+	 */
+	public boolean isLocked(String orcid) {
+		return stripe(orcid).isLocked();
+	}
+
+	private ReentrantLock stripe(String orcid) {
+		return locks[(orcid.hashCode() & 0x7fffffff) % locks.length];
+	}
+
+	/**
+	 * @return The number of acquired locks.
+	 */
+	public long getAcquisitions() {
+		return acquisitions.get();
+	}
+
+	/**
+	 * @return The number of lock requests that had to wait, whether the lock
+	 *         was eventually acquired or not.
+	 */
+	public long getContended() {
+		return contended.get();
+	}
+
+	/**
+	 * @return The total time, in milliseconds, spent waiting for locks.
+	 */
+	public long getWaitTime() {
+		return waitTime.get();
+	}
+
+	/**
+	 * @return The longest time, in milliseconds, spent waiting for a lock.
+	 */
+	public long getMaxWaitTime() {
+		return maxWaitTime.get();
+	}
+
+}
@@ -0,0 +1,113 @@
+package pt.ptcris.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the last synchronization timestamp (the watermark) of each ORCID
+ * profile, identified by its ORCID iD. Delta imports only consider ORCID work
+ * groups modified at or after the watermark of the profile, so that works
+ * modified in the same millisecond as the watermark are not missed.
+ *
+ * To avoid reconsidering the latest works at each run, the store also keeps
+ * the keys (see {@link pt.ptcris.ORCIDHelper#getWatermarkKey}) of the work
+ * summaries that were last modified exactly at the watermark and were
+ * already considered, which are skipped by the next runs unless they change.
+ * Repeated runs over stable profiles thus consider no work groups at all.
+ *
+ * The watermarks are taken from the last-modified dates reported by ORCID
+ * rather than from the local clock, so that clock skew between the CRIS and
+ * ORCID does not cause modifications to be missed.
+ *
+ * Since each import procedure advances the watermark after a successful run,
+ * a store should not be shared between different import procedures.
+ */
+public class SyncWatermarks {
+
+	private final Map<String, Long> watermarks = new ConcurrentHashMap<String, Long>();
+	private final Map<String, Set<String>> seen = new ConcurrentHashMap<String, Set<String>>();
+
+	/**
+	 * Returns the watermark of a profile.
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 * @return The watermark in milliseconds since the epoch, or null if the
+	 *         profile was never synchronized.
+	 */
+	public Long get(String userId) {
+		return watermarks.get(userId);
+	}
+
+	/**
+	 * Returns the keys of the work summaries of a profile that were last
+	 * modified at its watermark and were already considered.
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 * @return The keys of the summaries already considered, empty if none.
+	 */
+	public synchronized Set<String> getSeen(String userId) {
+		Set<String> keys = seen.get(userId);
+		return keys == null ? Collections.<String> emptySet() : new HashSet<String>(keys);
+	}
+
+	/**
+	 * Advances the watermark of a profile. Watermarks never move backwards,
+	 * older timestamps are ignored.
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 * @param timestamp
+	 *            The new watermark in milliseconds since the epoch.
+	 */
+	public void update(String userId, long timestamp) {
+		update(userId, timestamp, Collections.<String> emptySet());
+	}
+
+	/**
+	 * Advances the watermark of a profile, recording the work summaries last
+	 * modified at the new watermark that were considered. Watermarks never
+	 * move backwards, older timestamps are ignored; if the watermark does not
+	 * move, the summaries are added to those already recorded.
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 * @param timestamp
+	 *            The new watermark in milliseconds since the epoch.
+	 * @param keys
+	 *            The keys of the summaries modified at <code>timestamp</code>
+	 *            that were considered.
+	 */
+	public synchronized void update(String userId, long timestamp, Collection<String> keys) {
+		Long current = watermarks.get(userId);
+		if (current != null && current > timestamp)
+			return;
+		Set<String> known = seen.get(userId);
+		if (current == null || current < timestamp || known == null) {
+			known = new HashSet<String>();
+			seen.put(userId, known);
+		}
+		known.addAll(keys);
+		watermarks.put(userId, timestamp);
+	}
+
+	/**
+	 * Forgets the watermark of a profile, forcing the next import to consider
+	 * every work group. Should be called whenever the set of local works
+	 * changes in a way that could render previously matched ORCID works
+	 * unmatched (e.g., the removal of a local production).
+	 *
+	 * @param userId
+	 *            The ORCID iD of the profile.
+	 */
+	public synchronized void reset(String userId) {
+		watermarks.remove(userId);
+		seen.remove(userId);
+	}
+
+}
@@ -6,26 +6,39 @@ import org.apache.logging.log4j.Logger;
 import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
 import org.um.dsi.gavea.orcid.model.work.Work;
 
-import pt.ptcris.ORCIDClient;
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.PTCRISyncResult;
 
-public class ORCIDAddWorker extends ORCIDWorker {
+/**
+ * A worker that adds a local work to the ORCID profile, returning the status
+ * of the addition.
+ */
+public class ORCIDAddWorker extends ORCIDWorker<PTCRISyncResult> {
 
+	private final ORCIDHelper helper;
 	private final Work work;
 
-	public ORCIDAddWorker(ORCIDClient client, Work work, Logger log) {
-		super(client, log);
+	public ORCIDAddWorker(ORCIDHelper helper, Work work, Logger log) {
+		super(helper.client, log);
+		this.helper = helper;
 		this.work = work;
 	}
-	
 
-	public void run() {
+	/**
+	 * Adds the work, unless the helper was cancelled meanwhile.
+	 * 
+	 * @return {@link ORCIDHelper#ADDOK}, {@link ORCIDHelper#CLIENTERROR} with
+	 *         the exception, or {@link ORCIDHelper#CANCELLED}.
+	 */
+	public PTCRISyncResult call() {
+		if (helper.isCancelled())
+			return new PTCRISyncResult(ORCIDHelper.CANCELLED);
 		try {
-			BigInteger putCode = client.addWork(work);
-			work.setPutCode(putCode);
-			_log.debug("[addWork] " + work.getPutCode());
+			BigInteger putCode = helper.addWork(work);
+			_log.debug("[ORCIDAddWorker] " + putCode);
+			return new PTCRISyncResult(ORCIDHelper.ADDOK);
 		} catch (OrcidClientException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			return new PTCRISyncResult(ORCIDHelper.CLIENTERROR, e);
 		}
 	}
 
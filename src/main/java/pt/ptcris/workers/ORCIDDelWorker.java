@@ -5,23 +5,38 @@ import java.math.BigInteger;
 import org.apache.logging.log4j.Logger;
 import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
 
-import pt.ptcris.ORCIDClient;
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.PTCRISyncResult;
 
-public class ORCIDDelWorker extends ORCIDWorker {
+/**
+ * A worker that deletes a work from the ORCID profile, returning the status
+ * of the deletion.
+ */
+public class ORCIDDelWorker extends ORCIDWorker<PTCRISyncResult> {
 
+	private final ORCIDHelper helper;
 	private final BigInteger putCode;
 	
-	public ORCIDDelWorker(ORCIDClient client, BigInteger putCode, Logger log) {
-		super(client, log);
+	public ORCIDDelWorker(ORCIDHelper helper, BigInteger putCode, Logger log) {
+		super(helper.client, log);
+		this.helper = helper;
 		this.putCode = putCode;
 	}
 
-	public void run() {
+	/**
+	 * Deletes the work, unless the helper was cancelled meanwhile.
+	 * 
+	 * @return {@link ORCIDHelper#DELETEOK}, {@link ORCIDHelper#CLIENTERROR}
+	 *         with the exception, or {@link ORCIDHelper#CANCELLED}.
+	 */
+	public PTCRISyncResult call() {
+		if (helper.isCancelled())
+			return new PTCRISyncResult(ORCIDHelper.CANCELLED);
 		try {
-			client.deleteWork(putCode);
+			helper.deleteWork(putCode);
+			return new PTCRISyncResult(ORCIDHelper.DELETEOK);
 		} catch (OrcidClientException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			return new PTCRISyncResult(ORCIDHelper.CLIENTERROR, e);
 		}
 	}
 
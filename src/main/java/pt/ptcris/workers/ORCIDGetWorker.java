@@ -1,9 +1,5 @@
 package pt.ptcris.workers;
 
-import java.math.BigInteger;
-import java.util.Collection;
-import java.util.Map;
-
 import org.apache.logging.log4j.Logger;
 import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
 import org.um.dsi.gavea.orcid.model.work.Work;
@@ -11,29 +7,50 @@ import org.um.dsi.gavea.orcid.model.work.WorkSummary;
 
 import pt.ptcris.ORCIDClient;
 import pt.ptcris.ORCIDHelper;
+import pt.ptcris.cache.MetadataCache;
+import pt.ptcris.cache.WorkCache;
 
-public class ORCIDGetWorker extends ORCIDWorker {
+/**
+ * A worker that retrieves the full work of a (possibly merged) work summary.
+ * The work is not stored in a shared collection but returned, so that the
+ * results of concurrent workers are only gathered at the barrier (see
+ * {@link ORCIDHelper#waitWorkers()}), by a single thread.
+ */
+public class ORCIDGetWorker extends ORCIDWorker<Work> {
 
-	private final Map<BigInteger,Work> works;
 	private final WorkSummary work;
+	private final WorkCache cache;
+	private final MetadataCache metadata;
+
+	public ORCIDGetWorker(ORCIDClient client, WorkSummary work, WorkCache cache, Logger log) {
+		this(client, work, cache, null, log);
+	}
 
-	public ORCIDGetWorker(ORCIDClient client, Map<BigInteger,Work> works, WorkSummary work, Logger log) {
+	public ORCIDGetWorker(ORCIDClient client, WorkSummary work, WorkCache cache, MetadataCache metadata,
+			Logger log) {
 		super(client, log);
-		this.works = works;
 		this.work = work;
+		this.cache = cache;
+		this.metadata = metadata;
 	}
 
-	public void run() {
-		try {
-			Work fullWork = client.getWork(work.getPutCode());
-			fullWork.setExternalIdentifiers(work.getExternalIdentifiers());
-			ORCIDHelper.cleanWorkLocalKey(fullWork);
-			works.put(work.getPutCode(),fullWork);
-
-		} catch (OrcidClientException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+	/**
+	 * Retrieves the full work, caches it (also across profiles, if
+	 * requested), assigns it a copy of the external identifiers of the
+	 * summary and cleans its put-code.
+	 * 
+	 * @return The full work.
+	 * @throws OrcidClientException
+	 *             If the communication with ORCID fails.
+	 */
+	public Work call() throws OrcidClientException {
+		Work fullWork = client.getWork(work.getPutCode());
+		cache.put(client.getUserId(), work.getPutCode(), ORCIDHelper.getLastModified(work), fullWork);
+		if (metadata != null)
+			metadata.put(work, fullWork);
+		fullWork.setExternalIdentifiers(ORCIDHelper.copyExternalIdentifiers(work));
+		ORCIDHelper.cleanWorkLocalKey(fullWork);
+		return fullWork;
 	}
 
 }
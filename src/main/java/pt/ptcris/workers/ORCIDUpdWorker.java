@@ -1,26 +1,45 @@
 package pt.ptcris.workers;
 
+import java.math.BigInteger;
+
 import org.apache.logging.log4j.Logger;
 import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
 import org.um.dsi.gavea.orcid.model.work.Work;
 
-import pt.ptcris.ORCIDClient;
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.PTCRISyncResult;
 
-public class ORCIDUpdWorker extends ORCIDWorker {
+/**
+ * A worker that updates an ORCID work with the state of a local work,
+ * returning the status of the update.
+ */
+public class ORCIDUpdWorker extends ORCIDWorker<PTCRISyncResult> {
 
+	private final ORCIDHelper helper;
+	private final BigInteger putCode;
 	private final Work work;
 	
-	public ORCIDUpdWorker(ORCIDClient client, Work work, Logger log) {
-		super(client, log);
+	public ORCIDUpdWorker(ORCIDHelper helper, BigInteger putCode, Work work, Logger log) {
+		super(helper.client, log);
+		this.helper = helper;
+		this.putCode = putCode;
 		this.work = work;
 	}
 
-	public void run() {
+	/**
+	 * Updates the work, unless the helper was cancelled meanwhile.
+	 * 
+	 * @return {@link ORCIDHelper#UPDATEOK}, {@link ORCIDHelper#CLIENTERROR}
+	 *         with the exception, or {@link ORCIDHelper#CANCELLED}.
+	 */
+	public PTCRISyncResult call() {
+		if (helper.isCancelled())
+			return new PTCRISyncResult(ORCIDHelper.CANCELLED);
 		try {
-			client.updateWork(work.getPutCode(), work);
+			helper.updateWork(putCode, work);
+			return new PTCRISyncResult(ORCIDHelper.UPDATEOK);
 		} catch (OrcidClientException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			return new PTCRISyncResult(ORCIDHelper.CLIENTERROR, e);
 		}
 	}
 
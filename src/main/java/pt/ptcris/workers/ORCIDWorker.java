@@ -1,9 +1,18 @@
 package pt.ptcris.workers;
 
+import java.util.concurrent.Callable;
+
 import org.apache.logging.log4j.Logger;
 import pt.ptcris.ORCIDClient;
 
-public abstract class ORCIDWorker extends Thread {
+/**
+ * A task communicating with ORCID, to be run by an executor, whose outcome is
+ * returned to the submitter through its future.
+ *
+ * @param <T>
+ *            The type of the outcome of the task.
+ */
+public abstract class ORCIDWorker<T> implements Callable<T> {
 
 	protected final Logger _log;
 	
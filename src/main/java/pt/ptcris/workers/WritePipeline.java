@@ -0,0 +1,183 @@
+package pt.ptcris.workers;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.PTCRISyncResult;
+
+/**
+ * A pipeline of ORCID write tasks (additions, updates and deletions), so that
+ * the writes of a synchronization overlap rather than run one by one. Tasks
+ * are submitted to a bounded queue consumed by a pool of threads; once the
+ * queue is full, submitters block until a consumer frees a slot, so that the
+ * pending writes (and their works) do not pile up in memory. The number of
+ * concurrent calls is further subject to the limiter of the
+ * {@link ORCIDHelper helper} performing them.
+ *
+ * Writes are gathered in phases: {@link #await(Map)} is a barrier that waits
+ * for every task submitted since the previous barrier and stores their status
+ * in the result map, so that writes that depend on each other (e.g., the two
+ * update phases of the export) are separated by a barrier.
+ *
+ * The pipeline can be {@link #cancel() cancelled}, for instance by a listener
+ * of a {@link pt.ptcris.utils.CancellationToken}, in which case the queued
+ * writes are discarded while those already running complete, so that the
+ * reported status reflects what was actually performed at ORCID.
+ */
+public class WritePipeline {
+
+	public static final int DEFAULT_CONSUMERS = 10;
+	public static final int DEFAULT_CAPACITY = 100;
+
+	private final ThreadPoolExecutor executor;
+	private final List<Write> writes = new ArrayList<Write>();
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Creates a pipeline with the default number of consumers and queue
+	 * capacity.
+	 */
+	public WritePipeline() {
+		this(DEFAULT_CONSUMERS, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a pipeline.
+	 *
+	 * @param consumers
+	 *            The number of consumer threads.
+	 * @param capacity
+	 *            The maximum number of queued write tasks.
+	 */
+	public WritePipeline(int consumers, int capacity) {
+		this.executor = new ThreadPoolExecutor(consumers, consumers, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+					public Thread newThread(Runnable task) {
+						// consumers must not keep the JVM alive if not closed
+						Thread thread = Executors.defaultThreadFactory().newThread(task);
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new RejectedExecutionHandler() {
+					public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+						if (executor.isShutdown())
+							throw new RejectedExecutionException("Pipeline closed");
+						try {
+							executor.getQueue().put(task);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new RejectedExecutionException(e);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Submits a write task, blocking while the queue is full.
+	 *
+	 * @param key
+	 *            The local key under which the status of the write is stored.
+	 * @param task
+	 *            The write task.
+	 */
+	public void submit(BigInteger key, Callable<PTCRISyncResult> task) {
+		Future<PTCRISyncResult> future = null;
+		if (!cancelled) {
+			try {
+				future = executor.submit(task);
+			} catch (RejectedExecutionException e) {
+				future = null;
+			}
+		}
+		writes.add(new Write(key, future));
+	}
+
+	/**
+	 * Cancels the pipeline: the queued write tasks are discarded and further
+	 * submitted ones are not run, both being reported as
+	 * {@link ORCIDHelper#CANCELLED} by {@link #await(Map)}. The running tasks
+	 * are not interrupted, since the state at ORCID of an interrupted write
+	 * would be unknown. May be called from any thread.
+	 */
+	public void cancel() {
+		cancelled = true;
+		for (Runnable task : executor.getQueue().toArray(new Runnable[0]))
+			if (task instanceof Future)
+				((Future<?>) task).cancel(false);
+	}
+
+	/**
+	 * Waits for every write task submitted since the last barrier and stores
+	 * their status in a result map, under the respective local keys. Tasks
+	 * that could not be run (including those discarded by {@link #cancel()}),
+	 * or that failed unexpectedly, are reported as
+	 * {@link ORCIDHelper#CANCELLED} and {@link ORCIDHelper#CLIENTERROR},
+	 * respectively. If the calling thread is interrupted, the pending tasks
+	 * are cancelled.
+	 *
+	 * @param result
+	 *            The map where to store the status of the writes.
+	 */
+	public void await(Map<BigInteger, PTCRISyncResult> result) {
+		boolean interrupted = false;
+		for (Write write : writes) {
+			PTCRISyncResult status;
+			if (write.future == null)
+				status = new PTCRISyncResult(ORCIDHelper.CANCELLED);
+			else if (interrupted) {
+				write.future.cancel(true);
+				status = new PTCRISyncResult(ORCIDHelper.CANCELLED);
+			} else {
+				try {
+					status = write.future.get();
+				} catch (CancellationException e) {
+					status = new PTCRISyncResult(ORCIDHelper.CANCELLED);
+				} catch (InterruptedException e) {
+					interrupted = true;
+					write.future.cancel(true);
+					status = new PTCRISyncResult(ORCIDHelper.CANCELLED);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					status = new PTCRISyncResult(ORCIDHelper.CLIENTERROR,
+							cause instanceof Exception ? (Exception) cause : e);
+				}
+			}
+			result.put(write.key, status);
+		}
+		writes.clear();
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Stops the consumers, once the queued tasks are done.
+	 */
+	public void close() {
+		executor.shutdown();
+	}
+
+	private static class Write {
+		final BigInteger key;
+		final Future<PTCRISyncResult> future;
+
+		Write(BigInteger key, Future<PTCRISyncResult> future) {
+			this.key = key;
+			this.future = future;
+		}
+	}
+
+}
@@ -0,0 +1,302 @@
+package pt.ptcris.test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.activities.Identifier;
+import org.um.dsi.gavea.orcid.model.activities.Identifiers;
+import org.um.dsi.gavea.orcid.model.activities.WorkGroup;
+import org.um.dsi.gavea.orcid.model.common.ClientId;
+import org.um.dsi.gavea.orcid.model.common.FuzzyDate;
+import org.um.dsi.gavea.orcid.model.common.LastModifiedDate;
+import org.um.dsi.gavea.orcid.model.common.RelationshipType;
+import org.um.dsi.gavea.orcid.model.common.Source;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifier;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifierType;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkExternalIdentifiers;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+import org.um.dsi.gavea.orcid.model.work.WorkTitle;
+import org.um.dsi.gavea.orcid.model.work.WorkType;
+
+import pt.ptcris.ORCIDClient;
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.exceptions.ORCIDStatusException;
+import pt.ptcris.handlers.ProgressHandler;
+
+/**
+ * An in-memory ORCID profile, for tests that do not require access to ORCID.
+ * Every work forms a group of its own. Reads of selected works can be made to
+ * fail or to answer after a random short delay, and the calls are counted.
+ */
+public class FakeORCIDClient implements ORCIDClient {
+
+	public static final String CLIENT_ID = "APP-FAKE";
+
+	private final String userId;
+	private final Map<BigInteger, Work> works = new LinkedHashMap<BigInteger, Work>();
+	private final Set<BigInteger> failing = Collections.synchronizedSet(new HashSet<BigInteger>());
+	private long nextPutCode = 1000000;
+	private long changed = -1;
+	private boolean served = false;
+	private volatile boolean jitter = false;
+
+	public final AtomicInteger workReads = new AtomicInteger();
+	public final AtomicInteger summaryReads = new AtomicInteger();
+	public final AtomicInteger writes = new AtomicInteger();
+
+	public FakeORCIDClient(String userId) {
+		this.userId = userId;
+	}
+
+	/**
+	 * Adds a valid work to the profile, sourced by the CRIS.
+	 */
+	public synchronized Work add(long putCode, String doi, long lastModified) {
+		Work work = new Work();
+		work.setPutCode(BigInteger.valueOf(putCode));
+		WorkTitle title = new WorkTitle();
+		title.setTitle("Work " + doi);
+		work.setTitle(title);
+		work.setType(WorkType.JOURNAL_ARTICLE);
+		work.setPublicationDate(new FuzzyDate(new FuzzyDate.Year("2016"), null, null));
+		work.setExternalIdentifiers(identifiers(doi));
+		work.setLastModifiedDate(date(lastModified));
+		work.setSource(source());
+		works.put(work.getPutCode(), work);
+		changed = Math.max(changed, lastModified);
+		served = false;
+		return work;
+	}
+
+	/**
+	 * Makes the reads of a work fail.
+	 */
+	public void fail(BigInteger putCode) {
+		failing.add(putCode);
+	}
+
+	/**
+	 * Makes the reads of a work succeed again.
+	 */
+	public void recover(BigInteger putCode) {
+		failing.remove(putCode);
+	}
+
+	/**
+	 * Makes the reads of works answer after a random short delay, to shuffle
+	 * the completion order of concurrent reads.
+	 */
+	public void jitter(boolean jitter) {
+		this.jitter = jitter;
+	}
+
+	public synchronized Work get(BigInteger putCode) {
+		return works.get(putCode);
+	}
+
+	public synchronized int size() {
+		return works.size();
+	}
+
+	public String getClientId() {
+		return CLIENT_ID;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public Work getWork(BigInteger putCode) throws OrcidClientException {
+		workReads.incrementAndGet();
+		if (jitter)
+			delay();
+		if (failing.contains(putCode))
+			throw new ORCIDStatusException(500, "work/" + putCode);
+		Work work = get(putCode);
+		if (work == null)
+			throw new ORCIDStatusException(404, "work/" + putCode);
+		return ORCIDHelper.clone(work);
+	}
+
+	public synchronized BigInteger addWork(Work work) throws OrcidClientException {
+		writes.incrementAndGet();
+		Work copy = ORCIDHelper.clone(work);
+		copy.setPutCode(BigInteger.valueOf(nextPutCode++));
+		copy.setLastModifiedDate(date(System.currentTimeMillis()));
+		copy.setSource(source());
+		works.put(copy.getPutCode(), copy);
+		changed = System.currentTimeMillis();
+		served = false;
+		return copy.getPutCode();
+	}
+
+	public synchronized void deleteWork(BigInteger putCode) throws OrcidClientException {
+		writes.incrementAndGet();
+		if (works.remove(putCode) == null)
+			throw new ORCIDStatusException(404, "work/" + putCode);
+		changed = System.currentTimeMillis();
+		served = false;
+	}
+
+	public synchronized void updateWork(BigInteger putCode, Work work) throws OrcidClientException {
+		writes.incrementAndGet();
+		if (!works.containsKey(putCode))
+			throw new ORCIDStatusException(404, "work/" + putCode);
+		Work copy = ORCIDHelper.clone(work);
+		copy.setPutCode(putCode);
+		copy.setLastModifiedDate(date(System.currentTimeMillis()));
+		copy.setSource(source());
+		works.put(putCode, copy);
+		changed = System.currentTimeMillis();
+		served = false;
+	}
+
+	public ActivitiesSummary getActivitiesSummary() throws OrcidClientException {
+		ActivitiesSummary summary = new ActivitiesSummary();
+		summary.setWorks(getWorksSummary());
+		return summary;
+	}
+
+	public ActivitiesSummary getActivitiesSummaryIfModified(long lastModified) throws OrcidClientException {
+		return getActivitiesSummary();
+	}
+
+	public synchronized Works getWorksSummary() throws OrcidClientException {
+		summaryReads.incrementAndGet();
+		served = true;
+		Works summary = new Works();
+		for (Work work : works.values()) {
+			WorkSummary ws = new WorkSummary();
+			ORCIDHelper.copy(work, ws);
+			ws.setTitle(work.getTitle());
+			ws.setType(work.getType());
+			ws.setPublicationDate(work.getPublicationDate());
+			ws.setExternalIdentifiers(work.getExternalIdentifiers());
+			WorkGroup group = new WorkGroup();
+			group.setIdentifiers(new Identifiers());
+			for (ExternalIdentifier eid : work.getExternalIdentifiers().getWorkExternalIdentifier()) {
+				Identifier id = new Identifier();
+				id.setExternalIdentifierType(eid.getExternalIdentifierType().value());
+				id.setExternalIdentifierId(eid.getExternalIdentifierId());
+				group.getIdentifiers().getIdentifier().add(id);
+			}
+			group.getWorkSummary().add(ws);
+			summary.getGroup().add(group);
+		}
+		return summary;
+	}
+
+	/**
+	 * Reports the summary as not modified if no work was added, updated or
+	 * removed since the summary was last served, as would an entity tag.
+	 */
+	public synchronized Works getWorksSummaryIfModified(long lastModified) throws OrcidClientException {
+		if (served && changed <= lastModified) {
+			summaryReads.incrementAndGet();
+			return null;
+		}
+		return getWorksSummary();
+	}
+
+	private static void delay() {
+		if (ThreadLocalRandom.current().nextInt(4) == 0)
+			Thread.yield();
+		else if (ThreadLocalRandom.current().nextInt(50) == 0) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static Source source() {
+		Source source = new Source();
+		ClientId id = new ClientId();
+		id.setUriPath(CLIENT_ID);
+		source.setSourceClientId(id);
+		return source;
+	}
+
+	/**
+	 * Builds self DOI identifiers.
+	 */
+	public static WorkExternalIdentifiers identifiers(String... dois) {
+		List<ExternalIdentifier> ids = new ArrayList<ExternalIdentifier>();
+		for (String doi : dois)
+			ids.add(identifier(ExternalIdentifierType.DOI, doi, RelationshipType.SELF));
+		return new WorkExternalIdentifiers(ids);
+	}
+
+	public static ExternalIdentifier identifier(ExternalIdentifierType type, String value, RelationshipType rel) {
+		ExternalIdentifier id = new ExternalIdentifier();
+		id.setExternalIdentifierType(type);
+		id.setExternalIdentifierId(value);
+		id.setRelationship(rel);
+		return id;
+	}
+
+	/**
+	 * Builds a local work, identified by its local key.
+	 */
+	public static Work local(long key, String... dois) {
+		Work work = new Work();
+		work.setPutCode(BigInteger.valueOf(key));
+		WorkTitle title = new WorkTitle();
+		title.setTitle("Local " + key);
+		work.setTitle(title);
+		work.setType(WorkType.JOURNAL_ARTICLE);
+		work.setPublicationDate(new FuzzyDate(new FuzzyDate.Year("2016"), null, null));
+		work.setExternalIdentifiers(identifiers(dois));
+		return work;
+	}
+
+	public static LastModifiedDate date(long millis) {
+		try {
+			GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+			calendar.setTimeInMillis(millis);
+			LastModifiedDate date = new LastModifiedDate();
+			date.setValue(DatatypeFactory.newInstance().newXMLGregorianCalendar(calendar));
+			return date;
+		} catch (DatatypeConfigurationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A progress handler that ignores the progress.
+	 */
+	public static ProgressHandler progress() {
+		return new ProgressHandler() {
+			public void setProgress(int progress) {
+			}
+
+			public void setCurrentStatus(String message) {
+			}
+
+			public void sendError(String message) {
+			}
+
+			public void done() {
+			}
+		};
+	}
+
+}
@@ -0,0 +1,130 @@
+package pt.ptcris.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.PTCRISync;
+import pt.ptcris.cache.WorkCache;
+import pt.ptcris.utils.SyncWatermarks;
+
+/**
+ * Tests the delta import of works against an in-memory profile: the
+ * watermark must only advance once every full work was retrieved, works
+ * modified in the millisecond of the watermark must not be skipped, and those
+ * already considered must not be reconsidered.
+ */
+public class SyncWatermarksTest {
+
+	private static final String USER = "0000-0002-1825-0097";
+
+	private FakeORCIDClient client;
+	private SyncWatermarks watermarks;
+	private final List<Work> local = new ArrayList<Work>();
+
+	@Before
+	public void setUp() {
+		WorkCache.getShared().clear();
+		client = new FakeORCIDClient(USER);
+		client.add(1, "10.1/1", 1000);
+		client.add(2, "10.1/2", 2000);
+		client.add(3, "10.1/3", 3000);
+		watermarks = new SyncWatermarks();
+	}
+
+	@Test
+	public void failedFetchKeepsWatermark() throws Exception {
+		client.fail(BigInteger.valueOf(2));
+		List<Work> works = PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks);
+		assertEquals(2, works.size());
+		assertNull(watermarks.get(USER));
+
+		// the failed work is retried by the next run
+		client.recover(BigInteger.valueOf(2));
+		works = PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks);
+		assertEquals(3, works.size());
+		assertEquals(Long.valueOf(3000), watermarks.get(USER));
+	}
+
+	@Test
+	public void failedFetchKeepsInvalidWatermark() throws Exception {
+		client.get(BigInteger.valueOf(1)).setTitle(null);
+		client.fail(BigInteger.valueOf(1));
+		assertEquals(0, PTCRISync.importInvalid(client, local, FakeORCIDClient.progress(), watermarks).size());
+		assertNull(watermarks.get(USER));
+
+		client.recover(BigInteger.valueOf(1));
+		assertEquals(1, PTCRISync.importInvalid(client, local, FakeORCIDClient.progress(), watermarks).size());
+		assertEquals(Long.valueOf(3000), watermarks.get(USER));
+	}
+
+	@Test
+	public void sameMillisecondIsNotSkipped() throws Exception {
+		PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks);
+		assertEquals(Long.valueOf(3000), watermarks.get(USER));
+
+		// modified in the millisecond of the watermark, after it was taken
+		client.add(4, "10.1/4", 3000);
+		List<Work> works = PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks);
+		// the work of the watermark already considered is skipped
+		assertEquals(1, works.size());
+		assertEquals("Work 10.1/4", works.get(0).getTitle().getTitle());
+		assertEquals(Long.valueOf(3000), watermarks.get(USER));
+		assertEquals(2, watermarks.getSeen(USER).size());
+	}
+
+	@Test
+	public void changedInSameMillisecondIsNotSkipped() throws Exception {
+		PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks);
+
+		// changed in the millisecond of the watermark, after it was taken
+		client.add(3, "10.1/33", 3000);
+		WorkCache.getShared().clear();
+		List<Work> works = PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks);
+		assertEquals(1, works.size());
+		assertEquals("Work 10.1/33", works.get(0).getTitle().getTitle());
+	}
+
+	@Test
+	public void stableProfileIsNotRefetched() throws Exception {
+		PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks);
+		int reads = client.workReads.get();
+
+		// not even the works of the watermark millisecond, without a cache
+		WorkCache.getShared().clear();
+		assertEquals(0, PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks).size());
+		assertEquals(0, PTCRISync.importInvalid(client, local, FakeORCIDClient.progress(), new SyncWatermarks())
+				.size());
+		assertEquals(reads, client.workReads.get());
+	}
+
+	@Test
+	public void resetForgetsConsideredWorks() throws Exception {
+		PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks);
+		watermarks.reset(USER);
+		assertEquals(0, watermarks.getSeen(USER).size());
+		assertEquals(3, PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks).size());
+	}
+
+	@Test
+	public void unmodifiedWorksAreNotRefetched() throws Exception {
+		PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks);
+		int reads = client.workReads.get();
+
+		client.add(4, "10.1/4", 4000);
+		WorkCache.getShared().clear();
+		List<Work> works = PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks);
+		// the work of the previous watermark millisecond is not reconsidered
+		assertEquals(1, works.size());
+		assertEquals(reads + 1, client.workReads.get());
+		assertEquals(Long.valueOf(4000), watermarks.get(USER));
+	}
+
+}
@@ -0,0 +1,197 @@
+package pt.ptcris.test.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.client.OrcidAccessToken;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+
+import pt.ptcris.auth.CachingTokenProvider;
+import pt.ptcris.auth.ExpiringAccessToken;
+import pt.ptcris.auth.ORCIDTokenProvider;
+import pt.ptcris.exceptions.ORCIDStatusException;
+
+/**
+ * Tests the caching of access tokens until their own expiry and the single
+ * look-up of concurrent misses.
+ */
+public class CachingTokenProviderTest {
+
+	private static final String USER = "0000-0002-1825-0097";
+
+	private final AtomicInteger lookups = new AtomicInteger();
+	private final List<String> invalidated = new ArrayList<String>();
+	private volatile long expires = -1;
+	private volatile boolean failing = false;
+	private volatile CountDownLatch release = null;
+	private final CountDownLatch started = new CountDownLatch(1);
+	private ExecutorService pool;
+
+	private final ORCIDTokenProvider provider = new ORCIDTokenProvider() {
+		public OrcidAccessToken getToken(String orcid) throws OrcidClientException {
+			lookups.incrementAndGet();
+			started.countDown();
+			if (release != null)
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			if (failing)
+				throw new ORCIDStatusException(500, "token/" + orcid);
+			OrcidAccessToken token;
+			if (expires < 0)
+				token = new OrcidAccessToken();
+			else {
+				token = new ExpiringAccessToken();
+				((ExpiringAccessToken) token).setExpires(expires);
+			}
+			token.setOrcid(orcid);
+			token.setAccess_token("token" + lookups.get());
+			return token;
+		}
+
+		public void invalidate(String orcid) {
+			invalidated.add(orcid);
+		}
+	};
+
+	@Before
+	public void setUp() {
+		pool = Executors.newFixedThreadPool(8);
+	}
+
+	@After
+	public void tearDown() {
+		if (release != null)
+			release.countDown();
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void cachesUntilOwnExpiry() throws Exception {
+		// valid beyond the time-to-live, so the expiry of the token prevails
+		expires = System.currentTimeMillis() + 10 * 60 * 1000;
+		CachingTokenProvider cache = new CachingTokenProvider(provider, 1);
+		OrcidAccessToken token = cache.getToken(USER);
+		Thread.sleep(5);
+		assertSame(token, cache.getToken(USER));
+		assertEquals(1, lookups.get());
+	}
+
+	@Test
+	public void expiredTokensAreLookedUpAgain() throws Exception {
+		// within the expiry margin, so never cached
+		expires = System.currentTimeMillis() + CachingTokenProvider.EXPIRY_MARGIN / 2;
+		CachingTokenProvider cache = new CachingTokenProvider(provider);
+		cache.getToken(USER);
+		cache.getToken(USER);
+		assertEquals(2, lookups.get());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void plainTokensUseTimeToLive() throws Exception {
+		CachingTokenProvider cache = new CachingTokenProvider(provider, 1);
+		cache.getToken(USER);
+		Thread.sleep(5);
+		cache.getToken(USER);
+		assertEquals(2, lookups.get());
+
+		cache = new CachingTokenProvider(provider);
+		cache.getToken(USER);
+		cache.getToken(USER);
+		assertEquals(3, lookups.get());
+	}
+
+	@Test
+	public void invalidatedTokensAreLookedUpAgain() throws Exception {
+		CachingTokenProvider cache = new CachingTokenProvider(provider);
+		cache.getToken(USER);
+		cache.invalidate(USER);
+		assertEquals("token2", cache.getToken(USER).getAccess_token());
+		assertEquals(1, invalidated.size());
+	}
+
+	@Test
+	public void concurrentMissesLookUpOnce() throws Exception {
+		release = new CountDownLatch(1);
+		final CachingTokenProvider cache = new CachingTokenProvider(provider);
+		List<Future<OrcidAccessToken>> futures = new ArrayList<Future<OrcidAccessToken>>();
+		for (int i = 0; i < 8; i++)
+			futures.add(pool.submit(new Callable<OrcidAccessToken>() {
+				public OrcidAccessToken call() throws Exception {
+					return cache.getToken(USER);
+				}
+			}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		// let the other callers join the look-up in flight
+		Thread.sleep(100);
+		release.countDown();
+		for (Future<OrcidAccessToken> future : futures)
+			assertEquals("token1", future.get(5, TimeUnit.SECONDS).getAccess_token());
+		assertEquals(1, lookups.get());
+	}
+
+	@Test
+	public void failedLookUpsAreSharedButNotCached() throws Exception {
+		release = new CountDownLatch(1);
+		failing = true;
+		final CachingTokenProvider cache = new CachingTokenProvider(provider);
+		List<Future<OrcidAccessToken>> futures = new ArrayList<Future<OrcidAccessToken>>();
+		for (int i = 0; i < 4; i++)
+			futures.add(pool.submit(new Callable<OrcidAccessToken>() {
+				public OrcidAccessToken call() throws Exception {
+					return cache.getToken(USER);
+				}
+			}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		release.countDown();
+		for (Future<OrcidAccessToken> future : futures)
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof ORCIDStatusException);
+			}
+		assertEquals(1, lookups.get());
+
+		failing = false;
+		cache.getToken(USER);
+		assertEquals(2, lookups.get());
+	}
+
+	@Test
+	public void invalidationDuringLookUpIsNotCached() throws Exception {
+		release = new CountDownLatch(1);
+		final CachingTokenProvider cache = new CachingTokenProvider(provider);
+		Future<OrcidAccessToken> future = pool.submit(new Callable<OrcidAccessToken>() {
+			public OrcidAccessToken call() throws Exception {
+				return cache.getToken(USER);
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		cache.invalidate(USER);
+		release.countDown();
+		assertEquals("token1", future.get(5, TimeUnit.SECONDS).getAccess_token());
+		assertEquals(0, cache.size());
+	}
+
+}
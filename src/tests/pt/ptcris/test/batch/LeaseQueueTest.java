@@ -0,0 +1,242 @@
+package pt.ptcris.test.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pt.ptcris.batch.LeaseQueue;
+import pt.ptcris.batch.LeaseQueue.Lease;
+
+/**
+ * Tests the lease queue shared by batch nodes, including concurrent nodes
+ * (simulated by threads with their own queue instances): each job must be
+ * leased by a single node, expired leases must be re-queued exactly once,
+ * and queued jobs must never be overwritten.
+ */
+public class LeaseQueueTest {
+
+	private static final String ORCID = "0000-0002-1825-0097";
+	private static final int NODES = 8;
+
+	private Path dir;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("ptcris-queue");
+		executor = Executors.newFixedThreadPool(NODES);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		executor.shutdownNow();
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+				Files.delete(d);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void jobIsLeasedOnce() throws Exception {
+		LeaseQueue queue = new LeaseQueue(dir);
+		assertTrue(queue.submit(ORCID));
+		assertFalse(queue.submit(ORCID));
+
+		Lease lease = queue.poll("a");
+		assertNotNull(lease);
+		assertEquals(ORCID, lease.getOrcid());
+		assertEquals(1, lease.getAttempts());
+		assertNull(queue.poll("b"));
+		assertEquals(0, queue.queued());
+		assertEquals(1, queue.leased());
+
+		// not queued again while leased
+		assertFalse(queue.submit(ORCID));
+		assertTrue(queue.heartbeat(lease));
+		assertTrue(queue.complete(lease));
+		assertEquals(0, queue.leased());
+		assertFalse(queue.heartbeat(lease));
+
+		// done jobs may be queued again
+		assertTrue(queue.submit(ORCID));
+	}
+
+	@Test
+	public void submitKeepsQueuedJob() throws Exception {
+		LeaseQueue queue = new LeaseQueue(dir);
+		queue.submit(ORCID);
+		Lease lease = queue.poll("a");
+		assertTrue(queue.fail(lease, new Exception("failure")));
+
+		// the re-queued job keeps its attempts
+		assertFalse(queue.submit(ORCID));
+		assertEquals(2, queue.poll("a").getAttempts());
+	}
+
+	@Test
+	public void failsAfterMaxAttempts() throws Exception {
+		LeaseQueue queue = new LeaseQueue(dir, LeaseQueue.DEFAULT_LEASE_TIME, 2);
+		queue.submit(ORCID);
+		queue.fail(queue.poll("a"), new Exception("first"));
+		queue.fail(queue.poll("a"), new Exception("second"));
+		assertNull(queue.poll("a"));
+		assertEquals(Collections.singletonList(ORCID), queue.failed());
+	}
+
+	@Test
+	public void expiredLeaseIsRequeued() throws Exception {
+		LeaseQueue queue = new LeaseQueue(dir, 200, 3);
+		queue.submit(ORCID);
+		Lease lost = queue.poll("a");
+		Thread.sleep(300);
+
+		Lease lease = queue.poll("b");
+		assertNotNull(lease);
+		assertEquals(2, lease.getAttempts());
+		// the node that lost the lease is told so
+		assertFalse(queue.heartbeat(lost));
+		assertFalse(queue.complete(lost));
+		assertEquals(1, queue.leased());
+		assertTrue(queue.complete(lease));
+	}
+
+	@Test
+	public void renewedLeaseIsKept() throws Exception {
+		LeaseQueue queue = new LeaseQueue(dir, 300, 3);
+		queue.submit(ORCID);
+		Lease lease = queue.poll("a");
+		for (int i = 0; i < 4; i++) {
+			Thread.sleep(100);
+			assertTrue(queue.heartbeat(lease));
+			queue.requeueExpired();
+		}
+		assertNull(queue.poll("b"));
+		assertTrue(queue.complete(lease));
+	}
+
+	@Test
+	public void concurrentNodesLeaseEachJobOnce() throws Exception {
+		final int jobs = 40;
+		LeaseQueue queue = new LeaseQueue(dir);
+		for (int i = 0; i < jobs; i++)
+			queue.submit(String.format("0000-0000-0000-%04d", i));
+
+		List<Future<List<Lease>>> nodes = new ArrayList<Future<List<Lease>>>();
+		final CountDownLatch start = new CountDownLatch(1);
+		for (int i = 0; i < NODES; i++) {
+			final String node = "node" + i;
+			nodes.add(executor.submit(new Callable<List<Lease>>() {
+				public List<Lease> call() throws Exception {
+					LeaseQueue queue = new LeaseQueue(dir);
+					List<Lease> leases = new ArrayList<Lease>();
+					start.await();
+					Lease lease;
+					while ((lease = queue.poll(node)) != null)
+						leases.add(lease);
+					return leases;
+				}
+			}));
+		}
+		start.countDown();
+
+		Set<String> leased = new HashSet<String>();
+		int count = 0;
+		for (Future<List<Lease>> node : nodes)
+			for (Lease lease : node.get()) {
+				leased.add(lease.getOrcid());
+				count++;
+			}
+		assertEquals(jobs, count);
+		assertEquals(jobs, leased.size());
+		assertEquals(0, queue.queued());
+		assertEquals(jobs, queue.leased());
+	}
+
+	@Test
+	public void expiredLeaseIsRequeuedOnce() throws Exception {
+		LeaseQueue queue = new LeaseQueue(dir, 200, 10);
+		queue.submit(ORCID);
+		queue.poll("dead");
+		Thread.sleep(300);
+
+		// every node re-queues the expired lease and then polls: only one
+		// may lease the job, and its fresh lease must not be re-queued
+		List<Future<Lease>> nodes = new ArrayList<Future<Lease>>();
+		final CountDownLatch start = new CountDownLatch(1);
+		for (int i = 0; i < NODES; i++) {
+			final String node = "node" + i;
+			nodes.add(executor.submit(new Callable<Lease>() {
+				public Lease call() throws Exception {
+					LeaseQueue queue = new LeaseQueue(dir, 200, 10);
+					start.await();
+					queue.requeueExpired();
+					Lease lease = queue.poll(node);
+					queue.requeueExpired();
+					return lease;
+				}
+			}));
+		}
+		start.countDown();
+
+		List<Lease> leases = new ArrayList<Lease>();
+		for (Future<Lease> node : nodes)
+			if (node.get() != null)
+				leases.add(node.get());
+		assertEquals(1, leases.size());
+		assertEquals(2, leases.get(0).getAttempts());
+		assertEquals(0, queue.queued());
+		assertEquals(1, queue.leased());
+		assertTrue(queue.heartbeat(leases.get(0)));
+	}
+
+	@Test
+	public void staleClaimIsBroken() throws Exception {
+		LeaseQueue queue = new LeaseQueue(dir, 200, 3);
+		queue.submit(ORCID);
+		Path claim = dir.resolve("claims").resolve(ORCID);
+
+		// claimed by a live node
+		Files.createFile(claim);
+		assertNull(queue.poll("a"));
+		assertEquals(1, queue.queued());
+
+		// claimed by a node that died while holding the claim
+		Files.setLastModifiedTime(claim, FileTime.fromMillis(System.currentTimeMillis() - 1000));
+		assertNotNull(queue.poll("a"));
+		assertFalse(Files.exists(claim));
+	}
+
+}
@@ -0,0 +1,203 @@
+package pt.ptcris.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.cache.DiskCache;
+import pt.ptcris.test.FakeORCIDClient;
+
+/**
+ * Tests the persistence of the disk cache across restarts and compactions,
+ * and the exclusive lock on its directory. Requires a JAXB runtime to serialize the cached works.
+ */
+public class DiskCacheTest {
+
+	private static final String USER = "0000-0002-1825-0097";
+
+	private File dir;
+	private DiskCache cache;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("ptcris-disk").toFile();
+		cache = new DiskCache(dir, 1024 * 1024);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		cache.close();
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	private static Work work(long putCode) {
+		return FakeORCIDClient.local(putCode, "10.1/" + putCode);
+	}
+
+	private void reopen(long maxBytes) throws IOException {
+		cache.close();
+		cache = new DiskCache(dir, maxBytes);
+	}
+
+	@Test
+	public void survivesRestart() throws IOException {
+		cache.putWork(USER, BigInteger.ONE, 1000, work(1));
+		reopen(1024 * 1024);
+		Work work = cache.getWork(USER, BigInteger.ONE, 1000);
+		assertNotNull(work);
+		assertEquals(BigInteger.ONE, work.getPutCode());
+		assertEquals("Local 1", work.getTitle().getTitle());
+	}
+
+	@Test
+	public void staleDatesMiss() throws IOException {
+		cache.putWork(USER, BigInteger.ONE, 1000, work(1));
+		assertNull(cache.getWork(USER, BigInteger.ONE, 2000));
+		// the stale entry is dropped
+		assertNull(cache.getWork(USER, BigInteger.ONE, 1000));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void closeIsIdempotent() throws IOException {
+		cache.putWork(USER, BigInteger.ONE, 1000, work(1));
+		cache.close();
+		cache.close();
+		cache = new DiskCache(dir, 1024 * 1024);
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void flushesPeriodically() throws IOException {
+		for (int i = 0; i < DiskCache.FLUSH_INTERVAL; i++)
+			cache.putWork(USER, BigInteger.valueOf(i), 1000, work(i));
+		// reads the index persisted so far, as left by a crash
+		File copy = Files.createTempDirectory("ptcris-disk").toFile();
+		for (String name : new String[] { "cache.data", "cache.index" })
+			Files.copy(new File(dir, name).toPath(), new File(copy, name).toPath());
+		DiskCache other = new DiskCache(copy, 1024 * 1024);
+		try {
+			assertEquals(DiskCache.FLUSH_INTERVAL, other.size());
+		} finally {
+			other.close();
+			for (File file : copy.listFiles())
+				file.delete();
+			copy.delete();
+		}
+	}
+
+	@Test
+	public void directoryIsLockedWhileOpen() throws IOException {
+		try {
+			new DiskCache(dir, 1024 * 1024);
+			fail();
+		} catch (IOException e) {
+			// in use by this JVM
+		}
+		// the failed open did not release the lock of the open cache
+		try {
+			new DiskCache(dir, 1024 * 1024);
+			fail();
+		} catch (IOException e) {
+			// still in use
+		}
+		reopen(1024 * 1024);
+	}
+
+	@Test
+	public void directoryIsLockedAcrossProcesses() throws Exception {
+		cache.close();
+		Process holder = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(), "-cp",
+				System.getProperty("java.class.path"), Holder.class.getName(), dir.getPath()).start();
+		try {
+			BufferedReader out = new BufferedReader(new InputStreamReader(holder.getInputStream()));
+			assertEquals("open", out.readLine());
+			try {
+				new DiskCache(dir, 1024 * 1024);
+				fail();
+			} catch (IOException e) {
+				// in use by the other process
+			}
+			holder.getOutputStream().close();
+			assertEquals(0, holder.waitFor());
+		} finally {
+			holder.destroy();
+		}
+		cache = new DiskCache(dir, 1024 * 1024);
+	}
+
+	/**
+	 * Holds a cache open in another process until its input is closed.
+	 */
+	public static class Holder {
+		public static void main(String[] args) throws IOException {
+			DiskCache cache = new DiskCache(new File(args[0]), 1024 * 1024);
+			System.out.println("open");
+			System.out.flush();
+			while (System.in.read() != -1)
+				;
+			cache.close();
+		}
+	}
+
+	@Test
+	public void compactionKeepsRecentEntries() throws IOException {
+		reopen(32 * 1024);
+		for (int i = 0; i < 500; i++)
+			cache.putWork(USER, BigInteger.valueOf(i), 1000, work(i));
+		assertTrue(new File(dir, "cache.data").length() <= 32 * 1024);
+		assertTrue(cache.size() < 500);
+		assertNotNull(cache.getWork(USER, BigInteger.valueOf(499), 1000));
+		assertNull(cache.getWork(USER, BigInteger.ZERO, 1000));
+
+		int size = cache.size();
+		reopen(32 * 1024);
+		assertEquals(size, cache.size());
+		Work work = cache.getWork(USER, BigInteger.valueOf(499), 1000);
+		assertEquals(BigInteger.valueOf(499), work.getPutCode());
+	}
+
+	@Test
+	public void staleIndexIsNeverServed() throws IOException {
+		reopen(32 * 1024);
+		for (int i = 0; i < 50; i++)
+			cache.putWork(USER, BigInteger.valueOf(i), 1000, work(i));
+		cache.flush();
+		File index = new File(dir, "cache.index");
+		File old = new File(dir, "old.index");
+		Files.copy(index.toPath(), old.toPath());
+
+		// compacts the data file, moving the records
+		for (int i = 50; i < 500; i++)
+			cache.putWork(USER, BigInteger.valueOf(i), 1000, work(i));
+		cache.close();
+
+		// as if the JVM crashed before the index of the compaction was written
+		Files.copy(old.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		old.delete();
+		cache = new DiskCache(dir, 32 * 1024);
+		for (int i = 0; i < 50; i++) {
+			Work work = cache.getWork(USER, BigInteger.valueOf(i), 1000);
+			if (work != null)
+				assertEquals(BigInteger.valueOf(i), work.getPutCode());
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+package pt.ptcris.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+
+import pt.ptcris.cache.IdentifierIndex;
+import pt.ptcris.cache.IdentifierIndex.Entry;
+import pt.ptcris.test.FakeORCIDClient;
+
+/**
+ * Tests the persistence of the identifier index across restarts, reindexing
+ * and compactions, and the exclusive lock on its directory.
+ */
+public class IdentifierIndexTest {
+
+	private static final String USER = "0000-0002-1825-0097";
+	private static final String COAUTHOR = "0000-0001-5109-370X";
+	private static final int BUCKETS = 64;
+
+	private File dir;
+	private IdentifierIndex index;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("ptcris-index").toFile();
+		index = new IdentifierIndex(dir, BUCKETS);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		index.close();
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void survivesRestart() throws Exception {
+		index.update(USER, works(USER, 1, 2));
+		index.update(COAUTHOR, works(COAUTHOR, 2, 3));
+		reopen(BUCKETS);
+
+		assertTrue(index.isIndexed(USER));
+		assertTrue(index.isIndexed(COAUTHOR));
+		assertEquals(2, index.profiles());
+		assertEquals(4, index.size());
+		assertEquals(set(USER + "/2 (2000)", COAUTHOR + "/2 (2000)"), lookup(2));
+		assertEquals(set(COAUTHOR + "/3 (3000)"), lookup(3));
+	}
+
+	@Test
+	public void directoryIsLockedWhileOpen() throws Exception {
+		index.update(USER, works(USER, 1));
+		try {
+			new IdentifierIndex(dir, BUCKETS);
+			fail();
+		} catch (IOException e) {
+			// in use by this JVM
+		}
+		reopen(BUCKETS);
+		assertTrue(index.isIndexed(USER));
+	}
+
+	@Test
+	public void reindexDropsRemovedWorks() throws Exception {
+		index.update(USER, works(USER, 1, 2));
+		index.update(USER, works(USER, 1));
+		assertEquals(set(), lookup(2));
+		assertEquals(1, index.size());
+
+		reopen(BUCKETS);
+		assertEquals(set(), lookup(2));
+		assertEquals(set(USER + "/1 (1000)"), lookup(1));
+	}
+
+	@Test
+	public void removedProfileIsNotRevived() throws Exception {
+		index.update(USER, works(USER, 1, 2));
+		index.remove(USER);
+		assertFalse(index.isIndexed(USER));
+		assertEquals(set(), lookup(1));
+
+		// the records of the removed profile must stay stale
+		index.update(USER, works(USER, 1));
+		assertEquals(set(), lookup(2));
+		reopen(BUCKETS);
+		assertEquals(set(), lookup(2));
+		assertEquals(set(USER + "/1 (1000)"), lookup(1));
+	}
+
+	@Test
+	public void compactionKeepsLiveRecords() throws Exception {
+		// every reindex makes the records of the previous one stale
+		int rounds = 60, works = 100;
+		for (int round = 0; round < rounds; round++) {
+			long[] putCodes = new long[works];
+			for (int i = 0; i < works; i++)
+				putCodes[i] = round * works + i;
+			index.update(USER, works(USER, putCodes));
+			index.update(COAUTHOR, works(COAUTHOR, round));
+		}
+		// compacted rather than holding every record
+		assertTrue(new File(dir, "ids.data").length() < 40L * rounds * works);
+		assertCompacted(rounds, works);
+
+		reopen(BUCKETS);
+		assertCompacted(rounds, works);
+	}
+
+	private void assertCompacted(int rounds, int works) {
+		long last = (rounds - 1) * works;
+		assertEquals(works + 1, index.size());
+		assertEquals(set(), lookup(last - 1));
+		assertEquals(set(USER + "/" + (last + 7) + " (" + 1000 * (last + 7) + ")"), lookup(last + 7));
+		assertEquals(set(COAUTHOR + "/" + (rounds - 1) + " (" + 1000 * (rounds - 1) + ")"), lookup(rounds - 1));
+		assertEquals(set(), lookup(rounds - 2));
+	}
+
+	@Test
+	public void incompatibleIndexIsDiscarded() throws Exception {
+		index.update(USER, works(USER, 1));
+		reopen(2 * BUCKETS);
+		assertEquals(0, index.profiles());
+		assertEquals(set(), lookup(1));
+	}
+
+	@Test
+	public void corruptedIndexIsDiscarded() throws Exception {
+		index.update(USER, works(USER, 1));
+		index.close();
+		Files.write(new File(dir, "ids.profiles").toPath(), new byte[] { 0, 0, 0, 2, 0 });
+		index = new IdentifierIndex(dir, BUCKETS);
+		assertEquals(0, index.profiles());
+		assertEquals(set(), lookup(1));
+	}
+
+	private void reopen(int buckets) throws IOException {
+		index.close();
+		index = new IdentifierIndex(dir, buckets);
+	}
+
+	private Set<String> lookup(long n) {
+		Set<String> res = new HashSet<String>();
+		List<Entry> entries = index.lookup(FakeORCIDClient.identifiers("10.1/" + n).getWorkExternalIdentifier()
+				.get(0));
+		for (Entry entry : entries)
+			res.add(entry.toString());
+		return res;
+	}
+
+	/**
+	 * The works summary of a profile, each work being identified by a DOI
+	 * derived from its put-code.
+	 */
+	private static Works works(String orcid, long... putCodes) throws Exception {
+		FakeORCIDClient client = new FakeORCIDClient(orcid);
+		for (long putCode : putCodes)
+			client.add(putCode, "10.1/" + putCode, 1000 * putCode);
+		return client.getWorksSummary();
+	}
+
+	private static Set<String> set(String... entries) {
+		Set<String> res = new HashSet<String>();
+		for (String entry : entries)
+			res.add(entry);
+		return res;
+	}
+
+}
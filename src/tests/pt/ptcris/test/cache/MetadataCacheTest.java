@@ -0,0 +1,106 @@
+package pt.ptcris.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.common.RelationshipType;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifierType;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.cache.MetadataCache;
+import pt.ptcris.test.FakeORCIDClient;
+
+/**
+ * Tests that the works served by the meta-data cache are isolated from the
+ * cached ones and from each other. Requires a JAXB runtime to serialize the
+ * cached works.
+ */
+public class MetadataCacheTest {
+
+	private static Work work() {
+		Work work = FakeORCIDClient.local(1, "10.1/1");
+		work.setPutCode(BigInteger.ONE);
+		return work;
+	}
+
+	private static WorkSummary summary(Work work) {
+		WorkSummary summary = new WorkSummary();
+		ORCIDHelper.copy(work, summary);
+		summary.setTitle(work.getTitle());
+		summary.setType(work.getType());
+		summary.setPublicationDate(work.getPublicationDate());
+		summary.setExternalIdentifiers(work.getExternalIdentifiers());
+		return summary;
+	}
+
+	@Test
+	public void insertedWorkIsCopied() {
+		MetadataCache cache = new MetadataCache(10, 60000);
+		Work work = work();
+		WorkSummary summary = summary(FakeORCIDClient.local(1, "10.1/1"));
+		cache.put(summary, work);
+
+		work.getTitle().setTitle("Changed");
+		work.getExternalIdentifiers().getWorkExternalIdentifier()
+				.add(FakeORCIDClient.identifier(ExternalIdentifierType.EID, "2-s2.0-1", RelationshipType.SELF));
+
+		Work cached = cache.get(summary);
+		assertNotNull(cached);
+		assertEquals("Local 1", cached.getTitle().getTitle());
+		assertEquals(1, cached.getExternalIdentifiers().getWorkExternalIdentifier().size());
+	}
+
+	@Test
+	public void retrievedWorksAreIndependent() {
+		MetadataCache cache = new MetadataCache(10, 60000);
+		WorkSummary summary = summary(work());
+		cache.put(summary, work());
+
+		Work first = cache.get(summary);
+		first.setPutCode(null);
+		first.getTitle().setTitle("Changed");
+		first.getExternalIdentifiers().getWorkExternalIdentifier().clear();
+
+		Work second = cache.get(summary);
+		assertNotSame(first, second);
+		assertNotSame(first.getTitle(), second.getTitle());
+		assertEquals(BigInteger.ONE, second.getPutCode());
+		assertEquals("Local 1", second.getTitle().getTitle());
+		assertEquals(1, second.getExternalIdentifiers().getWorkExternalIdentifier().size());
+	}
+
+	@Test
+	public void staleWorksAreNotServed() throws InterruptedException {
+		MetadataCache cache = new MetadataCache(10, 0);
+		WorkSummary summary = summary(work());
+		cache.put(summary, work());
+		Thread.sleep(5);
+		assertNull(cache.get(summary));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void leastRecentlyUsedWorksAreEvicted() {
+		MetadataCache cache = new MetadataCache(2, 60000);
+		WorkSummary s1 = summary(FakeORCIDClient.local(1, "10.1/1"));
+		WorkSummary s2 = summary(FakeORCIDClient.local(2, "10.1/2"));
+		WorkSummary s3 = summary(FakeORCIDClient.local(3, "10.1/3"));
+		cache.put(s1, FakeORCIDClient.local(1, "10.1/1"));
+		cache.put(s2, FakeORCIDClient.local(2, "10.1/2"));
+		assertNotNull(cache.get(s1));
+		cache.put(s3, FakeORCIDClient.local(3, "10.1/3"));
+
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get(s1));
+		assertNull(cache.get(s2));
+		assertNotNull(cache.get(s3));
+	}
+
+}
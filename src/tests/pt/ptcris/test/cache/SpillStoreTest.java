@@ -0,0 +1,147 @@
+package pt.ptcris.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.cache.SpillStore;
+import pt.ptcris.test.FakeORCIDClient;
+
+/**
+ * Tests that the works added to a spill store are returned in order, whether
+ * kept in memory or spilled, and that closing the store deletes its temporary
+ * file. The spilling tests require a JAXB runtime to serialize the works.
+ */
+public class SpillStoreTest {
+
+	private static Work work(long putCode) {
+		return FakeORCIDClient.local(putCode, "10.1/" + putCode);
+	}
+
+	private static List<Work> fill(SpillStore store, int count) throws IOException {
+		List<Work> works = new ArrayList<Work>();
+		for (int i = 1; i <= count; i++) {
+			Work work = work(i);
+			works.add(work);
+			store.add(work);
+		}
+		return works;
+	}
+
+	private static void assertContents(List<Work> expected, SpillStore store) {
+		Iterator<Work> it = store.iterator();
+		for (Work work : expected) {
+			assertTrue(it.hasNext());
+			Work next = it.next();
+			assertEquals(work.getPutCode(), next.getPutCode());
+			assertEquals(work.getTitle().getTitle(), next.getTitle().getTitle());
+		}
+		assertFalse(it.hasNext());
+	}
+
+	private static int spillFiles() {
+		String[] files = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith("ptcris-") && name.endsWith(".spill");
+			}
+		});
+		return files == null ? 0 : files.length;
+	}
+
+	@Test
+	public void keepsWorksWithinBudgetInMemory() throws IOException {
+		SpillStore store = new SpillStore(1024 * 1024);
+		List<Work> works = fill(store, 10);
+
+		assertEquals(10, store.size());
+		assertEquals(0, store.spilled());
+		assertTrue(store.bytes() > 0);
+		assertContents(works, store);
+		// the store can be iterated more than once
+		assertContents(works, store);
+		store.close();
+	}
+
+	@Test
+	public void emptyStoreHasNoWorks() {
+		SpillStore store = new SpillStore(0);
+		assertEquals(0, store.size());
+		assertFalse(store.iterator().hasNext());
+		store.close();
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void iteratingPastTheEndFails() throws IOException {
+		SpillStore store = new SpillStore(1024 * 1024);
+		fill(store, 1);
+		Iterator<Work> it = store.iterator();
+		it.next();
+		try {
+			it.next();
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void closeEmptiesTheStore() throws IOException {
+		SpillStore store = new SpillStore(1024 * 1024);
+		fill(store, 3);
+		store.close();
+		assertEquals(0, store.size());
+		assertEquals(0, store.bytes());
+		assertFalse(store.iterator().hasNext());
+	}
+
+	@Test
+	public void spilledWorksRoundTripInOrder() throws IOException {
+		SpillStore probe = new SpillStore(1024 * 1024);
+		probe.add(work(1));
+		// works 1 to 9 have the same approximate size
+		SpillStore store = new SpillStore(probe.bytes() * 3);
+		probe.close();
+		List<Work> works = fill(store, 10);
+
+		assertEquals(10, store.size());
+		assertEquals(7, store.spilled());
+		assertContents(works, store);
+		assertContents(works, store);
+		store.close();
+	}
+
+	@Test
+	public void closeDeletesTheSpillFile() throws IOException {
+		int before = spillFiles();
+		SpillStore store = new SpillStore(0);
+		fill(store, 5);
+		assertEquals(5, store.spilled());
+		assertEquals(before + 1, spillFiles());
+
+		store.close();
+		assertEquals(before, spillFiles());
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void spilledWorksAreNotShared() throws IOException {
+		SpillStore store = new SpillStore(0);
+		Work work = work(1);
+		store.add(work);
+		work.setPutCode(BigInteger.TEN);
+		assertEquals(BigInteger.ONE, store.iterator().next().getPutCode());
+		store.close();
+	}
+
+}
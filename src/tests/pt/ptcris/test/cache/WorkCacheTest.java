@@ -0,0 +1,175 @@
+package pt.ptcris.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.cache.WorkCache;
+import pt.ptcris.test.FakeORCIDClient;
+
+/**
+ * Tests the bounded cache of full works: keys, copies, eviction and its use
+ * by the helper. Requires a JAXB runtime to serialize the cached works.
+ */
+public class WorkCacheTest {
+
+	private static final String USER = "0000-0002-1825-0097";
+
+	private static Work work(long putCode) {
+		return FakeORCIDClient.local(putCode, "10.1/" + putCode);
+	}
+
+	@Test
+	public void keyedByLastModified() {
+		WorkCache cache = new WorkCache(10, Long.MAX_VALUE);
+		cache.put(USER, BigInteger.ONE, 1000, work(1));
+		assertNotNull(cache.get(USER, BigInteger.ONE, 1000));
+		assertNull(cache.get(USER, BigInteger.ONE, 2000));
+		assertNull(cache.get("0000-0001-5109-3700", BigInteger.ONE, 1000));
+		assertEquals(1, cache.hits());
+		assertEquals(2, cache.misses());
+	}
+
+	@Test
+	public void unknownDatesAreNotCached() {
+		WorkCache cache = new WorkCache(10, Long.MAX_VALUE);
+		cache.put(USER, BigInteger.ONE, -1, work(1));
+		assertEquals(0, cache.size());
+		assertNull(cache.get(USER, BigInteger.ONE, -1));
+	}
+
+	@Test
+	public void returnsCopies() {
+		WorkCache cache = new WorkCache(10, Long.MAX_VALUE);
+		cache.put(USER, BigInteger.ONE, 1000, work(1));
+		Work copy = cache.get(USER, BigInteger.ONE, 1000);
+		copy.setPutCode(null);
+		copy.setTitle(null);
+		Work again = cache.get(USER, BigInteger.ONE, 1000);
+		assertEquals(BigInteger.ONE, again.getPutCode());
+		assertNotNull(again.getTitle());
+	}
+
+	@Test
+	public void callerEditsDoNotLeak() {
+		WorkCache cache = new WorkCache(10, Long.MAX_VALUE);
+		Work work = work(1);
+		cache.put(USER, BigInteger.ONE, 1000, work);
+		// edits of the inserted work
+		work.getTitle().setTitle("Changed");
+		work.getExternalIdentifiers().getWorkExternalIdentifier().clear();
+
+		Work first = cache.get(USER, BigInteger.ONE, 1000);
+		assertEquals("Local 1", first.getTitle().getTitle());
+		assertEquals(1, first.getExternalIdentifiers().getWorkExternalIdentifier().size());
+
+		// edits of a retrieved work, nested elements included
+		first.getTitle().setTitle("Changed");
+		first.getExternalIdentifiers().getWorkExternalIdentifier().get(0).setExternalIdentifierId("10.1/2");
+		first.getPublicationDate().getYear().setValue("1999");
+
+		Work second = cache.get(USER, BigInteger.ONE, 1000);
+		assertNotSame(first.getTitle(), second.getTitle());
+		assertEquals("Local 1", second.getTitle().getTitle());
+		assertEquals("10.1/1", second.getExternalIdentifiers().getWorkExternalIdentifier().get(0)
+				.getExternalIdentifierId());
+		assertEquals("2016", second.getPublicationDate().getYear().getValue());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedEntries() {
+		WorkCache cache = new WorkCache(3, Long.MAX_VALUE);
+		for (int i = 1; i <= 3; i++)
+			cache.put(USER, BigInteger.valueOf(i), 1000, work(i));
+		// touches the first, so that the second is the least recently used
+		assertNotNull(cache.get(USER, BigInteger.ONE, 1000));
+		cache.put(USER, BigInteger.valueOf(4), 1000, work(4));
+		assertEquals(3, cache.size());
+		assertNotNull(cache.get(USER, BigInteger.ONE, 1000));
+		assertNull(cache.get(USER, BigInteger.valueOf(2), 1000));
+		assertNotNull(cache.get(USER, BigInteger.valueOf(4), 1000));
+	}
+
+	@Test
+	public void evictsByBytes() {
+		WorkCache cache = new WorkCache(1000, 2000);
+		for (int i = 1; i <= 100; i++)
+			cache.put(USER, BigInteger.valueOf(i), 1000, work(i));
+		assertTrue(cache.bytes() <= 2000);
+		assertTrue(cache.size() > 0 && cache.size() < 100);
+		assertNotNull(cache.get(USER, BigInteger.valueOf(100), 1000));
+	}
+
+	@Test
+	public void boundsSummaries() {
+		WorkCache cache = new WorkCache(10, Long.MAX_VALUE);
+		for (int i = 0; i <= WorkCache.MAX_SUMMARIES; i++)
+			cache.putWorksSummary("user" + i, 1000, new Works());
+		assertNull(cache.getWorksSummary("user0"));
+		assertNotNull(cache.getWorksSummary("user" + WorkCache.MAX_SUMMARIES));
+		cache.invalidateWorksSummary("user" + WorkCache.MAX_SUMMARIES);
+		assertNull(cache.getWorksSummary("user" + WorkCache.MAX_SUMMARIES));
+	}
+
+	@Test
+	public void helperServesUnmodifiedWorks() throws Exception {
+		FakeORCIDClient client = new FakeORCIDClient(USER);
+		client.add(1, "10.1/1", 1000);
+		WorkCache cache = new WorkCache(10, Long.MAX_VALUE);
+		ORCIDHelper helper = new ORCIDHelper(client, cache, null);
+
+		WorkSummary summary = helper.getAllWorkSummaries().get(0);
+		for (int i = 0; i < 3; i++) {
+			Map<BigInteger, Work> works = new HashMap<BigInteger, Work>();
+			helper.getFullWork(summary, works);
+			assertTrue(helper.waitWorkers());
+			assertEquals(1, works.size());
+			// the put-code of the served work is cleaned
+			assertNull(works.get(BigInteger.ONE).getPutCode());
+		}
+		assertEquals(1, client.workReads.get());
+
+		// a modification is never served from the cache
+		client.add(1, "10.1/1", 2000);
+		summary = helper.getAllWorkSummaries().get(0);
+		helper.getFullWork(summary, new HashMap<BigInteger, Work>());
+		assertTrue(helper.waitWorkers());
+		assertEquals(2, client.workReads.get());
+	}
+
+	@Test
+	public void helperReusesUnmodifiedSummaries() throws Exception {
+		FakeORCIDClient client = new FakeORCIDClient(USER);
+		client.add(1, "10.1/1", 1000);
+		client.add(2, "10.1/2", 2000);
+		WorkCache cache = new WorkCache(10, Long.MAX_VALUE);
+		ORCIDHelper helper = new ORCIDHelper(client, cache, null);
+
+		assertEquals(2, helper.getAllWorkSummaries().size());
+		assertNotNull(cache.getWorksSummary(USER));
+		// validated against the cached copy, which is reused
+		assertEquals(2, helper.getAllWorkSummaries().size());
+		assertEquals(2, client.summaryReads.get());
+
+		client.add(3, "10.1/3", 3000);
+		assertEquals(3, helper.getAllWorkSummaries().size());
+
+		// writes through the helper invalidate the cached summary
+		helper.deleteWork(BigInteger.ONE);
+		assertNull(cache.getWorksSummary(USER));
+		assertEquals(2, helper.getAllWorkSummaries().size());
+	}
+
+}
@@ -0,0 +1,163 @@
+package pt.ptcris.test.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.client.AdaptiveLimiter;
+import pt.ptcris.client.LimitingORCIDClient;
+import pt.ptcris.test.FakeORCIDClient;
+
+/**
+ * Tests the adaptive concurrency limit: it must back off once per round of
+ * throttled calls, grow while saturated, compare latencies only between calls
+ * of the same kind, and detect throttling from the status of the failures.
+ */
+public class AdaptiveLimiterTest {
+
+	private static final String USER = "0000-0002-1825-0097";
+
+	@Test
+	public void throttlingBacksOffOncePerRound() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+		for (int i = 0; i < 10; i++)
+			limiter.acquire();
+		for (int i = 0; i < 10; i++)
+			limiter.release("getWork", 100, true);
+		assertEquals(5, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void saturationGrowsLimit() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 100);
+		for (int round = 0; round < 4; round++) {
+			int limit = limiter.getLimit();
+			for (int i = 0; i < limit; i++)
+				limiter.acquire();
+			for (int i = 0; i < limit; i++)
+				limiter.release("getWork", 100, false);
+		}
+		assertTrue(limiter.getLimit() > 2);
+	}
+
+	@Test
+	public void unsaturatedDoesNotGrow() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 100);
+		for (int i = 0; i < 100; i++) {
+			limiter.acquire();
+			limiter.release("getWork", 100, false);
+		}
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void latencyIsComparedPerOperation() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+		limiter.acquire();
+		limiter.release("getWorksSummary (not modified)", 5, false);
+		limiter.acquire();
+		limiter.release("getWorksSummary", 500, false);
+		assertEquals(10, limiter.getLimit());
+		assertEquals(5, limiter.getBaseline("getWorksSummary (not modified)"), 0);
+		assertEquals(500, limiter.getBaseline("getWorksSummary"), 0);
+
+		// a degraded call of the same kind does back off
+		limiter.acquire();
+		limiter.release("getWorksSummary", 5000, false);
+		assertEquals(9, limiter.getLimit());
+	}
+
+	@Test
+	public void interruptedAcquireIsCancelled() throws Exception {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1);
+		limiter.acquire();
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					limiter.acquire();
+				} catch (CancellationException e) {
+					if (Thread.currentThread().isInterrupted())
+						cancelled.countDown();
+				}
+			}
+		};
+		waiter.start();
+		waiter.interrupt();
+		assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+		assertEquals(1, limiter.getInFlight());
+	}
+
+	@Test
+	public void serverErrorsThrottle() throws Exception {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+		FakeORCIDClient fake = new FakeORCIDClient(USER);
+		fake.add(1, "10.1/1", 1000);
+		fake.fail(BigInteger.ONE);
+		LimitingORCIDClient client = new LimitingORCIDClient(fake, limiter);
+		try {
+			client.getWork(BigInteger.ONE);
+			fail();
+		} catch (OrcidClientException e) {
+		}
+		assertEquals(5, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void clientErrorsDoNotThrottle() throws Exception {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+		LimitingORCIDClient client = new LimitingORCIDClient(new FakeORCIDClient(USER), limiter);
+		try {
+			client.getWork(BigInteger.ONE);
+			fail();
+		} catch (OrcidClientException e) {
+		}
+		assertEquals(10, limiter.getLimit());
+		// nor do they count as a baseline of the successful reads
+		assertEquals(-1, limiter.getBaseline("getWork"), 0);
+		assertTrue(limiter.getBaseline("getWork (failed)") >= 0);
+	}
+
+	@Test
+	public void failuresWithoutStatusDoNotThrottle() throws Exception {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+		LimitingORCIDClient client = new LimitingORCIDClient(new FakeORCIDClient(USER) {
+			@Override
+			public Work getWork(BigInteger putCode) throws OrcidClientException {
+				throw new OrcidClientException(429, "Too many requests", null, null);
+			}
+		}, limiter);
+		try {
+			client.getWork(BigInteger.ONE);
+			fail();
+		} catch (OrcidClientException e) {
+		}
+		assertEquals(10, limiter.getLimit());
+	}
+
+	@Test
+	public void notModifiedReadsHaveTheirOwnBaseline() throws Exception {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+		FakeORCIDClient fake = new FakeORCIDClient(USER);
+		fake.add(1, "10.1/1", 1000);
+		LimitingORCIDClient client = new LimitingORCIDClient(fake, limiter);
+		client.getWorksSummaryIfModified(-1);
+		assertTrue(limiter.getBaseline("getWorksSummary") >= 0);
+		assertEquals(-1, limiter.getBaseline("getWorksSummary (not modified)"), 0);
+		client.getWorksSummaryIfModified(1000);
+		assertTrue(limiter.getBaseline("getWorksSummary (not modified)") >= 0);
+	}
+
+}
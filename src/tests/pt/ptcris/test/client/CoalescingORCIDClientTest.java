@@ -0,0 +1,187 @@
+package pt.ptcris.test.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.client.CoalescingORCIDClient;
+import pt.ptcris.exceptions.ORCIDStatusException;
+import pt.ptcris.test.FakeORCIDClient;
+
+/**
+ * Tests the coalescing of concurrent identical reads. Requires a JAXB runtime
+ * to copy the shared works.
+ */
+public class CoalescingORCIDClientTest {
+
+	private static int profiles = 0;
+
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private FakeORCIDClient fake;
+	private CoalescingORCIDClient client;
+	private ExecutorService pool;
+
+	@Before
+	public void setUp() {
+		// a profile per test, since in-flight reads are shared by the JVM
+		fake = new FakeORCIDClient(String.format("0000-0000-0000-%04d", ++profiles)) {
+			@Override
+			public Work getWork(BigInteger putCode) throws OrcidClientException {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return super.getWork(putCode);
+			}
+		};
+		fake.add(1, "10.1/1", 1000);
+		client = new CoalescingORCIDClient(fake);
+		pool = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		pool.shutdownNow();
+	}
+
+	private Future<Work> read(final long putCode) {
+		return pool.submit(new Callable<Work>() {
+			public Work call() throws OrcidClientException {
+				return client.getWork(BigInteger.valueOf(putCode));
+			}
+		});
+	}
+
+	/**
+	 * Waits until a second caller is waiting for the first one's read.
+	 */
+	private void awaitCoalesced(long before) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (CoalescingORCIDClient.getCoalesced() == before && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertTrue(CoalescingORCIDClient.getCoalesced() > before);
+	}
+
+	@Test(timeout = 10000)
+	public void sharesInFlightReads() throws Exception {
+		long before = CoalescingORCIDClient.getCoalesced();
+		Future<Work> first = read(1);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Future<Work> second = read(1);
+		awaitCoalesced(before);
+		release.countDown();
+
+		Work a = first.get();
+		Work b = second.get();
+		assertEquals(1, fake.workReads.get());
+		assertEquals(BigInteger.ONE, a.getPutCode());
+		assertEquals(BigInteger.ONE, b.getPutCode());
+		// every caller can modify its own copy
+		assertNotSame(a, b);
+	}
+
+	@Test(timeout = 10000)
+	public void sharedWorksAreDeepCopies() throws Exception {
+		long before = CoalescingORCIDClient.getCoalesced();
+		Future<Work> first = read(1);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Future<Work> second = read(1);
+		awaitCoalesced(before);
+		release.countDown();
+
+		Work a = first.get();
+		Work b = second.get();
+		assertNotSame(a.getTitle(), b.getTitle());
+		assertNotSame(a.getExternalIdentifiers(), b.getExternalIdentifiers());
+		a.getTitle().setTitle("Changed");
+		a.getExternalIdentifiers().getWorkExternalIdentifier().clear();
+		assertEquals("Work 10.1/1", b.getTitle().getTitle());
+		assertEquals(1, b.getExternalIdentifiers().getWorkExternalIdentifier().size());
+	}
+
+	@Test(timeout = 10000)
+	public void nothingIsKeptAfterTheRead() throws Exception {
+		release.countDown();
+		assertNotNull(read(1).get());
+		assertNotNull(read(1).get());
+		assertEquals(2, fake.workReads.get());
+	}
+
+	@Test(timeout = 10000)
+	public void sharesFailures() throws Exception {
+		fake.fail(BigInteger.ONE);
+		long before = CoalescingORCIDClient.getCoalesced();
+		Future<Work> first = read(1);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Future<Work> second = read(1);
+		awaitCoalesced(before);
+		release.countDown();
+
+		for (Future<Work> future : Arrays.asList(first, second)) {
+			try {
+				future.get();
+				fail();
+			} catch (ExecutionException e) {
+				assertEquals(500, ((ORCIDStatusException) e.getCause()).getStatus());
+			}
+		}
+		assertEquals(1, fake.workReads.get());
+	}
+
+	@Test(timeout = 10000)
+	public void interruptedWaiterIsCancelled() throws Exception {
+		Future<Work> first = read(1);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		long before = CoalescingORCIDClient.getCoalesced();
+		Thread waiter = new Thread() {
+			public void run() {
+				try {
+					client.getWork(BigInteger.ONE);
+				} catch (Throwable e) {
+					failure.set(e);
+				}
+				interrupted.set(Thread.currentThread().isInterrupted());
+			}
+		};
+		waiter.start();
+		awaitCoalesced(before);
+		waiter.interrupt();
+		waiter.join();
+
+		assertTrue(failure.get() instanceof CancellationException);
+		assertTrue(interrupted.get());
+		// the interrupted caller did not read on its own
+		release.countDown();
+		assertNotNull(first.get());
+		assertEquals(1, fake.workReads.get());
+	}
+
+}
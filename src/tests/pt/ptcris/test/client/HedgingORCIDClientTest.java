@@ -0,0 +1,198 @@
+package pt.ptcris.test.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.client.HedgePolicy;
+import pt.ptcris.client.HedgingORCIDClient;
+import pt.ptcris.exceptions.ORCIDStatusException;
+import pt.ptcris.test.FakeORCIDClient;
+
+/**
+ * Tests the hedging of slow reads.
+ */
+public class HedgingORCIDClientTest {
+
+	private static final String USER = "0000-0002-1825-0097";
+
+	/** The number of the read that blocks until released, 0 for none. */
+	private volatile int blocking = 0;
+	/** The number of the read that fails immediately, 0 for none. */
+	private volatile int failing = 0;
+	/** Whether the blocked read fails once released. */
+	private volatile boolean blockedFails = false;
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicBoolean blockedInterrupted = new AtomicBoolean();
+	private final AtomicInteger reads = new AtomicInteger();
+
+	private ExecutorService executor;
+	private HedgePolicy policy;
+	private HedgingORCIDClient client;
+
+	@Before
+	public void setUp() {
+		FakeORCIDClient fake = new FakeORCIDClient(USER) {
+			@Override
+			public Work getWork(BigInteger putCode) throws OrcidClientException {
+				int read = reads.incrementAndGet();
+				if (read == failing)
+					throw new ORCIDStatusException(503, "work/" + putCode);
+				if (read == blocking) {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						blockedInterrupted.set(true);
+						throw new IllegalStateException(e);
+					}
+					if (blockedFails)
+						throw new ORCIDStatusException(503, "work/" + putCode);
+				}
+				return super.getWork(putCode);
+			}
+		};
+		fake.add(1, "10.1/1", 1000);
+		executor = Executors.newCachedThreadPool();
+		policy = new HedgePolicy(executor, 0.95, 1.0, 20);
+		client = new HedgingORCIDClient(fake, policy);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		executor.shutdownNow();
+	}
+
+	private void warmUp() throws OrcidClientException {
+		for (int i = 0; i < HedgePolicy.MIN_SAMPLES; i++)
+			client.getWork(BigInteger.ONE);
+		reads.set(0);
+	}
+
+	@Test(timeout = 10000)
+	public void noHedgingBeforeWarmUp() throws Exception {
+		blocking = 1;
+		new Thread() {
+			public void run() {
+				try {
+					started.await();
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				release.countDown();
+			}
+		}.start();
+		assertEquals(BigInteger.ONE, client.getWork(BigInteger.ONE).getPutCode());
+		assertEquals(0, policy.getHedges());
+		assertEquals(1, reads.get());
+	}
+
+	@Test(timeout = 10000)
+	public void slowReadIsHedged() throws Exception {
+		warmUp();
+		blocking = 1;
+		assertEquals(BigInteger.ONE, client.getWork(BigInteger.ONE).getPutCode());
+		assertEquals(1, policy.getHedges());
+		assertEquals(1, policy.getHedgeWins());
+		assertEquals(2, reads.get());
+		// the losing read is cancelled
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!blockedInterrupted.get() && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertTrue(blockedInterrupted.get());
+	}
+
+	@Test(timeout = 10000)
+	public void failureAwaitsOtherRead() throws Exception {
+		warmUp();
+		// the hedged read fails while the primary one is still blocked
+		blocking = 1;
+		failing = 2;
+		new Thread() {
+			public void run() {
+				try {
+					started.await();
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				release.countDown();
+			}
+		}.start();
+		assertEquals(BigInteger.ONE, client.getWork(BigInteger.ONE).getPutCode());
+		assertEquals(1, policy.getHedges());
+		assertEquals(0, policy.getHedgeWins());
+		assertEquals(2, reads.get());
+	}
+
+	@Test(timeout = 10000)
+	public void bothFailuresAreThrown() throws Exception {
+		warmUp();
+		blocking = 1;
+		blockedFails = true;
+		new Thread() {
+			public void run() {
+				try {
+					started.await();
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				release.countDown();
+			}
+		}.start();
+		try {
+			client.getWork(BigInteger.valueOf(2));
+			fail();
+		} catch (ORCIDStatusException e) {
+			assertTrue(e.getStatus() == 503 || e.getStatus() == 404);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void interruptCancelsReads() throws Exception {
+		blocking = 1;
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		Thread caller = new Thread() {
+			public void run() {
+				try {
+					client.getWork(BigInteger.ONE);
+				} catch (Throwable e) {
+					failure.set(e);
+				}
+				interrupted.set(Thread.currentThread().isInterrupted());
+			}
+		};
+		caller.start();
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		caller.interrupt();
+		caller.join();
+
+		assertTrue(failure.get() instanceof CancellationException);
+		assertTrue(interrupted.get());
+		// the caller did not read again on its own
+		assertEquals(1, reads.get());
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!blockedInterrupted.get() && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertTrue(blockedInterrupted.get());
+	}
+
+}
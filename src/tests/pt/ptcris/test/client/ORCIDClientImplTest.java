@@ -0,0 +1,232 @@
+package pt.ptcris.test.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.client.OrcidAccessToken;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+
+import pt.ptcris.ORCIDClientImpl;
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.auth.ORCIDTokenProvider;
+import pt.ptcris.cache.WorkCache;
+import pt.ptcris.client.AdaptiveLimiter;
+import pt.ptcris.client.CoalescingORCIDClient;
+import pt.ptcris.exceptions.ORCIDStatusException;
+import pt.ptcris.transport.ORCIDTransport;
+import pt.ptcris.utils.Deadline;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the read requests of the client against a local HTTP server: error
+ * statuses, the fallback to the activities summary, the validation of
+ * cached summaries and the bounding of reads by a deadline.
+ */
+public class ORCIDClientImplTest {
+
+	private static final String USER = "0000-0002-1825-0097";
+	private static final String LAST_MODIFIED = "Tue, 21 Jun 2016 10:16:22 GMT";
+
+	private static final String WORKS = "<activities:works xmlns:common=\"http://www.orcid.org/ns/common\""
+			+ " xmlns:work=\"http://www.orcid.org/ns/work\" xmlns:activities=\"http://www.orcid.org/ns/activities\">"
+			+ "<activities:group><work:work-summary put-code=\"1\">"
+			+ "<common:last-modified-date>2016-06-21T10:16:21.071Z</common:last-modified-date>"
+			+ "<work:title><common:title>A title</common:title></work:title>"
+			+ "</work:work-summary></activities:group></activities:works>";
+
+	private static final String ACTIVITIES = "<activities:activities-summary"
+			+ " xmlns:activities=\"http://www.orcid.org/ns/activities\">" + WORKS + "</activities:activities-summary>";
+
+	private HttpServer server;
+	private ORCIDTransport transport;
+	private ORCIDClientImpl client;
+
+	/** The status and body of the responses, by resource. */
+	private final Map<String, Integer> statuses = Collections.synchronizedMap(new HashMap<String, Integer>());
+	private final Map<String, String> bodies = Collections.synchronizedMap(new HashMap<String, String>());
+	/** The requested resources and their conditional headers. */
+	private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> invalidated = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange);
+			}
+		});
+		server.start();
+		transport = new ORCIDTransport();
+		String api = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+		client = new ORCIDClientImpl(api, api, "APP-TEST", "secret", api, USER, new ORCIDTokenProvider() {
+			public OrcidAccessToken getToken(String orcid) {
+				OrcidAccessToken token = new OrcidAccessToken();
+				token.setOrcid(orcid);
+				token.setAccess_token("token");
+				return token;
+			}
+
+			public void invalidate(String orcid) {
+				invalidated.add(orcid);
+			}
+		}, transport);
+	}
+
+	@After
+	public void tearDown() {
+		transport.close();
+		server.stop(0);
+	}
+
+	private void respond(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String resource = path.substring(path.lastIndexOf('/') + 1);
+		requests.add(resource + " " + exchange.getRequestHeaders().getFirst("If-None-Match") + " "
+				+ exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+		Integer status = statuses.get(resource);
+		String body = bodies.get(resource);
+		if (status == null || status != 200 || body == null) {
+			exchange.sendResponseHeaders(status == null ? 404 : status, -1);
+			exchange.close();
+			return;
+		}
+		String etag = "\"" + resource + body.length() + "\"";
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+		exchange.getResponseHeaders().set("ETag", etag);
+		exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private void serve(String resource, int status, String body) {
+		statuses.put(resource, status);
+		if (body == null)
+			bodies.remove(resource);
+		else
+			bodies.put(resource, body);
+	}
+
+	private int status(OrcidClientException e) {
+		return ((ORCIDStatusException) e).getStatus();
+	}
+
+	@Test
+	public void readsWorksSummary() throws OrcidClientException {
+		serve("works", 200, WORKS);
+		Works works = client.getWorksSummary();
+		assertEquals(1, works.getGroup().size());
+		assertEquals(1, requests.size());
+	}
+
+	@Test
+	public void errorStatusesAreNotRetried() throws OrcidClientException {
+		serve("works", 429, null);
+		serve("activities", 200, ACTIVITIES);
+		try {
+			client.getWorksSummary();
+			fail();
+		} catch (ORCIDStatusException e) {
+			assertEquals(429, e.getStatus());
+		}
+		assertEquals(1, requests.size());
+	}
+
+	@Test
+	public void unauthorizedInvalidatesToken() {
+		serve("works", 401, null);
+		try {
+			client.getWorksSummary();
+			fail();
+		} catch (OrcidClientException e) {
+			assertEquals(401, status(e));
+		}
+		assertEquals(Collections.singletonList(USER), invalidated);
+	}
+
+	@Test
+	public void missingProfileKeepsWorksEndpoint() {
+		serve("works", 404, null);
+		serve("activities", 404, null);
+		for (int i = 0; i < 2; i++) {
+			try {
+				client.getWorksSummary();
+				fail();
+			} catch (OrcidClientException e) {
+				assertEquals(404, status(e));
+			}
+		}
+		// the works endpoint is tried again
+		assertEquals(4, requests.size());
+		assertEquals("works", requests.get(2).split(" ")[0]);
+	}
+
+	@Test
+	public void missingEndpointFallsBackToActivities() throws OrcidClientException {
+		serve("works", 405, null);
+		serve("activities", 200, ACTIVITIES);
+		assertEquals(1, client.getWorksSummary().getGroup().size());
+		assertEquals(1, client.getWorksSummary().getGroup().size());
+		// the works endpoint is not tried again
+		assertEquals(3, requests.size());
+		assertEquals("activities", requests.get(2).split(" ")[0]);
+	}
+
+	@Test
+	public void validatesWithServerValidators() throws OrcidClientException {
+		serve("works", 200, WORKS);
+		Works works = client.getWorksSummary();
+		long lastModified = ORCIDHelper.getLastModified(works);
+
+		assertNull(client.getWorksSummaryIfModified(lastModified));
+		String etag = "\"works" + WORKS.length() + "\"";
+		assertEquals("works " + etag + " " + LAST_MODIFIED, requests.get(1));
+
+		// a copy with other content is not validated
+		assertNotNull(client.getWorksSummaryIfModified(lastModified - 1));
+		assertEquals("works null null", requests.get(2));
+	}
+
+	@Test
+	public void helperDeadlineBoundsReads() throws OrcidClientException {
+		serve("works", 200, WORKS);
+		ORCIDHelper helper = new ORCIDHelper(new CoalescingORCIDClient(client), new WorkCache(0, 0),
+				new AdaptiveLimiter(10, 1, 100));
+		helper.setCancellationToken(new Deadline(0, TimeUnit.MILLISECONDS));
+		try {
+			client.getWorksSummary();
+			fail();
+		} catch (OrcidClientException e) {
+			// not read, not even through the Degois client
+		}
+		assertEquals(0, requests.size());
+		assertEquals(0, transport.getRequests());
+	}
+
+}
@@ -0,0 +1,196 @@
+package pt.ptcris.test.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pt.ptcris.transport.ORCIDTransport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the transport against a local HTTP server.
+ */
+public class ORCIDTransportTest {
+
+	private static final byte[] BODY;
+
+	static {
+		StringBuilder xml = new StringBuilder("<works>");
+		for (int i = 0; i < 200; i++)
+			xml.append("<group><work-summary put-code=\"").append(i).append("\"/></group>");
+		BODY = xml.append("</works>").toString().getBytes();
+	}
+
+	private HttpServer server;
+	private ORCIDTransport transport;
+	private String base;
+
+	/** The encoding of the next responses, null for identity. */
+	private volatile String encoding;
+	/** The encoded body of the next responses. */
+	private volatile byte[] encoded;
+	/** How long the server takes to answer, in milliseconds. */
+	private volatile long delay = 0;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange);
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+		transport = new ORCIDTransport();
+	}
+
+	@After
+	public void tearDown() {
+		transport.close();
+		server.stop(0);
+	}
+
+	private void respond(HttpExchange exchange) throws IOException {
+		if (delay > 0)
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		if (encoding != null)
+			exchange.getResponseHeaders().set("Content-Encoding", encoding);
+		exchange.sendResponseHeaders(200, encoded.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(encoded);
+		out.close();
+	}
+
+	private static byte[] gzip(byte[] body) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(bytes);
+		out.write(body);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] body, boolean zlib) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, !zlib));
+		out.write(body);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private ORCIDTransport.Response get() throws IOException {
+		return transport.get(base + "works", "token", -1);
+	}
+
+	@Test
+	public void deadlineBoundsSlowResponses() throws IOException {
+		encoding = null;
+		encoded = BODY;
+		delay = 2000;
+		long start = System.currentTimeMillis();
+		try {
+			transport.get(base + "works", "token", -1, 200);
+			fail();
+		} catch (IOException e) {
+			// timed out
+		}
+		assertTrue(System.currentTimeMillis() - start < 1500);
+	}
+
+	@Test
+	public void passedDeadlineIssuesNoRequest() throws IOException {
+		encoding = null;
+		encoded = BODY;
+		try {
+			transport.get(base + "works", "token", -1, 0);
+			fail();
+		} catch (InterruptedIOException e) {
+			// no time remaining
+		}
+		assertEquals(0, transport.getRequests());
+	}
+
+	@Test
+	public void decodesGzip() throws IOException {
+		encoding = "gzip";
+		encoded = gzip(BODY);
+		ORCIDTransport.Response response = get();
+		assertEquals(200, response.status);
+		assertArrayEquals(BODY, response.body);
+		assertEquals(encoded.length, response.wireLength);
+		assertTrue(response.wireLength < BODY.length);
+		assertEquals(encoded.length, transport.getWireBytes());
+		assertEquals(BODY.length, transport.getDecodedBytes());
+	}
+
+	@Test
+	public void decodesZlibDeflate() throws IOException {
+		encoding = "deflate";
+		encoded = deflate(BODY, true);
+		assertArrayEquals(BODY, get().body);
+	}
+
+	@Test
+	public void decodesRawDeflate() throws IOException {
+		encoding = "deflate";
+		encoded = deflate(BODY, false);
+		assertArrayEquals(BODY, get().body);
+	}
+
+	@Test
+	public void passesIdentityThrough() throws IOException {
+		encoding = null;
+		encoded = BODY;
+		ORCIDTransport.Response response = get();
+		assertArrayEquals(BODY, response.body);
+		assertEquals(BODY.length, response.wireLength);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsUnknownEncodings() throws IOException {
+		encoding = "br";
+		encoded = BODY;
+		get();
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsCorruptedBodies() throws IOException {
+		encoding = "gzip";
+		byte[] body = gzip(BODY);
+		encoded = new byte[body.length / 2];
+		System.arraycopy(body, 0, encoded, 0, encoded.length);
+		get();
+	}
+
+	@Test
+	public void reusesConnections() throws IOException {
+		encoding = null;
+		encoded = BODY;
+		for (int i = 0; i < 5; i++)
+			assertEquals(200, get().status);
+		assertEquals(5, transport.getRequests());
+		assertEquals(1, transport.getConnections());
+	}
+
+}
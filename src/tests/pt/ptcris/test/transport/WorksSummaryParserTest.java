@@ -0,0 +1,315 @@
+package pt.ptcris.test.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary.Works;
+import org.um.dsi.gavea.orcid.model.activities.WorkGroup;
+import org.um.dsi.gavea.orcid.model.common.RelationshipType;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifier;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifierType;
+import org.um.dsi.gavea.orcid.model.work.WorkExternalIdentifiers;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+import org.um.dsi.gavea.orcid.model.work.WorkType;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.cache.WorkCache;
+import pt.ptcris.client.ORCIDClientDecorator;
+import pt.ptcris.test.FakeORCIDClient;
+import pt.ptcris.transport.MergedWorkGroup;
+import pt.ptcris.transport.WorksSummaryParser;
+
+/**
+ * Tests the streaming parser against works summaries as returned by the
+ * ORCID API, both by the works endpoint of API 2.0 and within an activities
+ * summary of API 2.0 release candidates.
+ */
+public class WorksSummaryParserTest {
+
+	private static final String WORKS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+			+ "<activities:works path=\"/0000-0002-1825-0097/works\" xmlns:common=\"http://www.orcid.org/ns/common\""
+			+ " xmlns:work=\"http://www.orcid.org/ns/work\" xmlns:activities=\"http://www.orcid.org/ns/activities\">\n"
+			+ "  <common:last-modified-date>2016-06-21T10:16:21.071Z</common:last-modified-date>\n"
+			+ "  <activities:group>\n"
+			+ "    <common:last-modified-date>2016-06-21T10:16:21.071Z</common:last-modified-date>\n"
+			+ "    <common:external-ids>\n"
+			+ "      <common:external-id>\n"
+			+ "        <common:external-id-type>doi</common:external-id-type>\n"
+			+ "        <common:external-id-value>10.1000/xyz123</common:external-id-value>\n"
+			+ "        <common:external-id-relationship>self</common:external-id-relationship>\n"
+			+ "      </common:external-id>\n"
+			+ "    </common:external-ids>\n"
+			+ "    <work:work-summary put-code=\"733535\" path=\"/0000-0002-1825-0097/work/733535\" visibility=\"public\">\n"
+			+ "      <common:created-date>2016-06-20T09:00:00.000Z</common:created-date>\n"
+			+ "      <common:last-modified-date>2016-06-21T10:16:21.071Z</common:last-modified-date>\n"
+			+ "      <common:source>\n"
+			+ "        <common:source-client-id>\n"
+			+ "          <common:uri>http://sandbox.orcid.org/client/APP-0123456789ABCDEF</common:uri>\n"
+			+ "          <common:path>APP-0123456789ABCDEF</common:path>\n"
+			+ "          <common:host>sandbox.orcid.org</common:host>\n"
+			+ "        </common:source-client-id>\n"
+			+ "        <common:source-name>PTCRISync</common:source-name>\n"
+			+ "      </common:source>\n"
+			+ "      <work:title>\n"
+			+ "        <common:title><![CDATA[Sync & merge]]> of works</common:title>\n"
+			+ "      </work:title>\n"
+			+ "      <common:external-ids>\n"
+			+ "        <common:external-id>\n"
+			+ "          <common:external-id-type>doi</common:external-id-type>\n"
+			+ "          <common:external-id-value>10.1000/xyz123</common:external-id-value>\n"
+			+ "          <common:external-id-relationship>self</common:external-id-relationship>\n"
+			+ "        </common:external-id>\n"
+			+ "        <common:external-id>\n"
+			+ "          <common:external-id-type>eid</common:external-id-type>\n"
+			+ "          <common:external-id-value>2-s2.0-0000000001</common:external-id-value>\n"
+			+ "          <common:external-id-relationship>part-of</common:external-id-relationship>\n"
+			+ "        </common:external-id>\n"
+			+ "        <common:external-id>\n"
+			+ "          <common:external-id-type>no-such-type</common:external-id-type>\n"
+			+ "          <common:external-id-value>42</common:external-id-value>\n"
+			+ "          <common:external-id-relationship>self</common:external-id-relationship>\n"
+			+ "        </common:external-id>\n"
+			+ "      </common:external-ids>\n"
+			+ "      <work:type>journal-article</work:type>\n"
+			+ "      <common:publication-date>\n"
+			+ "        <common:year>2016</common:year>\n"
+			+ "        <common:month>01</common:month>\n"
+			+ "      </common:publication-date>\n"
+			+ "    </work:work-summary>\n"
+			+ "    <work:work-summary put-code=\"733536\" path=\"/0000-0002-1825-0097/work/733536\" visibility=\"public\">\n"
+			+ "      <common:last-modified-date>2016-06-22T08:00:00.000Z</common:last-modified-date>\n"
+			+ "      <common:source>\n"
+			+ "        <common:source-orcid>\n"
+			+ "          <common:path>0000-0002-1825-0097</common:path>\n"
+			+ "        </common:source-orcid>\n"
+			+ "        <common:source-name>Josiah Carberry</common:source-name>\n"
+			+ "      </common:source>\n"
+			+ "      <work:title>\n"
+			+ "        <common:title>Sync and merge of works</common:title>\n"
+			+ "      </work:title>\n"
+			+ "      <common:external-ids>\n"
+			+ "        <common:external-id>\n"
+			+ "          <common:external-id-type>doi</common:external-id-type>\n"
+			+ "          <common:external-id-value>10.1000/xyz123</common:external-id-value>\n"
+			+ "          <common:external-id-relationship>self</common:external-id-relationship>\n"
+			+ "        </common:external-id>\n"
+			+ "      </common:external-ids>\n"
+			+ "      <work:type>conference-paper</work:type>\n"
+			+ "    </work:work-summary>\n"
+			+ "  </activities:group>\n"
+			+ "  <activities:group>\n"
+			+ "    <common:external-ids/>\n"
+			+ "    <work:work-summary put-code=\"733537\" visibility=\"public\">\n"
+			+ "      <common:last-modified-date>2016-06-23T08:00:00.000Z</common:last-modified-date>\n"
+			+ "      <common:source>\n"
+			+ "        <common:source-name>Josiah Carberry</common:source-name>\n"
+			+ "      </common:source>\n"
+			+ "      <work:title>\n"
+			+ "        <common:title>Untitled draft</common:title>\n"
+			+ "      </work:title>\n"
+			+ "      <work:type>journal-article</work:type>\n"
+			+ "    </work:work-summary>\n"
+			+ "  </activities:group>\n"
+			+ "</activities:works>\n";
+
+	private static final String ACTIVITIES = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+			+ "<activities:activities-summary xmlns:common=\"http://www.orcid.org/ns/common\""
+			+ " xmlns:work=\"http://www.orcid.org/ns/work\" xmlns:activities=\"http://www.orcid.org/ns/activities\""
+			+ " xmlns:education=\"http://www.orcid.org/ns/education\" xmlns:funding=\"http://www.orcid.org/ns/funding\">\n"
+			+ "  <activities:educations>\n"
+			+ "    <education:education-summary put-code=\"1\">\n"
+			+ "      <common:last-modified-date>2016-01-01T00:00:00.000Z</common:last-modified-date>\n"
+			+ "      <education:role-title>Student</education:role-title>\n"
+			+ "    </education:education-summary>\n"
+			+ "  </activities:educations>\n"
+			+ "  <activities:works>\n"
+			+ "    <common:last-modified-date>2016-06-21T10:16:21.071Z</common:last-modified-date>\n"
+			+ "    <activities:group>\n"
+			+ "      <common:identifiers>\n"
+			+ "        <common:identifier>\n"
+			+ "          <common:external-identifier-type>DOI</common:external-identifier-type>\n"
+			+ "          <common:external-identifier-id>10.1000/abc</common:external-identifier-id>\n"
+			+ "        </common:identifier>\n"
+			+ "      </common:identifiers>\n"
+			+ "      <work:work-summary put-code=\"11\">\n"
+			+ "        <common:last-modified-date>2016-06-21T10:16:21.071Z</common:last-modified-date>\n"
+			+ "        <common:source>\n"
+			+ "          <common:source-client-id>\n"
+			+ "            <common:path>APP-0123456789ABCDEF</common:path>\n"
+			+ "          </common:source-client-id>\n"
+			+ "        </common:source>\n"
+			+ "        <work:title>\n"
+			+ "          <common:title>A title</common:title>\n"
+			+ "        </work:title>\n"
+			+ "        <work:work-external-identifiers>\n"
+			+ "          <work:work-external-identifier>\n"
+			+ "            <common:external-identifier-type>DOI</common:external-identifier-type>\n"
+			+ "            <common:external-identifier-id>10.1000/abc</common:external-identifier-id>\n"
+			+ "            <common:relationship>SELF</common:relationship>\n"
+			+ "          </work:work-external-identifier>\n"
+			+ "        </work:work-external-identifiers>\n"
+			+ "        <work:type>JOURNAL_ARTICLE</work:type>\n"
+			+ "        <common:publication-date>\n"
+			+ "          <common:year>2015</common:year>\n"
+			+ "        </common:publication-date>\n"
+			+ "      </work:work-summary>\n"
+			+ "    </activities:group>\n"
+			+ "  </activities:works>\n"
+			+ "  <activities:fundings>\n"
+			+ "    <activities:group>\n"
+			+ "      <funding:funding-summary put-code=\"99\">\n"
+			+ "        <funding:title><common:title>A grant</common:title></funding:title>\n"
+			+ "      </funding:funding-summary>\n"
+			+ "    </activities:group>\n"
+			+ "  </activities:fundings>\n"
+			+ "</activities:activities-summary>\n";
+
+	private static Works parse(String xml) throws XMLStreamException {
+		return WorksSummaryParser.parse(new ByteArrayInputStream(xml.getBytes()));
+	}
+
+	private static long millis(WorkSummary work) {
+		return work.getLastModifiedDate().getValue().toGregorianCalendar().getTimeInMillis();
+	}
+
+	@Test
+	public void parsesWorksEndpoint() throws XMLStreamException {
+		Works works = parse(WORKS);
+		assertEquals(2, works.getGroup().size());
+
+		WorkGroup group = works.getGroup().get(0);
+		assertEquals(1, group.getIdentifiers().getIdentifier().size());
+		assertEquals("doi", group.getIdentifiers().getIdentifier().get(0).getExternalIdentifierType());
+		assertEquals("10.1000/xyz123", group.getIdentifiers().getIdentifier().get(0).getExternalIdentifierId());
+		assertEquals(2, group.getWorkSummary().size());
+
+		WorkSummary work = group.getWorkSummary().get(0);
+		assertEquals(BigInteger.valueOf(733535), work.getPutCode());
+		assertEquals(1466504181071L, millis(work));
+		assertEquals("APP-0123456789ABCDEF", work.getSource().getSourceClientId().getUriPath());
+		assertEquals("Sync & merge of works", work.getTitle().getTitle());
+		assertEquals(WorkType.JOURNAL_ARTICLE, work.getType());
+		assertEquals("2016", work.getPublicationDate().getYear().getValue());
+		// the identifier of unknown type is dropped
+		assertEquals(2, work.getExternalIdentifiers().getWorkExternalIdentifier().size());
+		ExternalIdentifier eid = work.getExternalIdentifiers().getWorkExternalIdentifier().get(1);
+		assertEquals(ExternalIdentifierType.EID, eid.getExternalIdentifierType());
+		assertEquals("2-s2.0-0000000001", eid.getExternalIdentifierId());
+		assertEquals(RelationshipType.PART_OF, eid.getRelationship());
+
+		// added by the user, the source has no client id
+		work = group.getWorkSummary().get(1);
+		assertEquals(BigInteger.valueOf(733536), work.getPutCode());
+		assertNull(work.getSource().getSourceClientId());
+		assertEquals(WorkType.CONFERENCE_PAPER, work.getType());
+		assertNull(work.getPublicationDate());
+	}
+
+	@Test
+	public void parsesWorksWithoutIdentifiers() throws XMLStreamException {
+		WorkGroup group = parse(WORKS).getGroup().get(1);
+		assertTrue(group.getIdentifiers().getIdentifier().isEmpty());
+		WorkSummary work = group.getWorkSummary().get(0);
+		assertEquals(BigInteger.valueOf(733537), work.getPutCode());
+		assertNull(work.getExternalIdentifiers());
+		assertEquals("Untitled draft", work.getTitle().getTitle());
+	}
+
+	@Test
+	public void parsesWorksOfActivities() throws XMLStreamException {
+		Works works = parse(ACTIVITIES);
+		// the groups of the remainder activities are skipped
+		assertEquals(1, works.getGroup().size());
+		WorkGroup group = works.getGroup().get(0);
+		assertEquals("DOI", group.getIdentifiers().getIdentifier().get(0).getExternalIdentifierType());
+
+		WorkSummary work = group.getWorkSummary().get(0);
+		assertEquals(BigInteger.valueOf(11), work.getPutCode());
+		assertEquals("APP-0123456789ABCDEF", work.getSource().getSourceClientId().getUriPath());
+		assertEquals("A title", work.getTitle().getTitle());
+		assertEquals(WorkType.JOURNAL_ARTICLE, work.getType());
+		assertEquals("2015", work.getPublicationDate().getYear().getValue());
+		ExternalIdentifier doi = work.getExternalIdentifiers().getWorkExternalIdentifier().get(0);
+		assertEquals(ExternalIdentifierType.DOI, doi.getExternalIdentifierType());
+		assertEquals("10.1000/abc", doi.getExternalIdentifierId());
+		assertEquals(RelationshipType.SELF, doi.getRelationship());
+	}
+
+	@Test
+	public void mergesGroupsWhileParsing() throws XMLStreamException {
+		Works works = parse(WORKS);
+		MergedWorkGroup group = (MergedWorkGroup) works.getGroup().get(0);
+		WorkSummary first = group.getWorkSummary().get(0);
+		WorkSummary merged = group.getMerged();
+
+		// the meta-data of the first work is shared, not copied
+		assertEquals(BigInteger.valueOf(733535), merged.getPutCode());
+		assertSame(first.getSource(), merged.getSource());
+		assertSame(first.getTitle(), merged.getTitle());
+		assertEquals(WorkType.JOURNAL_ARTICLE, merged.getType());
+		assertSame(first.getPublicationDate(), merged.getPublicationDate());
+		// the most recent date of the group
+		assertEquals(millis(group.getWorkSummary().get(1)), millis(merged));
+		// the identifiers of the group, rather than those of the first work
+		assertEquals(1, merged.getExternalIdentifiers().getWorkExternalIdentifier().size());
+		ExternalIdentifier doi = merged.getExternalIdentifiers().getWorkExternalIdentifier().get(0);
+		assertEquals(ExternalIdentifierType.DOI, doi.getExternalIdentifierType());
+		assertEquals("10.1000/xyz123", doi.getExternalIdentifierId());
+		assertEquals(RelationshipType.SELF, doi.getRelationship());
+
+		merged = ((MergedWorkGroup) works.getGroup().get(1)).getMerged();
+		assertEquals(BigInteger.valueOf(733537), merged.getPutCode());
+		assertTrue(merged.getExternalIdentifiers().getWorkExternalIdentifier().isEmpty());
+	}
+
+	@Test
+	public void helperUsesMergedSummaries() throws Exception {
+		final Works works = parse(WORKS);
+		FakeORCIDClient fake = new FakeORCIDClient("0000-0002-1825-0097");
+		ORCIDHelper helper = new ORCIDHelper(new ORCIDClientDecorator(fake) {
+			@Override
+			public Works getWorksSummary() throws OrcidClientException {
+				return works;
+			}
+
+			@Override
+			public Works getWorksSummaryIfModified(long lastModified) throws OrcidClientException {
+				return null;
+			}
+		}, new WorkCache(10, 1024 * 1024));
+
+		List<WorkSummary> summaries = helper.getAllWorkSummaries();
+		assertEquals(2, summaries.size());
+		assertSame(((MergedWorkGroup) works.getGroup().get(0)).getMerged(), summaries.get(0));
+		// a cached summary is not merged again
+		assertSame(summaries.get(0), helper.getAllWorkSummaries().get(0));
+	}
+
+	@Test
+	public void fullWorksDoNotShareMergedIdentifiers() throws XMLStreamException {
+		WorkSummary merged = ((MergedWorkGroup) parse(WORKS).getGroup().get(0)).getMerged();
+		WorkExternalIdentifiers copy = ORCIDHelper.copyExternalIdentifiers(merged);
+		assertNotSame(merged.getExternalIdentifiers(), copy);
+		copy.getWorkExternalIdentifier().get(0).setExternalIdentifierId("changed");
+		copy.getWorkExternalIdentifier().clear();
+		assertEquals("10.1000/xyz123", merged.getExternalIdentifiers().getWorkExternalIdentifier().get(0)
+				.getExternalIdentifierId());
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void rejectsMalformedXml() throws XMLStreamException {
+		parse(WORKS.substring(0, WORKS.length() / 2) + "</oops>");
+	}
+
+}
@@ -0,0 +1,117 @@
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.common.RelationshipType;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifier;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifierType;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkExternalIdentifiers;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.test.FakeORCIDClient;
+import pt.ptcris.utils.ComponentMatcher;
+import pt.ptcris.utils.UpdateRecord;
+
+/**
+ * Tests the assignment of local works to remote works: it must be one-to-one,
+ * independent of the order of the input lists, prefer the pairs sharing more
+ * identifiers, and ignore "part of" identifiers.
+ */
+public class ComponentMatcherTest {
+
+	private static final ExternalIdentifier JOURNAL = FakeORCIDClient.identifier(ExternalIdentifierType.HANDLE,
+			"journal", RelationshipType.PART_OF);
+
+	@Test
+	public void assignmentIsOrderIndependent() {
+		List<WorkSummary> remotes = new ArrayList<WorkSummary>();
+		List<Work> locals = new ArrayList<Work>();
+		// remote works contend in pairs for local works, some local works
+		// have duplicates, and every work is part of the same journal
+		for (int j = 0; j < 60; j++)
+			remotes.add(remote(1000 + j, "10.1/" + (j / 2), j % 3 == 0 ? "10.2/" + j : "10.3/" + j));
+		for (int i = 0; i < 50; i++) {
+			Work local = i % 4 == 0 ? FakeORCIDClient.local(i, "10.1/" + (i % 25), "10.2/" + (2 * i))
+					: FakeORCIDClient.local(i, "10.1/" + (i % 25));
+			local.getExternalIdentifiers().getWorkExternalIdentifier().add(JOURNAL);
+			locals.add(local);
+		}
+
+		Map<BigInteger, BigInteger> expected = assignment(ComponentMatcher.assign(remotes, locals));
+		assertTrue(expected.size() >= 25);
+		assertEquals(expected.size(), new HashSet<BigInteger>(expected.values()).size());
+		Random random = new Random(42);
+		for (int run = 0; run < 20; run++) {
+			Collections.shuffle(remotes, random);
+			Collections.shuffle(locals, random);
+			assertEquals(expected, assignment(ComponentMatcher.assign(remotes, locals)));
+		}
+	}
+
+	@Test
+	public void assignmentIsOneToOne() {
+		List<WorkSummary> remotes = Arrays.asList(remote(1, "10.1/a"), remote(2, "10.1/a"), remote(3, "10.1/a"));
+		List<Work> locals = Arrays.asList(FakeORCIDClient.local(20, "10.1/a"), FakeORCIDClient.local(10, "10.1/a"));
+
+		List<UpdateRecord> records = ComponentMatcher.assign(remotes, locals);
+		// ties are broken by the put-code and then by the local key
+		assertEquals(BigInteger.valueOf(10), ORCIDHelper.getWorkLocalKey(records.get(0).getLocalWork()));
+		assertEquals(BigInteger.valueOf(20), ORCIDHelper.getWorkLocalKey(records.get(1).getLocalWork()));
+		assertNull(records.get(2));
+	}
+
+	@Test
+	public void moreSharedIdentifiersArePreferred() {
+		List<WorkSummary> remotes = Arrays.asList(remote(1, "10.1/a"), remote(2, "10.1/a", "10.1/b"));
+		List<Work> locals = Arrays.asList(FakeORCIDClient.local(10, "10.1/a", "10.1/b"));
+
+		List<UpdateRecord> records = ComponentMatcher.assign(remotes, locals);
+		assertNull(records.get(0));
+		assertEquals(BigInteger.valueOf(10), ORCIDHelper.getWorkLocalKey(records.get(1).getLocalWork()));
+		assertEquals(2, records.get(1).getMatches().same.size());
+	}
+
+	@Test
+	public void partOfIdentifiersDoNotMatch() {
+		WorkSummary remote = remote(1);
+		remote.getExternalIdentifiers().getWorkExternalIdentifier().add(JOURNAL);
+		Work local = FakeORCIDClient.local(10);
+		local.getExternalIdentifiers().getWorkExternalIdentifier().add(JOURNAL);
+
+		List<UpdateRecord> records = ComponentMatcher.assign(Arrays.asList(remote), Arrays.asList(local));
+		assertNull(records.get(0));
+	}
+
+	private static WorkSummary remote(long putCode, String... dois) {
+		WorkSummary summary = new WorkSummary();
+		summary.setPutCode(BigInteger.valueOf(putCode));
+		WorkExternalIdentifiers ids = FakeORCIDClient.identifiers(dois);
+		summary.setExternalIdentifiers(new WorkExternalIdentifiers(new ArrayList<ExternalIdentifier>(ids
+				.getWorkExternalIdentifier())));
+		return summary;
+	}
+
+	private static Map<BigInteger, BigInteger> assignment(List<UpdateRecord> records) {
+		Map<BigInteger, BigInteger> res = new HashMap<BigInteger, BigInteger>();
+		for (UpdateRecord record : records)
+			if (record != null)
+				res.put(record.getRemoteWork().getPutCode(), ORCIDHelper.getWorkLocalKey(record.getLocalWork()));
+		return res;
+	}
+
+}
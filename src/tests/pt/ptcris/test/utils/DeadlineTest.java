@@ -0,0 +1,270 @@
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.PTCRISync;
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.cache.SpillStore;
+import pt.ptcris.cache.WorkCache;
+import pt.ptcris.test.FakeORCIDClient;
+import pt.ptcris.utils.CancellationToken;
+import pt.ptcris.utils.Deadline;
+import pt.ptcris.utils.SyncWatermarks;
+
+/**
+ * Tests the cancellation of the import procedure, explicitly or by a deadline,
+ * against an in-memory profile with a slow work: the procedure must return the
+ * works fetched so far, record the others as unfetched and keep the
+ * watermark. Also tests that expired deadlines notify their listeners, so
+ * that the queued writes of an export are discarded.
+ */
+public class DeadlineTest {
+
+	private static final String USER = "0000-0002-1825-0097";
+	private static final BigInteger SLOW = BigInteger.valueOf(2);
+
+	private FakeORCIDClient client;
+	private SyncWatermarks watermarks;
+	private final List<Work> local = new ArrayList<Work>();
+
+	@Before
+	public void setUp() {
+		WorkCache.getShared().clear();
+		client = new FakeORCIDClient(USER) {
+			@Override
+			public Work getWork(BigInteger putCode) throws OrcidClientException {
+				if (SLOW.equals(putCode)) {
+					try {
+						Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new OrcidClientException(0, "Interrupted", null, null);
+					}
+				}
+				return super.getWork(putCode);
+			}
+		};
+		client.add(1, "10.1/1", 1000);
+		client.add(2, "10.1/2", 2000);
+		client.add(3, "10.1/3", 3000);
+		watermarks = new SyncWatermarks();
+	}
+
+	@Test
+	public void remaining() throws Exception {
+		Deadline deadline = new Deadline(1, TimeUnit.HOURS);
+		assertFalse(deadline.isExpired());
+		assertFalse(deadline.isCancelled());
+		assertTrue(deadline.remaining() > TimeUnit.MINUTES.toMillis(59));
+
+		deadline.cancel();
+		assertTrue(deadline.isCancelled());
+		assertFalse(deadline.isExpired());
+		assertEquals(0, deadline.remaining());
+
+		Deadline expired = new Deadline(0, TimeUnit.MILLISECONDS);
+		assertTrue(expired.isExpired());
+		assertTrue(expired.isCancelled());
+		assertEquals(0, expired.remaining());
+	}
+
+	@Test
+	public void listenersRunOnExpiry() throws Exception {
+		Deadline deadline = new Deadline(100, TimeUnit.MILLISECONDS);
+		final CountDownLatch notified = new CountDownLatch(1);
+		deadline.register(new Runnable() {
+			public void run() {
+				notified.countDown();
+			}
+		});
+		assertTrue(notified.await(5, TimeUnit.SECONDS));
+		assertTrue(deadline.isExpired());
+	}
+
+	@Test
+	public void listenersRunOnceWhenCancelledBeforeExpiry() throws Exception {
+		Deadline deadline = new Deadline(100, TimeUnit.MILLISECONDS);
+		final AtomicInteger notified = new AtomicInteger();
+		deadline.register(new Runnable() {
+			public void run() {
+				notified.incrementAndGet();
+			}
+		});
+		deadline.cancel();
+		assertEquals(1, notified.get());
+		Thread.sleep(300);
+		assertEquals(1, notified.get());
+	}
+
+	@Test
+	public void registerAfterExpiryRunsImmediately() throws Exception {
+		Deadline deadline = new Deadline(0, TimeUnit.MILLISECONDS);
+		final AtomicInteger notified = new AtomicInteger();
+		deadline.register(new Runnable() {
+			public void run() {
+				notified.incrementAndGet();
+			}
+		});
+		assertEquals(1, notified.get());
+	}
+
+	@Test
+	public void expiryDiscardsQueuedWrites() throws Exception {
+		FakeORCIDClient slow = new FakeORCIDClient("0000-0001-5109-3700") {
+			@Override
+			public BigInteger addWork(Work work) throws OrcidClientException {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new OrcidClientException(0, "Interrupted", null, null);
+				}
+				return super.addWork(work);
+			}
+		};
+		List<Work> works = new ArrayList<Work>();
+		for (int i = 0; i < 50; i++)
+			works.add(FakeORCIDClient.local(i, "10.2/" + i));
+
+		Deadline deadline = new Deadline(500, TimeUnit.MILLISECONDS);
+		Map<BigInteger, PTCRISyncResult> result = PTCRISync.export(slow, works, FakeORCIDClient.progress(), deadline);
+
+		int added = 0, cancelled = 0;
+		for (PTCRISyncResult status : result.values())
+			if (status.getCode() == ORCIDHelper.ADDOK)
+				added++;
+			else if (status.getCode() == ORCIDHelper.CANCELLED)
+				cancelled++;
+		assertEquals(50, added + cancelled);
+		assertTrue(cancelled > 0);
+		// what is reported as added was actually added
+		assertEquals(added, slow.size());
+	}
+
+	@Test
+	public void deadlineReturnsPartialResults() throws Exception {
+		Deadline deadline = new Deadline(500, TimeUnit.MILLISECONDS);
+		long start = System.currentTimeMillis();
+		List<Work> works = PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks, deadline);
+		assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(10));
+
+		assertEquals(titles("10.1/1", "10.1/3"), titles(works));
+		assertEquals(set(2), deadline.getUnfetched());
+		assertTrue(deadline.isPartial());
+		assertNull(watermarks.get(USER));
+	}
+
+	@Test
+	public void cancelReturnsPartialResults() throws Exception {
+		final CancellationToken token = new CancellationToken();
+		Thread canceller = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException e) {
+					return;
+				}
+				token.cancel();
+			}
+		};
+		canceller.start();
+		long start = System.currentTimeMillis();
+		List<Work> works = PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks, token);
+		assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(10));
+		canceller.join();
+
+		assertEquals(titles("10.1/1", "10.1/3"), titles(works));
+		assertEquals(set(2), token.getUnfetched());
+		assertNull(watermarks.get(USER));
+	}
+
+	@Test
+	public void cancelledBeforeStartFetchesNothing() throws Exception {
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		List<Work> works = PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks, token);
+
+		assertTrue(works.isEmpty());
+		assertEquals(0, client.workReads.get());
+		// not even the summary is read, so no put-code is known
+		assertEquals(0, client.summaryReads.get());
+		assertTrue(token.getUnfetched().isEmpty());
+		assertNull(watermarks.get(USER));
+	}
+
+	@Test
+	public void expiredDeadlineReadsNoSummary() throws Exception {
+		Deadline deadline = new Deadline(0, TimeUnit.MILLISECONDS);
+		assertTrue(PTCRISync.importWorks(client, local, FakeORCIDClient.progress(), watermarks, deadline).isEmpty());
+		assertTrue(PTCRISync.importInvalid(client, local, FakeORCIDClient.progress(), watermarks, deadline)
+				.isEmpty());
+		SpillStore works = PTCRISync.importWorksChunked(client, local, FakeORCIDClient.progress(), watermarks,
+				deadline, 1 << 20);
+		try {
+			assertEquals(0, works.size());
+		} finally {
+			works.close();
+		}
+
+		assertEquals(0, client.summaryReads.get());
+		assertNull(watermarks.get(USER));
+	}
+
+	@Test
+	public void completeImportIsNotPartial() throws Exception {
+		CancellationToken token = new CancellationToken();
+		List<Work> works = PTCRISync.importWorks(new FakeORCIDClient(USER) {
+			{
+				add(1, "10.1/1", 1000);
+				add(3, "10.1/3", 3000);
+			}
+		}, local, FakeORCIDClient.progress(), watermarks, token);
+
+		assertEquals(titles("10.1/1", "10.1/3"), titles(works));
+		assertFalse(token.isPartial());
+		assertEquals(Long.valueOf(3000), watermarks.get(USER));
+	}
+
+	private static Set<String> titles(List<Work> works) {
+		Set<String> titles = new HashSet<String>();
+		for (Work work : works)
+			titles.add(work.getTitle().getTitle());
+		return titles;
+	}
+
+	private static Set<String> titles(String... dois) {
+		Set<String> titles = new HashSet<String>();
+		for (String doi : dois)
+			titles.add("Work " + doi);
+		return titles;
+	}
+
+	private static Set<BigInteger> set(long... putCodes) {
+		Set<BigInteger> set = new HashSet<BigInteger>();
+		for (long putCode : putCodes)
+			set.add(BigInteger.valueOf(putCode));
+		return Collections.unmodifiableSet(set);
+	}
+
+}
@@ -0,0 +1,104 @@
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.common.RelationshipType;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifier;
+import org.um.dsi.gavea.orcid.model.work.ExternalIdentifierType;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkExternalIdentifiers;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.test.FakeORCIDClient;
+import pt.ptcris.utils.IdentifierFilter;
+
+/**
+ * Tests the filter of the identifiers of the local works: it must report
+ * every summary that matches a local work (see
+ * {@link ORCIDHelper#getExternalIdentifiersDiff(WorkSummary, java.util.Collection)}),
+ * rule out most of the others, and ignore "part of" identifiers.
+ */
+public class IdentifierFilterTest {
+
+	private static final ExternalIdentifierType[] TYPES = ExternalIdentifierType.values();
+	private static final RelationshipType[] RELATIONSHIPS = { RelationshipType.SELF, RelationshipType.PART_OF,
+			null };
+
+	@Test
+	public void noFalseNegatives() {
+		Random random = new Random(42);
+		List<Work> local = new ArrayList<Work>();
+		for (int i = 0; i < 2000; i++) {
+			Work work = FakeORCIDClient.local(i);
+			work.setExternalIdentifiers(randomIdentifiers(random));
+			local.add(work);
+		}
+		IdentifierFilter filter = new IdentifierFilter(local);
+
+		int matching = 0;
+		for (int j = 0; j < 5000; j++) {
+			WorkSummary summary = new WorkSummary();
+			summary.setPutCode(BigInteger.valueOf(j));
+			summary.setExternalIdentifiers(randomIdentifiers(random));
+			if (!ORCIDHelper.getExternalIdentifiersDiff(summary, local).isEmpty()) {
+				matching++;
+				assertTrue(filter.mightMatch(summary.getExternalIdentifiers()));
+			}
+		}
+		// the identifiers overlap enough to exercise the filter
+		assertTrue(matching > 100);
+	}
+
+	@Test
+	public void fewFalsePositives() {
+		List<Work> local = new ArrayList<Work>();
+		for (int i = 0; i < 5000; i++)
+			local.add(FakeORCIDClient.local(i, "10.1/" + i));
+		IdentifierFilter filter = new IdentifierFilter(local);
+
+		int positives = 0;
+		for (int j = 0; j < 10000; j++)
+			if (filter.mightMatch(FakeORCIDClient.identifiers("10.2/" + j)))
+				positives++;
+		assertTrue(positives < 10000 * IdentifierFilter.FALSE_POSITIVES * 3);
+		for (int i = 0; i < 5000; i++)
+			assertTrue(filter.mightMatch(FakeORCIDClient.identifiers("10.1/" + i)));
+	}
+
+	@Test
+	public void partOfIdentifiersAreIgnored() {
+		List<Work> local = new ArrayList<Work>();
+		Work work = FakeORCIDClient.local(1, "10.1/1");
+		work.getExternalIdentifiers().getWorkExternalIdentifier()
+				.add(FakeORCIDClient.identifier(ExternalIdentifierType.HANDLE, "journal", RelationshipType.PART_OF));
+		local.add(work);
+		IdentifierFilter filter = new IdentifierFilter(local);
+
+		List<ExternalIdentifier> ids = new ArrayList<ExternalIdentifier>();
+		ids.add(FakeORCIDClient.identifier(ExternalIdentifierType.HANDLE, "journal", RelationshipType.PART_OF));
+		assertFalse(filter.mightMatch(new WorkExternalIdentifiers(ids)));
+		assertFalse(filter.mightMatch(null));
+	}
+
+	/**
+	 * Draws a few identifiers from a small space, so that works often share
+	 * identifiers, with and without compatible relationships.
+	 */
+	private static WorkExternalIdentifiers randomIdentifiers(Random random) {
+		List<ExternalIdentifier> ids = new ArrayList<ExternalIdentifier>();
+		int count = random.nextInt(4);
+		for (int k = 0; k < count; k++)
+			ids.add(FakeORCIDClient.identifier(TYPES[random.nextInt(TYPES.length)],
+					String.valueOf(random.nextInt(3000)), RELATIONSHIPS[random.nextInt(RELATIONSHIPS.length)]));
+		return new WorkExternalIdentifiers(ids);
+	}
+
+}
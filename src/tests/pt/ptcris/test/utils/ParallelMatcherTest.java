@@ -0,0 +1,116 @@
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.activities.WorkGroup;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ExternalIdentifiersUpdate;
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.test.FakeORCIDClient;
+import pt.ptcris.utils.IdentifierFilter;
+import pt.ptcris.utils.ParallelMatcher;
+import pt.ptcris.utils.ParallelMatcher.Match;
+
+/**
+ * Tests that matching in parallel, with or without the identifier filter,
+ * yields exactly the results of matching each summary sequentially, in the
+ * order of the summaries.
+ */
+public class ParallelMatcherTest {
+
+	private static final int SUMMARIES = 4 * ParallelMatcher.THRESHOLD + 17;
+
+	private final List<WorkSummary> summaries = new ArrayList<WorkSummary>();
+	private final List<Work> local = new ArrayList<Work>();
+
+	@Before
+	public void setUp() throws Exception {
+		FakeORCIDClient client = new FakeORCIDClient("0000-0002-1825-0097");
+		for (int i = 0; i < SUMMARIES; i++) {
+			Work work = client.add(i, "10.1/" + i, 1000 + i);
+			// some summaries with more identifiers, some invalid
+			if (i % 5 == 0)
+				work.setExternalIdentifiers(FakeORCIDClient.identifiers("10.1/" + i, "10.2/" + i));
+			if (i % 7 == 0)
+				work.setTitle(null);
+		}
+		for (WorkGroup group : client.getWorksSummary().getGroup())
+			summaries.add(group.getWorkSummary().get(0));
+
+		// a third of the summaries match a local work, some partially
+		for (int i = 0; i < SUMMARIES; i += 3)
+			local.add(i % 2 == 0 ? FakeORCIDClient.local(i, "10.1/" + i) : FakeORCIDClient.local(i, "10.1/" + i,
+					"10.3/" + i));
+	}
+
+	@Test
+	public void parallelAgreesWithSequential() {
+		assertAgrees(ParallelMatcher.match(summaries, local));
+	}
+
+	@Test
+	public void filteredAgreesWithSequential() {
+		assertAgrees(ParallelMatcher.match(summaries, local, new IdentifierFilter(local)));
+	}
+
+	@Test
+	public void belowThresholdAgreesWithSequential() {
+		List<WorkSummary> few = summaries.subList(0, ParallelMatcher.THRESHOLD - 1);
+		List<Match> matches = ParallelMatcher.match(few, local);
+		assertEquals(few.size(), matches.size());
+		for (int i = 0; i < few.size(); i++)
+			assertMatch(few.get(i), matches.get(i));
+	}
+
+	@Test
+	public void summariesAreNotModified() {
+		List<Integer> sizes = new ArrayList<Integer>();
+		for (WorkSummary summary : summaries)
+			sizes.add(summary.getExternalIdentifiers().getWorkExternalIdentifier().size());
+		ParallelMatcher.match(summaries, local, new IdentifierFilter(local));
+		for (int i = 0; i < summaries.size(); i++)
+			assertEquals(sizes.get(i).intValue(), summaries.get(i).getExternalIdentifiers()
+					.getWorkExternalIdentifier().size());
+	}
+
+	private void assertAgrees(List<Match> matches) {
+		assertEquals(summaries.size(), matches.size());
+		int matched = 0, invalid = 0;
+		for (int i = 0; i < summaries.size(); i++) {
+			assertMatch(summaries.get(i), matches.get(i));
+			if (!matches.get(i).matches.isEmpty())
+				matched++;
+			if (!matches.get(i).invalids.isEmpty())
+				invalid++;
+		}
+		// the profile exercises both outcomes
+		assertTrue(matched > 0 && matched < summaries.size());
+		assertTrue(invalid > 0 && invalid < summaries.size());
+	}
+
+	private void assertMatch(WorkSummary summary, Match match) {
+		assertSame(summary, match.summary);
+		Map<Work, ExternalIdentifiersUpdate> expected = ORCIDHelper.getExternalIdentifiersDiff(summary, local);
+		assertEquals(expected.keySet(), match.matches.keySet());
+		for (Map.Entry<Work, ExternalIdentifiersUpdate> entry : expected.entrySet()) {
+			ExternalIdentifiersUpdate actual = match.matches.get(entry.getKey());
+			assertEquals(entry.getValue().same, actual.same);
+			assertEquals(entry.getValue().less, actual.less);
+			assertEquals(entry.getValue().more, actual.more);
+		}
+		Set<String> invalids = ORCIDHelper.testMinimalQuality(summary);
+		assertEquals(invalids, match.invalids);
+	}
+
+}
@@ -0,0 +1,184 @@
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.PTCRISync;
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.test.FakeORCIDClient;
+import pt.ptcris.utils.CancellationToken;
+import pt.ptcris.utils.Deadline;
+import pt.ptcris.utils.ProfileLocks;
+
+/**
+ * Tests the striped profile locks: procedures on the same profile must be
+ * serialized, those on distinct stripes must not, and waiting must stop once
+ * cancelled, in which case the export performs no ORCID call.
+ */
+public class ProfileLocksTest {
+
+	private static final String USER = "0000-0002-1825-0097";
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private ProfileLocks previous;
+	private ProfileLocks locks;
+
+	@Before
+	public void setUp() {
+		previous = ProfileLocks.getShared();
+		locks = new ProfileLocks(ProfileLocks.DEFAULT_STRIPES);
+		ProfileLocks.setShared(locks);
+	}
+
+	@After
+	public void tearDown() {
+		ProfileLocks.setShared(previous);
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void sameProfileIsSerialized() throws Exception {
+		assertTrue(locks.lock(USER, null));
+		Future<Boolean> other = lockElsewhere(USER, new Deadline(300, TimeUnit.MILLISECONDS));
+		assertFalse(other.get(5, TimeUnit.SECONDS));
+		assertEquals(1, locks.getContended());
+		assertTrue(locks.getMaxWaitTime() >= 200);
+
+		locks.unlock(USER);
+		other = lockElsewhere(USER, null);
+		assertTrue(other.get(5, TimeUnit.SECONDS));
+		assertEquals(2, locks.getAcquisitions());
+	}
+
+	@Test
+	public void waiterAcquiresOnceReleased() throws Exception {
+		assertTrue(locks.lock(USER, null));
+		Future<Boolean> other = lockElsewhere(USER, null);
+		Thread.sleep(200);
+		assertFalse(other.isDone());
+		locks.unlock(USER);
+		assertTrue(other.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void distinctStripesRunInParallel() throws Exception {
+		String other = otherStripe(USER);
+		assertTrue(locks.lock(USER, null));
+		assertTrue(lockElsewhere(other, new Deadline(1, TimeUnit.SECONDS)).get(5, TimeUnit.SECONDS));
+		assertEquals(0, locks.getContended());
+		locks.unlock(USER);
+	}
+
+	@Test
+	public void locksAreReentrant() {
+		assertTrue(locks.lock(USER, null));
+		assertTrue(locks.lock(USER, null));
+		locks.unlock(USER);
+		assertTrue(locks.isLocked(USER));
+		locks.unlock(USER);
+		assertFalse(locks.isLocked(USER));
+	}
+
+	@Test
+	public void cancellationStopsWaiting() throws Exception {
+		assertTrue(locks.lock(USER, null));
+		CancellationToken token = new CancellationToken();
+		Future<Boolean> other = lockElsewhere(USER, token);
+		Thread.sleep(200);
+		token.cancel();
+		assertFalse(other.get(5, TimeUnit.SECONDS));
+		locks.unlock(USER);
+	}
+
+	@Test
+	public void interruptStopsWaiting() throws Exception {
+		assertTrue(locks.lock(USER, null));
+		final boolean[] interrupted = new boolean[1];
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				locks.lock(USER, null);
+				interrupted[0] = Thread.currentThread().isInterrupted();
+			}
+		};
+		waiter.start();
+		Thread.sleep(200);
+		waiter.interrupt();
+		waiter.join(5000);
+		assertFalse(waiter.isAlive());
+		assertTrue(interrupted[0]);
+		locks.unlock(USER);
+	}
+
+	@Test
+	public void cancelledExportPerformsNoCall() throws Exception {
+		FakeORCIDClient client = new FakeORCIDClient(USER);
+		List<Work> works = new ArrayList<Work>();
+		works.add(FakeORCIDClient.local(1, "10.1/1"));
+		works.add(FakeORCIDClient.local(2, "10.1/2"));
+
+		// held by another thread, since locks are reentrant
+		final CountDownLatch held = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		executor.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				locks.lock(USER, null);
+				held.countDown();
+				release.await();
+				locks.unlock(USER);
+				return null;
+			}
+		});
+		assertTrue(held.await(5, TimeUnit.SECONDS));
+		try {
+			Map<BigInteger, PTCRISyncResult> result = PTCRISync.export(client, works,
+					FakeORCIDClient.progress(), new Deadline(200, TimeUnit.MILLISECONDS));
+			assertEquals(2, result.size());
+			for (PTCRISyncResult status : result.values())
+				assertEquals(Integer.valueOf(ORCIDHelper.CANCELLED), status.getCode());
+			assertEquals(0, client.summaryReads.get());
+			assertEquals(0, client.writes.get());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	private Future<Boolean> lockElsewhere(final String orcid, final CancellationToken token) {
+		return executor.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				boolean locked = locks.lock(orcid, token);
+				if (locked)
+					locks.unlock(orcid);
+				return locked;
+			}
+		});
+	}
+
+	private static String otherStripe(String orcid) {
+		int stripe = (orcid.hashCode() & 0x7fffffff) % ProfileLocks.DEFAULT_STRIPES;
+		for (int i = 0;; i++) {
+			String other = "0000-0000-0000-" + String.format("%04d", i);
+			if ((other.hashCode() & 0x7fffffff) % ProfileLocks.DEFAULT_STRIPES != stripe)
+				return other;
+		}
+	}
+
+}
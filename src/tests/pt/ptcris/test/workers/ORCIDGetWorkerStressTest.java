@@ -0,0 +1,57 @@
+package pt.ptcris.test.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.cache.WorkCache;
+import pt.ptcris.test.FakeORCIDClient;
+
+/**
+ * Stresses the concurrent retrieval of full works, checking that no result is
+ * lost when many workers complete simultaneously. Runs against an in-memory
+ * client whose reads answer after a random short delay, not requiring access
+ * to ORCID.
+ */
+public class ORCIDGetWorkerStressTest {
+
+	private static final int WORKS = 5000;
+	private static final int ROUNDS = 10;
+
+	@Test
+	public void noLostResults() throws Exception {
+		FakeORCIDClient client = new FakeORCIDClient("0000-0000-0000-0001");
+		for (int i = 0; i < WORKS; i++)
+			client.add(i, "10.1/" + i, 1000);
+		client.jitter(true);
+		ORCIDHelper helper = new ORCIDHelper(client, new WorkCache(0, 0), null);
+
+		for (int r = 0; r < ROUNDS; r++) {
+			Map<BigInteger, Work> works = new HashMap<BigInteger, Work>();
+			for (int i = 0; i < WORKS; i++) {
+				WorkSummary summary = new WorkSummary();
+				summary.setPutCode(BigInteger.valueOf(i));
+				helper.getFullWork(summary, works);
+			}
+			assertTrue(helper.waitWorkers());
+
+			assertEquals(WORKS, works.size());
+			for (int i = 0; i < WORKS; i++) {
+				Work work = works.get(BigInteger.valueOf(i));
+				assertNotNull(work);
+				assertEquals("Work 10.1/" + i, work.getTitle().getTitle());
+			}
+		}
+		assertEquals(WORKS * ROUNDS, client.workReads.get());
+	}
+
+}
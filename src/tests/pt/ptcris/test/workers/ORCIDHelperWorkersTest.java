@@ -0,0 +1,121 @@
+package pt.ptcris.test.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ORCIDHelper;
+import pt.ptcris.cache.WorkCache;
+import pt.ptcris.test.FakeORCIDClient;
+
+/**
+ * Tests that the workers of every helper run in a shared pool of daemon
+ * threads, at most 10 per helper at once, and that helpers whose workers are
+ * never awaited do not leave threads behind.
+ */
+public class ORCIDHelperWorkersTest {
+
+	private static final int WORKS = 100;
+
+	private final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger maxActive = new AtomicInteger();
+	private FakeORCIDClient client;
+
+	@Before
+	public void setUp() {
+		client = new FakeORCIDClient("0000-0000-0000-0001") {
+			@Override
+			public Work getWork(BigInteger putCode) throws OrcidClientException {
+				threads.add(Thread.currentThread());
+				int n = active.incrementAndGet();
+				while (true) {
+					int max = maxActive.get();
+					if (n <= max || maxActive.compareAndSet(max, n))
+						break;
+				}
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				try {
+					return super.getWork(putCode);
+				} finally {
+					active.decrementAndGet();
+				}
+			}
+		};
+		for (int i = 0; i < WORKS; i++)
+			client.add(i, "10.1/" + i, 1000);
+	}
+
+	private static void fetch(ORCIDHelper helper, Map<BigInteger, Work> works) throws OrcidClientException {
+		for (int i = 0; i < WORKS; i++) {
+			WorkSummary summary = new WorkSummary();
+			summary.setPutCode(BigInteger.valueOf(i));
+			helper.getFullWork(summary, works);
+		}
+	}
+
+	@Test
+	public void helperRunsAtMostTenWorkers() throws Exception {
+		ORCIDHelper helper = new ORCIDHelper(client, new WorkCache(0, 0), null);
+		Map<BigInteger, Work> works = new HashMap<BigInteger, Work>();
+		fetch(helper, works);
+		assertTrue(helper.waitWorkers());
+		assertEquals(WORKS, works.size());
+		assertTrue(maxActive.get() <= 10);
+
+		// the helper can be reused after waiting
+		works.clear();
+		fetch(helper, works);
+		assertTrue(helper.waitWorkers());
+		assertEquals(WORKS, works.size());
+	}
+
+	@Test
+	public void helpersShareDaemonThreads() throws Exception {
+		for (int h = 0; h < 20; h++) {
+			ORCIDHelper helper = new ORCIDHelper(client, new WorkCache(0, 0), null);
+			Map<BigInteger, Work> works = new HashMap<BigInteger, Work>();
+			fetch(helper, works);
+			assertTrue(helper.waitWorkers());
+			assertEquals(WORKS, works.size());
+			// let the threads return to the pool
+			Thread.sleep(20);
+		}
+		// a fixed pool per helper would have started 200 threads
+		assertTrue(threads.size() + " threads", threads.size() <= 20);
+		for (Thread thread : threads)
+			assertTrue(thread.isDaemon());
+	}
+
+	@Test
+	public void unawaitedHelpersDoNotKeepThreads() throws Exception {
+		for (int h = 0; h < 20; h++)
+			fetch(new ORCIDHelper(client, new WorkCache(0, 0), null), new HashMap<BigInteger, Work>());
+		long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (client.workReads.get() < 20 * WORKS && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		assertEquals(20 * WORKS, client.workReads.get());
+		// daemon threads, which expire once idle, rather than never shut down
+		for (Thread thread : threads)
+			assertTrue(thread.isDaemon());
+	}
+
+}